@@ -0,0 +1,102 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.cart;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import marytts.features.FeatureDefinition;
+import marytts.features.FeatureVector;
+import marytts.util.FeatureUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares walking a CART node by node with walking its {@link CompiledCART}, in nanoseconds per lookup. The trees are random,
+ * built from all decision node types as in {@link CompiledCARTTest}, so no voice needs to be installed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CARTEvaluationBenchmark {
+	private static final int VECTORS = 10000;
+
+	@Param({ "8", "14" })
+	public int depth;
+
+	@Param({ "0", "5" })
+	public int minNumberOfData;
+
+	private CART interpreted;
+	private CART compiled;
+	private FeatureVector[] vectors;
+
+	@Setup
+	public void setUp() throws Exception {
+		FeatureDefinition featureDefinition = FeatureUtils.readFeatureDefinition(CompiledCARTTest.FEATURES);
+		Random random = new Random(1234);
+		interpreted = CompiledCARTTest.randomCART(featureDefinition, random, depth, true);
+		compiled = new CART(interpreted.getRootNode(), featureDefinition);
+		if (!compiled.compile()) {
+			throw new IllegalStateException("tree could not be compiled");
+		}
+		vectors = new FeatureVector[VECTORS];
+		for (int i = 0; i < VECTORS; i++) {
+			vectors[i] = CompiledCARTTest.randomFeatureVector(featureDefinition, random);
+		}
+		if (walk(interpreted) != walk(compiled)) {
+			throw new IllegalStateException("compiled tree gives different results");
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VECTORS)
+	public long nodeByNode() {
+		return walk(interpreted);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VECTORS)
+	public long compiled() {
+		return walk(compiled);
+	}
+
+	private long walk(CART cart) {
+		long sum = 0;
+		for (FeatureVector fv : vectors) {
+			sum += cart.interpretToNode(fv, minNumberOfData).getNumberOfData();
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.htsengine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares generating the parameters of a batch of utterances one after the other with generating them on a fork-join pool
+ * (see {@link HTSParameterGeneration#htsMaximumLikelihoodParameterGeneration(List, HMMData, boolean, ForkJoinPool)}), in
+ * utterances per second. The utterances are random phone sequences of an installed voice; that both ways generate the same
+ * parameters is checked by {@link HTSParameterGenerationTest}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HTSParameterGenerationBenchmark {
+	private static final int UTTERANCES = 32;
+
+	@Param("cmu-slt-hsmm")
+	public String voice;
+
+	@Param("40")
+	public int phonesPerUtterance;
+
+	/** Threads of the fork-join pool; 0 means one per processor. */
+	@Param("0")
+	public int threads;
+
+	private HMMData htsData;
+	private List<HTSUttModel> ums;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setUp() throws Exception {
+		htsData = new HMMData();
+		htsData.initHMMData(voice);
+		Random random = new Random(1234);
+		ums = new ArrayList<HTSUttModel>(UTTERANCES);
+		for (int i = 0; i < UTTERANCES; i++) {
+			ums.add(HTSParameterGenerationTest.randomUtterance(htsData, random, phonesPerUtterance));
+		}
+		pool = new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(UTTERANCES)
+	public List<HTSParameterGeneration> sequential() throws Exception {
+		List<HTSParameterGeneration> generated = new ArrayList<HTSParameterGeneration>(UTTERANCES);
+		for (HTSUttModel um : ums) {
+			HTSParameterGeneration pdf2par = new HTSParameterGeneration();
+			pdf2par.htsMaximumLikelihoodParameterGeneration(um, htsData);
+			generated.add(pdf2par);
+		}
+		return generated;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(UTTERANCES)
+	public List<HTSParameterGeneration> batch() throws Exception {
+		return HTSParameterGeneration.htsMaximumLikelihoodParameterGeneration(ums, htsData, false, pool);
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.htsengine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import marytts.config.MaryConfig;
+import marytts.config.VoiceConfig;
+
+/**
+ * Compares single precision parameter generation and vocoding (see {@link HTSParameterGeneration#setSinglePrecision(boolean)}
+ * and {@link HTSVocoder#setSinglePrecision(boolean)}) with double precision, on random phone sequences of installed HMM voices.
+ * For each voice, it reports the mel-cepstral distortion between the generated MGC parameters, the signal-to-noise ratio of
+ * the single precision waveform against the double precision one, both for the vocoder alone and end to end, and the time each
+ * way takes. It fails if the distortion or the signal-to-noise ratio of any voice are out of the given tolerance.
+ *
+ * Usage: HTSSinglePrecisionComparison [voice name, or "all" for all installed HMM voices] [utterances] [phones per utterance]
+ * [max MCD in dB] [min SNR in dB]
+ */
+public class HTSSinglePrecisionComparison {
+
+	public static void main(String[] args) throws Exception {
+		String voiceName = args.length > 0 ? args[0] : "all";
+		int numUtterances = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int numPhones = args.length > 2 ? Integer.parseInt(args[2]) : 40;
+		double maxMcd = args.length > 3 ? Double.parseDouble(args[3]) : 0.01;
+		double minSnr = args.length > 4 ? Double.parseDouble(args[4]) : 40.0;
+
+		List<String> voices = new ArrayList<String>();
+		if (voiceName.equals("all")) {
+			for (VoiceConfig vc : MaryConfig.getVoiceConfigs()) {
+				if (vc.getList("hmm.voices.list").contains(vc.getName())) {
+					voices.add(vc.getName());
+				}
+			}
+		} else {
+			voices.add(voiceName);
+		}
+		if (voices.isEmpty()) {
+			System.err.println("No HMM voice installed");
+			System.exit(1);
+		}
+		boolean ok = true;
+		for (String voice : voices) {
+			ok &= compare(voice, numUtterances, numPhones, maxMcd, minSnr);
+		}
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Compare both precisions on one voice.
+	 *
+	 * @return true if the differences are within the given tolerance
+	 */
+	private static boolean compare(String voice, int numUtterances, int numPhones, double maxMcd, double minSnr)
+			throws Exception {
+		HMMData htsData = new HMMData();
+		htsData.initHMMData(voice);
+		Random random = new Random(1234);
+		List<HTSUttModel> ums = new ArrayList<HTSUttModel>(numUtterances);
+		for (int i = 0; i < numUtterances; i++) {
+			ums.add(HTSParameterGenerationTest.randomUtterance(htsData, random, numPhones));
+		}
+
+		/* warm up the JIT for both ways */
+		synthesise(ums.get(0), htsData, false, false);
+		synthesise(ums.get(0), htsData, true, true);
+
+		double mcdSum = 0;
+		long numFrames = 0;
+		double[] vocoderSnr = new double[2]; /* signal and noise energy */
+		double[] totalSnr = new double[2];
+		long doubleNanos = 0;
+		long singleNanos = 0;
+		for (HTSUttModel um : ums) {
+			long start = System.nanoTime();
+			Synthesis reference = synthesise(um, htsData, false, false);
+			long middle = System.nanoTime();
+			Synthesis single = synthesise(um, htsData, true, true);
+			doubleNanos += middle - start;
+			singleNanos += System.nanoTime() - middle;
+
+			HTSPStream mcep = reference.pdf2par.getMcepPst();
+			HTSPStream singleMcep = single.pdf2par.getMcepPst();
+			for (int t = 0; t < mcep.getT(); t++) {
+				mcdSum += melCepstralDistortion(mcep, singleMcep, t);
+			}
+			numFrames += mcep.getT();
+			addEnergies(reference.audio, vocode(reference.pdf2par, htsData, true), vocoderSnr);
+			addEnergies(reference.audio, single.audio, totalSnr);
+		}
+
+		double mcd = mcdSum / numFrames;
+		double snrVocoder = 10 * Math.log10(vocoderSnr[0] / vocoderSnr[1]);
+		double snrTotal = 10 * Math.log10(totalSnr[0] / totalSnr[1]);
+		System.out.println(String.format(Locale.US, "%s: %d utterances, %d frames", voice, numUtterances, numFrames));
+		System.out.println(String.format(Locale.US, "MGC distortion: %.3g dB", mcd));
+		System.out.println(String.format(Locale.US, "SNR vocoder only: %.1f dB, end to end: %.1f dB", snrVocoder, snrTotal));
+		System.out.println(String.format(Locale.US, "double: %.1f ms, single: %.1f ms", doubleNanos / 1e6, singleNanos / 1e6));
+
+		boolean ok = true;
+		if (!(mcd <= maxMcd)) {
+			System.out.println(String.format(Locale.US, "FAILED: MGC distortion is %.6f dB, expected at most %.6f dB", mcd, maxMcd));
+			ok = false;
+		}
+		if (!(Math.min(snrVocoder, snrTotal) >= minSnr)) {
+			System.out.println(String.format(Locale.US, "FAILED: SNR is %.1f dB, expected at least %.1f dB", Math.min(snrVocoder,
+					snrTotal), minSnr));
+			ok = false;
+		}
+		return ok;
+	}
+
+	private static class Synthesis {
+		HTSParameterGeneration pdf2par;
+		double[] audio;
+	}
+
+	private static Synthesis synthesise(HTSUttModel um, HMMData htsData, boolean singleGeneration, boolean singleVocoding)
+			throws Exception {
+		Synthesis synthesis = new Synthesis();
+		synthesis.pdf2par = new HTSParameterGeneration();
+		synthesis.pdf2par.setSinglePrecision(singleGeneration);
+		synthesis.pdf2par.htsMaximumLikelihoodParameterGeneration(um, htsData);
+		synthesis.audio = vocode(synthesis.pdf2par, htsData, singleVocoding);
+		return synthesis;
+	}
+
+	private static double[] vocode(HTSParameterGeneration pdf2par, HMMData htsData, boolean singlePrecision) throws Exception {
+		HTSVocoder vocoder = new HTSVocoder();
+		vocoder.setSinglePrecision(singlePrecision);
+		return vocoder.htsMLSAVocoder(pdf2par.getlf0Pst(), pdf2par.getMcepPst(), pdf2par.getStrPst(), pdf2par.getMagPst(),
+				pdf2par.getVoicedArray(), htsData, null);
+	}
+
+	/**
+	 * Mel-cepstral distortion of frame t in dB, over all coefficients but the energy.
+	 */
+	private static double melCepstralDistortion(HTSPStream reference, HTSPStream other, int t) {
+		double sum = 0;
+		for (int k = 1; k < reference.getOrder(); k++) {
+			double d = reference.getPar(t, k) - other.getPar(t, k);
+			sum += d * d;
+		}
+		return 10 / Math.log(10) * Math.sqrt(2 * sum);
+	}
+
+	private static void addEnergies(double[] reference, double[] other, double[] energies) {
+		for (int s = 0; s < reference.length; s++) {
+			double d = reference[s] - other[s];
+			energies[0] += reference[s] * reference[s];
+			energies[1] += d * d;
+		}
+	}
+}
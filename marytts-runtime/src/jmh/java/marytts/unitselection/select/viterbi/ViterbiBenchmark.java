@@ -0,0 +1,89 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.select.viterbi;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import marytts.unitselection.select.SelectedUnit;
+import marytts.unitselection.select.Target;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the per-sentence latency of {@link Viterbi} and {@link ArrayViterbi} on a {@link SyntheticUnitDatabase}, so that no
+ * voice needs to be installed. Run it with <code>-prof gc</code> for the allocation per sentence as well; it includes
+ * preselection, which is the same for both.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ViterbiBenchmark {
+
+	@Param("80")
+	public int targetsPerSentence;
+
+	@Param("500")
+	public int candidatesPerTarget;
+
+	@Param({ "20", "100" })
+	public int beamSize;
+
+	private SyntheticUnitDatabase database;
+	private List<Target> targets;
+
+	@Setup
+	public void setUp() throws Exception {
+		database = new SyntheticUnitDatabase(100000, candidatesPerTarget);
+		targets = database.createTargets(targetsPerSentence);
+	}
+
+	@Benchmark
+	public List<SelectedUnit> objects() throws Exception {
+		return select(new Viterbi(targets, database, 0.33f, beamSize));
+	}
+
+	@Benchmark
+	public List<SelectedUnit> arrays() throws Exception {
+		return select(new ArrayViterbi(targets, database, 0.33f, beamSize));
+	}
+
+	private static List<SelectedUnit> select(Viterbi viterbi) throws Exception {
+		viterbi.apply();
+		List<SelectedUnit> units = viterbi.getSelectedUnits();
+		if (units == null) {
+			throw new IllegalStateException("no path found");
+		}
+		return units;
+	}
+}
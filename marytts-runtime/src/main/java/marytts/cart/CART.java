@@ -46,6 +46,11 @@ import marytts.unitselection.select.Target;
  */
 public class CART extends DirectedGraph {
 
+	/**
+	 * A flattened copy of the tree used for interpretation, or null if the tree has not been compiled.
+	 */
+	protected CompiledCART compiled;
+
 	/**
 	 * Build a new empty cart
 	 * 
@@ -115,6 +120,9 @@ public class CART extends DirectedGraph {
 	 * @return the Node
 	 */
 	public Node interpretToNode(FeatureVector featureVector, int minNumberOfData) {
+		if (compiled != null) {
+			return compiled.getNode(compiled.interpretToNodeIndex(featureVector, minNumberOfData));
+		}
 		Node currentNode = rootNode;
 		Node prevNode = null;
 
@@ -153,6 +161,9 @@ public class CART extends DirectedGraph {
 	 * @return the interpretation
 	 */
 	public Object interpret(Target target, int minNumberOfData) {
+		if (compiled != null) {
+			return compiled.getAllData(compiled.interpretToNodeIndex(target.getFeatureVector(), minNumberOfData));
+		}
 
 		// get the indices from the leaf node
 		Object result = this.interpretToNode(target, minNumberOfData).getAllData();
@@ -161,6 +172,33 @@ public class CART extends DirectedGraph {
 
 	}
 
+	@Override
+	public Object interpret(FeatureVector fv) {
+		if (compiled != null) {
+			int leaf = compiled.interpretToLeafIndex(fv);
+			return (leaf < 0) ? null : compiled.getAllData(leaf);
+		}
+		return super.interpret(fv);
+	}
+
+	/**
+	 * Flatten this tree into a {@link CompiledCART}, which is then used by the interpret methods. The tree must not be modified
+	 * afterwards, other than by {@link #setRootNode(Node)}, which discards the compiled form; after any other change, call this
+	 * method again.
+	 * 
+	 * @return true if the tree could be compiled, false if it keeps being interpreted node by node
+	 */
+	public boolean compile() {
+		compiled = CompiledCART.compile(rootNode);
+		return compiled != null;
+	}
+
+	@Override
+	public void setRootNode(Node rNode) {
+		super.setRootNode(rNode);
+		compiled = null;
+	}
+
 	/**
 	 * In this tree, replace the given leaf with the given CART
 	 * 
@@ -0,0 +1,334 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.cart;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import marytts.cart.DecisionNode.BinaryByteDecisionNode;
+import marytts.cart.DecisionNode.BinaryFloatDecisionNode;
+import marytts.cart.DecisionNode.BinaryShortDecisionNode;
+import marytts.cart.DecisionNode.ByteDecisionNode;
+import marytts.cart.DecisionNode.ShortDecisionNode;
+import marytts.cart.LeafNode.IntArrayLeafNode;
+import marytts.features.FeatureDefinition;
+import marytts.features.FeatureVector;
+
+/**
+ * A flattened, read-only copy of a CART for fast interpretation. The nodes are numbered in depth-first order and described by
+ * fixed-size records in a single int array (node type, feature index, criterion, children, number of data), so that walking
+ * down the tree is a loop over primitive arrays rather than a chain of virtual {@link DecisionNode#getNextNode(FeatureVector)}
+ * calls. The original nodes
+ * are kept, so that the node found can be returned as before.
+ * <p>
+ * If all leaves hold int arrays, their data is also copied into a single pool in depth-first order; the data below any node is
+ * then a contiguous range of the pool, and {@link #getAllData(int)} does not need to walk the subtree.
+ * <p>
+ * A compiled CART does not follow later changes to the tree it was compiled from.
+ *
+ * @see CART#compile()
+ */
+public class CompiledCART {
+	static final byte LEAF = 0;
+	static final byte BINARY_BYTE = 1;
+	static final byte BINARY_SHORT = 2;
+	static final byte BINARY_FLOAT = 3;
+	static final byte BINARY_FLOAT_ON_BYTE = 4;
+	static final byte BYTE = 5;
+	static final byte SHORT = 6;
+
+	// the record of node i is code[STRIDE * i] to code[STRIDE * i + STRIDE - 1]:
+	private static final int TYPE = 0; // node type, one of the constants above
+	private static final int FEATURE = 1; // index into the byte, short or float array of the feature vector
+	private static final int CRITERION = 2; // the value to compare to; raw float bits for the float nodes
+	private static final int CHILDREN = 3; // position of the first daughter in children
+	private static final int NUM_CHILDREN = 4;
+	private static final int NUM_DATA = 5;
+	private static final int STRIDE = 6;
+
+	private final Node[] nodes;
+	// the fields used when walking down the tree are kept next to each other, so that a step touches few cache lines
+	private final int[] code;
+	// node indices of the daughters, -1 for an empty daughter
+	private final int[] children;
+	// only if all leaves are int array leaves: the data below node i is intData[dataStart[i]] to intData[dataStart[i] + numData - 1]
+	private final int[] dataStart;
+	private final int[] intData;
+
+	/**
+	 * Compile the given tree.
+	 *
+	 * @param rootNode
+	 *            the root node of the tree
+	 * @return the compiled tree, or null if the tree is empty or contains nodes other than the decision and leaf nodes known here
+	 */
+	public static CompiledCART compile(Node rootNode) {
+		if (rootNode == null)
+			return null;
+		List<Node> order = new ArrayList<Node>();
+		int numChildSlots = 0;
+		boolean intLeaves = true;
+		// depth-first, daughters in order, as in DecisionNode.fillData()
+		List<Node> stack = new ArrayList<Node>();
+		stack.add(rootNode);
+		while (!stack.isEmpty()) {
+			Node node = stack.remove(stack.size() - 1);
+			order.add(node);
+			if (node instanceof DecisionNode) {
+				if (nodeType((DecisionNode) node) < 0)
+					return null;
+				DecisionNode decision = (DecisionNode) node;
+				int n = decision.getNumberOfDaugthers();
+				numChildSlots += n;
+				for (int k = n - 1; k >= 0; k--) {
+					Node daughter = decision.getDaughter(k);
+					if (daughter != null)
+						stack.add(daughter);
+				}
+			} else if (node instanceof LeafNode) {
+				if (!(node instanceof IntArrayLeafNode))
+					intLeaves = false;
+			} else {
+				return null;
+			}
+		}
+		return new CompiledCART(order, numChildSlots, intLeaves);
+	}
+
+	private static byte nodeType(DecisionNode node) {
+		if (node instanceof BinaryByteDecisionNode)
+			return BINARY_BYTE;
+		if (node instanceof BinaryShortDecisionNode)
+			return BINARY_SHORT;
+		if (node instanceof BinaryFloatDecisionNode)
+			return node.getFeatureDefinition().isByteFeature(node.getFeatureIndex()) ? BINARY_FLOAT_ON_BYTE : BINARY_FLOAT;
+		if (node instanceof ByteDecisionNode)
+			return BYTE;
+		if (node instanceof ShortDecisionNode)
+			return SHORT;
+		return -1;
+	}
+
+	private CompiledCART(List<Node> order, int numChildSlots, boolean intLeaves) {
+		int n = order.size();
+		nodes = order.toArray(new Node[n]);
+		code = new int[STRIDE * n];
+		children = new int[numChildSlots];
+		dataStart = intLeaves ? new int[n] : null;
+
+		Map<Node, Integer> indexOf = new IdentityHashMap<Node, Integer>(2 * n);
+		for (int i = 0; i < n; i++)
+			indexOf.put(nodes[i], i);
+
+		int nextChild = 0;
+		int totalData = 0;
+		for (int i = 0; i < n; i++) {
+			Node node = nodes[i];
+			int r = STRIDE * i;
+			code[r + NUM_DATA] = node.getNumberOfData();
+			if (node instanceof DecisionNode) {
+				DecisionNode decision = (DecisionNode) node;
+				byte type = nodeType(decision);
+				code[r + TYPE] = type;
+				code[r + FEATURE] = localIndex(decision.getFeatureDefinition(), decision.getFeatureIndex(), type);
+				switch (type) {
+				case BINARY_BYTE:
+					code[r + CRITERION] = ((BinaryByteDecisionNode) decision).getCriterionValueAsByte();
+					break;
+				case BINARY_SHORT:
+					code[r + CRITERION] = ((BinaryShortDecisionNode) decision).getCriterionValueAsShort();
+					break;
+				case BINARY_FLOAT:
+				case BINARY_FLOAT_ON_BYTE:
+					code[r + CRITERION] = Float.floatToRawIntBits(((BinaryFloatDecisionNode) decision).getCriterionValueAsFloat());
+					break;
+				default:
+					break;
+				}
+				code[r + CHILDREN] = nextChild;
+				code[r + NUM_CHILDREN] = decision.getNumberOfDaugthers();
+				for (int k = 0; k < decision.getNumberOfDaugthers(); k++) {
+					Node daughter = decision.getDaughter(k);
+					children[nextChild++] = (daughter == null) ? -1 : indexOf.get(daughter);
+				}
+			} else {
+				code[r + TYPE] = LEAF;
+				totalData += code[r + NUM_DATA];
+			}
+		}
+
+		if (intLeaves) {
+			intData = new int[totalData];
+			int pos = 0;
+			// leaves come in depth-first order, so the data of any subtree is contiguous
+			for (int i = 0; i < n; i++) {
+				if (code[STRIDE * i + TYPE] == LEAF) {
+					int[] data = ((IntArrayLeafNode) nodes[i]).getIntData();
+					int len = code[STRIDE * i + NUM_DATA];
+					dataStart[i] = pos;
+					if (len > 0)
+						System.arraycopy(data, 0, intData, pos, len);
+					pos += len;
+				}
+			}
+			for (int i = n - 1; i >= 0; i--) {
+				if (code[STRIDE * i + TYPE] != LEAF) {
+					// daughters have higher indices, so they are done already
+					dataStart[i] = firstDataStart(i);
+				}
+			}
+		} else {
+			intData = null;
+		}
+	}
+
+	/**
+	 * The start of the data of the first daughter with a leaf below it, or -1 if there is no leaf below the node.
+	 */
+	private int firstDataStart(int node) {
+		int first = code[STRIDE * node + CHILDREN];
+		int num = code[STRIDE * node + NUM_CHILDREN];
+		int start = -1;
+		for (int k = 0; k < num && start < 0; k++) {
+			int child = children[first + k];
+			if (child >= 0)
+				start = dataStart[child];
+		}
+		return start;
+	}
+
+	private static int localIndex(FeatureDefinition featureDefinition, int featureIndex, byte type) {
+		switch (type) {
+		case BINARY_SHORT:
+		case SHORT:
+			return featureIndex - featureDefinition.getNumberOfByteFeatures();
+		case BINARY_FLOAT:
+			return featureIndex - featureDefinition.getNumberOfByteFeatures() - featureDefinition.getNumberOfShortFeatures();
+		default:
+			return featureIndex;
+		}
+	}
+
+	/**
+	 * The index of the daughter of decision node <code>node</code> chosen for the given feature vector, or -1 for an empty
+	 * daughter.
+	 */
+	private int next(int node, FeatureVector featureVector) {
+		int r = STRIDE * node;
+		int f = code[r + FEATURE];
+		int branch;
+		switch (code[r + TYPE]) {
+		case BINARY_BYTE:
+			branch = (featureVector.byteValuedDiscreteFeatures[f] == code[r + CRITERION]) ? 0 : 1;
+			break;
+		case BINARY_SHORT:
+			branch = (featureVector.shortValuedDiscreteFeatures[f] == code[r + CRITERION]) ? 0 : 1;
+			break;
+		case BINARY_FLOAT:
+			branch = (featureVector.continuousFeatures[f] < Float.intBitsToFloat(code[r + CRITERION])) ? 0 : 1;
+			break;
+		case BINARY_FLOAT_ON_BYTE:
+			branch = ((float) featureVector.byteValuedDiscreteFeatures[f] < Float.intBitsToFloat(code[r + CRITERION])) ? 0 : 1;
+			break;
+		case BYTE:
+			branch = featureVector.byteValuedDiscreteFeatures[f];
+			break;
+		default: // SHORT
+			branch = featureVector.shortValuedDiscreteFeatures[f];
+			break;
+		}
+		if (branch < 0 || branch >= code[r + NUM_CHILDREN])
+			throw new ArrayIndexOutOfBoundsException(branch);
+		return children[code[r + CHILDREN] + branch];
+	}
+
+	/**
+	 * Same as {@link CART#interpretToNode(FeatureVector, int)}, but returning the index of the node in this compiled CART.
+	 *
+	 * @param featureVector
+	 *            the feature vector to interpret
+	 * @param minNumberOfData
+	 *            the minimum number of data requested. If this is 0, walk down the CART until the leaf level.
+	 * @return the node index, or -1
+	 */
+	public int interpretToNodeIndex(FeatureVector featureVector, int minNumberOfData) {
+		int current = 0;
+		int previous = -1;
+		while (current >= 0 && code[STRIDE * current + NUM_DATA] > minNumberOfData && code[STRIDE * current + TYPE] != LEAF) {
+			previous = current;
+			current = next(current, featureVector);
+		}
+		// Now usually we will have gone down one level too far
+		if (current < 0 || code[STRIDE * current + NUM_DATA] < minNumberOfData && previous >= 0) {
+			current = previous;
+		}
+		return current;
+	}
+
+	/**
+	 * Walk down to a leaf, regardless of the number of data, as {@link DirectedGraph#interpret(FeatureVector)} does.
+	 *
+	 * @param featureVector
+	 *            the feature vector to interpret
+	 * @return the leaf index, or -1 if an empty daughter was reached
+	 */
+	public int interpretToLeafIndex(FeatureVector featureVector) {
+		int current = 0;
+		while (current >= 0 && code[STRIDE * current + TYPE] != LEAF) {
+			current = next(current, featureVector);
+		}
+		return current;
+	}
+
+	/**
+	 * The node with the given index.
+	 *
+	 * @param index
+	 *            a node index, or -1
+	 * @return the original node, or null for -1
+	 */
+	public Node getNode(int index) {
+		return (index < 0) ? null : nodes[index];
+	}
+
+	/**
+	 * Same as getNode(index).getAllData(), but without walking the subtree if the data is in the int pool.
+	 *
+	 * @param index
+	 *            a node index
+	 * @return the data below the node, or null if there is no leaf below it
+	 */
+	public Object getAllData(int index) {
+		if (code[STRIDE * index + TYPE] == LEAF || intData == null) {
+			return nodes[index].getAllData();
+		}
+		if (dataStart[index] < 0) {
+			return null;
+		}
+		return Arrays.copyOfRange(intData, dataStart[index], dataStart[index] + code[STRIDE * index + NUM_DATA]);
+	}
+
+	public int getNumberOfNodes() {
+		return nodes.length;
+	}
+}
@@ -77,6 +77,8 @@ public class MaryData {
 	private String plainText = null;
 	private AudioInputStream audio = null;
 	private AudioFileFormat audioFileFormat = null;
+	// whether the client reads the audio while it is being produced
+	private boolean streamingAudio = false;
 	private Logger logger = MaryUtils.getLogger("IO");
 
 	// for plainText, allow additional information:
@@ -499,6 +501,21 @@ public class MaryData {
 		return outputParams;
 	}
 
+	/**
+	 * Say whether the audio produced from this data is read by the client while it is being produced. Synthesis may then return
+	 * audio before all of it is known, and need not add the realised durations to the document.
+	 * 
+	 * @param streamingAudio
+	 *            streamingAudio
+	 */
+	public void setStreamingAudio(boolean streamingAudio) {
+		this.streamingAudio = streamingAudio;
+	}
+
+	public boolean isStreamingAudio() {
+		return streamingAudio;
+	}
+
 	public String toString() {
 		return MoreObjects.toStringHelper(this).add("type", getType()).add("locale", getLocale())
 				.add("output parameters", getOutputParams()).add("data", getData())
@@ -64,13 +64,13 @@
 package marytts.htsengine;
 
 import java.io.IOException;
+import java.io.InputStream;
 
-import marytts.cart.CART;
-import marytts.cart.LeafNode.PdfLeafNode;
 import marytts.cart.io.HTSCARTReader;
 import marytts.exceptions.MaryConfigurationException;
 import marytts.features.FeatureDefinition;
 import marytts.features.FeatureVector;
+import marytts.htsengine.HMMData.FeatureType;
 import marytts.htsengine.HMMData.PdfFileFormat;
 import marytts.util.MaryUtils;
 
@@ -85,11 +85,11 @@ public class CartTreeSet {
 
 	private Logger logger = MaryUtils.getLogger("CartTreeSet");
 
-	private CART[] durTree; // CART trees for duration
-	private CART[] lf0Tree; // CART trees for log F0
-	private CART[] mgcTree; // CART trees for spectrum
-	private CART[] strTree; // CART trees for strengths
-	private CART[] magTree; // CART trees for Fourier magnitudes
+	private PdfTreeSet durTree; // CART trees for duration
+	private PdfTreeSet lf0Tree; // CART trees for log F0
+	private PdfTreeSet mgcTree; // CART trees for spectrum
+	private PdfTreeSet strTree; // CART trees for strengths
+	private PdfTreeSet magTree; // CART trees for Fourier magnitudes
 
 	private int numStates; /* # of HMM states for individual HMM */
 	private int lf0Stream; /* # of stream for log f0 modeling */
@@ -97,6 +97,8 @@ public class CartTreeSet {
 	private int strVsize; /* vector size for strengths modeling */
 	private int magVsize; /* vector size for Fourier magnitudes modeling */
 
+	private HTSModelCache modelCache; /* leaves of recent contexts, or null */
+
 	public int getNumStates() {
 		return numStates;
 	}
@@ -131,7 +133,30 @@ public class CartTreeSet {
 	}
 
 	/**
-	 * Loads all the CART trees
+	 * The trees of the given stream.
+	 * 
+	 * @param type
+	 *            the stream
+	 * @return the trees, or null if they were not loaded
+	 */
+	public PdfTreeSet getTreeSet(HMMData.FeatureType type) {
+		switch (type) {
+		case DUR:
+			return durTree;
+		case LF0:
+			return lf0Tree;
+		case MGC:
+			return mgcTree;
+		case STR:
+			return strTree;
+		default:
+			return magTree;
+		}
+	}
+
+	/**
+	 * Loads all the CART trees, from the voice image if the voice has one and it can be used, otherwise from the HTS tree and pdf
+	 * files.
 	 * 
 	 * @param htsData
 	 *            htsData
@@ -146,6 +171,127 @@ public class CartTreeSet {
 	 */
 	public void loadTreeSet(HMMData htsData, FeatureDefinition featureDef, PhoneTranslator trickyPhones) throws IOException,
 			MaryConfigurationException {
+		if (htsData.getVoiceImage() == null || !loadVoiceImage(htsData, featureDef)) {
+			loadTreeFiles(htsData, featureDef, trickyPhones);
+		}
+		numStates = (durTree != null) ? durTree.getVectorSize() : 0;
+		lf0Stream = (lf0Tree != null) ? lf0Tree.getVectorSize() : 0;
+		mcepVsize = (mgcTree != null) ? mgcTree.getVectorSize() : 0;
+		strVsize = (strTree != null) ? strTree.getVectorSize() : 0;
+		magVsize = (magTree != null) ? magTree.getVectorSize() : 0;
+		if (modelCache != null) {
+			setModelCacheSize(modelCache.getSize());
+		}
+	}
+
+	/**
+	 * Cache the tree leaves of contexts in a {@link HTSModelCache} of the given size.
+	 * 
+	 * @param size
+	 *            the number of entries, or 0 to disable the cache
+	 */
+	public void setModelCacheSize(int size) {
+		if (size <= 0) {
+			modelCache = null;
+			return;
+		}
+		modelCache = new HTSModelCache(this, size);
+		logger.debug("Caching the leaves of " + modelCache.getSize() + " contexts, keyed on " + modelCache.getKeyLength()
+				+ " features");
+	}
+
+	/**
+	 * @return the cache of context leaves, or null if there is none
+	 */
+	public HTSModelCache getModelCache() {
+		return modelCache;
+	}
+
+	/**
+	 * The leaves of all trees for the given context: the leaf of the duration tree, followed by the leaves of the state trees of
+	 * lf0, mgc, str and mag, one per state; -1 for the streams that were not loaded. The leaves are taken from the model cache if
+	 * there is one.
+	 * 
+	 * @param fv
+	 *            context feature vector
+	 * @return the leaves, to be passed to {@link #setDurations(HTSModel, int[], HMMData, double)} and
+	 *         {@link #setPdfs(HTSModel, int[], double)}; the array may be shared and must not be modified
+	 */
+	public int[] findLeaves(FeatureVector fv) {
+		if (modelCache != null) {
+			return modelCache.getLeaves(fv);
+		}
+		return computeLeaves(fv);
+	}
+
+	/**
+	 * Search the trees for the leaves of the given context, as described in {@link #findLeaves(FeatureVector)}.
+	 */
+	int[] computeLeaves(FeatureVector fv) {
+		int[] leaves = new int[1 + 4 * numStates];
+		leaves[0] = (durTree != null) ? durTree.findLeaf(0, fv) : -1;
+		computeLeaves(lf0Tree, fv, leaves, 1);
+		computeLeaves(mgcTree, fv, leaves, 1 + numStates);
+		computeLeaves(strTree, fv, leaves, 1 + 2 * numStates);
+		computeLeaves(magTree, fv, leaves, 1 + 3 * numStates);
+		return leaves;
+	}
+
+	private void computeLeaves(PdfTreeSet trees, FeatureVector fv, int[] leaves, int offset) {
+		for (int s = 0; s < numStates; s++) {
+			leaves[offset + s] = (trees != null) ? trees.findLeaf(s, fv) : -1;
+		}
+	}
+
+	/**
+	 * Take the trees of the configured streams from the voice image.
+	 * 
+	 * @return true if the trees were loaded, false if the image cannot be used and the HTS files need to be parsed
+	 */
+	private boolean loadVoiceImage(HMMData htsData, FeatureDefinition featureDef) throws IOException {
+		HTSVoiceImage image;
+		try {
+			image = HTSVoiceImage.load(htsData.getVoiceImage(), featureDef);
+		} catch (IOException e) {
+			logger.warn("Cannot read voice image, loading the HTS tree files instead", e);
+			return false;
+		} catch (MaryConfigurationException e) {
+			logger.warn("Cannot use voice image, loading the HTS tree files instead", e);
+			return false;
+		}
+		InputStream[] treeStreams = { htsData.getTreeDurStream(), htsData.getTreeLf0Stream(), htsData.getTreeMgcStream(),
+				htsData.getTreeStrStream(), htsData.getTreeMagStream() };
+		FeatureType[] types = { FeatureType.DUR, FeatureType.LF0, FeatureType.MGC, FeatureType.STR, FeatureType.MAG };
+		for (int i = 0; i < types.length; i++) {
+			if (treeStreams[i] != null && image.getTrees(types[i]) == null) {
+				logger.warn("Voice image has no " + types[i] + " trees, loading the HTS tree files instead");
+				return false;
+			}
+		}
+		logger.debug("Loading trees from voice image " + htsData.getVoiceImage());
+		durTree = (htsData.getTreeDurStream() != null) ? image.getTrees(FeatureType.DUR) : null;
+		lf0Tree = (htsData.getTreeLf0Stream() != null) ? image.getTrees(FeatureType.LF0) : null;
+		mgcTree = (htsData.getTreeMgcStream() != null) ? image.getTrees(FeatureType.MGC) : null;
+		strTree = (htsData.getTreeStrStream() != null) ? image.getTrees(FeatureType.STR) : null;
+		magTree = (htsData.getTreeMagStream() != null) ? image.getTrees(FeatureType.MAG) : null;
+
+		// the HTS files are not needed any more
+		InputStream[] pdfStreams = { htsData.getPdfDurStream(), htsData.getPdfLf0Stream(), htsData.getPdfMgcStream(),
+				htsData.getPdfStrStream(), htsData.getPdfMagStream() };
+		for (int i = 0; i < types.length; i++) {
+			if (treeStreams[i] != null)
+				treeStreams[i].close();
+			if (pdfStreams[i] != null)
+				pdfStreams[i].close();
+		}
+		return true;
+	}
+
+	/**
+	 * Parse the HTS tree and pdf files.
+	 */
+	private void loadTreeFiles(HMMData htsData, FeatureDefinition featureDef, PhoneTranslator trickyPhones) throws IOException,
+			MaryConfigurationException {
 		// Check if there are tricky phones, and create a PhoneTranslator object
 		PhoneTranslator phTranslator = trickyPhones;
 
@@ -156,37 +302,33 @@ public class CartTreeSet {
 		 */
 		if (htsData.getTreeDurStream() != null) {
 			logger.debug("Loading duration tree...");
-			durTree = htsReader.load(1, htsData.getTreeDurStream(), htsData.getPdfDurStream(), PdfFileFormat.dur, featureDef,
-					phTranslator);
-			numStates = htsReader.getVectorSize();
+			durTree = PdfTreeSet.fromCARTs(htsReader.load(1, htsData.getTreeDurStream(), htsData.getPdfDurStream(),
+					PdfFileFormat.dur, featureDef, phTranslator), htsReader.getVectorSize(), false);
+			numStates = durTree.getVectorSize();
 		}
 
 		if (htsData.getTreeLf0Stream() != null) {
 			logger.debug("Loading log F0 tree...");
-			lf0Tree = htsReader.load(numStates, htsData.getTreeLf0Stream(), htsData.getPdfLf0Stream(), PdfFileFormat.lf0,
-					featureDef, phTranslator);
-			lf0Stream = htsReader.getVectorSize();
+			lf0Tree = PdfTreeSet.fromCARTs(htsReader.load(numStates, htsData.getTreeLf0Stream(), htsData.getPdfLf0Stream(),
+					PdfFileFormat.lf0, featureDef, phTranslator), htsReader.getVectorSize(), true);
 		}
 
 		if (htsData.getTreeMgcStream() != null) {
 			logger.debug("Loading mgc tree...");
-			mgcTree = htsReader.load(numStates, htsData.getTreeMgcStream(), htsData.getPdfMgcStream(), PdfFileFormat.mgc,
-					featureDef, phTranslator);
-			mcepVsize = htsReader.getVectorSize();
+			mgcTree = PdfTreeSet.fromCARTs(htsReader.load(numStates, htsData.getTreeMgcStream(), htsData.getPdfMgcStream(),
+					PdfFileFormat.mgc, featureDef, phTranslator), htsReader.getVectorSize(), false);
 		}
 
 		/* STR and MAG are optional for generating mixed excitation */
 		if (htsData.getTreeStrStream() != null) {
 			logger.debug("Loading str tree...");
-			strTree = htsReader.load(numStates, htsData.getTreeStrStream(), htsData.getPdfStrStream(), PdfFileFormat.str,
-					featureDef, phTranslator);
-			strVsize = htsReader.getVectorSize();
+			strTree = PdfTreeSet.fromCARTs(htsReader.load(numStates, htsData.getTreeStrStream(), htsData.getPdfStrStream(),
+					PdfFileFormat.str, featureDef, phTranslator), htsReader.getVectorSize(), false);
 		}
 		if (htsData.getTreeMagStream() != null) {
 			logger.debug("Loading mag tree...");
-			magTree = htsReader.load(numStates, htsData.getTreeMagStream(), htsData.getPdfMagStream(), PdfFileFormat.mag,
-					featureDef, phTranslator);
-			magVsize = htsReader.getVectorSize();
+			magTree = PdfTreeSet.fromCARTs(htsReader.load(numStates, htsData.getTreeMagStream(), htsData.getPdfMagStream(),
+					PdfFileFormat.mag, featureDef, phTranslator), htsReader.getVectorSize(), false);
 		}
 	}
 
@@ -209,20 +351,36 @@ public class CartTreeSet {
 
 	public double searchDurInCartTree(HTSModel m, FeatureVector fv, HMMData htsData, boolean firstPh, boolean lastPh,
 			double diffdur) {
+		// the duration tree has only one state
+		return setDurations(m, durTree.findLeaf(0, fv), htsData, diffdur);
+	}
+
+	/**
+	 * Set the state durations of the HTSModel m from the duration leaf found by {@link #findLeaves(FeatureVector)}.
+	 * 
+	 * @param m
+	 *            HTSModel whose durations are set
+	 * @param leaves
+	 *            the leaves of the context
+	 * @param htsData
+	 *            HMMData with configuration settings
+	 * @param diffdur
+	 *            diffdur
+	 * @return duration
+	 */
+	public double setDurations(HTSModel m, int[] leaves, HMMData htsData, double diffdur) {
+		return setDurations(m, leaves[0], htsData, diffdur);
+	}
+
+	private double setDurations(HTSModel m, int leaf, HMMData htsData, double diffdur) {
 		double data, dd;
 		double rho = htsData.getRho();
 		double durscale = htsData.getDurationScale();
-		double meanVector[], varVector[];
-		// the duration tree has only one state
-		PdfLeafNode node = (PdfLeafNode) durTree[0].interpretToNode(fv, 0);
-
-		meanVector = node.getMean();
-		varVector = node.getVariance();
 
 		dd = diffdur;
 		// in duration the length of the vector is the number of states.
 		for (int s = 0; s < numStates; s++) {
-			data = (meanVector[s] + rho * varVector[s]) * durscale;
+			data = (durTree.getMean(leaf, s) + rho * durTree.getVariance(leaf, s)) * durscale;
 
 			/*
 			 * check if the model is initial/final pause, if so reduce the length of the pause to 10% of the calculated value.
@@ -234,8 +392,8 @@ public class CartTreeSet {
 			if (m.getDur(s) < 1)
 				m.setDur(s, 1);
 
-			// System.out.format("   state=%d  dur=%d  dd=%f  mean=%f  vari=%f \n", s, m.getDur(s), dd, meanVector[s],
-			// varVector[s]);
+			// System.out.format("   state=%d  dur=%d  dd=%f  mean=%f  vari=%f \n", s, m.getDur(s), dd,
+			// durTree.getMean(leaf, s), durTree.getVariance(leaf, s));
 			m.incrTotalDur(m.getDur(s));
 			dd += data - m.getDur(s);
 		}
@@ -248,7 +406,7 @@ public class CartTreeSet {
 	 * Searches fv in Lf0Tree CART[] set of trees, per state, and fill the information in the HTSModel m.
 	 * 
 	 * @param m
-	 *            HTSModel where mean and variances per state are copied
+	 *            HTSModel whose pdfs per state are set
 	 * @param fv
 	 *            context feature vector
 	 * @param featureDef
@@ -258,11 +416,10 @@ public class CartTreeSet {
 	 */
 	public void searchLf0InCartTree(HTSModel m, FeatureVector fv, FeatureDefinition featureDef, double uvthresh) {
 		for (int s = 0; s < numStates; s++) {
-			PdfLeafNode node = (PdfLeafNode) lf0Tree[s].interpretToNode(fv, 1);
-			m.setLf0Mean(s, node.getMean());
-			m.setLf0Variance(s, node.getVariance());
+			int leaf = lf0Tree.findLeaf(s, fv);
+			m.setLf0Pdf(s, lf0Tree, leaf);
 			// set voiced or unvoiced
-			if (node.getVoicedWeight() > uvthresh)
+			if (lf0Tree.getVoicedWeight(leaf) > uvthresh)
 				m.setVoiced(s, true);
 			else
 				m.setVoiced(s, false);
@@ -274,7 +431,7 @@ public class CartTreeSet {
 	 * Searches fv in mgcTree CART[] set of trees, per state, and fill the information in the HTSModel m.
 	 * 
 	 * @param m
-	 *            HTSModel where mean and variances per state are copied
+	 *            HTSModel whose pdfs per state are set
 	 * @param fv
 	 *            context feature vector
 	 * @param featureDef
@@ -282,9 +439,8 @@ public class CartTreeSet {
 	 */
 	public void searchMgcInCartTree(HTSModel m, FeatureVector fv, FeatureDefinition featureDef) {
 		for (int s = 0; s < numStates; s++) {
-			PdfLeafNode node = (PdfLeafNode) mgcTree[s].interpretToNode(fv, 1);
-			m.setMcepMean(s, node.getMean());
-			m.setMcepVariance(s, node.getVariance());
+			int leaf = mgcTree.findLeaf(s, fv);
+			m.setMcepPdf(s, mgcTree, leaf);
 		}
 	}
 
@@ -292,7 +448,7 @@ public class CartTreeSet {
 	 * Searches fv in StrTree CART[] set of trees, per state, and fill the information in the HTSModel m.
 	 * 
 	 * @param m
-	 *            HTSModel where mean and variances per state are copied
+	 *            HTSModel whose pdfs per state are set
 	 * @param fv
 	 *            context feature vector
 	 * @param featureDef
@@ -300,9 +456,8 @@ public class CartTreeSet {
 	 */
 	public void searchStrInCartTree(HTSModel m, FeatureVector fv, FeatureDefinition featureDef) {
 		for (int s = 0; s < numStates; s++) {
-			PdfLeafNode node = (PdfLeafNode) strTree[s].interpretToNode(fv, 1);
-			m.setStrMean(s, node.getMean());
-			m.setStrVariance(s, node.getVariance());
+			int leaf = strTree.findLeaf(s, fv);
+			m.setStrPdf(s, strTree, leaf);
 		}
 	}
 
@@ -310,7 +465,7 @@ public class CartTreeSet {
 	 * Searches fv in MagTree CART[] set of trees, per state, and fill the information in the HTSModel m.
 	 * 
 	 * @param m
-	 *            HTSModel where mean and variances per state are copied
+	 *            HTSModel whose pdfs per state are set
 	 * @param fv
 	 *            context feature vector
 	 * @param featureDef
@@ -318,9 +473,40 @@ public class CartTreeSet {
 	 */
 	public void searchMagInCartTree(HTSModel m, FeatureVector fv, FeatureDefinition featureDef) {
 		for (int s = 0; s < numStates; s++) {
-			PdfLeafNode node = (PdfLeafNode) magTree[s].interpretToNode(fv, 1);
-			m.setMagMean(s, node.getMean());
-			m.setMagVariance(s, node.getVariance());
+			int leaf = magTree.findLeaf(s, fv);
+			m.setMagPdf(s, magTree, leaf);
+		}
+	}
+
+	/**
+	 * Set the pdfs of all states of the HTSModel m from the leaves found by {@link #findLeaves(FeatureVector)}, for lf0, mgc and,
+	 * if they were loaded, str and mag. The model shares the pdfs of the trees.
+	 * 
+	 * @param m
+	 *            HTSModel whose pdfs are set
+	 * @param leaves
+	 *            the leaves of the context
+	 * @param uvthresh
+	 *            uvthresh
+	 */
+	public void setPdfs(HTSModel m, int[] leaves, double uvthresh) {
+		for (int s = 0; s < numStates; s++) {
+			int leaf = leaves[1 + s];
+			m.setLf0Pdf(s, lf0Tree, leaf);
+			// set voiced or unvoiced
+			m.setVoiced(s, lf0Tree.getVoicedWeight(leaf) > uvthresh);
+
+			leaf = leaves[1 + numStates + s];
+			m.setMcepPdf(s, mgcTree, leaf);
+
+			if (strTree != null) {
+				leaf = leaves[1 + 2 * numStates + s];
+				m.setStrPdf(s, strTree, leaf);
+			}
+			if (magTree != null) {
+				leaf = leaves[1 + 3 * numStates + s];
+				m.setMagPdf(s, magTree, leaf);
+			}
 		}
 	}
 
@@ -344,29 +530,19 @@ public class CartTreeSet {
 		m.setPhoneName(phoneFeature);
 		try {
 
-			double diffDur = searchDurInCartTree(m, fv, htsData, oldErr);
+			int[] leaves = findLeaves(fv);
+			double diffDur = setDurations(m, leaves, htsData, oldErr);
 			m.setDurError(diffDur);
 			// m.setTotalDurMillisec((int)(fperiodmillisec * m.getTotalDur())); nobody ever uses totaldurmillisec and it's really
 			// redundant to gettotaldur
 
 			/*
-			 * Find pdf for LF0, this function sets the pdf for each state. here it is also set whether the model is voiced or not
+			 * Find pdfs for LF0, MGC, and if present strengths and Fourier magnitudes; this sets the pdf for each state. here it is
+			 * also set whether the model is voiced or not
 			 */
-			// if ( ! htsData.getUseUnitDurationContinuousFeature() )
 			// Here according to the HMM models it is decided whether the states of this model are voiced or unvoiced
 			// even if f0 is taken from maryXml here we need to set the voived/unvoiced values per model and state
-			searchLf0InCartTree(m, fv, feaDef, htsData.getUV());
-
-			/* Find pdf for MGC, this function sets the pdf for each state. */
-			searchMgcInCartTree(m, fv, feaDef);
-
-			/* Find pdf for strengths, this function sets the pdf for each state. */
-			if (htsData.getTreeStrStream() != null)
-				searchStrInCartTree(m, fv, feaDef);
-
-			/* Find pdf for Fourier magnitudes, this function sets the pdf for each state. */
-			if (htsData.getTreeMagStream() != null)
-				searchMagInCartTree(m, fv, feaDef);
+			setPdfs(m, leaves, htsData.getUV());
 
 		} catch (Exception e) {
 			e.printStackTrace();
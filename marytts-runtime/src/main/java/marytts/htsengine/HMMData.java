@@ -79,6 +79,7 @@ import java.util.Properties;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import marytts.config.MaryConfig;
 import marytts.exceptions.MaryConfigurationException;
@@ -178,6 +179,13 @@ public class HMMData {
 
 	private FeatureDefinition feaDef; /* The feature definition is used for loading the tree using questions in MARY format */
 
+	/**
+	 * Precompiled binary image of the trees and pdfs, if any; when it can be used, the tree and pdf files are not parsed.
+	 * 
+	 * @see HTSVoiceImage
+	 */
+	private String voiceImage;
+
 	/**
 	 * CartTreeSet contains the tree-xxx.inf, xxx: dur, lf0, Mgc, str and mag these are all the trees trained for a particular
 	 * voice. the Cart tree also contains the corresponding pdfs.
@@ -212,6 +220,12 @@ public class HMMData {
 	/** tricky phones file if generated during training of HMMs. */
 	private PhoneTranslator trickyPhones;
 
+	/** Vocoder scratch buffers, reused across the utterances of this voice */
+	private final ConcurrentLinkedQueue<VocoderWorkspace> vocoderWorkspaces = new ConcurrentLinkedQueue<VocoderWorkspace>();
+
+	/** Parameter generation scratch matrices, reused across the streams and utterances of this voice */
+	private final ConcurrentLinkedQueue<MlpgWorkspace> mlpgWorkspaces = new ConcurrentLinkedQueue<MlpgWorkspace>();
+
 	public int getRate() {
 		return rate;
 	}
@@ -408,6 +422,49 @@ public class HMMData {
 		return mixFilters;
 	}
 
+	/**
+	 * Take a vocoder workspace of the given size from this voice's pool, or create one if none is free. The workspace is reset
+	 * and must be given back with {@link #releaseVocoderWorkspace(VocoderWorkspace)} when the utterance is vocoded.
+	 *
+	 * @param order
+	 *            number of mel-cepstral coefficients per frame
+	 * @param filterStateSize
+	 *            size of the MLSA/MGLSA filter delay line
+	 * @param mixOrder
+	 *            order of the mixed excitation filters, 0 if not used
+	 * @return a workspace used by no other thread
+	 */
+	public VocoderWorkspace acquireVocoderWorkspace(int order, int filterStateSize, int mixOrder) {
+		VocoderWorkspace workspace;
+		while ((workspace = vocoderWorkspaces.poll()) != null) {
+			if (workspace.fits(order, filterStateSize, fperiod, mixOrder)) {
+				workspace.reset();
+				return workspace;
+			}
+			/* voice settings changed since the workspace was created, let it go */
+		}
+		return new VocoderWorkspace(order, filterStateSize, fperiod, mixOrder);
+	}
+
+	public void releaseVocoderWorkspace(VocoderWorkspace workspace) {
+		vocoderWorkspaces.offer(workspace);
+	}
+
+	/**
+	 * Take a parameter generation workspace from this voice's pool, or create one if none is free. The workspace must be given
+	 * back with {@link #releaseMlpgWorkspace(MlpgWorkspace)} when the stream is generated.
+	 *
+	 * @return a workspace used by no other thread
+	 */
+	public MlpgWorkspace acquireMlpgWorkspace() {
+		MlpgWorkspace workspace = mlpgWorkspaces.poll();
+		return (workspace != null) ? workspace : new MlpgWorkspace();
+	}
+
+	public void releaseMlpgWorkspace(MlpgWorkspace workspace) {
+		mlpgWorkspaces.offer(workspace);
+	}
+
 	public void setRate(int ival) {
 		rate = ival;
 	}
@@ -464,6 +521,10 @@ public class HMMData {
 
 	}
 
+	public String getVoiceImage() {
+		return voiceImage;
+	}
+
 	public CartTreeSet getCartTreeSet() {
 		return cart;
 	}
@@ -565,6 +626,8 @@ public class HMMData {
 		pdfStrStream = p.getStream(prefix + ".Fms"); /* Model STR */
 		pdfMagStream = p.getStream(prefix + ".Fma"); /* Model MAG */
 
+		voiceImage = getVoiceImage(p, prefix); /* Voice image, if any */
+
 		useAcousticModels = p.getBoolean(prefix + ".useAcousticModels"); /*
 																		 * use AcousticModeller, so prosody modification is
 																		 * enabled
@@ -625,6 +688,7 @@ public class HMMData {
 		/* Load TreeSet in CARTs. */
 		logger.debug("Loading Tree Set in CARTs:");
 		loadCartTreeSet();
+		cart.setModelCacheSize(p.getInteger(prefix + ".modelCache.size", 0)); /* Cache of context leaves, if any */
 
 		/* Load GV ModelSet gv */
 		logger.debug("Loading GV Model Set:");
@@ -633,6 +697,11 @@ public class HMMData {
 		logger.debug("InitHMMData complete");
 	}
 
+	private static String getVoiceImage(PropertiesAccessor p, String prefix) {
+		String location = p.getProperty(prefix + ".voiceImage");
+		return (location == null || location.trim().isEmpty()) ? null : location.trim();
+	}
+
 	/**
 	 * Reads from configuration file all the data files in this class this method is used when running HTSengine stand alone.
 	 * 
@@ -679,6 +748,8 @@ public class HMMData {
 
 		treeLf0Stream = p.getStream(prefix + ".Ftf");
 		pdfLf0Stream = p.getStream(prefix + ".Fmf");
+
+		voiceImage = getVoiceImage(p, prefix);
 		useGV = p.getBoolean(prefix + ".useGV");
 		if (useGV) {
 			useContextDependentGV = p.getBoolean(prefix + ".useContextDependentGV", useContextDependentGV);
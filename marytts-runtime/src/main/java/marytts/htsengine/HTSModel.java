@@ -63,7 +63,6 @@
 
 package marytts.htsengine;
 
-import java.util.Arrays;
 import marytts.htsengine.HMMData.FeatureType;
 
 /**
@@ -83,15 +82,16 @@ public class HTSModel {
 	private int dur[]; /* duration for each state of this HMM */
 	private int totalDur; /* total duration of this HMM in frames */
 	private int totalDurMillisec; /* total duration of this model in milliseconds */
-	private double lf0Mean[][]; /* mean vector of log f0 pdfs for each state of this HMM */
-	private double lf0Variance[][]; /* variance (diag) elements of log f0 for each state of this HMM */
-	private double mcepMean[][]; /* mean vector of mel-cepstrum pdfs for each state of this HMM */
-	private double mcepVariance[][]; /* variance (diag) elements of mel-cepstrum for each state of this HMM */
+	/* the pdfs are shared with the trees of the voice: each state refers to a leaf of the trees of each stream */
+	private PdfTreeSet lf0Pdfs; /* log f0 trees */
+	private int lf0Leaf[]; /* log f0 leaf for each state of this HMM */
+	private PdfTreeSet mcepPdfs; /* mel-cepstrum trees */
+	private int mcepLeaf[]; /* mel-cepstrum leaf for each state of this HMM */
 
-	private double strMean[][]; /* mean vector of strengths pdfs for each state of this HMM */
-	private double strVariance[][]; /* variance (diag) elements of strengths for each state of this HMM */
-	private double magMean[][]; /* mean vector of fourier magnitude pdfs for each state of this HMM */
-	private double magVariance[][]; /* variance (diag) elements of fourier magnitudes for each state of this HMM */
+	private PdfTreeSet strPdfs; /* strengths trees */
+	private int strLeaf[]; /* strengths leaf for each state of this HMM */
+	private PdfTreeSet magPdfs; /* fourier magnitude trees */
+	private int magLeaf[]; /* fourier magnitude leaf for each state of this HMM */
 
 	private boolean voiced[]; /* voiced/unvoiced decision for each state of this HMM */
 
@@ -147,98 +147,126 @@ public class HTSModel {
 		return totalDurMillisec;
 	}
 
-	public void setLf0Mean(int i, int j, double val) {
-		lf0Mean[i][j] = val;
-	}
-
 	public double getLf0Mean(int i, int j) {
-		return lf0Mean[i][j];
-	}
-
-	public void setLf0Variance(int i, int j, double val) {
-		lf0Variance[i][j] = val;
+		return lf0Pdfs.getMean(lf0Leaf[i], j);
 	}
 
 	public double getLf0Variance(int i, int j) {
-		return lf0Variance[i][j];
-	}
-
-	// set the vector per state
-	public void setLf0Mean(int i, double val[]) {
-		lf0Mean[i] = val;
+		return lf0Pdfs.getVariance(lf0Leaf[i], j);
 	}
 
-	public void setLf0Variance(int i, double val[]) {
-		lf0Variance[i] = val;
+	public double getLf0InverseVariance(int i, int j) {
+		return lf0Pdfs.getInverseVariance(lf0Leaf[i], j);
 	}
 
-	public void setMcepMean(int i, int j, double val) {
-		mcepMean[i][j] = val;
+	// set the pdf per state
+	public void setLf0Pdf(int i, PdfTreeSet pdfs, int leaf) {
+		lf0Pdfs = pdfs;
+		lf0Leaf[i] = leaf;
 	}
 
 	public double getMcepMean(int i, int j) {
-		return mcepMean[i][j];
-	}
-
-	public void setMcepVariance(int i, int j, double val) {
-		mcepVariance[i][j] = val;
+		return mcepPdfs.getMean(mcepLeaf[i], j);
 	}
 
 	public double getMcepVariance(int i, int j) {
-		return mcepVariance[i][j];
+		return mcepPdfs.getVariance(mcepLeaf[i], j);
 	}
 
-	// set the vector per state
-	public void setMcepMean(int i, double val[]) {
-		mcepMean[i] = val;
+	// set the pdf per state
+	public void setMcepPdf(int i, PdfTreeSet pdfs, int leaf) {
+		mcepPdfs = pdfs;
+		mcepLeaf[i] = leaf;
 	}
 
-	public void setMcepVariance(int i, double val[]) {
-		mcepVariance[i] = val;
-	}
-
-	public double[] getMean(FeatureType type, int i) {
+	/**
+	 * The trees whose leaves hold the pdfs of the given stream.
+	 * 
+	 * @param type
+	 *            the stream
+	 * @return the trees, or null if the pdfs of the stream were not set
+	 */
+	public PdfTreeSet getPdfs(FeatureType type) {
 		switch (type) {
 		case MGC:
-			return Arrays.copyOf(mcepMean[i], mcepMean[i].length);
+			return mcepPdfs;
 		case STR:
-			return Arrays.copyOf(strMean[i], strMean[i].length);
+			return strPdfs;
 		case MAG:
-			return Arrays.copyOf(magMean[i], magMean[i].length);
+			return magPdfs;
 		case LF0:
-			return Arrays.copyOf(lf0Mean[i], lf0Mean[i].length);
+			return lf0Pdfs;
 		default:
 			throw new RuntimeException("You must not ask me about DUR");
 		}
 	}
 
-	public double[] getVariance(FeatureType type, int i) {
+	/**
+	 * The leaf holding the pdf of the given stream for state i.
+	 * 
+	 * @param type
+	 *            the stream
+	 * @param i
+	 *            the state
+	 * @return the leaf, in the trees returned by {@link #getPdfs(FeatureType)}
+	 */
+	public int getLeaf(FeatureType type, int i) {
 		switch (type) {
 		case MGC:
-			return Arrays.copyOf(mcepVariance[i], mcepVariance[i].length);
+			return mcepLeaf[i];
 		case STR:
-			return Arrays.copyOf(strVariance[i], strVariance[i].length);
+			return strLeaf[i];
 		case MAG:
-			return Arrays.copyOf(magVariance[i], magVariance[i].length);
+			return magLeaf[i];
 		case LF0:
-			return Arrays.copyOf(lf0Variance[i], lf0Variance[i].length);
+			return lf0Leaf[i];
 		default:
 			throw new RuntimeException("You must not ask me about DUR");
 		}
 	}
 
+	public double[] getMean(FeatureType type, int i) {
+		PdfTreeSet pdfs = getPdfs(type);
+		int leaf = getLeaf(type, i);
+		double[] mean = new double[pdfs.getDimension()];
+		for (int k = 0; k < mean.length; k++) {
+			mean[k] = pdfs.getMean(leaf, k);
+		}
+		return mean;
+	}
+
+	public double[] getVariance(FeatureType type, int i) {
+		PdfTreeSet pdfs = getPdfs(type);
+		int leaf = getLeaf(type, i);
+		double[] variance = new double[pdfs.getDimension()];
+		for (int k = 0; k < variance.length; k++) {
+			variance[k] = pdfs.getVariance(leaf, k);
+		}
+		return variance;
+	}
+
 	/**
 	 * Print mean and variance of each state
 	 */
 	public void printMcepMean() {
-		printVectors(mcepMean, mcepVariance);
+		printVectors(FeatureType.MGC);
 	}
 
 	/**
 	 * Print mean and variance of each state
 	 */
 	public void printLf0Mean() {
-		printVectors(lf0Mean, lf0Variance);
+		printVectors(FeatureType.LF0);
+	}
+
+	private void printVectors(FeatureType type) {
+		double[][] m = new double[dur.length][];
+		double[][] v = new double[dur.length][];
+		for (int i = 0; i < dur.length; i++) {
+			m[i] = getMean(type, i);
+			v[i] = getVariance(type, i);
+		}
+		printVectors(m, v);
 	}
 
 	/**
@@ -280,58 +308,34 @@ public class HTSModel {
 	 *            i
 	 * @param j
 	 *            j
-	 * @param val
-	 *            val
+	 * @return the j-th element of the strengths mean of state i
 	 */
-
-	public void setStrMean(int i, int j, double val) {
-		strMean[i][j] = val;
-	}
-
 	public double getStrMean(int i, int j) {
-		return strMean[i][j];
-	}
-
-	public void setStrVariance(int i, int j, double val) {
-		strVariance[i][j] = val;
+		return strPdfs.getMean(strLeaf[i], j);
 	}
 
 	public double getStrVariance(int i, int j) {
-		return strVariance[i][j];
-	}
-
-	// set the vector per state
-	public void setStrMean(int i, double val[]) {
-		strMean[i] = val;
-	}
-
-	public void setStrVariance(int i, double val[]) {
-		strVariance[i] = val;
+		return strPdfs.getVariance(strLeaf[i], j);
 	}
 
-	public void setMagMean(int i, int j, double val) {
-		magMean[i][j] = val;
+	// set the pdf per state
+	public void setStrPdf(int i, PdfTreeSet pdfs, int leaf) {
+		strPdfs = pdfs;
+		strLeaf[i] = leaf;
 	}
 
 	public double getMagMean(int i, int j) {
-		return magMean[i][j];
-	}
-
-	public void setMagVariance(int i, int j, double val) {
-		magVariance[i][j] = val;
+		return magPdfs.getMean(magLeaf[i], j);
 	}
 
 	public double getMagVariance(int i, int j) {
-		return magVariance[i][j];
-	}
-
-	// set the vector per state
-	public void setMagMean(int i, double val[]) {
-		magMean[i] = val;
+		return magPdfs.getVariance(magLeaf[i], j);
 	}
 
-	public void setMagVariance(int i, double val[]) {
-		magVariance[i] = val;
+	// set the pdf per state
+	public void setMagPdf(int i, PdfTreeSet pdfs, int leaf) {
+		magPdfs = pdfs;
+		magLeaf[i] = leaf;
 	}
 
 	public void setVoiced(int i, boolean val) {
@@ -388,18 +392,14 @@ public class HTSModel {
 		int i;
 		totalDur = 0;
 		dur = new int[nstate];
-		lf0Mean = new double[nstate][];
-		lf0Variance = new double[nstate][];
+		lf0Leaf = new int[nstate];
 		voiced = new boolean[nstate];
 
-		mcepMean = new double[nstate][];
-		mcepVariance = new double[nstate][];
+		mcepLeaf = new int[nstate];
 
-		strMean = new double[nstate][];
-		strVariance = new double[nstate][];
+		strLeaf = new int[nstate];
 
-		magMean = new double[nstate][];
-		magVariance = new double[nstate][];
+		magLeaf = new int[nstate];
 
 		maryXmlDur = null;
 		maryXmlF0 = null;
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.htsengine;
+
+import java.util.BitSet;
+
+import marytts.features.FeatureVector;
+import marytts.htsengine.HMMData.FeatureType;
+import marytts.util.cache.DirectMappedCache;
+
+/**
+ * A bounded cache of the tree leaves of phone contexts, in front of the trees of a {@link CartTreeSet}. It is shared by all
+ * utterances synthesised with a voice, so that contexts which recur across sentences and requests are looked up in the trees
+ * only once; the models built from the cached leaves share the pdfs of the trees.
+ * <p>
+ * A context is keyed on the values of the byte features the trees of any stream ask about, so that feature vectors differing
+ * only in features no tree uses share an entry. Each entry keeps a copy of these values, which a lookup compares in full, and
+ * the leaves of all streams together, in the order of {@link CartTreeSet#computeLeaves(FeatureVector)}.
+ * <p>
+ * Enabled for a voice with <code>voice.&lt;name&gt;.modelCache.size</code>, the number of entries.
+ *
+ * @see CartTreeSet#setModelCacheSize(int)
+ */
+public class HTSModelCache extends DirectMappedCache<HTSModelCache.Entry> {
+	private static final FeatureType[] STREAMS = { FeatureType.DUR, FeatureType.LF0, FeatureType.MGC, FeatureType.STR,
+			FeatureType.MAG };
+
+	private final CartTreeSet trees;
+	// the byte features the trees ask about
+	private final int[] featureIndices;
+
+	/**
+	 * @param trees
+	 *            the loaded trees of a voice
+	 * @param size
+	 *            the number of entries, rounded up to a power of two
+	 * @throws IllegalArgumentException
+	 *             if size is not positive
+	 */
+	public HTSModelCache(CartTreeSet trees, int size) {
+		super(size, "model cache");
+		this.trees = trees;
+		BitSet used = new BitSet();
+		for (FeatureType type : STREAMS) {
+			PdfTreeSet streamTrees = trees.getTreeSet(type);
+			if (streamTrees != null) {
+				streamTrees.addFeatureIndices(used);
+			}
+		}
+		this.featureIndices = new int[used.cardinality()];
+		for (int i = 0, f = used.nextSetBit(0); f >= 0; i++, f = used.nextSetBit(f + 1)) {
+			featureIndices[i] = f;
+		}
+	}
+
+	/**
+	 * The leaves of all trees for the given context, as computed by {@link CartTreeSet#computeLeaves(FeatureVector)}.
+	 *
+	 * @param fv
+	 *            the context feature vector
+	 * @return the leaves, which must not be modified
+	 */
+	public int[] getLeaves(FeatureVector fv) {
+		byte[] features = fv.byteValuedDiscreteFeatures;
+		int hash = hash(features);
+		int slot = slot(hash);
+		Entry entry = getEntry(slot);
+		if (entry != null && entry.hash == hash && entry.matches(features, featureIndices)) {
+			recordHit();
+			return entry.leaves;
+		}
+		recordMiss();
+		int[] leaves = trees.computeLeaves(fv);
+		byte[] key = new byte[featureIndices.length];
+		for (int i = 0; i < featureIndices.length; i++) {
+			key[i] = features[featureIndices[i]];
+		}
+		setEntry(slot, new Entry(hash, key, leaves));
+		return leaves;
+	}
+
+	private int hash(byte[] features) {
+		int h = 1;
+		for (int f : featureIndices) {
+			h = 31 * h + features[f];
+		}
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @return the number of byte features a context is keyed on
+	 */
+	public int getKeyLength() {
+		return featureIndices.length;
+	}
+
+	static final class Entry {
+		final int hash;
+		final byte[] key;
+		final int[] leaves;
+
+		Entry(int hash, byte[] key, int[] leaves) {
+			this.hash = hash;
+			this.key = key;
+			this.leaves = leaves;
+		}
+
+		boolean matches(byte[] features, int[] featureIndices) {
+			for (int i = 0; i < key.length; i++) {
+				if (key[i] != features[featureIndices[i]]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
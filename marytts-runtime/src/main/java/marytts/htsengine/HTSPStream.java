@@ -84,7 +84,7 @@ public class HTSPStream {
 	/** width of dynamic window */
 	/* hard-coded to 3, in the c code is: pst->width = pst->dw.max_L*2+1; */
 	/* pst->dw.max_L is hard-code to 1, for all windows */
-	private static final int WIDTH = 3;
+	static final int WIDTH = 3;
 
 	/** type of features it contains */
 	public final HMMData.FeatureType feaType;
@@ -103,12 +103,19 @@ public class HTSPStream {
 	private double mseq[][];
 	/** sequence of inversed variance vector */
 	private double ivseq[][];
+	/** the same two sequences in single precision, used instead of mseq and ivseq if the stream was created for it */
+	private float mseqFloat[][];
+	private float ivseqFloat[][];
+	/* the following are taken from an MlpgWorkspace during mlpg() */
 	/** for forward substitution */
 	private double g[];
 	/** W' U^-1 W */
 	private double wuw[][];
 	/** W' U^-1 mu */
 	private double wum[];
+	/** scratch buffers of the GV optimisation */
+	private double diag[];
+	private double parOri[];
 
 	/* ____________________Dynamic window ____________________ */
 	// private final HTSDWin dw; /* Windows used to calculate dynamic features, delta and delta-delta */
@@ -157,10 +164,49 @@ public class HTSPStream {
 	/** this will be the number of frames for which gv can be calculated */
 	private int gvLength;
 
+	/* ____________________ Windowed parameter generation, see startWindowedMlpg() ____________________ */
+	/** number of frames generated per block, or 0 if the whole utterance is generated at once by mlpg() */
+	private int windowBlock = 0;
+	/** number of frames after a block that are taken into account when generating the block */
+	private int windowLookahead;
+	/** number of frames whose parameters have been generated */
+	private int generatedFrames;
+	/** number of frames that have been factorized, up to the lookahead of the last block */
+	private int factorizedFrames;
+	/** LDL factorization of W'U^-1W for the frames around the current block, [order][ring size][WIDTH] */
+	private double[][][] ringWuw;
+	/** forward substitution for the frames around the current block, [order][ring size] */
+	private double[][] ringG;
+	/** backward substitution over the current block and its lookahead */
+	private double[] blockPar;
+
 	private Logger logger = MaryUtils.getLogger("PStream");
 
 	/* Constructor */
 	public HTSPStream(int vector_size, int utt_length, HMMData.FeatureType fea_type, int maxIterationsGV) throws Exception {
+		this(vector_size, utt_length, fea_type, maxIterationsGV, false);
+	}
+
+	/**
+	 * Create a parameter stream, optionally keeping the sequences of means and inverse variances in single precision. These are
+	 * the largest matrices of parameter generation, and the ones it reads most; the generated parameters and the solution of the
+	 * equations stay in double precision.
+	 *
+	 * @param vector_size
+	 *            size of the static and dynamic feature vector
+	 * @param utt_length
+	 *            number of frames
+	 * @param fea_type
+	 *            feature type
+	 * @param maxIterationsGV
+	 *            maximum number of global variance iterations
+	 * @param singlePrecision
+	 *            whether to keep the pdf sequences as floats
+	 * @throws Exception
+	 *             Exception
+	 */
+	public HTSPStream(int vector_size, int utt_length, HMMData.FeatureType fea_type, int maxIterationsGV,
+			boolean singlePrecision) throws Exception {
 		/* In the c code for each PStream there is an InitDwin() and an InitPStream() */
 		/* - InitDwin reads the window files passed as parameters for example: mcp.win1, mcp.win2, mcp.win3 */
 		/* for the moment the dynamic window is the same for all MCP, LF0, STR and MAG */
@@ -174,11 +220,14 @@ public class HTSPStream {
 		par = new double[nT][order];
 
 		/* ___________________________Matrices initialisation___________________ */
-		mseq = new double[nT][vSize];
-		ivseq = new double[nT][vSize];
-		g = new double[nT];
-		wuw = new double[nT][WIDTH];
-		wum = new double[nT];
+		if (singlePrecision) {
+			mseqFloat = new float[nT][vSize];
+			ivseqFloat = new float[nT][vSize];
+		} else {
+			mseq = new double[nT][vSize];
+			ivseq = new double[nT][vSize];
+		}
+		/* g, wuw and wum are only needed for full-utterance generation, see mlpg() */
 
 		/* GV Switch sequence initialisation */
 		gvSwitch = new boolean[nT];
@@ -212,23 +261,59 @@ public class HTSPStream {
 		return nT;
 	}
 
+	/**
+	 * @return whether the means and inverse variances are kept in single precision
+	 */
+	public boolean isSinglePrecision() {
+		return mseqFloat != null;
+	}
+
 	public void setMseq(int i, int j, double val) {
-		mseq[i][j] = val;
+		if (mseqFloat != null)
+			mseqFloat[i][j] = (float) val;
+		else
+			mseq[i][j] = val;
 	}
 
 	public void setMseq(int i, double[] vec) {
-		mseq[i] = vec;
+		if (mseqFloat != null) {
+			for (int j = 0; j < vec.length; j++)
+				mseqFloat[i][j] = (float) vec[j];
+		} else
+			mseq[i] = vec;
 	}
 
 	public void setVseq(int i, double[] vec) {
-		assert vec.length == ivseq[i].length;
-		for (int j = 0; j < ivseq[i].length; j++) {
-			ivseq[i][j] = HTSParameterGeneration.finv(vec[j]);
+		assert vec.length == vSize;
+		for (int j = 0; j < vSize; j++) {
+			setIvseq(i, j, HTSParameterGeneration.finv(vec[j]));
 		}
 	}
 
 	public void setIvseq(int i, int j, double val) {
-		ivseq[i][j] = val;
+		if (ivseqFloat != null)
+			ivseqFloat[i][j] = (float) val;
+		else
+			ivseq[i][j] = val;
+	}
+
+	/**
+	 * Set the mean and the inverse variances of frame i from the pool of pdfs of the voice, without going through copies of the
+	 * pdf.
+	 * 
+	 * @param i
+	 *            the frame
+	 * @param pdfs
+	 *            the trees holding the pdf
+	 * @param leaf
+	 *            the leaf of the pdf
+	 */
+	public void setPdf(int i, PdfTreeSet pdfs, int leaf) {
+		assert pdfs.getDimension() == vSize;
+		if (mseqFloat != null)
+			pdfs.copyPdf(leaf, mseqFloat[i], ivseqFloat[i]);
+		else
+			pdfs.copyPdf(leaf, mseq[i], ivseq[i]);
 	}
 
 	public void setGvMeanVar(double[] mean, double[] ivar) {
@@ -266,21 +351,57 @@ public class HTSPStream {
 	 * mlpg: generate sequence of speech parameter vector maximizing its output probability for given pdf sequence
 	 */
 	public void mlpg(HMMData htsData, boolean useGV) {
+		MlpgWorkspace workspace = htsData.acquireMlpgWorkspace();
+		try {
+			mlpg(htsData, useGV, workspace);
+		} finally {
+			htsData.releaseMlpgWorkspace(workspace);
+		}
+	}
+
+	/**
+	 * Maximum likelihood parameter generation for all dimensions of this stream, using the given scratch matrices.
+	 *
+	 * @param htsData
+	 *            HMMData with configuration settings
+	 * @param useGV
+	 *            whether to do global variance optimisation
+	 * @param workspace
+	 *            scratch matrices, which must not be used by another thread at the same time
+	 */
+	public void mlpg(HMMData htsData, boolean useGV, MlpgWorkspace workspace) {
 
 		if (htsData.getUseContextDependentGV())
 			logger.info("Context-dependent global variance optimization: gvLength = " + gvLength);
 		else
 			logger.info("Global variance optimization");
 
+		workspace.ensureCapacity(nT);
+		g = workspace.g;
+		wuw = workspace.wuw;
+		wum = workspace.wum;
+		diag = workspace.diag;
+		parOri = workspace.parOri;
+		double[][] mywuw = workspace.ldl;
+		try {
+			solveDimensions(htsData, useGV, mywuw);
+		} finally {
+			g = null;
+			wuw = null;
+			wum = null;
+			diag = null;
+			parOri = null;
+		}
+	} /* method mlpg */
+
+	private void solveDimensions(HMMData htsData, boolean useGV, double[][] mywuw) {
 		for (int m = 0; m < order; m++) {
 			calcWUWandWUM(m);
-			double[][] mywuw = new double[nT][];
-			for (int x = 0; x < wuw.length; x++) {
-				mywuw[x] = Arrays.copyOf(wuw[x], wuw[x].length);
+			for (int t = 0; t < nT; t++) {
+				System.arraycopy(wuw[t], 0, mywuw[t], 0, WIDTH);
 			}
-			double[] mywum = Arrays.copyOf(wum, wum.length);
-			ldlFactorization(mywuw); /* LDL factorization */
-			forwardSubstitution(mywum, mywuw); /* forward substitution in Cholesky decomposition */
+			ldlFactorization(mywuw, nT); /* LDL factorization */
+			forwardSubstitution(wum, mywuw); /* forward substitution in Cholesky decomposition */
 			backwardSubstitution(m, mywuw); /* backward substitution in Cholesky decomposition */
 
 			/* Global variance optimisation for MCP and LF0 */
@@ -296,7 +417,126 @@ public class HTSPStream {
 
 			}
 		}
-	} /* method mlpg */
+	}
+
+	/**
+	 * Prepare windowed parameter generation, as an alternative to {@link #mlpg(HMMData, boolean)}: parameters are generated
+	 * block by block when they are requested through {@link #generateUpTo(int)}, so that the vocoder can start before the
+	 * parameters of the whole utterance are known.
+	 * <p>
+	 * W'U^-1W is factorized and forward substituted frame by frame, which is exact. The backward substitution for a block only
+	 * looks <code>lookaheadFrames</code> beyond the end of the block, taking the parameters after that to be zero; as the
+	 * factorization is banded, the resulting error decays quickly with the lookahead. Memory for the solve depends on the block
+	 * size and the lookahead, not on the length of the utterance. Global variance optimisation needs the whole utterance, and
+	 * is not done in this mode.
+	 *
+	 * @param blockFrames
+	 *            number of frames generated at a time
+	 * @param lookaheadFrames
+	 *            number of frames after a block that are taken into account when generating it
+	 */
+	public void startWindowedMlpg(int blockFrames, int lookaheadFrames) {
+		if (blockFrames <= 0)
+			throw new IllegalArgumentException("Block size must be positive, got " + blockFrames);
+		if (lookaheadFrames < 0)
+			throw new IllegalArgumentException("Lookahead must not be negative, got " + lookaheadFrames);
+		windowBlock = blockFrames;
+		windowLookahead = lookaheadFrames;
+		generatedFrames = 0;
+		factorizedFrames = 0;
+		/* rows from two frames before a block up to the end of its lookahead are needed at the same time */
+		int ringSize = blockFrames + lookaheadFrames + WIDTH;
+		ringWuw = new double[order][ringSize][WIDTH];
+		ringG = new double[order][ringSize];
+		blockPar = new double[blockFrames + lookaheadFrames];
+	}
+
+	/**
+	 * Whether parameters are generated block by block, see {@link #startWindowedMlpg(int, int)}.
+	 *
+	 * @return true in windowed mode
+	 */
+	public boolean isWindowed() {
+		return windowBlock > 0;
+	}
+
+	/**
+	 * In windowed mode, generate parameters until those of all frames before <code>frame</code> are available. Outside windowed
+	 * mode, all parameters are available already, and nothing is done.
+	 *
+	 * @param frame
+	 *            the frame up to which (exclusively) parameters are needed
+	 * @return the number of frames whose parameters are available, which is at least min(frame, getT()).
+	 */
+	public int generateUpTo(int frame) {
+		if (windowBlock <= 0)
+			return nT;
+		int until = Math.min(frame, nT);
+		while (generatedFrames < until) {
+			int start = generatedFrames;
+			int end = Math.min(nT, start + windowBlock);
+			int horizon = Math.min(nT, end + windowLookahead);
+			for (int m = 0; m < order; m++) {
+				factorizeRows(m, factorizedFrames, horizon);
+				solveBlock(m, start, end, horizon);
+			}
+			factorizedFrames = horizon;
+			generatedFrames = end;
+		}
+		if (generatedFrames == nT && ringWuw != null) {
+			ringWuw = null;
+			ringG = null;
+			blockPar = null;
+		}
+		return generatedFrames;
+	}
+
+	/**
+	 * LDL factorization and forward substitution for frames from (inclusive) to to (exclusive) of dimension m, computed from the
+	 * rows of the two preceding frames in the ring buffers; same as ldlFactorization() and forwardSubstitution() for one frame.
+	 */
+	private void factorizeRows(int m, int from, int to) {
+		double[][] ring = ringWuw[m];
+		double[] ringGm = ringG[m];
+		int size = ring.length;
+		for (int t = from; t < to; t++) {
+			double[] row = ring[t % size];
+			double gt = calcWUWandWUM(m, t, row);
+			for (int i = 1; (i < WIDTH) && (t - i >= 0); i++) {
+				double[] prev = ring[(t - i) % size];
+				row[0] -= prev[i] * prev[i] * prev[0];
+			}
+			for (int i = 2; i <= WIDTH; i++) {
+				for (int j = 1; (i + j <= WIDTH) && (t - j >= 0); j++) {
+					double[] prev = ring[(t - j) % size];
+					row[i - 1] -= prev[j] * prev[i + j - 1] * prev[0];
+				}
+				row[i - 1] /= row[0];
+			}
+			for (int i = 1; (i < WIDTH) && (t - i >= 0); i++)
+				gt -= ring[(t - i) % size][i] * ringGm[(t - i) % size];
+			ringGm[t % size] = gt;
+		}
+	}
+
+	/**
+	 * Backward substitution from the horizon down to the start of the block, for dimension m; only the frames of the block
+	 * itself are kept.
+	 */
+	private void solveBlock(int m, int start, int end, int horizon) {
+		double[][] ring = ringWuw[m];
+		double[] ringGm = ringG[m];
+		int size = ring.length;
+		for (int t = horizon - 1; t >= start; t--) {
+			double[] row = ring[t % size];
+			double p = ringGm[t % size] / row[0];
+			for (int i = 1; (i < WIDTH) && (t + i < horizon); i++)
+				p -= row[i] * blockPar[t + i - start];
+			blockPar[t - start] = p;
+		}
+		for (int t = start; t < end; t++)
+			par[t][m] = blockPar[t - start];
+	}
 
 	/*----------------- HTS parameter generation fuctions  -----------------------------*/
 
@@ -311,35 +551,9 @@ public class HTSPStream {
 	/* So having A and B we can find the parameters C. */
 	/* U^{-1} = inverse covariance : inseq[][] */
 	private void calcWUWandWUM(int m) {
-		/* initialise */
-		Arrays.fill(wum, 0, nT, 0.0);
 		/* for all frames: */
 		for (int t = 0; t < nT; t++) {
-			/* initialise */
-			Arrays.fill(wuw[t], 0.0);
-			/* calc WUW & WUM, U is already inverse */
-			for (int i = 0; i < NUM; i++) {
-				int dwWidth_iright = rightWidths[i];
-				int iorder = i * order + m;
-				for (int j = leftWidths[i]; j <= dwWidth_iright; j++) {
-					if ((t + j >= 0) && (t + j < nT)) {
-						double dwCoef_ij = xcoefs[1 + i * NUM - j];
-						if (dwCoef_ij != 0.0) {
-							double WU = dwCoef_ij * ivseq[t + j][iorder];
-
-							wum[t] += WU * mseq[t + j][iorder];
-							for (int k = 0; (k < WIDTH) && (t + k < nT); k++) {
-								if (k - j <= dwWidth_iright) {
-									double dwCoef_ikj = xcoefs[1 + i * NUM + k - j];
-									if (dwCoef_ikj != 0.0) {
-										wuw[t][k] += WU * dwCoef_ikj;
-									}
-								}
-							} /* for k */
-						}
-					}
-				} /* for j */
-			} /* for i */
+			wum[t] = calcWUWandWUM(m, t, wuw[t]);
 		} /* for t */
 		/*
 		 * if(debug){ for(int t=0; t<nT; t++) { System.out.format("t=%d wum=%f  wuw:", t, wum[t]); for(int k=0; k<wuw[t].length;
@@ -347,9 +561,50 @@ public class HTSPStream {
 		 */
 	}
 
+	/**
+	 * Calculate row t of W'U^{-1}W into wuwRow, and return element t of W'U^{-1}M, for dimension m.
+	 */
+	private double calcWUWandWUM(int m, int t, double[] wuwRow) {
+		double wumT = 0.0;
+		/* initialise */
+		Arrays.fill(wuwRow, 0.0);
+		/* calc WUW & WUM, U is already inverse */
+		for (int i = 0; i < NUM; i++) {
+			int dwWidth_iright = rightWidths[i];
+			int iorder = i * order + m;
+			for (int j = leftWidths[i]; j <= dwWidth_iright; j++) {
+				if ((t + j >= 0) && (t + j < nT)) {
+					double dwCoef_ij = xcoefs[1 + i * NUM - j];
+					if (dwCoef_ij != 0.0) {
+						double iv, mu;
+						if (ivseqFloat != null) {
+							iv = ivseqFloat[t + j][iorder];
+							mu = mseqFloat[t + j][iorder];
+						} else {
+							iv = ivseq[t + j][iorder];
+							mu = mseq[t + j][iorder];
+						}
+						double WU = dwCoef_ij * iv;
+
+						wumT += WU * mu;
+						for (int k = 0; (k < WIDTH) && (t + k < nT); k++) {
+							if (k - j <= dwWidth_iright) {
+								double dwCoef_ikj = xcoefs[1 + i * NUM + k - j];
+								if (dwCoef_ikj != 0.0) {
+									wuwRow[k] += WU * dwCoef_ikj;
+								}
+							}
+						} /* for k */
+					}
+				}
+			} /* for j */
+		} /* for i */
+		return wumT;
+	}
+
 	/** ldlFactorization: Factorize W'*U^{-1}*W to L*D*L' (L: lower triangular, D: diagonal) */
-	private static void ldlFactorization(double[][] mywuw) {
-		for (int t = 0; t < mywuw.length; t++) {
+	private static void ldlFactorization(double[][] mywuw, int nT) {
+		for (int t = 0; t < nT; t++) {
 
 			/*
 			 * if(debug){ System.out.println("WUW calculation:"); printWUW(t); }
@@ -377,7 +632,7 @@ public class HTSPStream {
 
 	/** forward_Substitution */
 	private void forwardSubstitution(double[] mywum, double[][] mywuw) {
-		System.arraycopy(mywum, 0, g, 0, mywum.length);
+		System.arraycopy(mywum, 0, g, 0, nT);
 		for (int t = 0; t < nT; t++) {
 			for (int i = 1; (i < WIDTH) && (t - i >= 0); i++)
 				g[t] -= mywuw[t - i][i] * g[t - i]; /* i as index should be i-1 */
@@ -406,8 +661,7 @@ public class HTSPStream {
 		double step = stepInit;
 		double prev = -lzero;
 		double obj = 0.0;
-		double diag[] = new double[nT];
-		double par_ori[] = new double[nT];
+		double par_ori[] = parOri;
 		mean = 0.0;
 		var = 0.0;
 		int numDown = 0;
@@ -452,8 +706,7 @@ public class HTSPStream {
 		int t, iter;
 		double step = stepInit;
 		double obj = 0.0, prev = 0.0;
-		double diag[] = new double[nT];
-		double par_ori[] = new double[nT];
+		double par_ori[] = parOri;
 		mean = 0.0;
 		var = 0.0;
 		int numDown = 0;
@@ -464,6 +717,7 @@ public class HTSPStream {
 		for (t = 0; t < nT; t++) {
 			g[t] = 0.0;
 			par_ori[t] = par[t][m];
+			diag[t] = 0.0;
 		}
 
 		/* first convert c (c=par) according to GV pdf and use it as the initial value */
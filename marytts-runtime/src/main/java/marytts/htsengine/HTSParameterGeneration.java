@@ -69,13 +69,18 @@ import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -108,6 +113,10 @@ public class HTSParameterGeneration {
 	private boolean voiced[];
 	private int totalUttFrame; // total number of frames in a mcep, str or mag Pst
 	private int totalLf0Frame; // total number of f0 voiced frames in a lf0 Pst
+	// windowed generation of MGC, STR and MAG, see setWindowedGeneration():
+	private int windowBlock = 0;
+	private int windowLookahead = 0;
+	private boolean singlePrecision = false; // see setSinglePrecision()
 
 	private Logger logger = MaryUtils.getLogger("ParameterGeneration");
 
@@ -151,6 +160,33 @@ public class HTSParameterGeneration {
 		voiced = var;
 	} // only used in HTSEngineTest
 
+	/**
+	 * Generate the MGC, STR and MAG parameters block by block while they are vocoded, rather than for the whole utterance before
+	 * vocoding starts (see {@link HTSPStream#startWindowedMlpg(int, int)}). Streams using global variance are still generated
+	 * for the whole utterance, and so is LF0, whose values are needed for the realised prosody.
+	 *
+	 * @param blockFrames
+	 *            number of frames generated at a time, or 0 to generate whole utterances
+	 * @param lookaheadFrames
+	 *            number of frames after a block that are taken into account when generating it
+	 */
+	public void setWindowedGeneration(int blockFrames, int lookaheadFrames) {
+		windowBlock = blockFrames;
+		windowLookahead = lookaheadFrames;
+	}
+
+	/**
+	 * Keep the sequences of means and inverse variances of the MGC, LF0, STR and MAG streams in single precision, which halves
+	 * the memory that generation reads (see {@link HTSPStream#isSinglePrecision()}). The parameters differ slightly from those
+	 * generated in double precision.
+	 *
+	 * @param singlePrecision
+	 *            whether to generate from single precision pdfs
+	 */
+	public void setSinglePrecision(boolean singlePrecision) {
+		this.singlePrecision = singlePrecision;
+	}
+
 	/* Inverse of a given double */
 	/* We actually need the inverse of the matrix of covariance, but since this matrix */
 	/* is a diagonal matrix, then we just need to calculate the inverse of each of the */
@@ -181,6 +217,158 @@ public class HTSParameterGeneration {
 	 *             Exception
 	 */
 	public void htsMaximumLikelihoodParameterGeneration(HTSUttModel um, final HMMData htsData) throws Exception {
+		initialiseStreams(um, htsData);
+
+		// Step 3: optimize individual parameter streams
+
+		/* parameter generation for mcep */
+		if (mcepPst != null) {
+			logger.info("Parameter generation for MGC: ");
+			generate(mcepPst, htsData, useGV(FeatureType.MGC, htsData));
+		}
+
+		// parameter generation for lf0 */
+		if (htsData.getUseAcousticModels())
+			loadMaryXmlF0(um, htsData);
+		else if (lf0Pst != null) {
+			logger.info("Parameter generation for LF0: ");
+			lf0Pst.mlpg(htsData, useGV(FeatureType.LF0, htsData));
+			// here we need set realisedF0
+			setRealisedF0(lf0Pst, um, htsData.getCartTreeSet().getNumStates());
+		}
+
+		/* parameter generation for str */
+		if (strPst != null) {
+			logger.debug("Parameter generation for STR ");
+			generate(strPst, htsData, useGV(FeatureType.STR, htsData));
+		}
+
+		/* parameter generation for mag */
+		if (magPst != null) {
+			logger.info("Parameter generation for MAG ");
+			generate(magPst, htsData, useGV(FeatureType.MAG, htsData));
+		}
+
+	} /* method htsMaximumLikelihoodParameterGeneration */
+
+	/**
+	 * HTS maximum likelihood parameter generation for several utterances at once. Each utterance is generated in a task of the
+	 * given pool, which in turn generates the parameter streams of the utterance in parallel subtasks; the results are the same as
+	 * those of {@link #htsMaximumLikelihoodParameterGeneration(HTSUttModel, HMMData)}. The matrices of the generation, including
+	 * those of the global variance iterations, are taken from the voice's pool of {@link MlpgWorkspace}s, so that the workers
+	 * reuse the same few matrices from one stream to the next.
+	 * <p>
+	 * The parameters are always generated for whole utterances, since all of them are complete when this method returns;
+	 * windowed generation (see {@link #setWindowedGeneration(int, int)}) is only of use when vocoding starts while the
+	 * parameters are still being generated.
+	 *
+	 * @param ums
+	 *            the utterance models
+	 * @param htsData
+	 *            HMM pdfs model set.
+	 * @param singlePrecision
+	 *            whether to generate from single precision pdfs, see {@link #setSinglePrecision(boolean)}
+	 * @param pool
+	 *            the pool to generate in
+	 * @return the generated parameters, in the order of the utterance models
+	 * @throws Exception
+	 *             the first exception thrown while generating an utterance
+	 */
+	public static List<HTSParameterGeneration> htsMaximumLikelihoodParameterGeneration(List<HTSUttModel> ums,
+			HMMData htsData, boolean singlePrecision, ForkJoinPool pool) throws Exception {
+		List<UtteranceGeneration> tasks = new ArrayList<UtteranceGeneration>(ums.size());
+		for (HTSUttModel um : ums) {
+			UtteranceGeneration task = new UtteranceGeneration(um, htsData, singlePrecision);
+			tasks.add(task);
+			pool.execute(task);
+		}
+		List<HTSParameterGeneration> generated = new ArrayList<HTSParameterGeneration>(tasks.size());
+		for (UtteranceGeneration task : tasks) {
+			task.join();
+		}
+		for (UtteranceGeneration task : tasks) {
+			if (task.failure != null)
+				throw task.failure;
+			generated.add(task.pdf2par);
+		}
+		return generated;
+	}
+
+	/**
+	 * The generation of one utterance in a batch; an exception is kept for the caller rather than thrown into the pool.
+	 */
+	private static class UtteranceGeneration extends RecursiveAction {
+		private final HTSUttModel um;
+		private final HMMData htsData;
+		private final HTSParameterGeneration pdf2par = new HTSParameterGeneration();
+		private Exception failure;
+
+		UtteranceGeneration(HTSUttModel um, HMMData htsData, boolean singlePrecision) {
+			this.um = um;
+			this.htsData = htsData;
+			pdf2par.setSinglePrecision(singlePrecision);
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				pdf2par.generateInParallel(um, htsData);
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+	}
+
+	/**
+	 * Generate the parameter streams of one utterance in parallel subtasks of the current fork-join pool.
+	 */
+	private void generateInParallel(HTSUttModel um, HMMData htsData) throws Exception {
+		initialiseStreams(um, htsData);
+		List<ForkJoinTask<?>> solves = new ArrayList<ForkJoinTask<?>>(4);
+		if (mcepPst != null)
+			solves.add(mlpgTask(mcepPst, htsData, useGV(FeatureType.MGC, htsData)));
+		if (htsData.getUseAcousticModels())
+			loadMaryXmlF0(um, htsData);
+		else if (lf0Pst != null)
+			solves.add(mlpgTask(lf0Pst, htsData, useGV(FeatureType.LF0, htsData)));
+		if (strPst != null)
+			solves.add(mlpgTask(strPst, htsData, useGV(FeatureType.STR, htsData)));
+		if (magPst != null)
+			solves.add(mlpgTask(magPst, htsData, useGV(FeatureType.MAG, htsData)));
+		ForkJoinTask.invokeAll(solves);
+		if (!htsData.getUseAcousticModels() && lf0Pst != null)
+			setRealisedF0(lf0Pst, um, htsData.getCartTreeSet().getNumStates());
+	}
+
+	private static ForkJoinTask<?> mlpgTask(final HTSPStream pst, final HMMData htsData, final boolean useGV) {
+		return ForkJoinTask.adapt(new Runnable() {
+			public void run() {
+				pst.mlpg(htsData, useGV);
+			}
+		});
+	}
+
+	/**
+	 * Whether a stream is generated with global variance: MGC and LF0 whenever the voice uses it, STR and MAG only if the voice
+	 * also has their global variance pdfs.
+	 */
+	private static boolean useGV(FeatureType type, HMMData htsData) {
+		if (!htsData.getUseGV())
+			return false;
+		switch (type) {
+		case STR:
+			return htsData.getPdfStrGVStream() != null;
+		case MAG:
+			return htsData.getPdfMagGVStream() != null;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Steps 1 and 2 of the parameter generation: create the parameter streams of the utterance and fill in their pdfs.
+	 */
+	private void initialiseStreams(HTSUttModel um, HMMData htsData) throws Exception {
 		CartTreeSet ms = htsData.getCartTreeSet();
 
 		/* Initialisation of PStream objects */
@@ -190,16 +378,20 @@ public class HTSParameterGeneration {
 		/* Here i should pass the window files to initialise the dynamic windows dw */
 		/* for the moment the dw are all the same and hard-coded */
 		if (htsData.getPdfMgcStream() != null)
-			mcepPst = new HTSPStream(ms.getMcepVsize(), um.getTotalFrame(), HMMData.FeatureType.MGC, htsData.getMaxMgcGvIter());
+			mcepPst = new HTSPStream(ms.getMcepVsize(), um.getTotalFrame(), HMMData.FeatureType.MGC, htsData.getMaxMgcGvIter(),
+					singlePrecision);
 		/* for lf0 count just the number of lf0frames that are voiced or non-zero */
 		if (htsData.getPdfLf0Stream() != null)
-			lf0Pst = new HTSPStream(ms.getLf0Stream(), um.getLf0Frame(), HMMData.FeatureType.LF0, htsData.getMaxLf0GvIter());
+			lf0Pst = new HTSPStream(ms.getLf0Stream(), um.getLf0Frame(), HMMData.FeatureType.LF0, htsData.getMaxLf0GvIter(),
+					singlePrecision);
 
 		/* The following are optional in case of generating mixed excitation */
 		if (htsData.getPdfStrStream() != null)
-			strPst = new HTSPStream(ms.getStrVsize(), um.getTotalFrame(), HMMData.FeatureType.STR, htsData.getMaxStrGvIter());
+			strPst = new HTSPStream(ms.getStrVsize(), um.getTotalFrame(), HMMData.FeatureType.STR, htsData.getMaxStrGvIter(),
+					singlePrecision);
 		if (htsData.getPdfMagStream() != null)
-			magPst = new HTSPStream(ms.getMagVsize(), um.getTotalFrame(), HMMData.FeatureType.MAG, htsData.getMaxMagGvIter());
+			magPst = new HTSPStream(ms.getMagVsize(), um.getTotalFrame(), HMMData.FeatureType.MAG, htsData.getMaxMagGvIter(),
+					singlePrecision);
 
 		int lf0Frame = 0; // counts voiced frames
 		int uttFrame = 0; // counts all frames
@@ -238,24 +430,21 @@ public class HTSParameterGeneration {
 
 					/* copy pdfs for mcep */
 					if (mcepPst != null) {
-						mcepPst.setMseq(uttFrame, m.getMean(FeatureType.MGC, state));
-						mcepPst.setVseq(uttFrame, m.getVariance(FeatureType.MGC, state));
+						mcepPst.setPdf(uttFrame, m.getPdfs(FeatureType.MGC), m.getLeaf(FeatureType.MGC, state));
 						if (!gvSwitch)
 							mcepPst.setGvSwitch(uttFrame, false);
 					}
 
 					/* copy pdf for str */
 					if (strPst != null) {
-						strPst.setMseq(uttFrame, m.getMean(FeatureType.STR, state));
-						strPst.setVseq(uttFrame, m.getVariance(FeatureType.STR, state));
+						strPst.setPdf(uttFrame, m.getPdfs(FeatureType.STR), m.getLeaf(FeatureType.STR, state));
 						if (!gvSwitch)
 							strPst.setGvSwitch(uttFrame, false);
 					}
 
 					/* copy pdf for mag */
 					if (magPst != null) {
-						magPst.setMseq(uttFrame, m.getMean(FeatureType.MAG, state));
-						magPst.setVseq(uttFrame, m.getVariance(FeatureType.MAG, state));
+						magPst.setPdf(uttFrame, m.getPdfs(FeatureType.MAG), m.getLeaf(FeatureType.MAG, state));
 						if (!gvSwitch)
 							magPst.setGvSwitch(uttFrame, false);
 					}
@@ -274,7 +463,7 @@ public class HTSParameterGeneration {
 							if (voiced[uttFrame]) {
 								lf0Pst.setMseq(lf0Frame, k, m.getLf0Mean(state, k));
 								if (nobound || k == 0)
-									lf0Pst.setIvseq(lf0Frame, k, finv(m.getLf0Variance(state, k)));
+									lf0Pst.setIvseq(lf0Frame, k, m.getLf0InverseVariance(state, k));
 								else
 									/* the variances for dynamic features are set to inf on v/uv boundary */
 									lf0Pst.setIvseq(lf0Frame, k, 0.0);
@@ -292,8 +481,6 @@ public class HTSParameterGeneration {
 			} /* for each state in this model */
 		} /* for each model in this utterance */
 
-		GVModelSet gvms = htsData.getGVModelSet();
-
 		// Step 2: set dynamic features to infinity on the borders for MGC/STR/MAG
 		if (mcepPst != null)
 			mcepPst.fixDynFeatOnBoundaries();
@@ -302,51 +489,25 @@ public class HTSParameterGeneration {
 		if (magPst != null)
 			magPst.fixDynFeatOnBoundaries();
 
-		// Step 3: optimize individual parameter streams
-
-		/* parameter generation for mcep */
-		if (mcepPst != null) {
-			logger.info("Parameter generation for MGC: ");
-			if (htsData.getUseGV() && (htsData.getPdfMgcGVStream() != null))
-				mcepPst.setGvMeanVar(gvms.getGVmeanMgc(), gvms.getGVcovInvMgc());
-			mcepPst.mlpg(htsData, htsData.getUseGV());
-		}
-
-		// parameter generation for lf0 */
-		if (htsData.getUseAcousticModels())
-			loadMaryXmlF0(um, htsData);
-		else if (lf0Pst != null) {
-			logger.info("Parameter generation for LF0: ");
-			if (htsData.getUseGV() && (htsData.getPdfLf0GVStream() != null))
-				lf0Pst.setGvMeanVar(gvms.getGVmeanLf0(), gvms.getGVcovInvLf0());
-			lf0Pst.mlpg(htsData, htsData.getUseGV());
-			// here we need set realisedF0
-			setRealisedF0(lf0Pst, um, msNumStates);
-		}
-
-		/* parameter generation for str */
-		boolean useGV = false;
-		if (strPst != null) {
-			logger.debug("Parameter generation for STR ");
-			if (htsData.getUseGV() && (htsData.getPdfStrGVStream() != null)) {
-				useGV = true;
-				strPst.setGvMeanVar(gvms.getGVmeanStr(), gvms.getGVcovInvStr());
-			}
-			strPst.mlpg(htsData, useGV);
-		}
+		/* global variance of the streams that are generated with it */
+		GVModelSet gvms = htsData.getGVModelSet();
+		if (mcepPst != null && useGV(FeatureType.MGC, htsData) && htsData.getPdfMgcGVStream() != null)
+			mcepPst.setGvMeanVar(gvms.getGVmeanMgc(), gvms.getGVcovInvMgc());
+		if (lf0Pst != null && useGV(FeatureType.LF0, htsData) && htsData.getPdfLf0GVStream() != null)
+			lf0Pst.setGvMeanVar(gvms.getGVmeanLf0(), gvms.getGVcovInvLf0());
+		if (strPst != null && useGV(FeatureType.STR, htsData))
+			strPst.setGvMeanVar(gvms.getGVmeanStr(), gvms.getGVcovInvStr());
+		if (magPst != null && useGV(FeatureType.MAG, htsData))
+			magPst.setGvMeanVar(gvms.getGVmeanMag(), gvms.getGVcovInvMag());
+	}
 
-		/* parameter generation for mag */
-		useGV = false;
-		if (magPst != null) {
-			logger.info("Parameter generation for MAG ");
-			if (htsData.getUseGV() && (htsData.getPdfMagGVStream() != null)) {
-				useGV = true;
-				magPst.setGvMeanVar(gvms.getGVmeanMag(), gvms.getGVcovInvMag());
-			}
-			magPst.mlpg(htsData, useGV);
+	private void generate(HTSPStream pst, HMMData htsData, boolean useGV) {
+		if (windowBlock > 0 && !useGV) {
+			pst.startWindowedMlpg(windowBlock, windowLookahead);
+		} else {
+			pst.mlpg(htsData, useGV);
 		}
-
-	} /* method htsMaximumLikelihoodParameterGeneration */
+	}
 
 	/* Save generated parameters in a binary file */
 	public void saveParamMaryFormat(String fileName, HTSPStream par, HMMData.FeatureType type) {
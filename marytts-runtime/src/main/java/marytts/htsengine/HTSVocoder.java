@@ -68,14 +68,22 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 
+import marytts.server.MaryProperties;
+import marytts.server.ServerExecutor;
 import marytts.signalproc.process.AmplitudeNormalizer;
 import marytts.util.MaryUtils;
 import marytts.util.data.BufferedDoubleDataSource;
@@ -113,6 +121,11 @@ public class HTSVocoder {
 	1, 1, 0, 1, 0, 0, 1, 0, 0, 0, 1, 0.4999273, 0.1067005, 0.01170221, 0.0005656279, 1, 0.4999391, 0.1107098, 0.01369984,
 			0.0009564853, 0.00003041721 };
 	static final int ppade = PADEORDER * (PADEORDER + 1) / 2; /* offset for vector pade */;
+	private static final float[] padeFloat = new float[pade.length]; /* pade for the single precision filters */
+	static {
+		for (int i = 0; i < pade.length; i++)
+			padeFloat[i] = (float) pade[i];
+	}
 
 	private static final Logger logger = MaryUtils.getLogger("Vocoder");
 
@@ -128,6 +141,8 @@ public class HTSVocoder {
 	private double CC[]; /* used in the MLSA/MGLSA filter */
 	private double CINC[]; /* used in the MLSA/MGLSA filter */
 	private double D1[]; /* used in the MLSA/MGLSA filter */
+	private float Cfloat[]; /* C and D1 in single precision, see setSinglePrecision() */
+	private float D1float[];
 
 	private double rate;
 	int pt2; /* used in mlsadf2 */
@@ -142,6 +157,12 @@ public class HTSVocoder {
 	private boolean mixedExcitation = false;
 	private boolean fourierMagnitudes = false;
 
+	private VocoderWorkspace workspace; /* scratch buffers, taken from the voice while vocoding */
+
+	private int segmentFrames = 0; /* minimum segment length for parallel vocoding, 0 for none */
+	private int warmupFrames = 0; /* frames vocoded before each segment to settle the filters */
+	private boolean singlePrecision = false; /* run the MLSA/MGLSA filters in single precision */
+
 	/**
 	 * The initialisation of VocoderSetup should be done when there is already information about the number of feature vectors to
 	 * be processed, size of the mcep vector file, etc.
@@ -150,10 +171,12 @@ public class HTSVocoder {
 	 *            mcep_order
 	 * @param mcep_vsize
 	 *            mcep_vsize
+	 * @param mix_order
+	 *            order of the mixed excitation filters, 0 if not used
 	 * @param htsData
 	 *            htsData
 	 */
-	private void initVocoder(int mcep_order, int mcep_vsize, HMMData htsData) {
+	private void initVocoder(int mcep_order, int mcep_vsize, int mix_order, HMMData htsData) {
 
 		stage = htsData.getStage();
 		gamma = htsData.getGamma();
@@ -164,15 +187,11 @@ public class HTSVocoder {
 
 		rand = new Random(SEED);
 
-		C = new double[mcep_order];
-		CC = new double[mcep_order];
-		CINC = new double[mcep_order];
-
+		int vector_size;
 		if (stage == 0) { /* for MGC */
 
 			/* mcep_order=74 and pd=PADEORDER=5 (if no HTS_EMBEDDED is used) */
-			int vector_size = (mcep_vsize * (3 + PADEORDER) + 5 * PADEORDER + 6) - (3 * (mcep_order));
-			D1 = new double[vector_size];
+			vector_size = (mcep_vsize * (3 + PADEORDER) + 5 * PADEORDER + 6) - (3 * (mcep_order));
 
 			pt2 = (2 * (PADEORDER + 1)) + (PADEORDER * (mcep_order + 1));
 
@@ -180,10 +199,20 @@ public class HTSVocoder {
 				pt3[i] = (2 * (PADEORDER + 1)) + ((i - 1) * (mcep_order + 1));
 
 		} else { /* for LSP */
-			int vector_size = ((mcep_vsize + 1) * (stage + 3)) - (3 * (mcep_order));
-			D1 = new double[vector_size];
+			vector_size = ((mcep_vsize + 1) * (stage + 3)) - (3 * (mcep_order));
 		}
 
+		/* all buffers come from the voice's workspace pool, so that nothing is allocated while vocoding */
+		workspace = htsData.acquireVocoderWorkspace(mcep_order, vector_size, mix_order);
+		C = workspace.C;
+		CC = workspace.CC;
+		CINC = workspace.CINC;
+		D1 = workspace.D1;
+		Cfloat = workspace.Cfloat;
+		D1float = workspace.D1float;
+		xpulseSignal = workspace.xpulseSignal;
+		xnoiseSignal = workspace.xnoiseSignal;
+
 		/* excitation initialisation */
 		p1 = -1;
 		pc = 0.0;
@@ -244,8 +273,173 @@ public class HTSVocoder {
 		return af;
 	}
 
-	public double[] htsMLSAVocoder(HTSPStream lf0Pst, HTSPStream mcepPst, HTSPStream strPst, HTSPStream magPst, boolean[] voiced,
-			HMMData htsData, HTSVocoderDataProducer audioProducer) throws Exception {
+	/**
+	 * Vocode long utterances in segments on several threads. The utterance is cut at unvoiced frames into segments of at least
+	 * <code>segmentFrames</code> frames; each segment is vocoded by its own filter, which starts <code>warmupFrames</code> frames
+	 * before the segment so that its state has settled when the segment begins. The first segment is vocoded on the calling
+	 * thread and streamed as it is produced, the others on a shared pool; they are passed on in order.
+	 *
+	 * @param segmentFrames
+	 *            minimum number of frames per segment, or 0 to vocode every utterance in one piece on one thread
+	 * @param warmupFrames
+	 *            number of frames vocoded and discarded before each segment
+	 */
+	public void setParallelVocoding(int segmentFrames, int warmupFrames) {
+		this.segmentFrames = segmentFrames;
+		this.warmupFrames = warmupFrames;
+	}
+
+	/**
+	 * Run the MLSA or MGLSA filter, which processes every sample of the utterance, in single precision: its coefficients and
+	 * delay line are floats, which halves the memory it works on. The interpolation of the coefficients between frames and the
+	 * excitation stay in double precision. The audio differs slightly from that vocoded in double precision.
+	 *
+	 * @param singlePrecision
+	 *            whether to filter in single precision
+	 */
+	public void setSinglePrecision(boolean singlePrecision) {
+		this.singlePrecision = singlePrecision;
+	}
+
+	public double[] htsMLSAVocoder(final HTSPStream lf0Pst, final HTSPStream mcepPst, final HTSPStream strPst,
+			final HTSPStream magPst, final boolean[] voiced, final HMMData htsData, HTSVocoderDataProducer audioProducer)
+			throws Exception {
+
+		int numFrames = mcepPst.getT();
+		int fperiod = htsData.getFperiod();
+		final double[] audio_double = new double[computeAudioSize(mcepPst, htsData)]; /* initialise buffer for audio */
+
+		double f0MeanOri = 0.0;
+		int numVoiced = 0;
+		for (int t = 0; t < numFrames; t++) {
+			if (voiced[t]) {
+				f0MeanOri = f0MeanOri + Math.exp(lf0Pst.getPar(numVoiced, 0));
+				numVoiced++;
+			}
+		}
+		f0MeanOri = f0MeanOri / numVoiced;
+
+		List<int[]> segments = findSegments(voiced, numFrames, segmentFrames);
+		if (segments.size() < 2) {
+			vocodeFrames(lf0Pst, mcepPst, strPst, magPst, voiced, htsData, audioProducer, 0, numFrames, 0, 0, f0MeanOri,
+					audio_double);
+			return audio_double;
+		}
+
+		/* segments are vocoded concurrently, so with windowed generation all parameters must be there first */
+		mcepPst.generateUpTo(numFrames);
+		if (strPst != null)
+			strPst.generateUpTo(numFrames);
+		if (magPst != null)
+			magPst.generateUpTo(numFrames);
+
+		logger.debug("Vocoding " + numFrames + " frames in " + segments.size() + " segments.");
+		ExecutorService executor = ServerExecutor.getComputePool();
+		List<Future<?>> results = new ArrayList<Future<?>>(segments.size());
+		/* the lf0 frame of a segment is the number of voiced frames before it; segments come in order */
+		int voicedBefore = 0;
+		int counted = 0;
+		try {
+			for (int i = 1; i < segments.size(); i++) {
+				final int start = segments.get(i)[0];
+				final int end = segments.get(i)[1];
+				final int warmupStart = Math.max(0, start - warmupFrames);
+				for (; counted < warmupStart; counted++) {
+					if (voiced[counted])
+						voicedBefore++;
+				}
+				final int lf0Offset = voicedBefore;
+				final double f0Mean = f0MeanOri;
+				results.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						HTSVocoder segmentVocoder = new HTSVocoder();
+						segmentVocoder.setSinglePrecision(singlePrecision);
+						segmentVocoder.vocodeFrames(lf0Pst, mcepPst, strPst, magPst, voiced, htsData, null, warmupStart, end,
+								start, lf0Offset, f0Mean, audio_double);
+						return null;
+					}
+				}));
+			}
+
+			vocodeFrames(lf0Pst, mcepPst, strPst, magPst, voiced, htsData, audioProducer, 0, segments.get(0)[1], 0, 0,
+					f0MeanOri, audio_double);
+
+			for (int i = 1; i < segments.size(); i++) {
+				results.get(i - 1).get();
+				if (audioProducer != null) {
+					int start = segments.get(i)[0];
+					int end = segments.get(i)[1];
+					audioProducer.putData(audio_double, start * fperiod, (end - start) * fperiod);
+				}
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			throw new Exception("Cannot vocode segment", cause);
+		} finally {
+			for (Future<?> result : results)
+				result.cancel(true);
+		}
+		return audio_double;
+	}
+
+	/**
+	 * Cut an utterance into segments of at least minFrames frames, each starting at an unvoiced frame; the last segment may be
+	 * shorter, but not shorter than half of minFrames.
+	 *
+	 * @param voiced
+	 *            voiced
+	 * @param numFrames
+	 *            numFrames
+	 * @param minFrames
+	 *            the minimum number of frames per segment, 0 for a single segment
+	 * @return the segments as pairs of first frame (inclusive) and last frame (exclusive)
+	 */
+	static List<int[]> findSegments(boolean[] voiced, int numFrames, int minFrames) {
+		List<int[]> segments = new ArrayList<int[]>();
+		int start = 0;
+		if (minFrames > 0) {
+			for (int t = minFrames; t <= numFrames - (minFrames + 1) / 2; t++) {
+				if (!voiced[t] && t - start >= minFrames) {
+					segments.add(new int[] { start, t });
+					start = t;
+				}
+			}
+		}
+		segments.add(new int[] { start, numFrames });
+		return segments;
+	}
+
+	/**
+	 * Vocode frames fromFrame (inclusive) to toFrame (exclusive) into audio_double. The samples of frames before keepFrame only
+	 * warm up the filters and are neither stored nor passed to the audio producer.
+	 */
+	private void vocodeFrames(HTSPStream lf0Pst, HTSPStream mcepPst, HTSPStream strPst, HTSPStream magPst, boolean[] voiced,
+			HMMData htsData, HTSVocoderDataProducer audioProducer, int fromFrame, int toFrame, int keepFrame, int lf0Offset,
+			double f0MeanOri, double[] audio_double) throws Exception {
+
+		/*
+		 * Initialise vocoder and mixed excitation, once initialised it is known the order of the filters so the shaping filters
+		 * hp and hn can be initialised.
+		 */
+		int m = mcepPst.getOrder();
+		mixedExcitation = htsData.getUseMixExc();
+		fourierMagnitudes = htsData.getUseFourierMag();
+		boolean useMixFilters = mixedExcitation && htsData.getPdfStrStream() != null;
+		initVocoder(m, mcepPst.getVsize() - 1, useMixFilters ? htsData.getOrderFilters() : 0, htsData);
+		try {
+			vocodeFrames(lf0Pst, mcepPst, strPst, magPst, voiced, htsData, audioProducer, useMixFilters, fromFrame, toFrame,
+					keepFrame, lf0Offset, f0MeanOri, audio_double);
+		} finally {
+			htsData.releaseVocoderWorkspace(workspace);
+			workspace = null;
+		}
+	}
+
+	private void vocodeFrames(HTSPStream lf0Pst, HTSPStream mcepPst, HTSPStream strPst, HTSPStream magPst, boolean[] voiced,
+			HMMData htsData, HTSVocoderDataProducer audioProducer, boolean useMixFilters, int fromFrame, int toFrame,
+			int keepFrame, int lf0Offset, double f0MeanOri, double[] audio_double) throws Exception {
 
 		double inc, x, MaxSample;
 		double xp = 0.0, xn = 0.0, fxp, fxn, mix; /* samples for pulse and for noise and the filtered ones */
@@ -255,35 +449,22 @@ public class HTSVocoder {
 		double[] magPulse = null; /* pulse generated from Fourier magnitudes */
 		int magSample, magPulseSize;
 
-		double f0Std, f0Shift, f0MeanOri;
+		double f0Std, f0Shift;
 		double hp[] = null; /* pulse shaping filter, it is initialised once it is known orderM */
 		double hn[] = null; /* noise shaping filter, it is initialised once it is known orderM */
 
-		/*
-		 * Initialise vocoder and mixed excitation, once initialised it is known the order of the filters so the shaping filters
-		 * hp and hn can be initialised.
-		 */
 		m = mcepPst.getOrder();
-		initVocoder(m, mcepPst.getVsize() - 1, htsData);
-		double pulse[] = new double[fprd];
-		double noise[] = new double[fprd];
-		double source[] = new double[fprd];
-
-		double[] d = new double[m];
-		mixedExcitation = htsData.getUseMixExc();
-		fourierMagnitudes = htsData.getUseFourierMag();
+		double pulse[] = workspace.pulse;
+		double noise[] = workspace.noise;
+		double source[] = workspace.source;
 
-		if (mixedExcitation && htsData.getPdfStrStream() != null) {
+		if (useMixFilters) {
 			numM = htsData.getNumFilters();
 			orderM = htsData.getOrderFilters();
 
-			xpulseSignal = new double[orderM];
-			xnoiseSignal = new double[orderM];
-			/* initialise xp_sig and xn_sig */// -> automatically initialized to 0.0
-
 			h = htsData.getMixFilters();
-			hp = new double[orderM];
-			hn = new double[orderM];
+			hp = workspace.hp;
+			hn = workspace.hn;
 
 			// Check if the number of filters is equal to the order of strpst
 			// i.e. the number of filters is equal to the number of generated strengths per frame.
@@ -309,32 +490,29 @@ public class HTSVocoder {
 
 		f0Std = htsData.getF0Std();
 		f0Shift = htsData.getF0Mean();
-		f0MeanOri = 0.0;
-
-		for (mcepframe = 0, lf0frame = 0; mcepframe < mcepPst.getT(); mcepframe++) {
-			if (voiced[mcepframe]) {
-				f0MeanOri = f0MeanOri + Math.exp(lf0Pst.getPar(lf0frame, 0));
-				// System.out.println("voiced t=" + mcepframe + "  " + lf0Pst.getPar(lf0frame, 0) + "  ");
-				lf0frame++;
-			}
-			// else
-			// System.out.println("unvoiced t=" + mcepframe + "  0.0  ");
-		}
-		f0MeanOri = f0MeanOri / lf0frame;
 
 		/* _______________________Synthesize speech waveforms_____________________ */
 		/* generate Nperiod samples per mcepframe */
 		int s = 0; /* number of samples */
-		int s_double = 0;
-		int audio_size = computeAudioSize(mcepPst, htsData); /* audio size in samples, calculated as num frames * frame period */
-		double[] audio_double = new double[audio_size]; /* initialise buffer for audio */
+		int s_double = fromFrame * fprd;
 
 		magSample = 1;
 		magPulseSize = 0;
-		for (mcepframe = 0, lf0frame = 0; mcepframe < mcepPst.getT(); mcepframe++) { /* for each mcep frame */
+		int generatedFrames = 0;
+		for (mcepframe = fromFrame, lf0frame = lf0Offset; mcepframe < toFrame; mcepframe++) { /* for each mcep frame */
+			boolean keep = mcepframe >= keepFrame;
+
+			/* with windowed parameter generation, parameters are generated block by block as they are needed */
+			if (mcepframe >= generatedFrames) {
+				generatedFrames = mcepPst.generateUpTo(mcepframe + 1);
+				if (strPst != null)
+					generatedFrames = Math.min(generatedFrames, strPst.generateUpTo(mcepframe + 1));
+				if (magPst != null)
+					generatedFrames = Math.min(generatedFrames, magPst.generateUpTo(mcepframe + 1));
+			}
 
 			/** feature vector for a particular frame */
-			double mc[] = new double[m]; /* feature vector for a particular frame */
+			double mc[] = workspace.mc; /* feature vector for a particular frame */
 			/* get current feature vector mgc */
 			for (int i = 0; i < m; i++)
 				mc[i] = mcepPst.getPar(mcepframe, i);
@@ -392,7 +570,7 @@ public class HTSVocoder {
 
 			if (stage == 0) {
 				/* postfiltering, this is done if beta>0.0 */
-				postfilter_mgc(mc, (m - 1), alpha, beta);
+				postfilter_mgc(mc, (m - 1), alpha, beta, workspace);
 				/* mc2b: transform mel-cepstrum to MLSA digital filter coefficients */
 				mc2b(mc, CC, (m - 1), alpha);
 				for (int i = 0; i < m; i++)
@@ -427,6 +605,9 @@ public class HTSVocoder {
 			/* Here i need to generate both xp:pulse and xn:noise signals separately */
 			// gauss = false; /* Mixed excitation works better with nomal noise */
 
+			if (singlePrecision)
+				toFloat(C, Cfloat, m);
+
 			/* Generate fperiod samples per feature vector, normally 80 samples per frame */
 			// p1=0.0;
 			for (int j = fprd - 1, i = (IPERIOD + 1) / 2; j >= 0; j--) {
@@ -441,9 +622,9 @@ public class HTSVocoder {
 				} else {
 					if ((pc += 1.0) >= p1) {
 						if (fourierMagnitudes) {
-							magPulse = genPulseFromFourierMag(magPst, mcepframe, p1);
+							magPulse = workspace.magPulse;
 							magSample = 0;
-							magPulseSize = magPulse.length;
+							magPulseSize = genPulseFromFourierMag(magPst, mcepframe, p1, workspace);
 							x = magPulse[magSample];
 							magSample++;
 						} else
@@ -499,19 +680,22 @@ public class HTSVocoder {
 				if (stage == 0) {
 					if (x != 0.0)
 						x *= Math.exp(C[0]);
-					x = mlsadf(x, C, m, alpha, D1, pt2, pt3);
+					if (singlePrecision)
+						x = mlsadf((float) x, Cfloat, m, (float) alpha, D1float, pt2, pt3);
+					else
+						x = mlsadf(x, C, m, alpha, D1, pt2, pt3);
 
 				} else {
 					x *= C[0];
-					x = mglsadf(x, C, (m - 1), alpha, stage, D1);
+					if (singlePrecision)
+						x = mglsadf((float) x, Cfloat, (m - 1), (float) alpha, stage, D1float);
+					else
+						x = mglsadf(x, C, (m - 1), alpha, stage, D1);
 				}
 
 				// System.out.format("%f ", x);
-				audio_double[s_double] = x;
-				if (audioProducer != null) {
-					audioProducer.putOneDataPoint(x);
-				}
-
+				if (keep)
+					audio_double[s_double] = x;
 				s_double++;
 
 				if ((--i) == 0) {
@@ -519,11 +703,18 @@ public class HTSVocoder {
 					for (k = 0; k < m; k++) {
 						C[k] += CINC[k];
 					}
+					if (singlePrecision)
+						toFloat(C, Cfloat, m);
 					i = IPERIOD;
 				}
 
 			} /* for each sample in a period fprd */
 
+			/* hand the frame over to the reading thread in one go */
+			if (keep && audioProducer != null) {
+				audioProducer.putData(audio_double, s_double - fprd, fprd);
+			}
+
 			/*********
 			 * For debuging if(voiced[mcepframe]) { double magf[] = SignalProcUtils.getFrameHalfMagnitudeSpectrum(source, 512, 1);
 			 * MaryUtils.plot(magf, "magf"); } System.out.format("str=%.2f\n", str);
@@ -536,11 +727,9 @@ public class HTSVocoder {
 
 		} /* for each mcep frame */
 
-		logger.debug("Finish processing " + mcepframe + " mcep frames.");
+		logger.debug("Finish processing " + (mcepframe - fromFrame) + " mcep frames.");
 
-		return (audio_double);
-
-	} /* method htsMLSAVocoder() */
+	} /* method vocodeFrames() */
 
 	/**
 	 * Compute the audio size, in samples, that this vocoder is going to produce for the given data.
@@ -555,6 +744,11 @@ public class HTSVocoder {
 		return mcepPst.getT() * htsData.getFperiod();
 	}
 
+	private static void toFloat(double[] from, float[] to, int n) {
+		for (int i = 0; i < n; i++)
+			to[i] = (float) from[i];
+	}
+
 	private void printVector(String val, int m, double vec[]) {
 		int i;
 		System.out.println(val);
@@ -704,6 +898,87 @@ public class HTSVocoder {
 		return x;
 	}
 
+	/* single precision versions of mlsafir, mlsadf1, mlsadf2 and mlsadf */
+
+	private static float mlsafir(float x, float b[], int m, float a, float d[], int _pt3) {
+		d[_pt3 + 0] = x;
+		d[_pt3 + 1] = (1 - a * a) * d[_pt3 + 0] + (a * d[_pt3 + 1]);
+
+		for (int i = 2; i <= m; i++) {
+			d[_pt3 + i] += a * (d[_pt3 + i + 1] - d[_pt3 + i - 1]);
+		}
+
+		float y = 0.0f;
+		for (int i = 2; i <= m; i++) {
+			y += d[_pt3 + i] * b[i];
+		}
+
+		for (int i = m + 1; i > 1; i--) {
+			d[_pt3 + i] = d[_pt3 + i - 1];
+		}
+
+		return y;
+	}
+
+	private static float mlsadf1(float x, float b[], int m, float a, float d[]) {
+		float out = 0.0f;
+		for (int i = PADEORDER; i > 0; i--) {
+			d[i] = (1 - a * a) * d[PADEORDER + i] + a * d[i];
+			d[PADEORDER + 1 + i] = d[i] * b[1];
+			float v = d[PADEORDER + 1 + i] * padeFloat[ppade + i];
+
+			x += ((1 & i) == 1) ? v : -v;
+			out += v;
+		}
+		d[PADEORDER + 1] = x;
+		out += x;
+
+		return out;
+	}
+
+	private static float mlsadf2(float x, float b[], int m, float a, float d[], int pt2, int pt3[]) {
+		float out = 0.0f;
+
+		for (int i = PADEORDER; i > 0; i--) {
+			int pt2_plus_i = pt2 + i;
+			d[pt2_plus_i] = mlsafir(d[pt2_plus_i - 1], b, m, a, d, pt3[i]);
+			float v = d[pt2_plus_i] * padeFloat[ppade + i];
+
+			x += ((1 & i) == 1) ? v : -v;
+			out += v;
+		}
+		d[pt2 /* +0 */] = x;
+		out += x;
+
+		return out;
+	}
+
+	/**
+	 * mlsadf: HTS Mel Log Spectrum Approximation filter in single precision
+	 *
+	 * @param x
+	 *            x
+	 * @param b
+	 *            b
+	 * @param m
+	 *            m
+	 * @param a
+	 *            a
+	 * @param d
+	 *            d
+	 * @param pt2
+	 *            pt2
+	 * @param pt3
+	 *            pt3
+	 * @return x
+	 */
+	public static float mlsadf(float x, float b[], int m, float a, float d[], int pt2, int pt3[]) {
+		x = mlsadf1(x, b, m, a, d);
+		x = mlsadf2(x, b, m - 1, a, d, pt2, pt3);
+
+		return x;
+	}
+
 	/**
 	 * uniform_rand: generate uniformly distributed random numbers 1 or -1
 	 *
@@ -768,9 +1043,29 @@ public class HTSVocoder {
 	 *            a
 	 */
 	public static void freqt(double c1[], int m1, double c2[], int m2, double a) {
+		freqt(c1, m1, c2, m2, a, new double[(m2 + m2 + 2)]);
+	}
+
+	/**
+	 * freqt: frequency transformation using a caller-provided scratch buffer
+	 *
+	 * @param c1
+	 *            c1
+	 * @param m1
+	 *            m1
+	 * @param c2
+	 *            c2
+	 * @param m2
+	 *            m2
+	 * @param a
+	 *            a
+	 * @param freqt_buff
+	 *            scratch buffer of at least m2 + m2 + 2 elements, its content is overwritten
+	 */
+	public static void freqt(double c1[], int m1, double c2[], int m2, double a, double freqt_buff[]) {
 		double b = 1 - a * a;
 
-		double freqt_buff[] = new double[(m2 + m2 + 2)]; /* used in freqt */
+		Arrays.fill(freqt_buff, 0, m2 + m2 + 2, 0.0);
 		int g = m2 + 1; /* offset of freqt_buff */
 
 		for (int i = -m1; i <= 0; i++) {
@@ -824,15 +1119,35 @@ public class HTSVocoder {
 	 * @return en
 	 */
 	public static double b2en(double b[], int m, double a) {
-		double cep[], ir[];
 		int arrayLength = (m + 1) + 2 * IRLENG;
-		double[] spectrum2en_buff = new double[arrayLength];
-		cep = new double[arrayLength]; /* CHECK! these sizes!!! */
-		ir = new double[arrayLength];
+		return b2en(b, m, a, new double[arrayLength], new double[arrayLength], new double[arrayLength],
+				new double[2 * IRLENG]);
+	}
+
+	/**
+	 * b2en: functions for postfiltering, using the scratch buffers of a vocoder workspace
+	 *
+	 * @param b
+	 *            b
+	 * @param m
+	 *            m
+	 * @param a
+	 *            a
+	 * @param ws
+	 *            workspace sized for at least m + 1 coefficients
+	 * @return en
+	 */
+	public static double b2en(double b[], int m, double a, VocoderWorkspace ws) {
+		return b2en(b, m, a, ws.spectrum2en, ws.cep, ws.ir, ws.freqt);
+	}
+
+	private static double b2en(double b[], int m, double a, double spectrum2en_buff[], double cep[], double ir[],
+			double freqt_buff[]) {
+		Arrays.fill(cep, 0.0); /* CHECK! these sizes!!! */
 
 		b2mc(b, spectrum2en_buff, m, a);
 		/* freqt(vs->mc, m, vs->cep, vs->irleng - 1, -a); */
-		freqt(spectrum2en_buff, m, cep, IRLENG - 1, -a);
+		freqt(spectrum2en_buff, m, cep, IRLENG - 1, -a, freqt_buff);
 		/* HTS_c2ir(vs->cep, vs->irleng, vs->ir, vs->irleng); */
 		c2ir(cep, IRLENG, ir, IRLENG);
 		double en = 0.0;
@@ -905,6 +1220,22 @@ public class HTSVocoder {
 	 *            m
 	 */
 	public static void lsp2lpc(double lsp[], double a[], int m) {
+		lsp2lpc(lsp, a, m, new double[(5 * m + 6)]);
+	}
+
+	/**
+	 * lsp2lpc: transform LSP to LPC using a caller-provided scratch buffer. lsp[1..m] &rarr; a=lpc[0..m] a[0]=1.0
+	 *
+	 * @param lsp
+	 *            lsp
+	 * @param a
+	 *            a
+	 * @param m
+	 *            m
+	 * @param lsp2lpc_buff
+	 *            scratch buffer of at least 5 * m + 6 elements, its content is overwritten
+	 */
+	public static void lsp2lpc(double lsp[], double a[], int m, double lsp2lpc_buff[]) {
 		int i, k, mh1, mh2, flag_odd;
 		double xx, xf, xff;
 		int p, q; /* offsets of lsp2lpc_buff */
@@ -919,7 +1250,6 @@ public class HTSVocoder {
 			flag_odd = 1;
 		}
 
-		double[] lsp2lpc_buff = new double[(5 * m + 6)];
 		int lsp2lpc_size = m;
 
 		/* offsets of lsp2lpcbuff */
@@ -1012,7 +1342,29 @@ public class HTSVocoder {
 	 *            g2
 	 */
 	public static void gc2gc(double c1[], int m1, double g1, double c2[], int m2, double g2) {
-		double[] gc2gc_buff = Arrays.copyOf(c1, m1 + 1);
+		gc2gc(c1, m1, g1, c2, m2, g2, new double[m1 + 1]);
+	}
+
+	/**
+	 * gc2gc: generalized cepstral transformation using a caller-provided scratch buffer
+	 *
+	 * @param c1
+	 *            c1
+	 * @param m1
+	 *            m1
+	 * @param g1
+	 *            g1
+	 * @param c2
+	 *            c2
+	 * @param m2
+	 *            m2
+	 * @param g2
+	 *            g2
+	 * @param gc2gc_buff
+	 *            scratch buffer of at least m1 + 1 elements, its content is overwritten
+	 */
+	public static void gc2gc(double c1[], int m1, double g1, double c2[], int m2, double g2, double gc2gc_buff[]) {
+		System.arraycopy(c1, 0, gc2gc_buff, 0, m1 + 1);
 		c2[0] = gc2gc_buff[0];
 
 		for (int i = 1; i <= m2; i++) {
@@ -1054,16 +1406,48 @@ public class HTSVocoder {
 	 *            g2
 	 */
 	public static void mgc2mgc(double c1[], int m1, double a1, double g1, double c2[], int m2, double a2, double g2) {
+		mgc2mgc(c1, m1, a1, g1, c2, m2, a2, g2, new double[Math.max(m1, m2) + 1], new double[m2 + m2 + 2]);
+	}
+
+	/**
+	 * mgc2mgc: frequency and generalized cepstral transformation, using the scratch buffers of a vocoder workspace
+	 *
+	 * @param c1
+	 *            c1
+	 * @param m1
+	 *            m1
+	 * @param a1
+	 *            a1
+	 * @param g1
+	 *            g1
+	 * @param c2
+	 *            c2
+	 * @param m2
+	 *            m2
+	 * @param a2
+	 *            a2
+	 * @param g2
+	 *            g2
+	 * @param ws
+	 *            workspace sized for at least max(m1, m2) + 1 coefficients
+	 */
+	public static void mgc2mgc(double c1[], int m1, double a1, double g1, double c2[], int m2, double a2, double g2,
+			VocoderWorkspace ws) {
+		mgc2mgc(c1, m1, a1, g1, c2, m2, a2, g2, ws.gc2gc, ws.freqt);
+	}
+
+	private static void mgc2mgc(double c1[], int m1, double a1, double g1, double c2[], int m2, double a2, double g2,
+			double gc2gc_buff[], double freqt_buff[]) {
 
 		if (a1 == a2) {
 			gnorm(c1, c1, m1, g1);
-			gc2gc(c1, m1, g1, c2, m2, g2);
+			gc2gc(c1, m1, g1, c2, m2, g2, gc2gc_buff);
 			ignorm(c2, c2, m2, g2);
 		} else {
 			double a = (a2 - a1) / (1 - a1 * a2);
-			freqt(c1, m1, c2, m2, a);
+			freqt(c1, m1, c2, m2, a, freqt_buff);
 			gnorm(c2, c2, m2, g1);
-			gc2gc(c2, m2, g1, c2, m2, g2);
+			gc2gc(c2, m2, g1, c2, m2, g2, gc2gc_buff);
 			ignorm(c2, c2, m2, g2);
 
 		}
@@ -1084,7 +1468,10 @@ public class HTSVocoder {
 	 */
 	public void lsp2mgc(double lsp[], double mgc[], int m, double alpha) {
 		/* lsp2lpc */
-		lsp2lpc(lsp, mgc, m); /* lsp starts in 1! lsp[1..m] --> mgc[0..m] */
+		if (workspace != null)
+			lsp2lpc(lsp, mgc, m, workspace.lsp2lpc); /* lsp starts in 1! lsp[1..m] --> mgc[0..m] */
+		else
+			lsp2lpc(lsp, mgc, m);
 		if (use_log_gain)
 			mgc[0] = Math.exp(lsp[0]);
 		else
@@ -1094,7 +1481,11 @@ public class HTSVocoder {
 		ignorm(mgc, mgc, m, gamma);
 		for (int i = m; i >= 1; i--)
 			mgc[i] *= -stage;
-		mgc2mgc(mgc, m, alpha, gamma, mgc, m, alpha, gamma); /* input and output is in mgc=C */
+		/* input and output is in mgc=C */
+		if (workspace != null)
+			mgc2mgc(mgc, m, alpha, gamma, mgc, m, alpha, gamma, workspace);
+		else
+			mgc2mgc(mgc, m, alpha, gamma, mgc, m, alpha, gamma);
 	}
 
 	/**
@@ -1154,6 +1545,46 @@ public class HTSVocoder {
 		return x;
 	}
 
+	/**
+	 * mglsadf: HTS Mel Generalized Log Spectrum Approximation filter in single precision
+	 *
+	 * @param x
+	 *            x
+	 * @param b
+	 *            b
+	 * @param m
+	 *            m
+	 * @param a
+	 *            a
+	 * @param n
+	 *            n
+	 * @param d
+	 *            d
+	 * @return x
+	 */
+	public static float mglsadf(float x, float b[], int m, float a, int n, float d[]) {
+		for (int i = 0; i < n; i++)
+			x = mglsadff(x, b, m, a, d, (i * (m + 1)));
+
+		return x;
+	}
+
+	private static float mglsadff(float x, float b[], int m, float a, float d[], int d_offset) {
+		float y = d[d_offset + 0] * b[1];
+
+		for (int i = 1; i < m; i++) {
+			d[d_offset + i] += a * (d[d_offset + i + 1] - d[d_offset + i - 1]);
+			y += d[d_offset + i] * b[i + 1];
+		}
+		x -= y;
+
+		for (int i = m; i > 0; i--)
+			d[d_offset + i] = d[d_offset + i - 1];
+		d[d_offset + 0] = a * d[d_offset + 0] + (1 - a * a) * x;
+
+		return x;
+	}
+
 	/**
 	 * posfilter: postfilter for mel-cepstrum. It uses alpha and beta defined in HMMData
 	 *
@@ -1168,24 +1599,103 @@ public class HTSVocoder {
 	 */
 	public static void postfilter_mgc(double mgc[], int m, double alpha, double beta) {
 		if (beta > 0.0 && m > 1) {
-			double[] postfilter_buff = new double[m + 1];
-			mc2b(mgc, postfilter_buff, m, alpha);
-			double e1 = b2en(postfilter_buff, m, alpha);
+			int arrayLength = (m + 1) + 2 * IRLENG;
+			postfilter_mgc(mgc, m, alpha, beta, new double[m + 1], new double[arrayLength], new double[arrayLength],
+					new double[arrayLength], new double[2 * IRLENG]);
+		}
+	}
 
-			postfilter_buff[1] -= beta * alpha * mgc[2];
-			for (int k = 2; k < m; k++)
-				postfilter_buff[k] *= (1.0 + beta);
-			double e2 = b2en(postfilter_buff, m, alpha);
-			postfilter_buff[0] += Math.log(e1 / e2) / 2;
-			b2mc(postfilter_buff, mgc, m, alpha);
+	/**
+	 * posfilter: postfilter for mel-cepstrum, using the scratch buffers of a vocoder workspace
+	 *
+	 * @param mgc
+	 *            mgc
+	 * @param m
+	 *            m
+	 * @param alpha
+	 *            alpha
+	 * @param beta
+	 *            beta
+	 * @param ws
+	 *            workspace sized for at least m + 1 coefficients
+	 */
+	public static void postfilter_mgc(double mgc[], int m, double alpha, double beta, VocoderWorkspace ws) {
+		if (beta > 0.0 && m > 1)
+			postfilter_mgc(mgc, m, alpha, beta, ws.postfilter, ws.spectrum2en, ws.cep, ws.ir, ws.freqt);
+	}
 
-		}
+	private static void postfilter_mgc(double mgc[], int m, double alpha, double beta, double postfilter_buff[],
+			double spectrum2en_buff[], double cep[], double ir[], double freqt_buff[]) {
+		mc2b(mgc, postfilter_buff, m, alpha);
+		double e1 = b2en(postfilter_buff, m, alpha, spectrum2en_buff, cep, ir, freqt_buff);
+
+		postfilter_buff[1] -= beta * alpha * mgc[2];
+		for (int k = 2; k < m; k++)
+			postfilter_buff[k] *= (1.0 + beta);
+		double e2 = b2en(postfilter_buff, m, alpha, spectrum2en_buff, cep, ir, freqt_buff);
+		postfilter_buff[0] += Math.log(e1 / e2) / 2;
+		b2mc(postfilter_buff, mgc, m, alpha);
 	}
 
 	public static double[] genPulseFromFourierMag(HTSPStream mag, int n, double f0) {
 		return genPulseFromFourierMag(mag.getParVec(n), f0);
 	}
 
+	/**
+	 * Generate one pitch period from the Fourier magnitudes of frame n into the pulse buffer of a vocoder workspace, without
+	 * allocating.
+	 *
+	 * @param mag
+	 *            mag
+	 * @param n
+	 *            frame number
+	 * @param f0
+	 *            f0
+	 * @param ws
+	 *            workspace receiving the pulse in its magPulse buffer
+	 * @return the length of the pulse
+	 */
+	public static int genPulseFromFourierMag(HTSPStream mag, int n, double f0, VocoderWorkspace ws) {
+
+		int numHarm = mag.getOrder();
+		int currentF0 = (int) Math.round(f0);
+		int T;
+		double[] real, imag;
+		if (currentF0 < 512) {
+			T = 512;
+			real = ws.real512;
+			imag = ws.imag512;
+		} else {
+			T = 1024;
+			real = ws.real1024;
+			imag = ws.imag1024;
+		}
+		int T2 = 2 * T;
+
+		/* copy Fourier magnitudes, see genPulseFromFourierMag(double[], double) */
+		real[0] = real[T] = 0.0; /* DC component set to zero */
+		imag[0] = imag[T] = 0.0;
+		for (int i = 1; i <= numHarm; i++) {
+			real[i] = real[T - i] = real[T + i] = real[T2 - i] = mag.getPar(n, i - 1); /* Symetric extension */
+			imag[i] = imag[T - i] = imag[T + i] = imag[T2 - i] = 0.0;
+		}
+		for (int i = (numHarm + 1); i < (T - numHarm); i++) { /* Default components set to 1.0 */
+			real[i] = real[T - i] = real[T + i] = real[T2 - i] = 1.0;
+			imag[i] = imag[T - i] = imag[T + i] = imag[T2 - i] = 0.0;
+		}
+
+		/* Calculate inverse Fourier transform */
+		FFT.transform(real, imag, true);
+
+		/* circular shift and normalise multiplying by sqrt(F0) */
+		double[] pulse = ws.magPulse;
+		double sqrt_f0 = Math.sqrt(currentF0);
+		for (int i = 0; i < T; i++)
+			pulse[i] = real[(i - numHarm + T) % T] * sqrt_f0;
+
+		return T;
+	}
+
 	/**
 	 * Generate one pitch period from Fourier magnitudes
 	 *
@@ -1230,7 +1740,7 @@ public class HTSVocoder {
 		/* circular shift and normalise multiplying by sqrt(F0) */
 		double sqrt_f0 = Math.sqrt(currentF0);
 		for (int i = 0; i < T; i++)
-			pulse[i] = real[(i - numHarm) % T] * sqrt_f0;
+			pulse[i] = real[(i - numHarm + T) % T] * sqrt_f0;
 
 		return pulse;
 	}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.htsengine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import marytts.config.MaryConfig;
+import marytts.exceptions.MaryConfigurationException;
+import marytts.features.FeatureDefinition;
+import marytts.htsengine.HMMData.FeatureType;
+import marytts.util.data.MaryHeader;
+import marytts.util.io.PropertiesAccessor;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A precompiled binary image of the trees and pdfs of an HMM voice, so that the voice can be loaded without parsing the HTS
+ * tree files and looking up their questions in the feature definition.
+ * <p>
+ * File format, all big-endian:
+ * <ul>
+ * <li>a MaryHeader of type {@link MaryHeader#HMM_VOICE_IMAGE};</li>
+ * <li>int format version, see {@link #VERSION};</li>
+ * <li>the feature definition the feature indices and values in the trees refer to, in binary form, padded with zeros to a
+ * multiple of four bytes;</li>
+ * <li>for each of the dur, lf0, mgc, str and mag streams: int 1 followed by the trees of the stream as written by
+ * {@link PdfTreeSet}, or int 0 if the voice does not have the stream.</li>
+ * </ul>
+ * The image is checked against the version and the voice's feature definition when it is loaded; if either differs, it must be
+ * rebuilt with {@link #main(String[])}.
+ */
+public class HTSVoiceImage {
+	/**
+	 * The version of the image format; images of other versions are refused.
+	 */
+	public static final int VERSION = 1;
+
+	private static final FeatureType[] STREAMS = { FeatureType.DUR, FeatureType.LF0, FeatureType.MGC, FeatureType.STR,
+			FeatureType.MAG };
+
+	private final Map<FeatureType, PdfTreeSet> trees;
+
+	private HTSVoiceImage(Map<FeatureType, PdfTreeSet> trees) {
+		this.trees = trees;
+	}
+
+	/**
+	 * The trees of the given stream.
+	 *
+	 * @param type
+	 *            the stream
+	 * @return the trees, or null if the voice does not have the stream
+	 */
+	public PdfTreeSet getTrees(FeatureType type) {
+		return trees.get(type);
+	}
+
+	/**
+	 * Load a voice image. A file is memory-mapped; a classpath resource is mapped if it is a file, and read in one go otherwise.
+	 *
+	 * @param location
+	 *            a file name, or "jar:" followed by a classpath location
+	 * @param featureDefinition
+	 *            the feature definition of the voice
+	 * @return the voice image
+	 * @throws IOException
+	 *             if the image cannot be read
+	 * @throws MaryConfigurationException
+	 *             if the image is not a voice image of the current version for the given feature definition
+	 */
+	public static HTSVoiceImage load(String location, FeatureDefinition featureDefinition) throws IOException,
+			MaryConfigurationException {
+		ByteBuffer bb;
+		if (location.startsWith("jar:")) {
+			String classpathLocation = location.substring("jar:".length());
+			URL url = HTSVoiceImage.class.getResource(classpathLocation);
+			if (url == null) {
+				throw new FileNotFoundException("No classpath resource available at '" + classpathLocation + "'");
+			}
+			if ("file".equals(url.getProtocol())) {
+				try {
+					bb = map(new File(url.toURI()));
+				} catch (URISyntaxException e) {
+					throw new IOException("Cannot locate " + url, e);
+				}
+			} else {
+				InputStream stream = url.openStream();
+				try {
+					bb = ByteBuffer.wrap(IOUtils.toByteArray(stream));
+				} finally {
+					stream.close();
+				}
+			}
+		} else {
+			bb = map(new File(location));
+		}
+		try {
+			return read(bb, featureDefinition);
+		} catch (BufferUnderflowException e) {
+			throw new MaryConfigurationException("Voice image [" + location + "] is truncated", e);
+		} catch (MaryConfigurationException e) {
+			throw new MaryConfigurationException("Cannot use voice image [" + location + "]", e);
+		}
+	}
+
+	private static ByteBuffer map(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel fc = fis.getChannel();
+			return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+		} finally {
+			fis.close();
+		}
+	}
+
+	static HTSVoiceImage read(ByteBuffer bb, FeatureDefinition featureDefinition) throws IOException,
+			MaryConfigurationException {
+		MaryHeader hdr = new MaryHeader(bb);
+		if (hdr.getType() != MaryHeader.HMM_VOICE_IMAGE) {
+			throw new MaryConfigurationException("Not an HMM voice image");
+		}
+		int version = bb.getInt();
+		if (version != VERSION) {
+			throw new MaryConfigurationException("Image format version " + version + ", expected " + VERSION);
+		}
+		FeatureDefinition imageFeatures = new FeatureDefinition(bb);
+		if (!imageFeatures.featureEquals(featureDefinition)) {
+			throw new MaryConfigurationException("Image was built for a different feature definition");
+		}
+		bb.position((bb.position() + 3) & ~3);
+		Map<FeatureType, PdfTreeSet> trees = new EnumMap<FeatureType, PdfTreeSet>(FeatureType.class);
+		for (FeatureType type : STREAMS) {
+			if (bb.getInt() != 0) {
+				trees.put(type, PdfTreeSet.read(bb, featureDefinition.getNumberOfByteFeatures()));
+			}
+		}
+		return new HTSVoiceImage(trees);
+	}
+
+	/**
+	 * Write the trees of the given tree set as a voice image.
+	 *
+	 * @param cart
+	 *            the loaded trees
+	 * @param featureDefinition
+	 *            the feature definition the trees were loaded with
+	 * @param fileName
+	 *            the file to write
+	 * @throws IOException
+	 *             if a problem occurs while writing
+	 */
+	public static void write(CartTreeSet cart, FeatureDefinition featureDefinition, String fileName) throws IOException {
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+		try {
+			new MaryHeader(MaryHeader.HMM_VOICE_IMAGE).writeTo(dos);
+			dos.writeInt(VERSION);
+			featureDefinition.writeBinaryTo(dos);
+			while (dos.size() % 4 != 0) {
+				dos.writeByte(0);
+			}
+			for (FeatureType type : STREAMS) {
+				PdfTreeSet streamTrees = cart.getTreeSet(type);
+				if (streamTrees == null) {
+					dos.writeInt(0);
+				} else {
+					dos.writeInt(1);
+					streamTrees.writeTo(dos);
+				}
+			}
+		} finally {
+			dos.close();
+		}
+	}
+
+	/**
+	 * Build the voice image of an HMM voice from its HTS tree and pdf files. The voice is read either from the classpath, given
+	 * its name, or from a config file as in {@link HMMData#initHMMData(String, String, String)}. A voice image already configured
+	 * for the voice is ignored, so that the image is always built from the HTS files.
+	 *
+	 * @param args
+	 *            the voice name, optionally the MARY base directory and the config file relative to it, and the image file to
+	 *            write
+	 * @throws Exception
+	 *             Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2 && args.length != 4) {
+			System.err.println("Usage: java " + HTSVoiceImage.class.getName() + " voiceName [marybase configFile] voiceImage.mry");
+			System.exit(1);
+		}
+		String voiceName = args[0];
+		Properties props = new Properties();
+		Map<String, String> replacer = new HashMap<String, String>();
+		if (args.length == 2) {
+			if (MaryConfig.getVoiceConfig(voiceName) == null) {
+				throw new MaryConfigurationException("No voice '" + voiceName + "' on the classpath");
+			}
+			props.putAll(MaryConfig.getVoiceConfig(voiceName).getProperties());
+		} else {
+			FileInputStream fis = new FileInputStream(args[1] + args[2]);
+			try {
+				props.load(fis);
+			} finally {
+				fis.close();
+			}
+			replacer.put("jar:", args[1]);
+		}
+		props.remove("voice." + voiceName + ".voiceImage");
+		HMMData htsData = new HMMData();
+		htsData.initHMMData(new PropertiesAccessor(props, false, replacer), voiceName);
+		write(htsData.getCartTreeSet(), htsData.getFeatureDefinition(), args[args.length - 1]);
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.htsengine;
+
+/**
+ * Scratch matrices for maximum likelihood parameter generation, see {@link HTSPStream#mlpg(HMMData, boolean, MlpgWorkspace)}:
+ * the band of W'U^-1W and its LDL factorization, W'U^-1M, the substitution vector and the buffers of the GV optimisation. A
+ * workspace grows to the longest stream it is used for and is then reused for every stream and every utterance, so that
+ * generation does not allocate anything per dimension. A workspace must only be used by one thread at a time; {@link HMMData}
+ * keeps a pool of them.
+ *
+ * @see HMMData#acquireMlpgWorkspace()
+ */
+public class MlpgWorkspace {
+	private int capacity;
+
+	/* W'U^-1W, band of width HTSPStream.WIDTH per frame, and its LDL factorization */
+	double[][] wuw;
+	double[][] ldl;
+	/* W'U^-1M */
+	double[] wum;
+	/* forward substitution, and gradient in the GV optimisation */
+	double[] g;
+	/* GV optimisation: previous step and parameters before optimisation */
+	double[] diag;
+	double[] parOri;
+
+	public MlpgWorkspace() {
+		this(0);
+	}
+
+	/**
+	 * @param capacity
+	 *            number of frames to allocate for
+	 */
+	public MlpgWorkspace(int capacity) {
+		allocate(capacity);
+	}
+
+	/**
+	 * Make sure the workspace can hold a stream of the given length.
+	 *
+	 * @param numFrames
+	 *            number of frames in the stream
+	 */
+	public void ensureCapacity(int numFrames) {
+		if (numFrames > capacity) {
+			/* grow geometrically, so that a batch of increasing lengths does not reallocate every time */
+			allocate(Math.max(numFrames, capacity + capacity / 2));
+		}
+	}
+
+	private void allocate(int frames) {
+		capacity = frames;
+		wuw = new double[frames][HTSPStream.WIDTH];
+		ldl = new double[frames][HTSPStream.WIDTH];
+		wum = new double[frames];
+		g = new double[frames];
+		diag = new double[frames];
+		parOri = new double[frames];
+	}
+
+	/**
+	 * @return the number of frames the workspace can hold without growing
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+}
@@ -0,0 +1,373 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.htsengine;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import marytts.cart.CART;
+import marytts.cart.DecisionNode;
+import marytts.cart.DecisionNode.BinaryByteDecisionNode;
+import marytts.cart.LeafNode.PdfLeafNode;
+import marytts.cart.Node;
+import marytts.exceptions.MaryConfigurationException;
+import marytts.features.FeatureVector;
+
+/**
+ * The decision trees of one HMM parameter stream, one tree per state, in flattened form, together with the pdfs in their leaves.
+ * <p>
+ * HTS trees only ask whether a byte feature has a given value, so each decision node is a record of four ints: the feature
+ * index, the value, and the "yes" and "no" daughters. A daughter is either the index of another decision node, or, if
+ * negative, <code>~leaf</code>. Leaves are numbered across all trees of the stream, once per pdf, so that leaves of the same
+ * state sharing a pdf get the same number.
+ * <p>
+ * The pdfs of all leaves are packed into one float array of means and one of variances, leaf after leaf; the pdf files store
+ * them as floats, so nothing is lost. The inverse variances used in parameter generation are computed once, when the trees are
+ * loaded. Models refer to their pdfs by leaf number, so that the pool is shared by all models of the voice.
+ *
+ * @see HTSVoiceImage
+ */
+public class PdfTreeSet {
+	private static final int FEATURE = 0;
+	private static final int VALUE = 1;
+	private static final int YES = 2;
+	private static final int NO = 3;
+	private static final int STRIDE = 4;
+
+	private final int vectorSize;
+	// root of the tree for state s: a decision node index, or ~leaf
+	private final int[] roots;
+	private final int[] nodes;
+	private final int numLeaves;
+	// number of values in the mean and variance of a leaf
+	private final int dimension;
+	// the pdf of leaf l starts at dimension * l
+	private final float[] means;
+	private final float[] variances;
+	private final double[] inverseVariances;
+	// only for lf0
+	private final float[] voicedWeights;
+
+	private PdfTreeSet(int vectorSize, int[] roots, int[] nodes, int numLeaves, int dimension, float[] means,
+			float[] variances, float[] voicedWeights) {
+		this.vectorSize = vectorSize;
+		this.roots = roots;
+		this.nodes = nodes;
+		this.numLeaves = numLeaves;
+		this.dimension = dimension;
+		this.means = means;
+		this.variances = variances;
+		this.voicedWeights = voicedWeights;
+		this.inverseVariances = new double[variances.length];
+		for (int i = 0; i < variances.length; i++) {
+			inverseVariances[i] = HTSParameterGeneration.finv(variances[i]);
+		}
+	}
+
+	/**
+	 * Flatten the trees as loaded by {@link marytts.cart.io.HTSCARTReader}.
+	 *
+	 * @param trees
+	 *            one tree per state, made of binary byte decision nodes and pdf leaves
+	 * @param vectorSize
+	 *            the vector size as reported by the reader
+	 * @param withVoicedWeights
+	 *            whether to keep the voiced weights of the leaves, as needed for lf0
+	 * @return the flattened trees
+	 * @throws MaryConfigurationException
+	 *             if a tree is empty, incomplete or contains other kinds of nodes
+	 */
+	public static PdfTreeSet fromCARTs(CART[] trees, int vectorSize, boolean withVoicedWeights)
+			throws MaryConfigurationException {
+		int[] roots = new int[trees.length];
+		List<int[]> records = new ArrayList<int[]>();
+		List<PdfLeafNode> leaves = new ArrayList<PdfLeafNode>();
+		for (int s = 0; s < trees.length; s++) {
+			Map<Integer, Integer> leafOfPdf = new HashMap<Integer, Integer>();
+			roots[s] = flatten(trees[s].getRootNode(), s, records, leaves, leafOfPdf);
+		}
+		int[] nodes = new int[STRIDE * records.size()];
+		for (int i = 0; i < records.size(); i++) {
+			System.arraycopy(records.get(i), 0, nodes, STRIDE * i, STRIDE);
+		}
+		int numLeaves = leaves.size();
+		int dimension = (numLeaves > 0) ? leaves.get(0).getMean().length : 0;
+		float[] means = new float[numLeaves * dimension];
+		float[] variances = new float[numLeaves * dimension];
+		float[] voicedWeights = withVoicedWeights ? new float[numLeaves] : null;
+		for (int l = 0; l < numLeaves; l++) {
+			PdfLeafNode leaf = leaves.get(l);
+			if (leaf.getMean().length != dimension || leaf.getVariance().length != dimension) {
+				throw new MaryConfigurationException("Leaf pdfs of different sizes: " + leaf.getMean().length + " and "
+						+ dimension);
+			}
+			for (int k = 0; k < dimension; k++) {
+				means[dimension * l + k] = (float) leaf.getMean()[k];
+				variances[dimension * l + k] = (float) leaf.getVariance()[k];
+			}
+			if (voicedWeights != null) {
+				voicedWeights[l] = (float) leaf.getVoicedWeight();
+			}
+		}
+		return new PdfTreeSet(vectorSize, roots, nodes, numLeaves, dimension, means, variances, voicedWeights);
+	}
+
+	/**
+	 * Add the given node and the nodes below it, depth-first.
+	 *
+	 * @return the reference to the node: its decision node index, or ~leaf
+	 */
+	private static int flatten(Node node, int state, List<int[]> records, List<PdfLeafNode> leaves,
+			Map<Integer, Integer> leafOfPdf) throws MaryConfigurationException {
+		if (node instanceof PdfLeafNode) {
+			PdfLeafNode leaf = (PdfLeafNode) node;
+			Integer l = leafOfPdf.get(leaf.getUniqueLeafId());
+			if (l == null) {
+				l = leaves.size();
+				leaves.add(leaf);
+				leafOfPdf.put(leaf.getUniqueLeafId(), l);
+			}
+			return ~l;
+		}
+		if (!(node instanceof BinaryByteDecisionNode) || ((DecisionNode) node).getNumberOfDaugthers() != 2) {
+			throw new MaryConfigurationException("Tree for state " + state + " has an empty daughter or an unexpected node: "
+					+ node);
+		}
+		BinaryByteDecisionNode decision = (BinaryByteDecisionNode) node;
+		int[] record = new int[STRIDE];
+		int index = records.size();
+		records.add(record);
+		record[FEATURE] = decision.getFeatureIndex();
+		record[VALUE] = decision.getCriterionValueAsByte();
+		record[YES] = flatten(decision.getDaughter(0), state, records, leaves, leafOfPdf);
+		record[NO] = flatten(decision.getDaughter(1), state, records, leaves, leafOfPdf);
+		return index;
+	}
+
+	/**
+	 * Find the leaf for the given feature vector.
+	 *
+	 * @param state
+	 *            the state whose tree to use
+	 * @param fv
+	 *            the context feature vector
+	 * @return the leaf number
+	 */
+	public int findLeaf(int state, FeatureVector fv) {
+		byte[] features = fv.byteValuedDiscreteFeatures;
+		int node = roots[state];
+		while (node >= 0) {
+			int r = STRIDE * node;
+			node = (features[nodes[r + FEATURE]] == nodes[r + VALUE]) ? nodes[r + YES] : nodes[r + NO];
+		}
+		return ~node;
+	}
+
+	/**
+	 * Add the indices of the byte features asked about in these trees to the given set.
+	 *
+	 * @param featureIndices
+	 *            the set of feature indices
+	 */
+	public void addFeatureIndices(BitSet featureIndices) {
+		for (int r = 0; r < nodes.length; r += STRIDE) {
+			featureIndices.set(nodes[r + FEATURE]);
+		}
+	}
+
+	public double getMean(int leaf, int k) {
+		return means[dimension * leaf + k];
+	}
+
+	public double getVariance(int leaf, int k) {
+		return variances[dimension * leaf + k];
+	}
+
+	/**
+	 * The inverse of a variance, as computed by {@link HTSParameterGeneration#finv(double)}.
+	 *
+	 * @param leaf
+	 *            the leaf
+	 * @param k
+	 *            the index in the vector
+	 * @return the inverse variance
+	 */
+	public double getInverseVariance(int leaf, int k) {
+		return inverseVariances[dimension * leaf + k];
+	}
+
+	/**
+	 * Copy the mean and the inverse variances of a leaf, for example into the rows of a parameter stream.
+	 *
+	 * @param leaf
+	 *            the leaf
+	 * @param mean
+	 *            where to copy the mean to, of length at least {@link #getDimension()}
+	 * @param inverseVariance
+	 *            where to copy the inverse variances to, of length at least {@link #getDimension()}
+	 */
+	public void copyPdf(int leaf, double[] mean, double[] inverseVariance) {
+		int offset = dimension * leaf;
+		for (int k = 0; k < dimension; k++) {
+			mean[k] = means[offset + k];
+		}
+		System.arraycopy(inverseVariances, offset, inverseVariance, 0, dimension);
+	}
+
+	/**
+	 * Copy the mean and the inverse variances of a leaf into single precision arrays.
+	 *
+	 * @param leaf
+	 *            the leaf
+	 * @param mean
+	 *            where to copy the mean to, of length at least {@link #getDimension()}
+	 * @param inverseVariance
+	 *            where to copy the inverse variances to, of length at least {@link #getDimension()}
+	 */
+	public void copyPdf(int leaf, float[] mean, float[] inverseVariance) {
+		int offset = dimension * leaf;
+		System.arraycopy(means, offset, mean, 0, dimension);
+		for (int k = 0; k < dimension; k++) {
+			inverseVariance[k] = (float) inverseVariances[offset + k];
+		}
+	}
+
+	public double getVoicedWeight(int leaf) {
+		return voicedWeights[leaf];
+	}
+
+	public int getNumStates() {
+		return roots.length;
+	}
+
+	public int getNumLeaves() {
+		return numLeaves;
+	}
+
+	/**
+	 * @return the number of values in the mean and in the variance of a leaf
+	 */
+	public int getDimension() {
+		return dimension;
+	}
+
+	public int getVectorSize() {
+		return vectorSize;
+	}
+
+	/**
+	 * Write these trees in the format read by {@link #read(ByteBuffer, int)}: ints vector size, number of states, number of
+	 * decision nodes, number of leaves, leaf dimension and 1 if there are voiced weights, else 0; then the roots, the decision
+	 * node records, and as floats the means, the variances and the voiced weights of all leaves.
+	 *
+	 * @param out
+	 *            where to write to
+	 * @throws IOException
+	 *             if a problem occurs while writing
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		out.writeInt(vectorSize);
+		out.writeInt(roots.length);
+		out.writeInt(nodes.length / STRIDE);
+		out.writeInt(numLeaves);
+		out.writeInt(dimension);
+		out.writeInt(voicedWeights != null ? 1 : 0);
+		for (int root : roots) {
+			out.writeInt(root);
+		}
+		for (int v : nodes) {
+			out.writeInt(v);
+		}
+		for (float v : means) {
+			out.writeFloat(v);
+		}
+		for (float v : variances) {
+			out.writeFloat(v);
+		}
+		if (voicedWeights != null) {
+			for (float v : voicedWeights) {
+				out.writeFloat(v);
+			}
+		}
+	}
+
+	/**
+	 * Read trees written by {@link #writeTo(DataOutput)}, leaving the buffer positioned after them.
+	 *
+	 * @param bb
+	 *            the buffer to read from
+	 * @param numByteFeatures
+	 *            the number of byte features in the feature vectors the trees will be used with
+	 * @return the trees
+	 * @throws MaryConfigurationException
+	 *             if the data is inconsistent
+	 */
+	static PdfTreeSet read(ByteBuffer bb, int numByteFeatures) throws MaryConfigurationException {
+		int vectorSize = bb.getInt();
+		int numStates = bb.getInt();
+		int numNodes = bb.getInt();
+		int numLeaves = bb.getInt();
+		int dimension = bb.getInt();
+		boolean withVoicedWeights = bb.getInt() != 0;
+		long size = 4L * numStates + 4L * STRIDE * numNodes + 8L * numLeaves * dimension + (withVoicedWeights ? 4L * numLeaves : 0);
+		if (numStates < 0 || numNodes < 0 || numLeaves < 0 || dimension < 0 || size > bb.remaining()) {
+			throw new MaryConfigurationException("Inconsistent tree set sizes");
+		}
+		int[] roots = new int[numStates];
+		bb.asIntBuffer().get(roots);
+		bb.position(bb.position() + 4 * numStates);
+		int[] nodes = new int[STRIDE * numNodes];
+		bb.asIntBuffer().get(nodes);
+		bb.position(bb.position() + 4 * nodes.length);
+		for (int s = 0; s < numStates; s++) {
+			if (!isNode(roots[s], numNodes, numLeaves)) {
+				throw new MaryConfigurationException("Tree for state " + s + " refers to a missing node");
+			}
+		}
+		for (int i = 0; i < numNodes; i++) {
+			int r = STRIDE * i;
+			if (nodes[r + FEATURE] < 0 || nodes[r + FEATURE] >= numByteFeatures || !isNode(nodes[r + YES], numNodes, numLeaves)
+					|| !isNode(nodes[r + NO], numNodes, numLeaves)) {
+				throw new MaryConfigurationException("Decision node " + i + " refers to a missing feature or node");
+			}
+		}
+		float[] means = readFloats(bb, numLeaves * dimension);
+		float[] variances = readFloats(bb, numLeaves * dimension);
+		float[] voicedWeights = withVoicedWeights ? readFloats(bb, numLeaves) : null;
+		return new PdfTreeSet(vectorSize, roots, nodes, numLeaves, dimension, means, variances, voicedWeights);
+	}
+
+	private static float[] readFloats(ByteBuffer bb, int n) {
+		float[] values = new float[n];
+		bb.asFloatBuffer().get(values);
+		bb.position(bb.position() + 4 * n);
+		return values;
+	}
+
+	private static boolean isNode(int ref, int numNodes, int numLeaves) {
+		return (ref >= 0) ? ref < numNodes : ~ref < numLeaves;
+	}
+}
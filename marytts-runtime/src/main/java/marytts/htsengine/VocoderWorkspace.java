@@ -0,0 +1,154 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.htsengine;
+
+import java.util.Arrays;
+
+/**
+ * Scratch buffers for the MLSA/MGLSA vocoder. A workspace is sized once for a voice (filter order, frame period and mixed
+ * excitation order) and then reused for every utterance of that voice, so that {@link HTSVocoder} does not allocate anything
+ * per frame or per sample. A workspace must only be used by one thread at a time; {@link HMMData} keeps a pool of them.
+ *
+ * @see HMMData#acquireVocoderWorkspace(int, int, int)
+ */
+public class VocoderWorkspace {
+	/* largest pitch period generated from Fourier magnitudes, see HTSVocoder.genPulseFromFourierMag */
+	static final int MAX_PULSE_LENGTH = 1024;
+
+	final int order;
+	final int filterStateSize;
+	final int fperiod;
+	final int mixOrder;
+
+	/* per-frame coefficients and filter state */
+	final double[] mc;
+	final double[] C;
+	final double[] CC;
+	final double[] CINC;
+	final double[] D1;
+	/* C and D1 for the single precision filters */
+	final float[] Cfloat;
+	final float[] D1float;
+
+	/* excitation */
+	final double[] pulse;
+	final double[] noise;
+	final double[] source;
+	final double[] hp;
+	final double[] hn;
+	final double[] xpulseSignal;
+	final double[] xnoiseSignal;
+
+	/* postfilter_mgc, b2en, freqt, gc2gc and lsp2lpc */
+	final double[] postfilter;
+	final double[] spectrum2en;
+	final double[] cep;
+	final double[] ir;
+	final double[] freqt;
+	final double[] gc2gc;
+	final double[] lsp2lpc;
+
+	/* genPulseFromFourierMag, one FFT buffer pair per pulse length */
+	final double[] magPulse;
+	final double[] real512;
+	final double[] imag512;
+	final double[] real1024;
+	final double[] imag1024;
+
+	/**
+	 * @param order
+	 *            number of mel-cepstral (or LSP) coefficients per frame
+	 * @param filterStateSize
+	 *            size of the MLSA/MGLSA filter delay line
+	 * @param fperiod
+	 *            frame period in samples
+	 * @param mixOrder
+	 *            order of the mixed excitation shaping filters, or 0 without mixed excitation
+	 */
+	public VocoderWorkspace(int order, int filterStateSize, int fperiod, int mixOrder) {
+		this.order = order;
+		this.filterStateSize = filterStateSize;
+		this.fperiod = fperiod;
+		this.mixOrder = mixOrder;
+
+		mc = new double[order];
+		C = new double[order];
+		CC = new double[order];
+		CINC = new double[order];
+		D1 = new double[filterStateSize];
+		Cfloat = new float[order];
+		D1float = new float[filterStateSize];
+
+		pulse = new double[fperiod];
+		noise = new double[fperiod];
+		source = new double[fperiod];
+		hp = new double[mixOrder];
+		hn = new double[mixOrder];
+		xpulseSignal = new double[mixOrder];
+		xnoiseSignal = new double[mixOrder];
+
+		int enLength = order + 2 * HTSVocoder.IRLENG;
+		postfilter = new double[order];
+		spectrum2en = new double[enLength];
+		cep = new double[enLength];
+		ir = new double[enLength];
+		freqt = new double[2 * Math.max(order, HTSVocoder.IRLENG)];
+		gc2gc = new double[order];
+		lsp2lpc = new double[5 * order + 6];
+
+		magPulse = new double[MAX_PULSE_LENGTH];
+		real512 = new double[1024];
+		imag512 = new double[1024];
+		real1024 = new double[2048];
+		imag1024 = new double[2048];
+	}
+
+	/**
+	 * Whether this workspace was sized for the given vocoder configuration.
+	 *
+	 * @param order
+	 *            order
+	 * @param filterStateSize
+	 *            filterStateSize
+	 * @param fperiod
+	 *            fperiod
+	 * @param mixOrder
+	 *            mixOrder
+	 * @return true if the workspace can be used as it is
+	 */
+	public boolean fits(int order, int filterStateSize, int fperiod, int mixOrder) {
+		return this.order == order && this.filterStateSize == filterStateSize && this.fperiod == fperiod
+				&& this.mixOrder == mixOrder;
+	}
+
+	/**
+	 * Clear the filter state left over from the previous utterance.
+	 */
+	public void reset() {
+		Arrays.fill(C, 0.0);
+		Arrays.fill(CC, 0.0);
+		Arrays.fill(CINC, 0.0);
+		Arrays.fill(D1, 0.0);
+		Arrays.fill(Cfloat, 0.0f);
+		Arrays.fill(D1float, 0.0f);
+		Arrays.fill(xpulseSignal, 0.0);
+		Arrays.fill(xnoiseSignal, 0.0);
+	}
+}
@@ -46,7 +46,6 @@ import marytts.htsengine.HMMData;
 import marytts.htsengine.HMMVoice;
 import marytts.htsengine.HTSModel;
 import marytts.htsengine.HTSPStream;
-import marytts.htsengine.HTSParameterGeneration;
 import marytts.htsengine.HTSUttModel;
 import marytts.modules.synthesis.Voice;
 import marytts.util.MaryUtils;
@@ -822,7 +821,7 @@ public class HMMDurationF0Modeller extends InternalModule {
 						if (voiced[uttFrame]) {
 							lf0Pst.setMseq(lf0Frame, k, m.getLf0Mean(hmmState, k));
 							if (nobound || k == 0)
-								lf0Pst.setIvseq(lf0Frame, k, HTSParameterGeneration.finv(m.getLf0Variance(hmmState, k)));
+								lf0Pst.setIvseq(lf0Frame, k, m.getLf0InverseVariance(hmmState, k));
 							else
 								/* the variances for dynamic feature are set to inf on v/uv boundary */
 								lf0Pst.setIvseq(lf0Frame, k, 0.0);
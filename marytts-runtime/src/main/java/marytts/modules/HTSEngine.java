@@ -93,6 +93,7 @@ import marytts.htsengine.HTSUttModel;
 import marytts.htsengine.HTSVocoder;
 import marytts.htsengine.HTSEngineTest.PhonemeDuration;
 import marytts.modules.synthesis.Voice;
+import marytts.server.MaryProperties;
 import marytts.unitselection.select.Target;
 import marytts.util.MaryUtils;
 import marytts.util.data.audio.AppendableSequenceAudioInputStream;
@@ -213,6 +214,12 @@ public class HTSEngine extends InternalModule {
 
 		/* Process UttModel */
 		HTSParameterGeneration pdf2par = new HTSParameterGeneration();
+		int mlpgBlock = MaryProperties.getInteger("htsengine.mlpg.block", 0);
+		if (mlpgBlock > 0) {
+			pdf2par.setWindowedGeneration(mlpgBlock, MaryProperties.getInteger("htsengine.mlpg.lookahead", 40));
+		}
+		boolean singlePrecision = MaryProperties.getBoolean("htsengine.singlePrecision", false);
+		pdf2par.setSinglePrecision(singlePrecision);
 
 		/* Generate sequence of speech parameter vectors, generate parameters out of sequence of pdf's */
 		pdf2par.htsMaximumLikelihoodParameterGeneration(um, hmmv.getHMMData());
@@ -222,6 +229,11 @@ public class HTSEngine extends InternalModule {
 
 		/* Process generated parameters */
 		HTSVocoder par2speech = new HTSVocoder();
+		int vocoderSegment = MaryProperties.getInteger("htsengine.vocoder.segment", 0);
+		if (vocoderSegment > 0) {
+			par2speech.setParallelVocoding(vocoderSegment, MaryProperties.getInteger("htsengine.vocoder.warmup", 40));
+		}
+		par2speech.setSinglePrecision(singlePrecision);
 
 		/* Synthesize speech waveform, generate speech out of sequence of parameters */
 		AudioInputStream ais = par2speech.htsMLSAVocoder(pdf2par, hmmv.getHMMData());
@@ -438,6 +450,7 @@ public class HTSEngine extends InternalModule {
 			HTSModel m = new HTSModel(cart.getNumStates());
 			um.addUttModel(m);
 			m.setPhoneName(fv.getFeatureAsString(featureIndex, feaDef));
+			int[] leaves = cart.findLeaves(fv);
 
 			// Check if context-dependent gv (gv without sil)
 			if (htsData.getUseContextDependentGV()) {
@@ -455,12 +468,12 @@ public class HTSEngine extends InternalModule {
 				// get the durations of the Gaussians, because we need to know how long each estate should be
 				// knowing the duration of each state we can modified it so the 5 states reflect the external duration
 				// Here the duration for phones and sil (_) are calcualted
-				diffdurNew = cart.searchDurInCartTree(m, fv, htsData, firstPh, false, diffdurOld);
+				diffdurNew = cart.setDurations(m, leaves, htsData, diffdurOld);
 
 				if (e.getTagName().contentEquals("ph")) {
 					// No duration => predict one !
 					if ((e.getAttribute("d") == null) || (e.getAttribute("d").equals(""))) {
-						diffdurNew = cart.searchDurInCartTree(m, fv, htsData, firstPh, false, diffdurOld);
+						diffdurNew = cart.setDurations(m, leaves, htsData, diffdurOld);
 					}
 					// Use phone duration
 					else {
@@ -535,7 +548,7 @@ public class HTSEngine extends InternalModule {
 			}
 			// Estimate state duration from state duration model (Gaussian)
 			else {
-				diffdurNew = cart.searchDurInCartTree(m, fv, htsData, firstPh, false, diffdurOld);
+				diffdurNew = cart.setDurations(m, leaves, htsData, diffdurOld);
 			}
 
 			um.setTotalFrame(um.getTotalFrame() + m.getTotalDur());
@@ -552,23 +565,13 @@ public class HTSEngine extends InternalModule {
 			diffdurOld = diffdurNew; // to calculate the duration of next phoneme
 
 			/*
-			 * Find pdf for LF0, this function sets the pdf for each state. here it is also set whether the model is voiced or not
+			 * Find pdfs for LF0, Mgc, and if present strengths and Fourier magnitudes; this sets the pdf for each state. here it
+			 * is also set whether the model is voiced or not
 			 */
 			// if ( ! htsData.getUseUnitDurationContinuousFeature() )
 			// Here according to the HMM models it is decided whether the states of this model are voiced or unvoiced
 			// even if f0 is taken from maryXml here we need to set the voived/unvoiced values per model and state
-			cart.searchLf0InCartTree(m, fv, feaDef, htsData.getUV());
-
-			/* Find pdf for Mgc, this function sets the pdf for each state. */
-			cart.searchMgcInCartTree(m, fv, feaDef);
-
-			/* Find pdf for strengths, this function sets the pdf for each state. */
-			if (htsData.getTreeStrStream() != null)
-				cart.searchStrInCartTree(m, fv, feaDef);
-
-			/* Find pdf for Fourier magnitudes, this function sets the pdf for each state. */
-			if (htsData.getTreeMagStream() != null)
-				cart.searchMagInCartTree(m, fv, feaDef);
+			cart.setPdfs(m, leaves, htsData.getUV());
 
 			/* increment number of models in utterance model */
 			um.setNumModel(um.getNumModel() + 1);
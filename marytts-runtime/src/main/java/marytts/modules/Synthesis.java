@@ -111,6 +111,7 @@ public class Synthesis extends InternalModule {
 		String defaultEffects = d.getDefaultEffects();
 		Locale locale = d.getLocale();
 		String outputParams = d.getOutputParams();
+		boolean streaming = d.isStreamingAudio();
 
 		if (defaultVoice == null) {
 			defaultVoice = Voice.getDefaultVoice(locale);
@@ -163,7 +164,7 @@ public class Synthesis extends InternalModule {
 					// We have just left a voice section
 					if (!elements.isEmpty()) {
 						AudioInputStream ais = synthesizeOneSection(elements, currentVoice, currentStyle, currentEffect,
-								targetFormat, outputParams);
+								targetFormat, outputParams, streaming);
 						if (ais != null) {
 							result.appendAudio(ais);
 						}
@@ -182,7 +183,7 @@ public class Synthesis extends InternalModule {
 				// We have just entered a new voice section
 				if (!elements.isEmpty()) {
 					AudioInputStream ais = synthesizeOneSection(elements, currentVoice, currentStyle, currentEffect,
-							targetFormat, outputParams);
+							targetFormat, outputParams, streaming);
 					if (ais != null) {
 						result.appendAudio(ais);
 					}
@@ -207,7 +208,7 @@ public class Synthesis extends InternalModule {
 			if (s != currentSentence) {
 				if (!elements.isEmpty()) {
 					AudioInputStream ais = synthesizeOneSection(elements, currentVoice, currentStyle, currentEffect,
-							targetFormat, outputParams);
+							targetFormat, outputParams, streaming);
 					if (ais != null) {
 						result.appendAudio(ais);
 					}
@@ -220,7 +221,7 @@ public class Synthesis extends InternalModule {
 
 		if (!elements.isEmpty()) {
 			AudioInputStream ais = synthesizeOneSection(elements, currentVoice, currentStyle, currentEffect, targetFormat,
-					outputParams);
+					outputParams, streaming);
 
 			if (ais != null) {
 				result.appendAudio(ais);
@@ -234,7 +235,7 @@ public class Synthesis extends InternalModule {
 	 * Synthesize one section, consisting of tokens and boundaries, with a given voice, to the given target audio format.
 	 */
 	private AudioInputStream synthesizeOneSection(List<Element> tokensAndBoundaries, Voice voice, String currentStyle,
-			String currentEffect, AudioFormat targetFormat, String outputParams) throws SynthesisException,
+			String currentEffect, AudioFormat targetFormat, String outputParams, boolean streaming) throws SynthesisException,
 			UnsupportedAudioFileException {
 		// sanity check: are there any tokens containing phone descendants?
 		if (!containsPhoneDescendants(tokensAndBoundaries)) {
@@ -249,7 +250,11 @@ public class Synthesis extends InternalModule {
 		//
 
 		AudioInputStream ais = null;
-		ais = voice.synthesize(tokensAndBoundaries, outputParams);
+		if (streaming) {
+			ais = voice.synthesizeStreaming(tokensAndBoundaries, outputParams);
+		} else {
+			ais = voice.synthesize(tokensAndBoundaries, outputParams);
+		}
 		if (ais == null)
 			return null;
 		// Conversion to targetFormat required?
@@ -527,6 +527,24 @@ public class Voice {
 		return synthesizer.synthesize(tokensAndBoundaries, this, outputParams);
 	}
 
+	/**
+	 * Synthesize a list of tokens and boundaries for a client that reads the audio while it is being produced. Voices that can
+	 * return the audio stream before all of it is known override this; the realised durations need not be added to the
+	 * MaryXML document then. By default, this is the same as {@link #synthesize(List, String)}.
+	 * 
+	 * @param tokensAndBoundaries
+	 *            tokensAndBoundaries
+	 * @param outputParams
+	 *            outputParams
+	 * @throws SynthesisException
+	 *             SynthesisException
+	 * @return the audio
+	 */
+	public AudioInputStream synthesizeStreaming(List<Element> tokensAndBoundaries, String outputParams)
+			throws SynthesisException {
+		return synthesize(tokensAndBoundaries, outputParams);
+	}
+
 	public DirectedGraph getDurationGraph() {
 		return durationGraph;
 	}
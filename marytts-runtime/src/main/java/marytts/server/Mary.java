@@ -32,7 +32,6 @@ import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -341,13 +340,9 @@ public class Mary {
 		}
 
 		if (MaryCache.haveCache()) {
-			MaryCache cache = MaryCache.getCache();
-			try {
-				cache.shutdown();
-			} catch (SQLException e) {
-				logger.warn("Cannot shutdown cache: ", e);
-			}
+			MaryCache.getCache().shutdown();
 		}
+		ServerExecutor.shutdownSharedPools();
 		logger.info("Shutdown complete.");
 		currentState = STATE_OFF;
 	}
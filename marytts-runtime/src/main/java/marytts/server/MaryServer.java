@@ -62,7 +62,7 @@ import org.apache.logging.log4j.Logger;
 
 /**
  * Listen for clients on socket port <code>MaryProperties.socketPort()</code>. For each new client, create a new RequestHandler
- * thread.
+ * and run it on the request executor configured by <code>server.socket.executor</code> (see {@link ServerExecutor}).
  * <p>
  * Clients are expected to follow the following <b>protocol</b>:
  * <p>
@@ -71,9 +71,10 @@ import org.apache.logging.log4j.Logger;
  * input and output data. The server expects the communication as follows.
  * <ol>
  * <li>The client opens an <code>infoSocket</code>, optionally sends one line "MARY VERSION" to obtain three lines of version
- * information, and then sends one line "MARY IN=INPUTTYPE OUT=OUTPUTTYPE [AUDIO=AUDIOTYPE]", where INPUTTYPE and OUTPUTTYPE can
- * have a number of different values, depending on the configuration with which the server was started. For an English system,
- * these values include:
+ * information (or "MARY STATUS" to obtain the number of active, queued and rejected requests and their queue time), and then
+ * sends one line "MARY IN=INPUTTYPE OUT=OUTPUTTYPE [AUDIO=AUDIOTYPE]", where INPUTTYPE and OUTPUTTYPE can have a number of
+ * different values, depending on the configuration with which the server was started. For an English system, these values
+ * include:
  * <ul>
  * <li>TEXT plain ASCII text, English (input only)</li>
  * <li>SABLE text annotated with SABLE markup (input only)</li>
@@ -131,7 +132,8 @@ import org.apache.logging.log4j.Logger;
  * on this <code>dataSocket</code>, it sends the single integer it had just received via the <code>infoSocket</code>.</li>
  *
  * <li>The server groups dataSocket and infoSocket together based on this identification number, and starts reading data of the
- * requested input type from <code>dataSocket</code>.</li>
+ * requested input type from <code>dataSocket</code>. If too many requests are already running or waiting, the server instead
+ * prints a "Server busy" error to <code>infoSocket</code> and closes both connections.</li>
  *
  * <li>If any errors or warning messages are issued during input parsing or consecutive processing, these are printed to
  * <code>infoSocket</code>.</li>
@@ -148,10 +150,28 @@ public class MaryServer implements Runnable {
 	private Logger logger;
 	private int runningNumber = 1;
 	private Map<Integer, Object[]> clientMap = Collections.synchronizedMap(new HashMap<Integer, Object[]>());
-	private Executor clients = Executors.newCachedThreadPool();
+	private Executor clients;
+	private ServerExecutor requests;
 
 	public MaryServer() {
 		logger = MaryUtils.getLogger("server");
+		requests = ServerExecutor.fromProperties("server.socket", "RH");
+		// Connections are only parsed here and then handed on to the request executor,
+		// so they need no limit; in virtual mode they get a virtual thread each as well:
+		if (requests.getMode() == ServerExecutor.Mode.VIRTUAL) {
+			clients = ServerExecutor.newVirtualThreadExecutor();
+		} else {
+			clients = Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * The executor running the synthesis requests, giving access to the number of active and queued requests.
+	 *
+	 * @return the request executor
+	 */
+	public ServerExecutor getRequestExecutor() {
+		return requests;
 	}
 
 	public void run() {
@@ -250,6 +270,9 @@ public class MaryServer implements Runnable {
 			if (inputLine.startsWith("MARY VERSION")) {
 				logger.debug("InfoRequest " + inputLine);
 				return handleVersion();
+			} else if (inputLine.startsWith("MARY STATUS")) {
+				logger.debug("InfoRequest " + inputLine);
+				return handleStatus();
 			} else if (inputLine.startsWith("MARY LIST DATATYPES")) {
 				logger.debug("InfoRequest " + inputLine);
 				return listDataTypes();
@@ -508,7 +531,10 @@ public class MaryServer implements Runnable {
 			}
 			// -- send off to new request
 			RequestHandler rh = new RequestHandler(request, infoSocket, client, reader);
-			rh.start();
+			if (!requests.trySubmit(rh)) {
+				rh.reject("Server busy (" + requests.getActiveRequests() + " active, " + requests.getQueueDepth()
+						+ " queued requests) -- please try again later.");
+			}
 			return true;
 		}
 
@@ -521,6 +547,20 @@ public class MaryServer implements Runnable {
 			return true;
 		}
 
+		private boolean handleStatus() {
+			// Write the request executor gauges to client.
+			clientOut.println("mode " + requests.getMode().name().toLowerCase(Locale.ENGLISH));
+			clientOut.println("active " + requests.getActiveRequests());
+			clientOut.println("queued " + requests.getQueueDepth());
+			clientOut.println("rejected " + requests.getRejectedRequests());
+			clientOut.println("completed " + requests.getCompletedRequests());
+			clientOut.println(String.format(Locale.ENGLISH, "queuetime %.1f %.1f", requests.getAverageQueueMillis(),
+					requests.getMaxQueueMillis()));
+			// Empty line marks end of info:
+			clientOut.println();
+			return true;
+		}
+
 		private boolean isHMMAudioEffect(String inputLine) {
 			String prefix = "MARY VOICE ISHMMAUDIOEFFECT ";
 			assert inputLine.startsWith(prefix);
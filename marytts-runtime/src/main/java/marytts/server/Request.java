@@ -25,7 +25,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Reader;
-import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -34,6 +35,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioInputStream;
@@ -51,6 +57,7 @@ import marytts.modules.synthesis.Voice;
 import marytts.util.MaryCache;
 import marytts.util.MaryRuntimeUtils;
 import marytts.util.MaryUtils;
+import marytts.util.cache.CacheKey;
 import marytts.util.data.audio.AppendableSequenceAudioInputStream;
 import marytts.util.dom.DomUtils;
 import marytts.util.dom.MaryDomUtils;
@@ -93,13 +100,20 @@ public class Request {
 	protected MaryData inputData;
 	protected MaryData outputData;
 	protected boolean streamAudio = false;;
-	protected boolean abortRequested = false;
+	protected volatile boolean abortRequested = false;
+	// When streaming audio paragraph by paragraph, the audio of the paragraph currently being synthesized
+	// is attached to appendableAudioStream as soon as synthesis starts, see processOneChunk():
+	private boolean attachChunkAudio = false;
+	private AppendableSequenceAudioInputStream attachedChunkAudio = null;
 
 	// Keep track of timing info for each module
 	// (map MaryModule onto Long)
 	protected Set<MaryModule> usedModules;
 	protected Map<MaryModule, Long> timingInfo;
 
+	// Shared by all requests, see getParagraphExecutor()
+	private static ExecutorService paragraphExecutor;
+
 	public Request(MaryDataType inputType, MaryDataType outputType, Locale defaultLocale, Voice defaultVoice,
 			String defaultEffects, String defaultStyle, int id, AudioFileFormat audioFileFormat) {
 		this(inputType, outputType, defaultLocale, defaultVoice, defaultEffects, defaultStyle, id, audioFileFormat, false, null);
@@ -149,8 +163,9 @@ public class Request {
 
 		// Keep track of timing info for each module
 		// (map MaryModule onto Long)
-		usedModules = new LinkedHashSet<MaryModule>();
-		timingInfo = new HashMap<MaryModule, Long>();
+		// (paragraphs may be processed in parallel, see process())
+		usedModules = Collections.synchronizedSet(new LinkedHashSet<MaryModule>());
+		timingInfo = Collections.synchronizedMap(new HashMap<MaryModule, Long>());
 	}
 
 	public MaryDataType getInputType() {
@@ -323,33 +338,23 @@ public class Request {
 			outputData.setAudioFileFormat(audioFileFormat);
 		}
 		int len = inputDataList.getLength();
-		for (int i = 0; i < len && !abortRequested; i++) {
-			Element currentInputParagraph = (Element) inputDataList.item(i);
-			assert currentInputParagraph.getTagName().equals(MaryXML.PARAGRAPH);
-			NodeList outputNodeList = null;
-			// Only process paragraph if there is any text below it:
-			if (MaryDomUtils.getPlainTextBelow(currentInputParagraph).trim().equals("")) {
-				outputNodeList = currentInputParagraph.getChildNodes();
-			} else { // process "real" data:
-				MaryData oneInputData = extractParagraphAsMaryData(rawmaryxml, currentInputParagraph);
-				// assert oneInputData.getDefaultVoice() != null;
-				MaryData oneOutputData = processOrLookupOneChunk(oneInputData, outputType, outputTypeParams);
-				// assert oneOutputData.getDefaultVoice() != null;
-				if (outputType.isMaryXML()) {
-					NodeList outParagraphList = oneOutputData.getDocument().getDocumentElement()
-							.getElementsByTagName(MaryXML.PARAGRAPH);
-					// This does not hold for Tibetan:
-					// assert outParagraphList.getLength() == 1;
-					outputNodeList = outParagraphList;
-				} else { // output is not MaryXML, e.g. text or audio
-					assert outputData != null;
-					outputData.append(oneOutputData);
+		int parallelism = Math.min(MaryProperties.getInteger("request.paragraphs.parallel", 1), len);
+		if (parallelism > 1) {
+			processParagraphsInParallel(rawmaryxml, inputDataList, parallelism);
+		} else {
+			attachChunkAudio = streamAudio && appendableAudioStream != null;
+			for (int i = 0; i < len && !abortRequested; i++) {
+				Element currentInputParagraph = (Element) inputDataList.item(i);
+				assert currentInputParagraph.getTagName().equals(MaryXML.PARAGRAPH);
+				MaryData oneOutputData = null;
+				// Only process paragraph if there is any text below it:
+				if (!MaryDomUtils.getPlainTextBelow(currentInputParagraph).trim().equals("")) {
+					MaryData oneInputData = extractParagraphAsMaryData(rawmaryxml, currentInputParagraph);
+					// assert oneInputData.getDefaultVoice() != null;
+					oneOutputData = processOrLookupOneChunk(oneInputData, outputType, outputTypeParams);
+					// assert oneOutputData.getDefaultVoice() != null;
 				}
-			}
-			if (outputType.isMaryXML()) {
-				assert outputNodeList != null;
-				// And now replace the paragraph in-place:
-				MaryDomUtils.replaceElement(currentInputParagraph, outputNodeList);
+				mergeParagraphOutput(currentInputParagraph, oneOutputData);
 			}
 		}
 		long stopTime = System.currentTimeMillis();
@@ -361,6 +366,126 @@ public class Request {
 			appendableAudioStream.doneAppending();
 	}
 
+	/**
+	 * Process the paragraphs of the request on the shared paragraph worker pool, keeping at most <code>parallelism</code>
+	 * paragraphs in flight at any time. The results are merged into the output data strictly in document order, so that audio for
+	 * the first paragraph can be streamed while later paragraphs are still being computed.
+	 *
+	 * @param rawmaryxml
+	 *            the RAWMARYXML document containing the paragraphs
+	 * @param inputDataList
+	 *            the paragraph elements of rawmaryxml, as returned by {@link #splitIntoChunks(MaryData)}
+	 * @param parallelism
+	 *            the maximum number of paragraphs of this request to process at the same time
+	 * @throws Exception
+	 *             if processing any of the paragraphs fails
+	 */
+	private void processParagraphsInParallel(final MaryData rawmaryxml, NodeList inputDataList, int parallelism)
+			throws Exception {
+		int len = inputDataList.getLength();
+		// The node list is live, and merging replaces paragraphs in-place, so remember the original elements:
+		Element[] paragraphs = new Element[len];
+		for (int i = 0; i < len; i++) {
+			paragraphs[i] = (Element) inputDataList.item(i);
+			assert paragraphs[i].getTagName().equals(MaryXML.PARAGRAPH);
+		}
+		ExecutorService executor = getParagraphExecutor();
+		List<Future<MaryData>> pending = new ArrayList<Future<MaryData>>(len);
+		try {
+			for (int i = 0; i < len && !abortRequested; i++) {
+				// Keep the window of submitted paragraphs filled; the DOM is only ever accessed from this thread:
+				while (pending.size() < len && pending.size() < i + parallelism) {
+					Element paragraph = paragraphs[pending.size()];
+					Future<MaryData> future = null;
+					// Only process paragraph if there is any text below it:
+					if (!MaryDomUtils.getPlainTextBelow(paragraph).trim().equals("")) {
+						final MaryData oneInputData = extractParagraphAsMaryData(rawmaryxml, paragraph);
+						future = executor.submit(new Callable<MaryData>() {
+							public MaryData call() throws Exception {
+								return processOrLookupOneChunk(oneInputData, outputType, outputTypeParams);
+							}
+						});
+					}
+					pending.add(future);
+				}
+				MaryData oneOutputData = null;
+				Future<MaryData> future = pending.get(i);
+				if (future != null) {
+					try {
+						oneOutputData = future.get();
+					} catch (ExecutionException e) {
+						Throwable cause = e.getCause();
+						if (cause instanceof Exception) {
+							throw (Exception) cause;
+						} else if (cause instanceof Error) {
+							throw (Error) cause;
+						}
+						throw e;
+					}
+					pending.set(i, null);
+				}
+				mergeParagraphOutput(paragraphs[i], oneOutputData);
+			}
+		} finally {
+			// After an error or abort, don't start paragraphs nobody will use. Running ones are not interrupted: an interrupt
+			// during a read from a FileChannel closes the channel, e.g. a voice's timeline, for all later requests.
+			for (Future<MaryData> future : pending) {
+				if (future != null) {
+					future.cancel(false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merge the result of processing one paragraph into the output data.
+	 *
+	 * @param currentInputParagraph
+	 *            the paragraph element in the RAWMARYXML document that was processed
+	 * @param oneOutputData
+	 *            the processing result for the paragraph, or null if the paragraph contains no text
+	 */
+	private void mergeParagraphOutput(Element currentInputParagraph, MaryData oneOutputData) {
+		NodeList outputNodeList = null;
+		if (oneOutputData == null) {
+			outputNodeList = currentInputParagraph.getChildNodes();
+		} else if (outputType.isMaryXML()) {
+			NodeList outParagraphList = oneOutputData.getDocument().getDocumentElement().getElementsByTagName(MaryXML.PARAGRAPH);
+			// This does not hold for Tibetan:
+			// assert outParagraphList.getLength() == 1;
+			outputNodeList = outParagraphList;
+		} else if (attachedChunkAudio != null && oneOutputData.getAudio() == attachedChunkAudio) {
+			// audio is already being streamed, see processOneChunk()
+			attachedChunkAudio = null;
+		} else { // output is not MaryXML, e.g. text or audio
+			assert outputData != null;
+			outputData.append(oneOutputData);
+		}
+		if (outputType.isMaryXML()) {
+			assert outputNodeList != null;
+			// And now replace the paragraph in-place:
+			MaryDomUtils.replaceElement(currentInputParagraph, outputNodeList);
+		}
+	}
+
+	/**
+	 * The worker pool shared by all requests for processing paragraphs in parallel. Its size is given by the property
+	 * <code>request.paragraphs.threads</code>, defaulting to the number of available processors.
+	 *
+	 * @return the paragraph executor, created on first use and again after MARY has been restarted
+	 */
+	private static synchronized ExecutorService getParagraphExecutor() {
+		if (paragraphExecutor == null || paragraphExecutor.isShutdown()) {
+			int threads = MaryProperties.getInteger("request.paragraphs.threads", 0);
+			if (threads <= 0) {
+				threads = Runtime.getRuntime().availableProcessors();
+			}
+			paragraphExecutor = ServerExecutor.registerSharedPool(Executors.newFixedThreadPool(threads,
+					ServerExecutor.namedThreads("paragraph", true)));
+		}
+		return paragraphExecutor;
+	}
+
 	/**
 	 * Convert the given data into the requested output type, either by looking it up in the cache or by actually processing it.
 	 *
@@ -398,7 +523,7 @@ public class Request {
 			cache = MaryCache.getCache();
 		}
 
-		if (cache == null) {
+		if (cache == null || !(oneInputData.getType().isTextType() || oneInputData.getType().isXMLType())) {
 			return processOneChunk(oneInputData, oneOutputType, outputParams, locale);
 		}
 
@@ -406,21 +531,20 @@ public class Request {
 		String outputtype = null;
 		String localeString = null;
 		String voice = null;
-		String inputtext = null;
+		CacheKey inputKey = null;
 
 		// try to look up the requested result in the cache:
 		inputtype = oneInputData.getType().name();
 		outputtype = oneOutputType.name();
-		ByteArrayOutputStream sw = new ByteArrayOutputStream();
-		oneInputData.writeTo(sw);
-		inputtext = new String(sw.toByteArray(), "UTF-8");
+		// digest the input directly from its DOM or text, rather than serializing it:
+		inputKey = CacheKey.ofData(oneInputData);
 		voice = defaultVoice != null ? defaultVoice.getName() : null;
 		localeString = locale.toString();
 
 		if (oneOutputType.isTextType()) {
 			try {
 				String outputtext = cache.lookupText(inputtype, outputtype, localeString, voice, outputParams, defaultStyle,
-						defaultEffects, inputtext);
+						defaultEffects, inputKey);
 				if (outputtext != null) {
 					MaryData outData = new MaryData(oneOutputType, locale);
 					ByteArrayInputStream sr = new ByteArrayInputStream(outputtext.getBytes());
@@ -437,7 +561,7 @@ public class Request {
 		} else if (outputtype.equals("AUDIO")) {
 			try {
 				byte[] wavFileData = cache.lookupAudio(inputtype, localeString, voice, outputParams, defaultStyle,
-						defaultEffects, inputtext);
+						defaultEffects, inputKey);
 				if (wavFileData != null) {
 					AudioInputStream ais = AudioSystem.getAudioInputStream(new ByteArrayInputStream(wavFileData));
 					MaryData outData = new MaryData(oneOutputType, locale);
@@ -453,6 +577,10 @@ public class Request {
 		}
 
 		// Couldn't get it from cache, need to process
+		if (oneOutputType.equals(MaryDataType.AUDIO) && attachChunkAudio) {
+			// Caching the audio would mean waiting for all of it before any of it could be streamed
+			return processOneChunk(oneInputData, oneOutputType, outputParams, locale);
+		}
 		if (oneOutputType.equals(MaryDataType.AUDIO) || oneOutputType.equals(MaryDataType.REALISED_ACOUSTPARAMS)
 				|| oneOutputType.equals(MaryDataType.REALISED_DURATIONS)) {
 			// Special case: when we generate AUDIO, we also remember REALISED_ACOUSTPARAMS and REALISED_DURATIONS formats and
@@ -460,11 +588,11 @@ public class Request {
 			MaryData audioData = processOneChunk(oneInputData, MaryDataType.AUDIO, outputParams, locale);
 			MaryData realisedAcoustparams = processOneChunk(audioData, MaryDataType.REALISED_ACOUSTPARAMS, outputParams, locale);
 			MaryData realisedDurations = processOneChunk(audioData, MaryDataType.REALISED_DURATIONS, outputParams, locale);
-			insertAudioIntoCache(cache, inputtype, localeString, voice, outputParams, inputtext, audioData);
+			insertAudioIntoCache(cache, inputtype, localeString, voice, outputParams, inputKey, audioData);
 			insertTextIntoCache(cache, inputtype, MaryDataType.REALISED_ACOUSTPARAMS.name(), localeString, voice, outputParams,
-					inputtext, realisedAcoustparams);
+					inputKey, realisedAcoustparams);
 			insertTextIntoCache(cache, inputtype, MaryDataType.REALISED_DURATIONS.name(), localeString, voice, outputParams,
-					inputtext, realisedDurations);
+					inputKey, realisedDurations);
 			if (oneOutputType.equals(MaryDataType.AUDIO))
 				return audioData;
 			else if (oneOutputType.equals(MaryDataType.REALISED_ACOUSTPARAMS))
@@ -474,7 +602,7 @@ public class Request {
 			MaryData oneOutputData = processOneChunk(oneInputData, oneOutputType, outputParams, locale);
 			// Remember the processing result in the cache
 			if (oneOutputType.isTextType()) {
-				insertTextIntoCache(cache, inputtype, outputtype, localeString, voice, outputParams, inputtext, oneOutputData);
+				insertTextIntoCache(cache, inputtype, outputtype, localeString, voice, outputParams, inputKey, oneOutputData);
 			} else {
 				logger.debug("Don't know how to cache data of type '" + outputtype + "'");
 			}
@@ -483,25 +611,25 @@ public class Request {
 	}
 
 	private void insertAudioIntoCache(MaryCache cache, String inputtype, String localeString, String voice, String outputParams,
-			String inputtext, MaryData currentData) throws IOException, SQLException, UnsupportedAudioFileException {
+			CacheKey inputKey, MaryData currentData) throws IOException, UnsupportedAudioFileException {
 		AppendableSequenceAudioInputStream as = (AppendableSequenceAudioInputStream) currentData.getAudio();
 		assert as != appendableAudioStream;
 		as.doneAppending();
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(2 * (int) as.getFrameLength() + 100);
 		AudioSystem.write(as, AudioFileFormat.Type.WAVE, baos);
 		byte[] wavFileData = baos.toByteArray();
-		cache.insertAudio(inputtype, localeString, voice, outputParams, defaultStyle, defaultEffects, inputtext, wavFileData);
+		cache.insertAudio(inputtype, localeString, voice, outputParams, defaultStyle, defaultEffects, inputKey, wavFileData);
 		AudioInputStream ais = AudioSystem.getAudioInputStream(new ByteArrayInputStream(wavFileData));
 		currentData.setAudio(ais);
 	}
 
 	private void insertTextIntoCache(MaryCache cache, String inputtype, String outputtype, String localeString, String voice,
-			String outputParams, String inputtext, MaryData currentData) {
+			String outputParams, CacheKey inputKey, MaryData currentData) {
 		try {
 			ByteArrayOutputStream sw = new ByteArrayOutputStream();
 			currentData.writeTo(sw);
 			String outputtext = new String(sw.toByteArray(), "UTF-8");
-			cache.insertText(inputtype, outputtype, localeString, voice, outputParams, defaultStyle, defaultEffects, inputtext,
+			cache.insertText(inputtype, outputtype, localeString, voice, outputParams, defaultStyle, defaultEffects, inputKey,
 					outputtext);
 		} catch (Exception e) {
 			logger.warn("Problem inserting text into cache", e);
@@ -546,7 +674,16 @@ public class Request {
 			// from where it is required.)
 			if (m.getOutputType() == MaryDataType.get("AUDIO")) {
 				currentData.setAudioFileFormat(audioFileFormat);
-				currentData.setAudio(new AppendableSequenceAudioInputStream(audioFileFormat.getFormat(), null));
+				AppendableSequenceAudioInputStream chunkAudio = new AppendableSequenceAudioInputStream(audioFileFormat.getFormat(),
+						null);
+				currentData.setAudio(chunkAudio);
+				if (attachChunkAudio) {
+					// Let the client read this chunk's audio while it is being synthesized,
+					// rather than only when the whole chunk is done:
+					appendableAudioStream.append(chunkAudio);
+					attachedChunkAudio = chunkAudio;
+					currentData.setStreamingAudio(true);
+				}
 			}
 			// TODO: The following hack makes sure that the Synthesis module gets outputParams. Make this more general and robust.
 			if (m.getOutputType() == oneOutputType || m.getOutputType() == MaryDataType.AUDIO) {
@@ -564,6 +701,10 @@ public class Request {
 			try {
 				outData = m.process(currentData);
 			} catch (Exception e) {
+				if (attachedChunkAudio != null) {
+					// don't leave the client waiting for the rest of the audio
+					attachedChunkAudio.doneAppending();
+				}
 				throw new Exception("Module " + m.name() + ": Problem processing the data.", e);
 			}
 
@@ -577,11 +718,13 @@ public class Request {
 			currentData = outData;
 			long moduleStopTime = System.currentTimeMillis();
 			long delta = moduleStopTime - moduleStartTime;
-			Long soFar = timingInfo.get(m);
-			if (soFar != null)
-				timingInfo.put(m, Long.valueOf(soFar.longValue() + delta));
-			else
-				timingInfo.put(m, Long.valueOf(delta));
+			synchronized (timingInfo) {
+				Long soFar = timingInfo.get(m);
+				if (soFar != null)
+					timingInfo.put(m, Long.valueOf(soFar.longValue() + delta));
+				else
+					timingInfo.put(m, Long.valueOf(delta));
+			}
 			if (MaryRuntimeUtils.veryLowMemoryCondition()) {
 				logger.info("Very low memory condition detected (only " + MaryUtils.availableMemory()
 						+ " bytes left). Triggering garbage collection.");
@@ -55,7 +55,8 @@ import org.apache.logging.log4j.core.layout.PatternLayout;
 import org.xml.sax.SAXParseException;
 
 /**
- * A lightweight process handling one Request in a thread of its own. This is to be used when running as a socket server.
+ * A lightweight process handling one Request in a thread of its own. This is to be used when running as a socket server, where
+ * request handlers are run by the server's {@link ServerExecutor} rather than started directly.
  *
  * @author Marc Schr&ouml;der
  */
@@ -182,16 +183,7 @@ public class RequestHandler extends Thread {
 		// For simple clients, we need to close the infoSocket before sending
 		// the data on dataSocket. Otherwise there may be deadlock.
 		try {
-			if (clientLogger != null) {
-                            // Remove appender
-                            final LoggerContext ctx = (LoggerContext) LogManager.getContext(false);
-                            final Configuration config = ctx.getConfiguration();
-                            config.getLoggerConfig(clientLogger.getName()).removeAppender(clientLogger.getName());
-                            ctx.updateLoggers();
-
-                            // Free reference to the logger
-                            clientLogger = null;
-			}
+			removeClientLogger();
 			infoSocket.close();
 		} catch (IOException e) {
 			logger.warn("Couldn't close info socket properly.", e);
@@ -235,6 +227,44 @@ public class RequestHandler extends Thread {
 
 	} // run()
 
+	/**
+	 * Refuse to handle the request, e.g. because the server is busy. The message is sent to the client via the info socket, and
+	 * both sockets are closed. This is an alternative to {@link #run()}, and must not be called after it.
+	 *
+	 * @param message
+	 *            the reason for the rejection, for the client
+	 */
+	public void reject(String message) {
+		logger.warn("Rejecting request: " + message);
+		if (clientLogger != null) {
+			clientLogger.error(message);
+		}
+		removeClientLogger();
+		try {
+			infoSocket.close();
+		} catch (IOException e) {
+			logger.warn("Couldn't close info socket properly.", e);
+		}
+		try {
+			dataSocket.close();
+		} catch (IOException e) {
+			logger.warn("Couldn't close data socket properly.", e);
+		}
+	}
+
+	private void removeClientLogger() {
+		if (clientLogger != null) {
+                    // Remove appender
+                    final LoggerContext ctx = (LoggerContext) LogManager.getContext(false);
+                    final Configuration config = ctx.getConfiguration();
+                    config.getLoggerConfig(clientLogger.getName()).removeAppender(clientLogger.getName());
+                    ctx.updateLoggers();
+
+                    // Free reference to the logger
+                    clientLogger = null;
+		}
+	}
+
 	public static class StreamingOutputWriter extends Thread {
 		private Request request;
 		private OutputStream output;
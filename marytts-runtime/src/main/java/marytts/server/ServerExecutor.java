@@ -0,0 +1,388 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.server;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import marytts.util.MaryUtils;
+
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs server requests according to a configurable execution model, with admission control and gauges for the number of active
+ * and waiting requests.
+ * <p>
+ * The following modes are available:
+ * <ul>
+ * <li><code>cached</code>: one thread per request, without any limit (the traditional behaviour);</li>
+ * <li><code>bounded</code>: a fixed pool of worker threads; requests beyond the number of threads wait in a queue of limited
+ * size, and requests beyond that are rejected;</li>
+ * <li><code>virtual</code>: one virtual thread per request, with the same limits as <code>bounded</code>. Virtual threads need
+ * Java 21 or later; on older Java versions, this falls back to <code>bounded</code>.</li>
+ * </ul>
+ * <p>
+ * It also keeps the pools that requests share for work within a request, such as the {@link #getComputePool() compute pool},
+ * so that {@link #shutdownSharedPools()} can stop them when MARY shuts down.
+ */
+public class ServerExecutor {
+	public enum Mode {
+		CACHED, BOUNDED, VIRTUAL
+	}
+
+	private final Logger logger = MaryUtils.getLogger("server");
+	private final Mode mode;
+	private final ExecutorService executor;
+	// runs tasks alongside accepted requests, see execute():
+	private final ExecutorService companions;
+	private final int maxInFlight;
+	// limits the number of running requests where the executor does not:
+	private final Semaphore running;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final LatencyStats queueTime = new LatencyStats();
+
+	// the pools shared by all requests, see registerSharedPool():
+	private static final List<ExecutorService> sharedPools = new ArrayList<ExecutorService>();
+	private static ExecutorService computePool;
+	private static int computeThreads;
+
+	/**
+	 * Create an executor from the properties <code>prefix.executor</code> (the mode name), <code>prefix.threads</code> and
+	 * <code>prefix.queue</code>.
+	 *
+	 * @param prefix
+	 *            the property prefix, e.g. "server.socket"
+	 * @param threadName
+	 *            the name prefix for the worker threads
+	 * @return the executor
+	 */
+	public static ServerExecutor fromProperties(String prefix, String threadName) {
+		String modeName = MaryProperties.getProperty(prefix + ".executor", "cached");
+		Mode mode;
+		try {
+			mode = Mode.valueOf(modeName.trim().toUpperCase(Locale.ENGLISH));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown value for " + prefix + ".executor: '" + modeName
+					+ "' -- expected one of cached, bounded, virtual");
+		}
+		int threads = MaryProperties.getInteger(prefix + ".threads", Runtime.getRuntime().availableProcessors());
+		int queue = MaryProperties.getInteger(prefix + ".queue", 4 * threads);
+		return new ServerExecutor(mode, threads, queue, threadName);
+	}
+
+	/**
+	 * Create an executor.
+	 *
+	 * @param mode
+	 *            the execution model
+	 * @param threads
+	 *            the maximum number of requests to run at the same time; ignored for {@link Mode#CACHED}.
+	 * @param queueSize
+	 *            the maximum number of requests waiting to run; ignored for {@link Mode#CACHED}.
+	 * @param threadName
+	 *            the name prefix for the worker threads
+	 */
+	public ServerExecutor(Mode mode, int threads, int queueSize, String threadName) {
+		if (mode != Mode.CACHED && threads <= 0) {
+			throw new IllegalArgumentException("Need at least one thread, got " + threads);
+		}
+		ExecutorService virtual = null;
+		if (mode == Mode.VIRTUAL) {
+			virtual = newVirtualThreadExecutor();
+			if (virtual == null) {
+				logger.warn("Virtual threads are not available in Java " + System.getProperty("java.version")
+						+ " -- using a bounded thread pool instead");
+				mode = Mode.BOUNDED;
+			}
+		}
+		this.mode = mode;
+		switch (mode) {
+		case BOUNDED:
+			executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					namedThreads(threadName));
+			running = null;
+			maxInFlight = threads + Math.max(0, queueSize);
+			break;
+		case VIRTUAL:
+			executor = virtual;
+			running = new Semaphore(threads);
+			maxInFlight = threads + Math.max(0, queueSize);
+			break;
+		default:
+			executor = Executors.newCachedThreadPool(namedThreads(threadName));
+			running = null;
+			maxInFlight = Integer.MAX_VALUE;
+		}
+		// a bounded pool could queue a companion behind the very request that waits for it:
+		companions = mode == Mode.BOUNDED ? Executors.newCachedThreadPool(namedThreads(threadName + "-io")) : executor;
+		logger.info("Running requests in " + mode.name().toLowerCase(Locale.ENGLISH) + " mode"
+				+ (mode != Mode.CACHED ? " (" + threads + " threads, queue of " + (maxInFlight - threads) + ")" : ""));
+	}
+
+	/**
+	 * An executor running each task in a new virtual thread.
+	 *
+	 * @return the executor, or null if virtual threads are not supported by the running Java version.
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A thread factory naming its threads <code>name-1</code>, <code>name-2</code>, and so on.
+	 *
+	 * @param name
+	 *            the name prefix for the threads
+	 * @return the thread factory
+	 */
+	public static ThreadFactory namedThreads(String name) {
+		return namedThreads(name, false);
+	}
+
+	/**
+	 * A thread factory naming its threads <code>name-1</code>, <code>name-2</code>, and so on.
+	 *
+	 * @param name
+	 *            the name prefix for the threads
+	 * @param daemon
+	 *            whether the threads are daemon threads, which do not keep the JVM from exiting
+	 * @return the thread factory
+	 */
+	public static ThreadFactory namedThreads(final String name, final boolean daemon) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+				t.setDaemon(daemon);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * The pool shared by all requests for splitting CPU-bound work, such as target cost computation or vocoding, across
+	 * several threads. There is one pool for all such work so that together it does not take more threads than there are
+	 * processors. Its size is given by the property <code>server.compute.threads</code>, defaulting to the number of available
+	 * processors. Tasks run on this pool must not wait for other tasks run on it.
+	 *
+	 * @return the compute pool, created on first use
+	 */
+	public static synchronized ExecutorService getComputePool() {
+		if (computePool == null) {
+			int threads = MaryProperties.getInteger("server.compute.threads", 0);
+			if (threads <= 0) {
+				threads = Runtime.getRuntime().availableProcessors();
+			}
+			computeThreads = threads;
+			computePool = registerSharedPool(Executors.newFixedThreadPool(threads, namedThreads("compute", true)));
+		}
+		return computePool;
+	}
+
+	/**
+	 * The number of threads of the {@link #getComputePool() compute pool}.
+	 *
+	 * @return the number of threads, creating the pool if needed
+	 */
+	public static synchronized int getComputeThreads() {
+		getComputePool();
+		return computeThreads;
+	}
+
+	/**
+	 * Register a pool shared by requests, so that it is shut down by {@link #shutdownSharedPools()}. Code creating such a pool
+	 * on first use should create a new one if the old one has been shut down.
+	 *
+	 * @param pool
+	 *            the pool
+	 * @return the pool
+	 */
+	public static synchronized <T extends ExecutorService> T registerSharedPool(T pool) {
+		sharedPools.add(pool);
+		return pool;
+	}
+
+	/**
+	 * Shut down all shared pools, letting the tasks already submitted finish. Called when MARY shuts down.
+	 */
+	public static synchronized void shutdownSharedPools() {
+		for (ExecutorService pool : sharedPools) {
+			pool.shutdown();
+		}
+		sharedPools.clear();
+		computePool = null;
+	}
+
+	/**
+	 * Submit a request for execution, unless the maximum number of running and waiting requests has been reached.
+	 *
+	 * @param task
+	 *            the request to run
+	 * @return true if the request was accepted, false if it was rejected because the server is busy.
+	 */
+	public boolean trySubmit(final Runnable task) {
+		if (inFlight.incrementAndGet() > maxInFlight) {
+			inFlight.decrementAndGet();
+			rejected.incrementAndGet();
+			return false;
+		}
+		queued.incrementAndGet();
+		final long submitted = System.nanoTime();
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						if (running != null) {
+							running.acquireUninterruptibly();
+						}
+						queued.decrementAndGet();
+						queueTime.record(System.nanoTime() - submitted);
+						active.incrementAndGet();
+						try {
+							task.run();
+						} finally {
+							active.decrementAndGet();
+							if (running != null) {
+								running.release();
+							}
+						}
+					} finally {
+						inFlight.decrementAndGet();
+						completed.incrementAndGet();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			queued.decrementAndGet();
+			inFlight.decrementAndGet();
+			rejected.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Run a task that belongs to a request already running, such as writing the request's output while it is being produced.
+	 * The task is not subject to admission control, and it never waits for a worker thread, as the request may wait for it.
+	 *
+	 * @param task
+	 *            the task to run
+	 * @throws RejectedExecutionException
+	 *             if the executor has been shut down
+	 */
+	public void execute(Runnable task) {
+		companions.execute(task);
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * The number of accepted requests that are waiting to run.
+	 *
+	 * @return the current queue depth
+	 */
+	public int getQueueDepth() {
+		return queued.get();
+	}
+
+	/**
+	 * The number of requests currently running.
+	 *
+	 * @return the number of active requests
+	 */
+	public int getActiveRequests() {
+		return active.get();
+	}
+
+	/**
+	 * The number of requests rejected so far because the server was busy.
+	 *
+	 * @return the number of rejected requests
+	 */
+	public long getRejectedRequests() {
+		return rejected.get();
+	}
+
+	/**
+	 * The number of requests that have finished running so far.
+	 *
+	 * @return the number of completed requests
+	 */
+	public long getCompletedRequests() {
+		return completed.get();
+	}
+
+	/**
+	 * The average time that requests have waited in the queue before starting to run.
+	 *
+	 * @return the average queue time in milliseconds, or 0 if no request has started yet.
+	 */
+	public double getAverageQueueMillis() {
+		return queueTime.getAverageMillis();
+	}
+
+	/**
+	 * The longest time that any request has waited in the queue before starting to run.
+	 *
+	 * @return the maximum queue time in milliseconds
+	 */
+	public double getMaxQueueMillis() {
+		return queueTime.getMaxMillis();
+	}
+
+	/**
+	 * Stop accepting requests; requests already accepted are still run.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		companions.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return mode.name().toLowerCase(Locale.ENGLISH) + ": " + getActiveRequests() + " active, " + getQueueDepth() + " queued, "
+				+ getRejectedRequests() + " rejected, " + getCompletedRequests() + " completed, "
+				+ queueTime + " queue time";
+	}
+}
@@ -20,14 +20,20 @@
 
 package marytts.server.http;
 
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 
+import marytts.server.LatencyStats;
 import marytts.server.Request;
 import marytts.util.MaryUtils;
 
@@ -41,43 +47,119 @@ import org.apache.http.nio.util.SharedOutputBuffer;
 import org.apache.logging.log4j.Logger;
 
 /**
+ * Sends the audio of a streaming request as a chunked response, while the request is still being processed. Every block of
+ * audio is flushed to the client as soon as it can be read from the request's audio stream, i.e. as soon as the synthesizer
+ * has produced it.
+ * <p>
+ * WAVE output is written with a header that leaves the length open, followed by the PCM data; {@link #RAW} output is the PCM
+ * data alone. All other types are written by <code>AudioSystem</code>.
+ * 
  * @author marc
  * 
  */
 public class AudioStreamNHttpEntity extends AbstractHttpEntity implements ProducingNHttpEntity, Runnable {
+	/**
+	 * Headerless PCM data in the audio format of the request; only available for streaming.
+	 */
+	public static final AudioFileFormat.Type RAW = new AudioFileFormat.Type("RAW", "raw");
+
+	private static final int CHUNK_BYTES = 4096;
+
+	private final int requestId;
 	private Request maryRequest;
 	private AudioInputStream audio;
 	private AudioFileFormat.Type audioType;
-	private Logger logger;
+	private final Logger logger;
 	private Object mutex;
-	private SharedOutputBuffer out;
+	private volatile SharedOutputBuffer out;
+	private volatile IOControl ioControl;
+	// set by the writer when reading the audio has failed, i.e. synthesis has failed
+	private volatile IOException audioFailure;
+	private boolean writing = false;
+	private boolean finished = false;
+	private long startNanos;
+	private LatencyStats firstAudioStats;
 
 	public AudioStreamNHttpEntity(Request maryRequest) {
+		this.requestId = maryRequest.getId();
 		this.maryRequest = maryRequest;
 		this.audio = maryRequest.getAudio();
 		this.audioType = maryRequest.getAudioFileFormat().getType();
 		setContentType(MaryHttpServerUtils.getMimeType(audioType));
+		setChunked(true);
+		this.logger = MaryUtils.getLogger("HTTPWriter " + requestId);
 		this.mutex = new Object();
+		this.startNanos = System.nanoTime();
+	}
+
+	public int getRequestId() {
+		return requestId;
+	}
+
+	/**
+	 * Measure the time to the first audio byte from the given start time, and record it in the given statistics.
+	 * 
+	 * @param startNanos
+	 *            the time when the request was received, as given by <code>System.nanoTime()</code>
+	 * @param stats
+	 *            where to record the time to the first audio byte; may be null.
+	 */
+	public void trackFirstAudio(long startNanos, LatencyStats stats) {
+		this.startNanos = startNanos;
+		this.firstAudioStats = stats;
+	}
+
+	/**
+	 * Process the request in the calling thread. Audio becomes available to {@link #run()} while processing is still going on.
+	 */
+	public void processRequest() {
+		Request request = maryRequest;
+		if (request == null) { // already finished, e.g. because the client has disconnected
+			return;
+		}
+		Logger myLogger = MaryUtils.getLogger("RH " + requestId);
+		try {
+			request.process();
+			myLogger.info("Streaming request processed successfully.");
+		} catch (Throwable t) {
+			myLogger.error("Processing failed.", t);
+		} finally {
+			// make sure the writer sees the end of the stream even if processing failed:
+			request.getAudio().doneAppending();
+		}
 	}
 
 	public void finish() {
-		assert logger != null : "we should never be able to write if run() is not called";
 		logger.info("Completed sending streaming audio");
+		boolean writerStarted;
+		synchronized (mutex) {
+			finished = true;
+			writerStarted = writing;
+			mutex.notify();
+		}
+		if (out != null) {
+			// unblock the writer if the client went away before the end
+			out.shutdown();
+		}
+		if (!writerStarted) {
+			// run() will not touch the request any more, so stop it here
+			stopProducing(maryRequest, audio);
+		}
 		maryRequest = null;
 		audio = null;
 		audioType = null;
-		logger = null;
 	}
 
 	public void produceContent(ContentEncoder encoder, IOControl ioctrl) throws IOException {
 		if (out == null) {
+			ioControl = ioctrl;
 			synchronized (mutex) {
 				out = new SharedOutputBuffer(8192, ioctrl, new HeapByteBufferAllocator());
 				mutex.notify();
 			}
 		}
-		while (!encoder.isCompleted())
-			out.produceContent(encoder);
+		// Send what is there; when the buffer runs empty, it suspends output until the writer thread flushes more data.
+		out.produceContent(encoder);
 	}
 
 	public long getContentLength() {
@@ -101,29 +183,191 @@ public class AudioStreamNHttpEntity extends AbstractHttpEntity implements Produc
 	}
 
 	/**
-	 * Wait for the SharedOutputBuffer to become available, write audio data to it.
+	 * Wait for the SharedOutputBuffer to become available, write audio data to it. If the audio cannot be written, the request
+	 * is aborted and its audio closed, so that the threads producing the audio stop.
 	 */
 	public void run() {
-		this.logger = MaryUtils.getLogger(Thread.currentThread().getName());
-		// We must wait until produceContent() is called:
-		while (out == null) {
-			synchronized (mutex) {
-				try {
-					mutex.wait();
-				} catch (InterruptedException e) {
-				}
+		// finish() clears the fields while this may still be writing, so work on copies:
+		Request request;
+		AudioInputStream trackedAudio;
+		AudioFileFormat.Type type;
+		synchronized (mutex) {
+			if (finished) {
+				logger.info("Client disconnected before any output was sent");
+				return;
 			}
+			writing = true;
+			request = maryRequest;
+			trackedAudio = trackFirstRead(audio);
+			type = audioType;
 		}
-		assert out != null;
-		ContentOutputStream outStream = new ContentOutputStream(out);
+		boolean completed = false;
 		try {
-			AudioSystem.write(audio, audioType, outStream);
-			outStream.flush();
+			// We must wait until produceContent() is called:
+			SharedOutputBuffer buffer;
+			synchronized (mutex) {
+				while (out == null && !finished) {
+					try {
+						mutex.wait();
+					} catch (InterruptedException e) {
+					}
+				}
+				buffer = out;
+			}
+			if (buffer == null) {
+				logger.info("Client disconnected before any output was sent");
+				return;
+			}
+			OutputStream outStream = new FlushingOutputStream(new ContentOutputStream(buffer));
+			if (isPlainPCM(trackedAudio.getFormat()) && (type == AudioFileFormat.Type.WAVE || type == RAW)) {
+				if (type == AudioFileFormat.Type.WAVE) {
+					outStream.write(streamingWaveHeader(trackedAudio.getFormat()));
+				}
+				byte[] buf = new byte[CHUNK_BYTES];
+				int nRead;
+				while ((nRead = trackedAudio.read(buf)) != -1) {
+					outStream.write(buf, 0, nRead);
+				}
+			} else {
+				AudioSystem.write(trackedAudio, type, outStream);
+			}
 			outStream.close();
+			completed = true;
 			logger.info("Finished writing output");
 		} catch (IOException ioe) {
-			logger.info("Cannot write output, client seems to have disconnected. ", ioe);
-			maryRequest.abort();
+			if (audioFailure != null) {
+				logger.error("Cannot produce audio, closing the connection", audioFailure);
+				closeConnection();
+			} else {
+				logger.info("Cannot write output, client seems to have disconnected. ", ioe);
+			}
+		} catch (RuntimeException e) {
+			// e.g. IllegalStateException from the output buffer after finish() has shut it down
+			logger.info("Cannot write output, client seems to have disconnected. ", e);
+		} finally {
+			stopProducing(completed ? null : request, trackedAudio);
+		}
+	}
+
+	/**
+	 * Close the connection without ending the chunked response, so that the client can tell that the audio is incomplete.
+	 */
+	private void closeConnection() {
+		IOControl ioctrl = ioControl;
+		if (ioctrl != null) {
+			try {
+				ioctrl.shutdown();
+			} catch (IOException e) {
+				logger.debug("Cannot close connection", e);
+			}
+		}
+	}
+
+	/**
+	 * Abort the request, if any, and close its audio, so that the threads producing the audio stop rather than wait forever for
+	 * it to be read.
+	 */
+	private void stopProducing(Request request, AudioInputStream ais) {
+		if (request != null) {
+			request.abort();
+		}
+		if (ais != null) {
+			try {
+				ais.close();
+			} catch (IOException e) {
+				logger.debug("Cannot close audio", e);
+			}
+		}
+	}
+
+	/**
+	 * Whether audio in the given format can be written into a WAVE file as it is.
+	 */
+	private static boolean isPlainPCM(AudioFormat format) {
+		if (format.getSampleSizeInBits() == 8) {
+			return format.getEncoding() == AudioFormat.Encoding.PCM_UNSIGNED;
+		}
+		return format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED && !format.isBigEndian();
+	}
+
+	/**
+	 * A WAVE header whose RIFF and data chunk lengths are set to the maximum value, as is usual for streams of unknown length.
+	 */
+	private static byte[] streamingWaveHeader(AudioFormat format) {
+		int sampleRate = (int) format.getSampleRate();
+		ByteBuffer header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(new byte[] { 'R', 'I', 'F', 'F' }).putInt(-1).put(new byte[] { 'W', 'A', 'V', 'E' });
+		header.put(new byte[] { 'f', 'm', 't', ' ' }).putInt(16).putShort((short) 1).putShort((short) format.getChannels())
+				.putInt(sampleRate).putInt(sampleRate * format.getFrameSize()).putShort((short) format.getFrameSize())
+				.putShort((short) format.getSampleSizeInBits());
+		header.put(new byte[] { 'd', 'a', 't', 'a' }).putInt(-1);
+		return header.array();
+	}
+
+	/**
+	 * Wrap the audio so that the time of the first successful read is logged and recorded, and a failure to read is noted.
+	 */
+	private AudioInputStream trackFirstRead(AudioInputStream ais) {
+		InputStream tracking = new FilterInputStream(ais) {
+			private boolean seen = false;
+
+			@Override
+			public int read() throws IOException {
+				int b;
+				try {
+					b = super.read();
+				} catch (IOException e) {
+					audioFailure = e;
+					throw e;
+				}
+				if (b != -1) {
+					firstAudio();
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n;
+				try {
+					n = super.read(b, off, len);
+				} catch (IOException e) {
+					audioFailure = e;
+					throw e;
+				}
+				if (n > 0) {
+					firstAudio();
+				}
+				return n;
+			}
+
+			private void firstAudio() {
+				if (seen) {
+					return;
+				}
+				seen = true;
+				long nanos = System.nanoTime() - startNanos;
+				logger.info("First audio available after " + (nanos / 1000000) + " ms");
+				if (firstAudioStats != null) {
+					firstAudioStats.record(nanos);
+				}
+			}
+		};
+		return new AudioInputStream(tracking, ais.getFormat(), ais.getFrameLength());
+	}
+
+	/**
+	 * Pushes every write on to the client right away, rather than waiting for the buffer to fill up.
+	 */
+	private static class FlushingOutputStream extends FilterOutputStream {
+		FlushingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			out.flush();
 		}
 	}
 }
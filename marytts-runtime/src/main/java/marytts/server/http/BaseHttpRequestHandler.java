@@ -19,10 +19,7 @@
  */
 package marytts.server.http;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.channels.FileChannel;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -57,14 +54,10 @@ import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.MethodNotSupportedException;
-import org.apache.http.nio.ContentDecoder;
-import org.apache.http.nio.ContentDecoderChannel;
-import org.apache.http.nio.FileContentDecoder;
-import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.BufferingNHttpEntity;
 import org.apache.http.nio.entity.ConsumingNHttpEntity;
-import org.apache.http.nio.entity.ConsumingNHttpEntityTemplate;
-import org.apache.http.nio.entity.ContentListener;
 import org.apache.http.nio.protocol.SimpleNHttpRequestHandler;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpRequestHandler;
 import org.apache.http.util.EntityUtils;
@@ -76,8 +69,6 @@ import org.apache.logging.log4j.Logger;
  * @author Oytun T&uuml;rk, Marc Schröder
  */
 public abstract class BaseHttpRequestHandler extends SimpleNHttpRequestHandler implements HttpRequestHandler {
-	private final boolean useFileChannels = true;
-
 	protected static Logger logger;
 	private int runningNumber = 1;
 	private Map<String, Object[]> requestMap;
@@ -155,47 +146,13 @@ public abstract class BaseHttpRequestHandler extends SimpleNHttpRequestHandler i
 		return new Address(fullAddress);
 	}
 
+	/**
+	 * Buffer the request body in memory, so that {@link #handle(HttpRequest, HttpResponse, HttpContext)} can read POST
+	 * parameters from it once the request is complete.
+	 */
 	public ConsumingNHttpEntity entityRequest(final HttpEntityEnclosingRequest request, final HttpContext context)
 			throws HttpException, IOException {
-		return new ConsumingNHttpEntityTemplate(request.getEntity(), new FileWriteListener(useFileChannels));
-	}
-
-	static class FileWriteListener implements ContentListener {
-		private final File file;
-		private final FileInputStream inputFile;
-		private final FileChannel fileChannel;
-		private final boolean useFileChannels;
-		private long idx = 0;
-
-		public FileWriteListener(boolean useFileChannels) throws IOException {
-			this.file = File.createTempFile("tmp", ".tmp", null);
-			this.inputFile = new FileInputStream(file);
-			this.fileChannel = inputFile.getChannel();
-			this.useFileChannels = useFileChannels;
-		}
-
-		public void contentAvailable(ContentDecoder decoder, IOControl ioctrl) throws IOException {
-			long transferred;
-			if (useFileChannels && decoder instanceof FileContentDecoder) {
-				transferred = ((FileContentDecoder) decoder).transfer(fileChannel, idx, Long.MAX_VALUE);
-			} else {
-				transferred = fileChannel.transferFrom(new ContentDecoderChannel(decoder), idx, Long.MAX_VALUE);
-			}
-
-			if (transferred > 0)
-				idx += transferred;
-		}
-
-		public void finished() {
-			try {
-				inputFile.close();
-			} catch (IOException ignored) {
-			}
-			try {
-				fileChannel.close();
-			} catch (IOException ignored) {
-			}
-		}
+		return new BufferingNHttpEntity(request.getEntity(), new HeapByteBufferAllocator());
 	}
 
 }
@@ -26,7 +26,13 @@ import java.util.Map;
 
 import marytts.features.FeatureProcessorManager;
 import marytts.features.FeatureRegistry;
+import marytts.htsengine.HMMVoice;
+import marytts.htsengine.HTSModelCache;
 import marytts.modules.synthesis.Voice;
+import marytts.server.LatencyStats;
+import marytts.server.ServerExecutor;
+import marytts.unitselection.UnitSelectionVoice;
+import marytts.unitselection.select.JoinCostCache;
 import marytts.util.MaryRuntimeUtils;
 import marytts.util.MaryUtils;
 import marytts.util.http.Address;
@@ -42,8 +48,19 @@ import org.apache.http.nio.entity.NStringEntity;
  */
 public class InfoRequestHandler extends BaseHttpRequestHandler {
 
+	private final SynthesisRequestHandler synthesisHandler;
+
 	public InfoRequestHandler() {
+		this(null);
+	}
+
+	/**
+	 * @param synthesisHandler
+	 *            the synthesis request handler whose gauges are reported for <code>status</code> requests; may be null.
+	 */
+	public InfoRequestHandler(SynthesisRequestHandler synthesisHandler) {
 		super();
+		this.synthesisHandler = synthesisHandler;
 	}
 
 	@Override
@@ -77,6 +94,8 @@ public class InfoRequestHandler extends BaseHttpRequestHandler {
 
 		if (request.equals("version"))
 			return MaryRuntimeUtils.getMaryVersion();
+		else if (request.equals("status"))
+			return getStatus();
 		else if (request.equals("datatypes"))
 			return MaryRuntimeUtils.getDataTypes();
 		else if (request.equals("locales"))
@@ -213,4 +232,38 @@ public class InfoRequestHandler extends BaseHttpRequestHandler {
 		return null;
 	}
 
+	private String getStatus() {
+		if (synthesisHandler == null) {
+			return "";
+		}
+		ServerExecutor synthesisExecutor = synthesisHandler.getSynthesisExecutor();
+		LatencyStats firstAudio = synthesisHandler.getFirstAudioStats();
+		StringBuilder buf = new StringBuilder();
+		buf.append("mode ").append(synthesisExecutor.getMode().name().toLowerCase(Locale.ENGLISH)).append("\n");
+		buf.append("active ").append(synthesisExecutor.getActiveRequests()).append("\n");
+		buf.append("queued ").append(synthesisExecutor.getQueueDepth()).append("\n");
+		buf.append("rejected ").append(synthesisExecutor.getRejectedRequests()).append("\n");
+		buf.append("completed ").append(synthesisExecutor.getCompletedRequests()).append("\n");
+		buf.append(String.format(Locale.ENGLISH, "queuetime %.1f %.1f\n", synthesisExecutor.getAverageQueueMillis(),
+				synthesisExecutor.getMaxQueueMillis()));
+		buf.append(String.format(Locale.ENGLISH, "firstaudio %.1f %.1f\n", firstAudio.getAverageMillis(),
+				firstAudio.getMaxMillis()));
+		for (Voice voice : Voice.getAvailableVoices()) {
+			if (voice instanceof UnitSelectionVoice && ((UnitSelectionVoice) voice).getDatabase() != null) {
+				JoinCostCache joinCostCache = ((UnitSelectionVoice) voice).getDatabase().getJoinCostCache();
+				if (joinCostCache != null) {
+					buf.append("joincostcache ").append(voice.getName()).append(" ").append(joinCostCache.getHits()).append(" ")
+							.append(joinCostCache.getMisses()).append("\n");
+				}
+			}
+			if (voice instanceof HMMVoice) {
+				HTSModelCache modelCache = ((HMMVoice) voice).getHMMData().getCartTreeSet().getModelCache();
+				if (modelCache != null) {
+					buf.append("htsmodelcache ").append(voice.getName()).append(" ").append(modelCache.getHits()).append(" ")
+							.append(modelCache.getMisses()).append("\n");
+				}
+			}
+		}
+		return buf.toString();
+	}
 }
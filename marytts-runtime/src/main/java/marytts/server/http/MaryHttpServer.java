@@ -33,8 +33,9 @@ import org.apache.http.impl.DefaultHttpResponseFactory;
 import org.apache.http.impl.nio.DefaultServerIOEventDispatch;
 import org.apache.http.impl.nio.reactor.DefaultListeningIOReactor;
 import org.apache.http.nio.NHttpConnection;
-import org.apache.http.nio.protocol.BufferingHttpServiceHandler;
+import org.apache.http.nio.protocol.AsyncNHttpServiceHandler;
 import org.apache.http.nio.protocol.EventListener;
+import org.apache.http.nio.protocol.NHttpRequestHandlerRegistry;
 import org.apache.http.nio.reactor.IOEventDispatch;
 import org.apache.http.nio.reactor.ListeningIOReactor;
 import org.apache.http.params.BasicHttpParams;
@@ -43,7 +44,6 @@ import org.apache.http.params.CoreProtocolPNames;
 import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.BasicHttpProcessor;
 import org.apache.http.protocol.ExecutionContext;
-import org.apache.http.protocol.HttpRequestHandlerRegistry;
 import org.apache.http.protocol.ResponseConnControl;
 import org.apache.http.protocol.ResponseContent;
 import org.apache.http.protocol.ResponseDate;
@@ -103,6 +103,8 @@ import org.apache.logging.log4j.Logger;
  * <li><code>vocalizations?voice=dfki-poppy</code> requests the list of vocalization names that are available with the given
  * voice;</li>
  * <li><code>styles?voice=dfki-pavoque-styles</code> requests the list of style names that are available with the given voice;</li>
+ * <li><code>status</code> requests the number of active, queued and rejected synthesis requests, their queue time, and the time
+ * until the first audio of streaming requests;</li>
  * <li><code>process</code> requests the synthesis of some text (see below).</li>
  * </ul>
  * <p>
@@ -122,7 +124,8 @@ import org.apache.logging.log4j.Logger;
  * </p>
  * <p>
  * AUDIO (audio format. It may include streaming/non-streaming information as well. Example values for non-streaming formats:
- * AU_FILE, MP3_FILE, WAVE_FILE Example values for streaming formats: AU_STREAM, MP3_STREAM)
+ * AU_FILE, MP3_FILE, WAVE_FILE Example values for streaming formats: AU_STREAM, MP3_STREAM, WAVE_STREAM, RAW_STREAM. Streaming
+ * audio is sent as a chunked response while it is being synthesized; RAW_STREAM is headerless PCM data.)
  * </p>
  * <p>
 * STYLE (Style descriptor)
@@ -204,13 +207,15 @@ public class MaryHttpServer extends Thread {
 		httpproc.addInterceptor(new ResponseContent());
 		httpproc.addInterceptor(new ResponseConnControl());
 
-		BufferingHttpServiceHandler handler = new BufferingHttpServiceHandler(httpproc, new DefaultHttpResponseFactory(),
+		AsyncNHttpServiceHandler handler = new AsyncNHttpServiceHandler(httpproc, new DefaultHttpResponseFactory(),
 				new DefaultConnectionReuseStrategy(), params);
 
 		// Set up request handlers
-		HttpRequestHandlerRegistry registry = new HttpRequestHandlerRegistry();
-		registry.register("/process", new SynthesisRequestHandler());
-		InfoRequestHandler infoRH = new InfoRequestHandler();
+		NHttpRequestHandlerRegistry registry = new NHttpRequestHandlerRegistry();
+		SynthesisRequestHandler synthesisRH = new SynthesisRequestHandler();
+		registry.register("/process", synthesisRH);
+		InfoRequestHandler infoRH = new InfoRequestHandler(synthesisRH);
+		registry.register("/status", infoRH);
 		registry.register("/version", infoRH);
 		registry.register("/datatypes", infoRH);
 		registry.register("/locales", infoRH);
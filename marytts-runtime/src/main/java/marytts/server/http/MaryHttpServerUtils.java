@@ -154,6 +154,8 @@ public class MaryHttpServerUtils {
 			return "audio/x-aiff";
 		} else if (audioType.equals(MaryAudioUtils.getAudioFileFormatType("MP3"))) {
 			return "audio/x-mpeg"; // "audio/x-mp3; //Does not work for Internet Explorer"
+		} else if (audioType == AudioStreamNHttpEntity.RAW) {
+			return "application/octet-stream";
 		}
 		return "audio/basic"; // this is probably wrong but better than text/plain...
 	}
@@ -218,4 +220,18 @@ public class MaryHttpServerUtils {
 		}
 	}
 
+	public static void errorServiceUnavailable(HttpResponse response, String message) {
+		int status = HttpStatus.SC_SERVICE_UNAVAILABLE;
+		response.setStatusCode(status);
+		response.setHeader("Retry-After", "1");
+		logger.debug("Returning HTTP status " + status + ": " + message);
+		try {
+			NStringEntity entity = new NStringEntity("<html><body><h1>Service unavailable</h1><p>" + message
+					+ ".</p></body></html>", "UTF-8");
+			entity.setContentType("text/html; charset=UTF-8");
+			response.setEntity(entity);
+		} catch (UnsupportedEncodingException e) {
+		}
+	}
+
 }
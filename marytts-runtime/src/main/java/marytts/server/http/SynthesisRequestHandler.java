@@ -36,20 +36,28 @@ import javax.sound.sampled.AudioSystem;
 
 import marytts.datatypes.MaryDataType;
 import marytts.modules.synthesis.Voice;
+import marytts.server.LatencyStats;
+import marytts.server.MaryProperties;
 import marytts.server.Request;
 import marytts.server.RequestHandler.StreamingOutputPiper;
 import marytts.server.RequestHandler.StreamingOutputWriter;
+import marytts.server.ServerExecutor;
 import marytts.util.MaryRuntimeUtils;
 import marytts.util.MaryUtils;
 import marytts.util.data.audio.MaryAudioUtils;
 import marytts.util.http.Address;
 
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
-import org.apache.logging.log4j.Logger;
+import org.apache.http.nio.protocol.NHttpResponseTrigger;
+import org.apache.http.protocol.HttpContext;
 
 /**
- * Provides functionality to process synthesis http requests
+ * Provides functionality to process synthesis http requests. Synthesis runs on a separate, bounded executor configured by the
+ * <code>server.http.synthesis.*</code> properties (see {@link ServerExecutor#fromProperties(String, String)}), not on the I/O
+ * reactor threads, so that other requests are served while synthesis is in progress.
  * 
  * @author Oytun T&uuml;rk
  *
@@ -66,8 +74,28 @@ public class SynthesisRequestHandler extends BaseHttpRequestHandler {
 	private PipedOutputStream pipedOutput;
 	private PipedInputStream pipedInput;
 
+	private final ServerExecutor synthesisExecutor;
+	private final long maxQueueMillis;
+	private final LatencyStats firstAudioTime = new LatencyStats();
+
 	public SynthesisRequestHandler() {
+		this(ServerExecutor.fromProperties("server.http.synthesis", "SynthesisRH"), MaryProperties.getInteger(
+				"server.http.synthesis.maxqueuetime", 0));
+	}
+
+	/**
+	 * Create a synthesis request handler that runs requests on the given executor.
+	 *
+	 * @param synthesisExecutor
+	 *            the executor running the synthesis requests
+	 * @param maxQueueMillis
+	 *            requests that have waited longer than this many milliseconds before they could start are answered with
+	 *            "503 Service Unavailable" instead of being processed; 0 means no limit.
+	 */
+	public SynthesisRequestHandler(ServerExecutor synthesisExecutor, long maxQueueMillis) {
 		super();
+		this.synthesisExecutor = synthesisExecutor;
+		this.maxQueueMillis = maxQueueMillis;
 
 		outputToStream = null;
 		streamToPipe = null;
@@ -75,6 +103,72 @@ public class SynthesisRequestHandler extends BaseHttpRequestHandler {
 		pipedInput = null;
 	}
 
+	public ServerExecutor getSynthesisExecutor() {
+		return synthesisExecutor;
+	}
+
+	/**
+	 * The time from receiving a streaming audio request until its first audio data is available for sending.
+	 *
+	 * @return the statistics over all streaming requests so far
+	 */
+	public LatencyStats getFirstAudioStats() {
+		return firstAudioTime;
+	}
+
+	/**
+	 * Called on the I/O reactor thread: hand the request over to the synthesis executor, and submit the response when synthesis
+	 * is done, so that the reactor can go on serving other connections in the meantime. If the executor is full, answer "503
+	 * Service Unavailable" right away. For streaming audio, the response is submitted before synthesis starts, and audio is sent
+	 * as it is produced.
+	 */
+	@Override
+	public void handle(final HttpRequest request, final HttpResponse response, final NHttpResponseTrigger trigger,
+			final HttpContext context) throws HttpException, IOException {
+		final long submitted = System.nanoTime();
+		boolean accepted = synthesisExecutor.trySubmit(new Runnable() {
+			public void run() {
+				long waited = (System.nanoTime() - submitted) / 1000000;
+				logger.debug("Synthesis request waited " + waited + " ms in the queue");
+				try {
+					if (maxQueueMillis > 0 && waited > maxQueueMillis) {
+						logger.info("Dropping synthesis request after " + waited + " ms in the queue");
+						MaryHttpServerUtils.errorServiceUnavailable(response, "Request waited " + waited
+								+ " ms for synthesis to start");
+					} else {
+						handle(request, response, context);
+					}
+					if (response.getEntity() instanceof AudioStreamNHttpEntity) {
+						streamAudio((AudioStreamNHttpEntity) response.getEntity(), response, trigger, submitted);
+					} else {
+						trigger.submitResponse(response);
+					}
+				} catch (HttpException e) {
+					trigger.handleException(e);
+				} catch (IOException e) {
+					trigger.handleException(e);
+				} catch (RuntimeException e) {
+					logger.warn("runtime exception in synthesis request:", e);
+					trigger.handleException(new HttpException("Synthesis failed", e));
+				}
+			}
+		});
+		if (!accepted) {
+			logger.info("Rejecting synthesis request -- " + synthesisExecutor);
+			MaryHttpServerUtils.errorServiceUnavailable(response, "Server busy");
+			trigger.submitResponse(response);
+		}
+	}
+
+	private void streamAudio(AudioStreamNHttpEntity entity, HttpResponse response, NHttpResponseTrigger trigger, long submitted) {
+		entity.trackFirstAudio(submitted, firstAudioTime);
+		// The writer takes the audio data as it becomes available and writes it into the entity.
+		synthesisExecutor.execute(entity);
+		trigger.submitResponse(response);
+		// Synthesize in this thread, so that the request keeps its place in the synthesis executor until it is done.
+		entity.processRequest();
+	}
+
 	@Override
 	protected void handleClientRequest(String absPath, Map<String, String> queryItems, HttpResponse response,
 			Address serverAddressAtClient) throws IOException {
@@ -131,9 +225,18 @@ public class SynthesisRequestHandler extends BaseHttpRequestHandler {
 			if (lastUnderscore != -1) {
 				audioTypeName = audioTypeName.substring(0, lastUnderscore);
 			}
-			try {
-				audioFileFormatType = MaryAudioUtils.getAudioFileFormatType(audioTypeName);
-			} catch (Exception ex) {
+			if (audioTypeName.equals(AudioStreamNHttpEntity.RAW.toString())) {
+				if (!streamingAudio) {
+					MaryHttpServerUtils.errorWrongQueryParameterValue(response, "AUDIO", queryItems.get("AUDIO"),
+							"RAW audio is only available as RAW_STREAM.");
+					return;
+				}
+				audioFileFormatType = AudioStreamNHttpEntity.RAW;
+			} else {
+				try {
+					audioFileFormatType = MaryAudioUtils.getAudioFileFormatType(audioTypeName);
+				} catch (Exception ex) {
+				}
 			}
 			if (audioFileFormatType == null) {
 				MaryHttpServerUtils.errorWrongQueryParameterValue(response, "AUDIO", queryItems.get("AUDIO"), null);
@@ -227,30 +330,13 @@ public class SynthesisRequestHandler extends BaseHttpRequestHandler {
 		}
 		if (ok) {
 			if (streamingAudio) {
-				// Start two separate threads:
-				// 1. one thread to process the request;
-				new Thread("RH " + maryRequest.getId()) {
-					public void run() {
-						Logger myLogger = MaryUtils.getLogger(this.getName());
-						try {
-							maryRequest.process();
-							myLogger.info("Streaming request processed successfully.");
-						} catch (Throwable t) {
-							myLogger.error("Processing failed.", t);
-						}
-					}
-				}.start();
-
-				// 2. one thread to take the audio data as it becomes available
-				// and write it into the ProducingNHttpEntity.
-				// The second one does not depend on the first one practically,
-				// because the AppendableSequenceAudioInputStream returned by
+				// The request is processed, and its audio written into the ProducingNHttpEntity as it becomes available,
+				// once the response has been submitted -- see streamAudio().
+				// This works because the AppendableSequenceAudioInputStream returned by
 				// maryRequest.getAudio() was already created in the constructor of Request.
 				AudioInputStream audio = maryRequest.getAudio();
 				assert audio != null : "Streaming audio but no audio stream -- very strange indeed! :-(";
-				AudioFileFormat.Type audioType = maryRequest.getAudioFileFormat().getType();
 				AudioStreamNHttpEntity entity = new AudioStreamNHttpEntity(maryRequest);
-				new Thread(entity, "HTTPWriter " + maryRequest.getId()).start();
 				// entity knows its contentType, no need to set explicitly here.
 				response.setEntity(entity);
 				response.setStatusCode(HttpStatus.SC_OK);
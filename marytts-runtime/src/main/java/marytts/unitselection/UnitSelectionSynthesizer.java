@@ -30,6 +30,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.StringTokenizer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
@@ -42,15 +45,22 @@ import marytts.modules.synthesis.Voice;
 import marytts.modules.synthesis.WaveformSynthesizer;
 import marytts.modules.synthesis.Voice.Gender;
 import marytts.server.MaryProperties;
+import marytts.server.ServerExecutor;
+import marytts.unitselection.concat.BaseUnitConcatenator;
 import marytts.unitselection.concat.UnitConcatenator;
 import marytts.unitselection.concat.BaseUnitConcatenator.UnitData;
 import marytts.unitselection.data.Unit;
 import marytts.unitselection.data.UnitDatabase;
+import marytts.unitselection.select.DiphoneTarget;
 import marytts.unitselection.select.HalfPhoneTarget;
 import marytts.unitselection.select.SelectedUnit;
 import marytts.unitselection.select.Target;
 import marytts.unitselection.select.UnitSelector;
+import marytts.unitselection.select.viterbi.DecisionListener;
 import marytts.util.MaryUtils;
+import marytts.util.data.DoubleDataSource;
+import marytts.util.data.ProducingDoubleDataSource;
+import marytts.util.data.audio.DDSAudioInputStream;
 import marytts.util.dom.MaryNormalisedWriter;
 import marytts.util.dom.NameNodeFilter;
 
@@ -74,6 +84,10 @@ public class UnitSelectionSynthesizer implements WaveformSynthesizer {
 	 * utterance processors to apply.
 	 */
 	private Logger logger;
+	// whether audio for streaming clients is produced while the units are being selected:
+	private boolean streaming;
+	// the threads which select units and produce their audio for streaming clients, one per stream:
+	private ExecutorService producers;
 
 	public UnitSelectionSynthesizer() {
 	}
@@ -86,6 +100,12 @@ public class UnitSelectionSynthesizer implements WaveformSynthesizer {
 	 */
 	public void startup() throws Exception {
 		logger = MaryUtils.getLogger("UnitSelectionSynthesizer");
+		streaming = MaryProperties.getBoolean("unitselection.streaming", false);
+		if (streaming) {
+			// one thread per stream, as each waits for its client to read the audio; idle threads are let go after a minute
+			producers = ServerExecutor.registerSharedPool(Executors.newCachedThreadPool(ServerExecutor.namedThreads(
+					"unitselection-streaming", true)));
+		}
 		// Register UnitSelection voices:
 		logger.debug("Register UnitSelection voices:");
 		List<String> voiceNames = MaryProperties.getList("unitselection.voices.list");
@@ -165,12 +185,7 @@ public class UnitSelectionSynthesizer implements WaveformSynthesizer {
 		UnitDatabase udb = v.getDatabase();
 		// Select:
 		UnitSelector unitSel = v.getUnitSelector();
-		UnitConcatenator unitConcatenator;
-		if (outputParams != null && outputParams.contains("MODIFICATION")) {
-			unitConcatenator = v.getModificationConcatenator();
-		} else {
-			unitConcatenator = v.getConcatenator();
-		}
+		UnitConcatenator unitConcatenator = getConcatenator(v, outputParams);
 		// TODO: check if we actually need to access v.getDatabase() here
 		UnitDatabase database = v.getDatabase();
 		logger.debug("Selecting units with a " + unitSel.getClass().getName() + " from a " + database.getClass().getName());
@@ -280,4 +295,119 @@ public class UnitSelectionSynthesizer implements WaveformSynthesizer {
 		return audio;
 	}
 
+	/**
+	 * Synthesize the given tokens and boundaries for a client that reads the audio while it is being produced. Units are
+	 * selected and concatenated in a thread of their own, and the audio of the units at the start of the utterance is produced
+	 * as soon as unit selection has decided on them, rather than after the whole utterance has been searched. The audio stream
+	 * is returned right away; closing it stops the selection if the audio is not wanted any more. If selection or
+	 * concatenation fails, reading the audio fails with an IOException caused by the SynthesisException.
+	 * <p>
+	 * The realised unit durations are not written into the MaryXML document in this case, since they are only known later. If
+	 * streaming is switched off, or if the voice's concatenator cannot produce audio in parts, this is the same as
+	 * {@link #synthesize(List, Voice, String)}.
+	 * 
+	 * @param tokensAndBoundaries
+	 *            tokensAndBoundaries
+	 * @param voice
+	 *            voice
+	 * @param outputParams
+	 *            outputParams
+	 * @throws SynthesisException
+	 *             SynthesisException
+	 * @return audio
+	 */
+	public AudioInputStream synthesizeStreaming(List<Element> tokensAndBoundaries, Voice voice, String outputParams)
+			throws SynthesisException {
+		assert voice instanceof UnitSelectionVoice;
+		UnitSelectionVoice v = (UnitSelectionVoice) voice;
+		UnitConcatenator unitConcatenator = getConcatenator(v, outputParams);
+		if (!streaming || !(unitConcatenator instanceof BaseUnitConcatenator)
+				|| !((BaseUnitConcatenator) unitConcatenator).canGenerateAudioInParts()) {
+			return synthesize(tokensAndBoundaries, voice, outputParams);
+		}
+		UnitSelector unitSel = v.getUnitSelector();
+		// Look up everything that selection and concatenation need from the document here, in the calling thread;
+		// the DOM is not thread-safe, and Synthesis goes on walking it while the units are being selected.
+		List<Target> targets = unitSel.getTargets(tokensAndBoundaries);
+		for (Target target : targets) {
+			if (target instanceof DiphoneTarget) {
+				((DiphoneTarget) target).left.getTargetDurationInSeconds();
+				((DiphoneTarget) target).right.getTargetDurationInSeconds();
+			} else {
+				target.getTargetDurationInSeconds();
+			}
+		}
+		StreamingUnitConcatenation producer = new StreamingUnitConcatenation(unitSel, targets,
+				(BaseUnitConcatenator) unitConcatenator);
+		producer.start(producers);
+		return new DDSAudioInputStream(producer, unitConcatenator.getAudioFormat());
+	}
+
+	private UnitConcatenator getConcatenator(UnitSelectionVoice v, String outputParams) {
+		if (outputParams != null && outputParams.contains("MODIFICATION")) {
+			return v.getModificationConcatenator();
+		}
+		return v.getConcatenator();
+	}
+
+	/**
+	 * Selects the units of one utterance and produces their audio as they are decided.
+	 */
+	private class StreamingUnitConcatenation extends ProducingDoubleDataSource implements DecisionListener {
+		private static final int BLOCK_SIZE = 4096;
+
+		private UnitSelector unitSelector;
+		private List<Target> targets;
+		private BaseUnitConcatenator concatenator;
+		// the last unit whose audio has been produced
+		private SelectedUnit previous;
+		private double[] block;
+
+		StreamingUnitConcatenation(UnitSelector unitSelector, List<Target> targets, BaseUnitConcatenator concatenator) {
+			this.unitSelector = unitSelector;
+			this.targets = targets;
+			this.concatenator = concatenator;
+		}
+
+		public void run() {
+			long time = System.currentTimeMillis();
+			try {
+				unitSelector.selectUnits(targets, this);
+				logger.debug("Selection and concatenation took " + (System.currentTimeMillis() - time) + " milliseconds");
+				putEndOfStream();
+			} catch (CancellationException ce) {
+				logger.debug("Stopped selecting units, the audio is not read any more");
+			} catch (Throwable t) {
+				logger.error("Cannot select or concatenate units", t);
+				// the reader fails with this, rather than seeing the audio end early
+				putEndOfStream(t instanceof SynthesisException ? t : new SynthesisException(
+						"Cannot select or concatenate units", t));
+			}
+		}
+
+		public void unitsDecided(List<SelectedUnit> units) throws SynthesisException {
+			if (isCancelled()) {
+				// stop the search as well, not only the concatenation
+				throw new CancellationException("The audio is not read any more");
+			}
+			if (units.isEmpty()) {
+				return;
+			}
+			if (block == null) {
+				block = new double[BLOCK_SIZE];
+			}
+			try {
+				concatenator.prepareUnits(units);
+				DoubleDataSource audio = concatenator.generateAudioSource(units, previous);
+				while (audio.hasMoreData()) {
+					int read = audio.getData(block, 0, block.length);
+					putData(block, 0, read);
+				}
+			} catch (IOException ioe) {
+				throw new SynthesisException("Problems generating audio for units " + units, ioe);
+			}
+			previous = units.get(units.size() - 1);
+		}
+	}
+
 }
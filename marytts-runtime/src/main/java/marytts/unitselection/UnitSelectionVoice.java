@@ -38,13 +38,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.reflect.Constructor;
+import java.util.List;
 import java.util.Locale;
 
 import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
 
 import marytts.cart.CART;
 import marytts.cart.io.MaryCARTReader;
 import marytts.exceptions.MaryConfigurationException;
+import marytts.exceptions.SynthesisException;
 import marytts.features.FeatureDefinition;
 import marytts.features.FeatureProcessorManager;
 import marytts.features.FeatureRegistry;
@@ -62,6 +65,8 @@ import marytts.unitselection.select.StatisticalCostFunction;
 import marytts.unitselection.select.TargetCostFunction;
 import marytts.unitselection.select.UnitSelector;
 
+import org.w3c.dom.Element;
+
 /**
  * A Unit Selection Voice
  *
@@ -174,6 +179,7 @@ public class UnitSelectionVoice extends Voice {
 			} else {
 				database.load(targetFunction, joinFunction, unitReader, cart, timelineReader, basenameTimelineReader, backtrace);
 			}
+			database.setJoinCostCacheSize(MaryProperties.getInteger(header + ".joinCostCache.size", 0));
 
 			// build Selector
 			logger.debug("...instantiating unit selector...");
@@ -283,6 +289,20 @@ public class UnitSelectionVoice extends Voice {
 		return modificationConcatenator;
 	}
 
+	/**
+	 * Produce the audio while the units are being selected, if the synthesizer supports it.
+	 * 
+	 * @see UnitSelectionSynthesizer#synthesizeStreaming(List, Voice, String)
+	 */
+	@Override
+	public AudioInputStream synthesizeStreaming(List<Element> tokensAndBoundaries, String outputParams)
+			throws SynthesisException {
+		if (synthesizer() instanceof UnitSelectionSynthesizer) {
+			return ((UnitSelectionSynthesizer) synthesizer()).synthesizeStreaming(tokensAndBoundaries, this, outputParams);
+		}
+		return synthesize(tokensAndBoundaries, outputParams);
+	}
+
 	/**
 	 * Gets the domain of this voice
 	 *
@@ -129,6 +129,31 @@ public class BaseUnitConcatenator implements UnitConcatenator {
 		return generateAudioStream(units);
 	}
 
+	/**
+	 * Whether the audio of an utterance can be generated in parts, as its units are selected, with
+	 * {@link #prepareUnits(List)} and {@link #generateAudioSource(List, SelectedUnit)}. This is not possible for concatenators
+	 * that need to look at all the units of the utterance first.
+	 * 
+	 * @return true for this class
+	 */
+	public boolean canGenerateAudioInParts() {
+		return true;
+	}
+
+	/**
+	 * Get the raw audio material for the given units from the timeline and determine their target pitchmarks, as
+	 * {@link #getAudio(List)} does for all units of an utterance.
+	 * 
+	 * @param units
+	 *            the next units of an utterance
+	 * @throws IOException
+	 *             IOException
+	 */
+	public void prepareUnits(List<SelectedUnit> units) throws IOException {
+		getDatagramsFromTimeline(units);
+		determineTargetPitchmarks(units);
+	}
+
 	/**
 	 * Get the raw audio material for each unit from the timeline.
 	 * 
@@ -191,6 +216,24 @@ public class BaseUnitConcatenator implements UnitConcatenator {
 	 *             IOException
 	 */
 	protected AudioInputStream generateAudioStream(List<SelectedUnit> units) throws IOException {
+		DoubleDataSource audioSource = generateAudioSource(units, null);
+		return new DDSAudioInputStream(new BufferedDoubleDataSource(audioSource), audioformat);
+	}
+
+	/**
+	 * Generate the audio of some consecutive units of an utterance, after {@link #prepareUnits(List)}. Taken together, the audio
+	 * of all parts of an utterance is the audio that {@link #getAudio(List)} produces for the whole utterance.
+	 * 
+	 * @param units
+	 *            the units
+	 * @param previous
+	 *            the unit before the first of the units, if its audio has been generated as part of the same utterance,
+	 *            or null
+	 * @return the audio of the units
+	 * @throws IOException
+	 *             IOException
+	 */
+	public DoubleDataSource generateAudioSource(List<SelectedUnit> units, SelectedUnit previous) throws IOException {
 		LinkedList<Datagram> datagrams = new LinkedList<Datagram>();
 		for (SelectedUnit unit : units) {
 			UnitData unitData = (UnitData) unit.getConcatenationData();
@@ -200,9 +243,7 @@ public class BaseUnitConcatenator implements UnitConcatenator {
 			// Generate audio from frames
 			datagrams.addAll(Arrays.asList(frames));
 		}
-
-		DoubleDataSource audioSource = new DatagramDoubleDataSource(datagrams);
-		return new DDSAudioInputStream(new BufferedDoubleDataSource(audioSource), audioformat);
+		return new DatagramDoubleDataSource(datagrams);
 	}
 
 	/**
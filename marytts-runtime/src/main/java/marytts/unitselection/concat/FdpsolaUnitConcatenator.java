@@ -78,6 +78,16 @@ public class FdpsolaUnitConcatenator extends OverlapUnitConcatenator {
 		this.maxPitchScaleFactor = maxPitchScaleFactor;
 	}
 
+	/**
+	 * The prosody modification depends on the prosody of the whole utterance, so its audio is generated in one go.
+	 * 
+	 * @return false
+	 */
+	@Override
+	public boolean canGenerateAudioInParts() {
+		return false;
+	}
+
 	/**
 	 * Get the Datagrams from a List of SelectedUnits as an array of arrays; the number of elements in the array is equal to the
 	 * number of Units, and each element contains that Unit's Datagrams as an array.
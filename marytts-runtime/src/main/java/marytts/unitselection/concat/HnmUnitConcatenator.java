@@ -64,6 +64,16 @@ public class HnmUnitConcatenator extends OverlapUnitConcatenator {
 		super();
 	}
 
+	/**
+	 * HNM synthesis looks at the left and right contexts of all units of an utterance, so its audio is generated in one go.
+	 * 
+	 * @return false
+	 */
+	@Override
+	public boolean canGenerateAudioInParts() {
+		return false;
+	}
+
 	/**
 	 * Get the raw audio material for each unit from the timeline.
 	 * 
@@ -168,9 +168,29 @@ public class OverlapUnitConcatenator extends BaseUnitConcatenator {
 	 *             IOException
 	 */
 	protected AudioInputStream generateAudioStream(List<SelectedUnit> units) throws IOException {
+		DoubleDataSource audioSource = generateAudioSource(units, null);
+		return new DDSAudioInputStream(new BufferedDoubleDataSource(audioSource), audioformat);
+	}
+
+	/**
+	 * {@inheritDoc} The right context of the previous unit is overlapped with the start of the first unit, as it would be if
+	 * the audio of both was generated together.
+	 */
+	@Override
+	public DoubleDataSource generateAudioSource(List<SelectedUnit> units, SelectedUnit previous) throws IOException {
 		int len = units.size();
-		Datagram[][] datagrams = new Datagram[len][];
-		Datagram[] rightContexts = new Datagram[len];
+		Datagram previousContext = null;
+		if (previous != null && len > 0) {
+			previousContext = getRightContext(previous, units.get(0).getUnit());
+		}
+		// an empty first unit carries the right context of the previous unit, if any
+		int offset = (previousContext != null) ? 1 : 0;
+		Datagram[][] datagrams = new Datagram[offset + len][];
+		Datagram[] rightContexts = new Datagram[offset + len];
+		if (offset > 0) {
+			datagrams[0] = new Datagram[0];
+			rightContexts[0] = previousContext;
+		}
 		for (int i = 0; i < len; i++) {
 			SelectedUnit unit = units.get(i);
 			OverlapUnitData unitData = (OverlapUnitData) unit.getConcatenationData();
@@ -178,22 +198,35 @@ public class OverlapUnitConcatenator extends BaseUnitConcatenator {
 			Datagram[] frames = unitData.getFrames();
 			assert frames != null : "Cannot generate audio from null frames";
 			// Generate audio from frames
-			datagrams[i] = frames;
-			Unit nextInDB = database.getUnitFileReader().getNextUnit(unit.getUnit());
+			datagrams[offset + i] = frames;
 			Unit nextSelected;
 			if (i + 1 == len)
 				nextSelected = null;
 			else
 				nextSelected = units.get(i + 1).getUnit();
-			if (nextInDB != null && !nextInDB.equals(nextSelected)) {
-				// Only use right context if we have a next unit in the DB is not the
-				// same as the next selected unit.
-				rightContexts[i] = unitData.getRightContextFrame(); // may be null
-			}
+			rightContexts[offset + i] = getRightContext(unit, nextSelected);
 		}
+		return new DatagramOverlapDoubleDataSource(datagrams, rightContexts);
+	}
 
-		DoubleDataSource audioSource = new DatagramOverlapDoubleDataSource(datagrams, rightContexts);
-		return new DDSAudioInputStream(new BufferedDoubleDataSource(audioSource), audioformat);
+	/**
+	 * Get the right context frame of the given unit, to be overlapped with the start of the unit selected after it.
+	 * 
+	 * @param unit
+	 *            the unit
+	 * @param nextSelected
+	 *            the unit selected after it, or null
+	 * @return the right context frame, or null if the next selected unit is the unit following this one in the database, or
+	 *         if there is none.
+	 */
+	private Datagram getRightContext(SelectedUnit unit, Unit nextSelected) {
+		Unit nextInDB = database.getUnitFileReader().getNextUnit(unit.getUnit());
+		if (nextInDB != null && !nextInDB.equals(nextSelected)) {
+			// Only use right context if we have a next unit in the DB is not the
+			// same as the next selected unit.
+			return ((OverlapUnitData) unit.getConcatenationData()).getRightContextFrame(); // may be null
+		}
+		return null;
 	}
 
 	public static class OverlapUnitData extends BaseUnitConcatenator.UnitData {
@@ -21,18 +21,14 @@ package marytts.unitselection.data;
 
 import gnu.trove.TIntHashSet;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.BitSet;
 
 import marytts.features.FeatureVector;
 import marytts.unitselection.select.DiphoneTarget;
+import marytts.unitselection.select.FFRTargetCostFunction;
 import marytts.unitselection.select.HalfPhoneTarget;
 import marytts.unitselection.select.Target;
-import marytts.unitselection.select.viterbi.ViterbiCandidate;
 import marytts.util.MaryUtils;
-import marytts.util.dom.DomUtils;
-
-import org.w3c.dom.Element;
 
 public class DiphoneUnitDatabase extends UnitDatabase {
 
@@ -42,35 +38,28 @@ public class DiphoneUnitDatabase extends UnitDatabase {
 	}
 
 	/**
-	 * Preselect a set of candidates that could be used to realise the given target.
+	 * Preselect the units that could be used to realise the given target. For a diphone target, the unit indices are those of
+	 * the left halves of suitable diphones.
 	 * 
 	 * @param target
 	 *            a Target object representing an optimal unit
-	 * @return an <span style="color:red;">unsorted</span> ArrayList of ViterbiCandidates, each containing the (same) target and a
-	 *         (different) Unit object
+	 * @param candidates
+	 *            receives the unit indices
 	 */
 	@Override
-	public List<ViterbiCandidate> getCandidates(Target target) {
-		if (!(target instanceof DiphoneTarget))
-			return super.getCandidates(target);
+	protected void preselectCandidates(Target target, ScoredCandidates candidates) {
+		if (!(target instanceof DiphoneTarget)) {
+			super.preselectCandidates(target, candidates);
+			return;
+		}
 		// Basic idea: get the candidates for each half phone separately,
 		// but retain only those that are part of a suitable diphone
 		DiphoneTarget diphoneTarget = (DiphoneTarget) target;
 		HalfPhoneTarget left = diphoneTarget.left;
 		HalfPhoneTarget right = diphoneTarget.right;
 
-		// BEGIN blacklisting
-		// The point of this is to get the value of the "blacklist" attribute in the first child element of the MaryXML
-		// and store it in the blacklist String variable.
-		// This code seems rather inelegant; perhaps there is a better way to access the MaryXML from this method?
-		String blacklist = "";
-		String unitBasename = "This must never be null or the empty string!"; // otherwise candidate selection fails!
-		Element targetElement = left.getMaryxmlElement();
-		if (targetElement == null) {
-			targetElement = right.getMaryxmlElement();
-		}
-		blacklist = DomUtils.getAttributeFromClosestAncestorOfAnyKind(targetElement, "blacklist");
-		// END blacklisting
+		// the blacklist was looked up in the MaryXML when the targets were created, see UnitSelector.getTargets()
+		BitSet blacklistedBasenames = getBlacklistedBasenames(diphoneTarget.getBlacklist());
 
 		// TODO shouldn't leftName and rightName just call appropriate methods of DiphoneTarget?
 		String leftName = left.getName().substring(0, left.getName().lastIndexOf("_"));
@@ -79,6 +68,10 @@ public class DiphoneUnitDatabase extends UnitDatabase {
 		byte bleftName = targetCostFunction.getFeatureDefinition().getFeatureValueAsByte(iPhoneme, leftName);
 		byte brightName = targetCostFunction.getFeatureDefinition().getFeatureValueAsByte(iPhoneme, rightName);
 		FeatureVector[] fvs = targetCostFunction.getFeatureVectors();
+		MappedFeatureStore mappedFeatures = null;
+		if (fvs == null && targetCostFunction instanceof FFRTargetCostFunction) {
+			mappedFeatures = ((FFRTargetCostFunction) targetCostFunction).getMappedFeatures();
+		}
 
 		// HashSet<DiphoneUnit> candidateUnitSet = new HashSet<DiphoneUnit>();
 		TIntHashSet candidateUnitSet = new TIntHashSet();
@@ -91,16 +84,13 @@ public class DiphoneUnitDatabase extends UnitDatabase {
 		// Now, clist is an array of halfphone unit indexes.
 		for (int i = 0; i < clist.length; i++) {
 			Unit unit = unitReader.units[clist[i]];
-			FeatureVector fv = fvs != null ? fvs[unit.index] : targetCostFunction.getFeatureVector(unit);
-			byte bunitName = fv.byteValuedDiscreteFeatures[iPhoneme];
+			byte bunitName = getByteFeature(unit.index, iPhoneme, fvs, mappedFeatures);
 			// force correct phone symbol:
 			if (bunitName != bleftName)
 				continue;
 			int iRightNeighbour = clist[i] + 1;
 			if (iRightNeighbour < numUnits) {
-				Unit rightNeighbour = unitReader.units[iRightNeighbour];
-				FeatureVector rfv = fvs != null ? fvs[iRightNeighbour] : targetCostFunction.getFeatureVector(rightNeighbour);
-				byte brightUnitName = rfv.byteValuedDiscreteFeatures[iPhoneme];
+				byte brightUnitName = getByteFeature(iRightNeighbour, iPhoneme, fvs, mappedFeatures);
 				if (brightUnitName == brightName) {
 					// Found a diphone -- add it to candidates
 					// DiphoneUnit diphoneUnit = new DiphoneUnit(unit, rightNeighbour);
@@ -117,43 +107,64 @@ public class DiphoneUnitDatabase extends UnitDatabase {
 		// Now, clist is an array of halfphone unit indexes.
 		for (int i = 0; i < clist.length; i++) {
 			Unit unit = unitReader.units[clist[i]];
-			FeatureVector fv = fvs != null ? fvs[unit.index] : targetCostFunction.getFeatureVector(unit);
-			byte bunitName = fv.byteValuedDiscreteFeatures[iPhoneme];
+			byte bunitName = getByteFeature(unit.index, iPhoneme, fvs, mappedFeatures);
 			// force correct phone symbol:
 			if (bunitName != brightName)
 				continue;
 			int iLeftNeighbour = clist[i] - 1;
 			if (iLeftNeighbour >= 0) {
-				Unit leftNeighbour = unitReader.units[iLeftNeighbour];
-				FeatureVector lfv = fvs != null ? fvs[iLeftNeighbour] : targetCostFunction.getFeatureVector(leftNeighbour);
-				byte bleftUnitName = lfv.byteValuedDiscreteFeatures[iPhoneme];
+				byte bleftUnitName = getByteFeature(iLeftNeighbour, iPhoneme, fvs, mappedFeatures);
 				if (bleftUnitName == bleftName) {
 					// Found a diphone -- add it to candidates
 					// DiphoneUnit diphoneUnit = new DiphoneUnit(leftNeighbour, unit);
 					// candidateUnitSet.add(diphoneUnit);
-					candidateUnitSet.add(leftNeighbour.index);
+					candidateUnitSet.add(iLeftNeighbour);
 				}
 			}
 		}
 
-		// now create ArrayList of ViterbiCandidates from the candidateUnitSet, blacklisting along the way:
-		ArrayList<ViterbiCandidate> candidates = new ArrayList<ViterbiCandidate>(candidateUnitSet.size());
+		// now add the diphones from the candidateUnitSet, blacklisting along the way
+		// (a diphone comes from the file of its left half):
 		for (int leftIndex : candidateUnitSet.toArray()) {
-			DiphoneUnit diphoneUnit = new DiphoneUnit(unitReader.units[leftIndex], unitReader.units[leftIndex + 1]);
-			ViterbiCandidate candidate = new ViterbiCandidate(diphoneTarget, diphoneUnit, targetCostFunction);
-			// Blacklisting:
-			if (blacklist.equals("")) { // no blacklist
-				candidates.add(candidate);
-			} else { // maybe exclude candidate
-				unitBasename = getFilename(diphoneUnit);
-				if (!blacklist.contains(unitBasename)) {
-					candidates.add(candidate);
-				}
+			if (!isBlacklisted(leftIndex, blacklistedBasenames)) {
+				candidates.add(leftIndex);
 			}
 		}
 
 		logger.debug("Preselected " + candidateUnitSet.size() + " diphone candidates for target " + target);
-		return candidates;
+	}
+
+	/**
+	 * Read a byte-valued feature of a unit without creating a feature vector when the features are mapped.
+	 * 
+	 * @param unitIndex
+	 *            the index number of the unit
+	 * @param featureIndex
+	 *            the index number of the byte-valued feature
+	 * @param fvs
+	 *            the feature vectors of the target cost function, or null if they are mapped
+	 * @param mappedFeatures
+	 *            the mapped features of the target cost function, or null if they are not available
+	 * @return the feature value
+	 */
+	private byte getByteFeature(int unitIndex, int featureIndex, FeatureVector[] fvs, MappedFeatureStore mappedFeatures) {
+		if (fvs != null) {
+			return fvs[unitIndex].byteValuedDiscreteFeatures[featureIndex];
+		}
+		if (mappedFeatures != null) {
+			return mappedFeatures.getByteFeature(unitIndex, featureIndex);
+		}
+		return targetCostFunction.getFeatureVector(unitReader.units[unitIndex]).byteValuedDiscreteFeatures[featureIndex];
+	}
+
+	/**
+	 * The unit for a preselected candidate: a diphone unit for a diphone target.
+	 */
+	@Override
+	protected Unit createCandidateUnit(Target target, int unitIndex) {
+		if (!(target instanceof DiphoneTarget))
+			return super.createCandidateUnit(target, unitIndex);
+		return new DiphoneUnit(unitReader.units[unitIndex], unitReader.units[unitIndex + 1]);
 	}
 
 }
@@ -29,12 +29,16 @@ import java.nio.channels.FileChannel;
 import marytts.exceptions.MaryConfigurationException;
 import marytts.features.FeatureDefinition;
 import marytts.features.FeatureVector;
+import marytts.server.MaryProperties;
 import marytts.util.data.MaryHeader;
 
 public class FeatureFileReader {
 	protected MaryHeader hdr;
 	protected FeatureDefinition featureDefinition;
 	protected FeatureVector[] featureVectors;
+	// if true, read the feature values from the mapped file instead of creating one FeatureVector per unit:
+	protected boolean mapFeatures = MaryProperties.getBoolean("unitselection.featurefile.mapped", false);
+	protected MappedFeatureStore mappedFeatures;
 
 	/**
 	 * Get a feature file reader representing the given feature file.
@@ -95,6 +99,11 @@ public class FeatureFileReader {
 		/* Open the file */
 		FileInputStream fis = new FileInputStream(fileName);
 		FileChannel fc = fis.getChannel();
+		if (fc.size() > Integer.MAX_VALUE) {
+			fis.close();
+			throw new MaryConfigurationException("File [" + fileName + "] has " + fc.size()
+					+ " bytes, more than can be mapped into one buffer; load it without mapping");
+		}
 		ByteBuffer bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
 		fis.close();
 
@@ -105,11 +114,31 @@ public class FeatureFileReader {
 		}
 		featureDefinition = new FeatureDefinition(bb);
 		int numberOfUnits = bb.getInt();
-		featureVectors = new FeatureVector[numberOfUnits];
-		for (int i = 0; i < numberOfUnits; i++) {
-			featureVectors[i] = featureDefinition.readFeatureVector(i, bb);
-		}
+		readFeatureVectors(numberOfUnits, bb);
+	}
 
+	/**
+	 * Read the feature vectors from the given buffer, or, if {@link #mapFeatures} is set, keep the buffer and read the feature
+	 * values from it as they are needed.
+	 *
+	 * @param numberOfUnits
+	 *            the number of feature vectors in the buffer
+	 * @param bb
+	 *            the buffer, positioned at the first feature vector
+	 * @throws IOException
+	 *             if the feature vectors cannot be read
+	 */
+	protected void readFeatureVectors(int numberOfUnits, ByteBuffer bb) throws IOException {
+		if (mapFeatures) {
+			featureVectors = null;
+			mappedFeatures = new MappedFeatureStore(featureDefinition, numberOfUnits, bb);
+		} else {
+			mappedFeatures = null;
+			featureVectors = new FeatureVector[numberOfUnits];
+			for (int i = 0; i < numberOfUnits; i++) {
+				featureVectors[i] = featureDefinition.readFeatureVector(i, bb);
+			}
+		}
 	}
 
 	/**
@@ -117,30 +146,54 @@ public class FeatureFileReader {
 	 * 
 	 * @param unitIndex
 	 *            the absolute index number of a unit in the database
-	 * @return the corresponding feature vector
+	 * @return the corresponding feature vector; a new copy if the features are mapped
 	 */
 	public FeatureVector getFeatureVector(int unitIndex) {
+		if (mappedFeatures != null) {
+			return mappedFeatures.getFeatureVector(unitIndex);
+		}
 		return featureVectors[unitIndex];
 	}
 
 	/**
-	 * Return a shallow copy of the array of feature vectors.
+	 * Return a shallow copy of the array of feature vectors. If the features are mapped, the feature vectors are created here.
 	 * 
 	 * @return a new array containing the internal feature vectors
 	 */
 	public FeatureVector[] getCopyOfFeatureVectors() {
+		if (mappedFeatures != null) {
+			FeatureVector[] copy = new FeatureVector[mappedFeatures.getNumberOfUnits()];
+			for (int i = 0; i < copy.length; i++) {
+				copy[i] = mappedFeatures.getFeatureVector(i);
+			}
+			return copy;
+		}
 		return (FeatureVector[]) featureVectors.clone();
 	}
 
 	/**
 	 * Return the internal array of feature vectors.
 	 * 
-	 * @return the internal array of feature vectors.
+	 * @return the internal array of feature vectors
+	 * @throws IllegalStateException
+	 *             if the features are mapped, see {@link #getMappedFeatures()} and {@link #getCopyOfFeatureVectors()}
 	 */
 	public FeatureVector[] getFeatureVectors() {
+		if (mappedFeatures != null) {
+			throw new IllegalStateException("The features are mapped, there is no array of feature vectors");
+		}
 		return featureVectors;
 	}
 
+	/**
+	 * Give access to the feature values in the mapped feature file.
+	 * 
+	 * @return the mapped features, or null if the feature vectors were loaded into memory.
+	 */
+	public MappedFeatureStore getMappedFeatures() {
+		return mappedFeatures;
+	}
+
 	/**
 	 * feature vector mapping according to new feature definition Note: The new feature definition should be a subset of original
 	 * feature definition
@@ -182,13 +235,14 @@ public class FeatureFileReader {
 			int countShortFeatures = 0;
 			int countFloatFeatures = 0;
 
+			FeatureVector featureVector = getFeatureVector(i);
 			for (int j = 0; j < featureIndexes.length; j++) {
 				if (newFeatureDefinition.isByteFeature(j)) {
-					byteFeatures[countByteFeatures++] = featureVectors[i].getByteFeature(featureIndexes[j]);
+					byteFeatures[countByteFeatures++] = featureVector.getByteFeature(featureIndexes[j]);
 				} else if (newFeatureDefinition.isShortFeature(j)) {
-					shortFeatures[countShortFeatures++] = featureVectors[i].getShortFeature(featureIndexes[j]);
+					shortFeatures[countShortFeatures++] = featureVector.getShortFeature(featureIndexes[j]);
 				} else if (newFeatureDefinition.isContinuousFeature(j)) {
-					continiousFeatures[countFloatFeatures++] = featureVectors[i].getContinuousFeature(featureIndexes[j]);
+					continiousFeatures[countFloatFeatures++] = featureVector.getContinuousFeature(featureIndexes[j]);
 				}
 			}
 
@@ -206,7 +260,7 @@ public class FeatureFileReader {
 	 * @return the corresponding feature vector
 	 */
 	public FeatureVector getFeatureVector(Unit unit) {
-		return featureVectors[unit.index];
+		return getFeatureVector(unit.index);
 	}
 
 	public FeatureDefinition getFeatureDefinition() {
@@ -214,6 +268,9 @@ public class FeatureFileReader {
 	}
 
 	public int getNumberOfUnits() {
+		if (mappedFeatures != null) {
+			return mappedFeatures.getNumberOfUnits();
+		}
 		return (featureVectors.length);
 	}
 }
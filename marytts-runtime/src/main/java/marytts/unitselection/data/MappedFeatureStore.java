@@ -0,0 +1,196 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.data;
+
+import java.nio.ByteBuffer;
+
+import marytts.features.FeatureDefinition;
+import marytts.features.FeatureVector;
+
+/**
+ * Unit feature vectors read directly from the (memory-mapped) records of a feature file. A feature file stores one record per
+ * unit, each holding the byte-valued features, then the short-valued features, then the continuous features, so a feature value
+ * is found by position alone and reading it creates no objects. Feature vectors are only created when asked for with
+ * {@link #getFeatureVector(int)}, for callers which need a {@link FeatureVector}.
+ * <p>
+ * Feature indices are the same as in {@link FeatureVector}: <code>getShortFeature()</code> and
+ * <code>getContinuousFeature()</code> take the index number of the feature in the whole vector, whereas
+ * <code>getShort()</code> and <code>getFloat()</code> take the index among the short-valued or continuous features only.
+ */
+public class MappedFeatureStore {
+	private final ByteBuffer records;
+	private final int numberOfUnits;
+	private final int numByteFeatures;
+	private final int numShortFeatures;
+	private final int numContinuousFeatures;
+	private final int recordSize;
+	private final int shortsOffset;
+	private final int floatsOffset;
+
+	/**
+	 * Create a feature store for the records starting at the current position of the given buffer. The position of the buffer
+	 * is moved past the records.
+	 *
+	 * @param featureDefinition
+	 *            the feature definition describing the records
+	 * @param numberOfUnits
+	 *            the number of records
+	 * @param bb
+	 *            the buffer containing the records
+	 * @throws IllegalArgumentException
+	 *             if the buffer contains fewer than numberOfUnits records, or if the records take up more than 2 GB and
+	 *             cannot be addressed in a single buffer
+	 */
+	public MappedFeatureStore(FeatureDefinition featureDefinition, int numberOfUnits, ByteBuffer bb) {
+		this.numberOfUnits = numberOfUnits;
+		this.numByteFeatures = featureDefinition.getNumberOfByteFeatures();
+		this.numShortFeatures = featureDefinition.getNumberOfShortFeatures();
+		this.numContinuousFeatures = featureDefinition.getNumberOfContinuousFeatures();
+		this.shortsOffset = numByteFeatures;
+		this.floatsOffset = numByteFeatures + 2 * numShortFeatures;
+		this.recordSize = floatsOffset + 4 * numContinuousFeatures;
+		long size = (long) numberOfUnits * recordSize;
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(numberOfUnits + " feature vectors of " + recordSize + " bytes take up " + size
+					+ " bytes, more than can be mapped into one buffer; load the features without mapping them");
+		}
+		if (size > bb.remaining()) {
+			throw new IllegalArgumentException("Expected " + numberOfUnits + " feature vectors of " + recordSize
+					+ " bytes, but only " + bb.remaining() + " bytes are left");
+		}
+		ByteBuffer slice = bb.slice();
+		slice.limit((int) size);
+		this.records = slice.asReadOnlyBuffer();
+		bb.position(bb.position() + (int) size);
+	}
+
+	public int getNumberOfUnits() {
+		return numberOfUnits;
+	}
+
+	/**
+	 * Get a byte-valued feature of a unit.
+	 *
+	 * @param unitIndex
+	 *            the index number of the unit
+	 * @param featureIndex
+	 *            the index number of the feature, between 0 and the number of byte-valued features - 1
+	 * @return the feature value
+	 */
+	public byte getByteFeature(int unitIndex, int featureIndex) {
+		return records.get(unitIndex * recordSize + featureIndex);
+	}
+
+	/**
+	 * Get a short-valued feature of a unit.
+	 *
+	 * @param unitIndex
+	 *            the index number of the unit
+	 * @param featureIndex
+	 *            the index number of the feature in the whole feature vector
+	 * @return the feature value
+	 */
+	public short getShortFeature(int unitIndex, int featureIndex) {
+		return getShort(unitIndex, featureIndex - numByteFeatures);
+	}
+
+	/**
+	 * Get a continuous feature of a unit.
+	 *
+	 * @param unitIndex
+	 *            the index number of the unit
+	 * @param featureIndex
+	 *            the index number of the feature in the whole feature vector
+	 * @return the feature value
+	 */
+	public float getContinuousFeature(int unitIndex, int featureIndex) {
+		return getFloat(unitIndex, featureIndex - numByteFeatures - numShortFeatures);
+	}
+
+	/**
+	 * Get a short-valued feature of a unit by its position among the short-valued features.
+	 *
+	 * @param unitIndex
+	 *            the index number of the unit
+	 * @param shortIndex
+	 *            between 0 and the number of short-valued features - 1
+	 * @return the feature value
+	 */
+	public short getShort(int unitIndex, int shortIndex) {
+		return records.getShort(unitIndex * recordSize + shortsOffset + 2 * shortIndex);
+	}
+
+	/**
+	 * Get a continuous feature of a unit by its position among the continuous features.
+	 *
+	 * @param unitIndex
+	 *            the index number of the unit
+	 * @param floatIndex
+	 *            between 0 and the number of continuous features - 1
+	 * @return the feature value
+	 */
+	public float getFloat(int unitIndex, int floatIndex) {
+		return records.getFloat(unitIndex * recordSize + floatsOffset + 4 * floatIndex);
+	}
+
+	/**
+	 * Get any feature of a unit as an int, like {@link FeatureVector#getFeatureAsInt(int)}.
+	 *
+	 * @param unitIndex
+	 *            the index number of the unit
+	 * @param featureIndex
+	 *            the index number of the feature in the whole feature vector
+	 * @return the feature value
+	 */
+	public int getFeatureAsInt(int unitIndex, int featureIndex) {
+		if (featureIndex < numByteFeatures) {
+			return getByteFeature(unitIndex, featureIndex);
+		} else if (featureIndex < numByteFeatures + numShortFeatures) {
+			return getShortFeature(unitIndex, featureIndex);
+		}
+		return (int) getContinuousFeature(unitIndex, featureIndex);
+	}
+
+	/**
+	 * Create a feature vector holding a copy of the features of the given unit.
+	 *
+	 * @param unitIndex
+	 *            the index number of the unit
+	 * @return a new feature vector
+	 */
+	public FeatureVector getFeatureVector(int unitIndex) {
+		byte[] bytes = new byte[numByteFeatures];
+		short[] shorts = new short[numShortFeatures];
+		float[] floats = new float[numContinuousFeatures];
+		int pos = unitIndex * recordSize;
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = records.get(pos + i);
+		}
+		pos += shortsOffset;
+		for (int i = 0; i < shorts.length; i++) {
+			shorts[i] = records.getShort(pos + 2 * i);
+		}
+		pos = unitIndex * recordSize + floatsOffset;
+		for (int i = 0; i < floats.length; i++) {
+			floats[i] = records.getFloat(pos + 4 * i);
+		}
+		return new FeatureVector(bytes, shorts, floats, unitIndex);
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.data;
+
+import java.util.Arrays;
+
+/**
+ * The preselected candidates for one target, as unit indices with their target costs. Only the candidates that survive
+ * {@link #keepBest(int)} get a {@link Unit} object, so that no objects are created for the units that are discarded.
+ * <p>
+ * An instance can be reused for one target after another; it must only be used by one thread at a time.
+ *
+ * @see UnitDatabase#getCandidates(marytts.unitselection.select.Target, int, ScoredCandidates)
+ */
+public class ScoredCandidates {
+	int[] unitIndices;
+	double[] costs;
+	Unit[] units;
+	int size;
+	private double[] selectBuffer;
+
+	public ScoredCandidates() {
+		unitIndices = new int[256];
+		costs = new double[256];
+		units = new Unit[256];
+		selectBuffer = new double[0];
+	}
+
+	/**
+	 * @return the number of candidates
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param i
+	 *            the candidate, from 0 to size() - 1
+	 * @return the index of the candidate in the unit database; for a diphone, the index of its left half
+	 */
+	public int getUnitIndex(int i) {
+		return unitIndices[i];
+	}
+
+	/**
+	 * @param i
+	 *            the candidate, from 0 to size() - 1
+	 * @return the target cost of the candidate
+	 */
+	public double getCost(int i) {
+		return costs[i];
+	}
+
+	/**
+	 * @param i
+	 *            the candidate, from 0 to size() - 1
+	 * @return the unit of the candidate
+	 */
+	public Unit getUnit(int i) {
+		return units[i];
+	}
+
+	void clear() {
+		Arrays.fill(units, 0, size, null);
+		size = 0;
+	}
+
+	/**
+	 * Add a preselected candidate.
+	 *
+	 * @param unitIndex
+	 *            the index of the unit in the unit database; for a diphone, the index of its left half
+	 */
+	public void add(int unitIndex) {
+		if (size == unitIndices.length) {
+			int newSize = 2 * size;
+			unitIndices = Arrays.copyOf(unitIndices, newSize);
+			costs = Arrays.copyOf(costs, newSize);
+			units = Arrays.copyOf(units, newSize);
+		}
+		unitIndices[size++] = unitIndex;
+	}
+
+	/**
+	 * Keep only the k candidates with the lowest target costs. The remaining candidates stay in their original order; of
+	 * several candidates with the same cost, the first ones are kept, so that a stable sort of the remaining candidates
+	 * starts with the same k candidates as a stable sort of all of them.
+	 *
+	 * @param k
+	 *            the number of candidates to keep, or -1 to keep all
+	 */
+	void keepBest(int k) {
+		if (k < 0 || size <= k) {
+			return;
+		}
+		if (k == 0) {
+			size = 0;
+			return;
+		}
+		double threshold = select(k - 1);
+		int numBelow = 0;
+		for (int i = 0; i < size; i++) {
+			if (costs[i] < threshold) {
+				numBelow++;
+			}
+		}
+		int numEqual = k - numBelow;
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			double cost = costs[i];
+			if (cost < threshold || (cost == threshold && numEqual-- > 0)) {
+				unitIndices[kept] = unitIndices[i];
+				costs[kept] = cost;
+				kept++;
+			}
+		}
+		size = kept;
+	}
+
+	/**
+	 * The n-th smallest cost (counting from 0), by quickselect on a copy of the costs.
+	 */
+	private double select(int n) {
+		if (selectBuffer.length < size) {
+			selectBuffer = new double[costs.length];
+		}
+		double[] a = selectBuffer;
+		System.arraycopy(costs, 0, a, 0, size);
+		int lo = 0;
+		int hi = size - 1;
+		while (lo < hi) {
+			double pivot = a[(lo + hi) >>> 1];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (a[i] < pivot) {
+					i++;
+				}
+				while (a[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					double tmp = a[i];
+					a[i] = a[j];
+					a[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if (n <= j) {
+				hi = j;
+			} else if (n >= i) {
+				lo = i;
+			} else {
+				break;
+			}
+		}
+		return a[n];
+	}
+}
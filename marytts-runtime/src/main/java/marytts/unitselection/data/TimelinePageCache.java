@@ -0,0 +1,210 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.data;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import marytts.server.MaryProperties;
+
+/**
+ * A cache of fixed-size pages of timeline files, for the timelines which are read piecewise instead of memory-mapped. The
+ * pages are direct byte buffers filled with positional reads, so that readers never wait for each other: lookups take no locks,
+ * a page is never modified once it is in the cache, and every reader gets its own duplicate of the page buffer. If two threads
+ * miss the same page at the same time, both read it and one of the copies is dropped.
+ * <p>
+ * When the pages take up more than the budget, pages are evicted in the order they were loaded, except that a page which has
+ * been used since it was last looked at by the eviction gets a second chance.
+ * <p>
+ * All timelines share one cache, whose budget is <code>unitselection.timeline.pagecache.size</code> megabytes.
+ *
+ * @see TimelineReader
+ */
+public class TimelinePageCache {
+	/**
+	 * The page size, in bytes.
+	 */
+	public static final int PAGE_SIZE = 0x10000; // 64 kB
+
+	private static TimelinePageCache sharedCache;
+	private static final AtomicInteger nextFileId = new AtomicInteger();
+
+	private final long budget;
+	private final ConcurrentHashMap<Long, Page> pages = new ConcurrentHashMap<Long, Page>();
+	private final ConcurrentLinkedQueue<Long> evictionQueue = new ConcurrentLinkedQueue<Long>();
+	private final AtomicLong size = new AtomicLong();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * The cache shared by all timelines.
+	 *
+	 * @return the shared cache
+	 */
+	public static synchronized TimelinePageCache getSharedCache() {
+		if (sharedCache == null) {
+			int megabytes = MaryProperties.getInteger("unitselection.timeline.pagecache.size", 64);
+			sharedCache = new TimelinePageCache(Math.max(1, megabytes) * 1024L * 1024L);
+		}
+		return sharedCache;
+	}
+
+	/**
+	 * @param budget
+	 *            the number of bytes the pages may take up
+	 * @throws IllegalArgumentException
+	 *             if budget is not positive
+	 */
+	public TimelinePageCache(long budget) {
+		if (budget <= 0) {
+			throw new IllegalArgumentException("Invalid page cache budget " + budget);
+		}
+		this.budget = budget;
+	}
+
+	/**
+	 * Get a number identifying a file in the cache.
+	 *
+	 * @return a new file id
+	 */
+	static int newFileId() {
+		return nextFileId.incrementAndGet();
+	}
+
+	/**
+	 * Get a page of a file, reading it from the file if it is not in the cache.
+	 *
+	 * @param fileId
+	 *            the file id, from {@link #newFileId()}
+	 * @param fileChannel
+	 *            the file to read from
+	 * @param pageStart
+	 *            the byte position of the page in the file; a multiple of {@link #PAGE_SIZE}
+	 * @param pageLength
+	 *            the number of bytes of the page, at most {@link #PAGE_SIZE}; only the last page of the data may be shorter
+	 * @return a read-only buffer of the page, positioned at 0, which belongs to the caller
+	 * @throws IOException
+	 *             if the page cannot be read
+	 */
+	ByteBuffer getPage(int fileId, FileChannel fileChannel, long pageStart, int pageLength) throws IOException {
+		assert pageStart % PAGE_SIZE == 0;
+		assert pageLength > 0 && pageLength <= PAGE_SIZE;
+		Long key = Long.valueOf(((long) fileId << 40) | (pageStart / PAGE_SIZE));
+		Page page = pages.get(key);
+		if (page != null) {
+			page.used = true;
+			hits.increment();
+			return page.buffer.duplicate();
+		}
+		misses.increment();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(pageLength);
+		while (buffer.hasRemaining()) {
+			// a positional read does not touch the channel position, so it need not wait for other readers:
+			if (fileChannel.read(buffer, pageStart + buffer.position()) < 0) {
+				throw new EOFException("Cannot read " + pageLength + " bytes at position " + pageStart);
+			}
+		}
+		buffer.flip();
+		page = new Page(buffer.asReadOnlyBuffer());
+		Page existing = pages.putIfAbsent(key, page);
+		if (existing != null) {
+			return existing.buffer.duplicate();
+		}
+		evictionQueue.offer(key);
+		if (size.addAndGet(pageLength) > budget) {
+			evict();
+		}
+		return page.buffer.duplicate();
+	}
+
+	private void evict() {
+		while (size.get() > budget) {
+			Long key = evictionQueue.poll();
+			if (key == null) {
+				return;
+			}
+			Page page = pages.get(key);
+			if (page == null) {
+				continue;
+			}
+			if (page.used) {
+				page.used = false;
+				evictionQueue.offer(key);
+			} else if (pages.remove(key, page)) {
+				size.addAndGet(-page.buffer.capacity());
+			}
+		}
+	}
+
+	/**
+	 * @return the number of bytes taken up by the cached pages
+	 */
+	public long getSize() {
+		return size.get();
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * The proportion of page lookups that were found in the cache.
+	 *
+	 * @return a value between 0 and 1, or 0 if there were no lookups yet.
+	 */
+	public double getHitRate() {
+		long hits = getHits();
+		long lookups = hits + getMisses();
+		if (lookups == 0) {
+			return 0;
+		}
+		return hits / (double) lookups;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d of %d bytes, %d hits, %d misses (hit rate %.1f%%)", getSize(), getBudget(), getHits(),
+				getMisses(), 100 * getHitRate());
+	}
+
+	private static final class Page {
+		final ByteBuffer buffer;
+		volatile boolean used;
+
+		Page(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+	}
+}
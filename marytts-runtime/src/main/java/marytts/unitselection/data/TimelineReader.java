@@ -49,6 +49,7 @@ import marytts.exceptions.MaryConfigurationException;
 import marytts.util.MaryUtils;
 import marytts.util.Pair;
 import marytts.util.data.Datagram;
+import marytts.util.data.DatagramSlice;
 import marytts.util.data.MaryHeader;
 import marytts.util.io.StreamUtils;
 
@@ -81,6 +82,17 @@ public class TimelineReader {
 	// exactly one of the two following variables will be non-null after load():
 	private MappedByteBuffer mappedBB = null;
 	private FileChannel fileChannel = null;
+	// when reading piecewise, the pages of the file are read through this cache:
+	private TimelinePageCache pageCache = null;
+	private int pageCacheFileId;
+
+	// where the datagrams last read by each thread ended, so that reading the next unit can continue from there:
+	private final ThreadLocal<Cursor> cursors = new ThreadLocal<Cursor>() {
+		@Override
+		protected Cursor initialValue() {
+			return new Cursor();
+		}
+	};
 
 	/****************/
 	/* CONSTRUCTORS */
@@ -223,6 +235,8 @@ public class TimelineReader {
 		if (!tryMemoryMapping || mappedBB == null) { // use piecewise reading
 			fileChannel = fc;
 			assert fileChannel != null;
+			pageCache = TimelinePageCache.getSharedCache();
+			pageCacheFileId = TimelinePageCache.newFileId();
 			// and leave file open
 		}
 
@@ -397,6 +411,9 @@ public class TimelineReader {
 	/**
 	 * Read and return the upcoming datagram from the given byte buffer. Subclasses should override this method to create
 	 * subclasses of Datagram.
+	 * <p>
+	 * The datagram is a {@link DatagramSlice} whose data are not copied out of the timeline. This is safe because the byte
+	 * buffers of a timeline, mapped or from the page cache, are never modified.
 	 * 
 	 * @param bb
 	 *            the timeline byte buffer to read from
@@ -411,7 +428,7 @@ public class TimelineReader {
 		}
 		// Else, read the datagram from the file
 		try {
-			return new Datagram(bb);
+			return new DatagramSlice(bb);
 		} catch (IOException ioe) {
 			return null;
 		}
@@ -494,75 +511,156 @@ public class TimelineReader {
 		assert mappedBB != null;
 		/* Seek for the time index which comes just before the requested time */
 		IdxField idxFieldBefore = idx.getIdxFieldBefore(targetTimeInSamples);
-		long time = idxFieldBefore.timePtr;
-		int bytePos = (int) (idxFieldBefore.bytePtr - datagramsBytePos);
+		IdxField start = getStartBefore(targetTimeInSamples, idxFieldBefore);
+		long time = start.timePtr;
+		int bytePos = (int) (start.bytePtr - datagramsBytePos);
 		ByteBuffer bb = mappedBB.duplicate();
 		bb.position(bytePos);
+		if (start != idxFieldBefore && time == targetTimeInSamples) {
+			// hopping from the index would have skipped any datagrams without duration here:
+			while (canReadDatagramHeader(bb) && bb.getLong(bb.position()) == 0) {
+				skipNextDatagram(bb);
+			}
+		}
 		time = hopToTime(bb, time, targetTimeInSamples);
+		setCursor(time, datagramsBytePos + bb.position());
 		return new Pair<ByteBuffer, Long>(bb, time);
 	}
 
 	protected Pair<ByteBuffer, Long> loadByteBufferAtTime(long targetTimeInSamples) throws IOException {
 		assert fileChannel != null;
-		// we must load a chunk of data from the FileChannel
-		int bufSize = 0x10000; // 64 kB
 		/* Seek for the time index which comes just before the requested time */
-		IdxField idxFieldBefore = idx.getIdxFieldBefore(targetTimeInSamples);
-		long time = idxFieldBefore.timePtr;
-		long bytePos = idxFieldBefore.bytePtr;
-		if (bytePos + bufSize > timeIdxBytePos) { // must not read index data as datagrams
-			bufSize = (int) (timeIdxBytePos - bytePos);
-		}
-		ByteBuffer bb = loadByteBuffer(bytePos, bufSize);
-
+		IdxField start = getStartBefore(targetTimeInSamples, idx.getIdxFieldBefore(targetTimeInSamples));
+		long time = start.timePtr;
+		long bytePos = start.bytePtr;
+		/* Hop over the datagram headers in the cached pages until the datagram containing the requested time */
 		while (true) {
-			if (!canReadDatagramHeader(bb)) {
-				bb = loadByteBuffer(bytePos, bufSize);
-				assert canReadDatagramHeader(bb);
+			ByteBuffer header = loadByteBuffer(bytePos, Datagram.NUM_HEADER_BYTES);
+			long duration = header.getLong(header.position());
+			int length = header.getInt(header.position() + 8);
+			if (duration < 0 || length < 0) {
+				throw new IOException("Invalid datagram header at byte position " + bytePos);
 			}
-			int posBefore = bb.position();
-			Datagram d = new Datagram(bb, false);
-			if (time + d.getDuration() > targetTimeInSamples) { // d is our datagram
-				bb.position(posBefore);
-				int datagramNumBytes = Datagram.NUM_HEADER_BYTES + d.getLength();
-				// need to make sure we return a byte buffer from which d can be read
-				if (!canReadAmount(bb, datagramNumBytes)) {
-					bb = loadByteBuffer(bytePos, Math.max(datagramNumBytes, bufSize));
-				}
-				assert canReadAmount(bb, datagramNumBytes);
-				break;
-			} else {
-				// keep on skipping
-				time += d.getDuration();
-				if (canReadAmount(bb, d.getLength())) {
-					bb.position(bb.position() + d.getLength());
-				} else {
-					bytePos += bb.position();
-					bytePos += d.getLength();
-					bb = loadByteBuffer(bytePos, bufSize);
-				}
+			if (time + duration > targetTimeInSamples) { // this is our datagram
+				setCursor(time, bytePos);
+				// need to make sure we return a byte buffer from which it can be read
+				return new Pair<ByteBuffer, Long>(loadByteBuffer(bytePos, Datagram.NUM_HEADER_BYTES + length), time);
 			}
+			time += duration;
+			bytePos += Datagram.NUM_HEADER_BYTES + length;
 		}
-		return new Pair<ByteBuffer, Long>(bb, time);
 	}
 
 	/**
+	 * Get a byte buffer positioned at bytePos from which at least numBytes can be read. This is the cached page containing
+	 * bytePos, unless the data continue on the next page, in which case they are copied into a new buffer.
+	 * 
 	 * @param bytePos
 	 *            position in fileChannel from which to load the byte buffer
-	 * @param bufSize
-	 *            size of the byte buffer
-	 * @return the byte buffer, loaded and set such that limit is bufSize and position is 0
+	 * @param numBytes
+	 *            the number of bytes which must be readable from the byte buffer
+	 * @return the byte buffer, positioned at bytePos
 	 * @throws IOException
-	 *             if the data cannot be read from fileChannel
+	 *             if the data cannot be read from fileChannel, or if there are fewer than numBytes bytes of datagrams at
+	 *             bytePos
 	 */
-	private ByteBuffer loadByteBuffer(long bytePos, int bufSize) throws IOException {
-		ByteBuffer bb = ByteBuffer.allocate(bufSize);
-		fileChannel.read(bb, bytePos); // this will block if another thread is currently reading from fileChannel
-		bb.limit(bb.position());
-		bb.position(0);
+	private ByteBuffer loadByteBuffer(long bytePos, int numBytes) throws IOException {
+		if (bytePos < datagramsBytePos || bytePos + numBytes > timeIdxBytePos) {
+			throw new IOException("Cannot read " + numBytes + " bytes at byte position " + bytePos
+					+ ": datagrams are between positions " + datagramsBytePos + " and " + timeIdxBytePos);
+		}
+		long pageStart = bytePos - bytePos % TimelinePageCache.PAGE_SIZE;
+		ByteBuffer page = loadPage(pageStart);
+		page.position((int) (bytePos - pageStart));
+		if (canReadAmount(page, numBytes)) {
+			return page;
+		}
+		ByteBuffer bb = ByteBuffer.allocate(numBytes);
+		while (bb.hasRemaining()) {
+			if (!page.hasRemaining()) {
+				pageStart += TimelinePageCache.PAGE_SIZE;
+				page = loadPage(pageStart);
+			}
+			page.limit(Math.min(page.limit(), page.position() + bb.remaining()));
+			bb.put(page);
+		}
+		bb.flip();
 		return bb;
 	}
 
+	private ByteBuffer loadPage(long pageStart) throws IOException {
+		int pageLength = (int) Math.min(TimelinePageCache.PAGE_SIZE, timeIdxBytePos - pageStart);
+		return pageCache.getPage(pageCacheFileId, fileChannel, pageStart, pageLength);
+	}
+
+	/**
+	 * The position from which to start hopping to the given time: the index field before it, or, if it is closer, the position
+	 * where this thread last stopped reading.
+	 * 
+	 * @param targetTimeInSamples
+	 *            the time to reach
+	 * @param idxFieldBefore
+	 *            the index field before targetTimeInSamples
+	 * @return idxFieldBefore, or an index field with the absolute byte position of a datagram starting after it and at or before
+	 *         targetTimeInSamples
+	 */
+	private IdxField getStartBefore(long targetTimeInSamples, IdxField idxFieldBefore) {
+		Cursor cursor = cursors.get();
+		if (cursor.time > idxFieldBefore.timePtr && cursor.time <= targetTimeInSamples) {
+			return new IdxField(cursor.bytePos, cursor.time);
+		}
+		return idxFieldBefore;
+	}
+
+	private void setCursor(long time, long bytePos) {
+		Cursor cursor = cursors.get();
+		cursor.time = time;
+		cursor.bytePos = bytePos;
+	}
+
+	/**
+	 * Move this thread's cursor past the datagrams read since it was set.
+	 * 
+	 * @param fromTime
+	 *            the time at which the cursor was set
+	 * @param toTime
+	 *            the time at the end of the datagrams read
+	 * @param numBytes
+	 *            the number of bytes read
+	 */
+	private void advanceCursor(long fromTime, long toTime, int numBytes) {
+		Cursor cursor = cursors.get();
+		if (cursor.time == fromTime) {
+			cursor.time = toTime;
+			cursor.bytePos += numBytes;
+		}
+	}
+
+	/**
+	 * Get a byte buffer from which to continue reading at the given time, after the datagrams already read. When reading
+	 * piecewise, this continues exactly where this thread's cursor stopped, so that no datagram with zero duration is skipped at
+	 * the end of a page.
+	 * 
+	 * @param timeInSamples
+	 *            the time reached
+	 * @return a pair representing the byte buffer from which to read, and the time corresponding to its current position
+	 * @throws IOException
+	 *             if there are no more datagrams
+	 */
+	private Pair<ByteBuffer, Long> getByteBufferAfterCursor(long timeInSamples) throws IOException {
+		Cursor cursor = cursors.get();
+		if (fileChannel == null || cursor.time != timeInSamples) {
+			return getByteBufferAtTime(timeInSamples);
+		}
+		ByteBuffer header = loadByteBuffer(cursor.bytePos, Datagram.NUM_HEADER_BYTES);
+		int length = header.getInt(header.position() + 8);
+		return new Pair<ByteBuffer, Long>(loadByteBuffer(cursor.bytePos, Datagram.NUM_HEADER_BYTES + length), timeInSamples);
+	}
+
+	private boolean canReadNextDatagram(ByteBuffer bb) {
+		return canReadDatagramHeader(bb) && canReadAmount(bb, Datagram.NUM_HEADER_BYTES + bb.getInt(bb.position() + 8));
+	}
+
 	private boolean canReadDatagramHeader(ByteBuffer bb) {
 		return canReadAmount(bb, Datagram.NUM_HEADER_BYTES);
 	}
@@ -678,17 +776,23 @@ public class TimelineReader {
 		long endTime = byNumber ? -1 : scaleTime(reqSampleRate, (targetTimeInSamples + timeSpanInSamples));
 		int nRead = 0;
 		boolean haveReadAll = false;
+		// the time and buffer position where the cursor was set:
+		long bufferTime = time;
+		int bufferStart = bb.position();
 		while (!haveReadAll) {
-			Datagram dat = getNextDatagram(bb);
+			Datagram dat = canReadNextDatagram(bb) ? getNextDatagram(bb) : null;
 			if (dat == null) {
+				advanceCursor(bufferTime, time, bb.position() - bufferStart);
 				// we may have reached the end of the current byte buffer... try reading another:
 				try {
-					p = getByteBufferAtTime(time);
+					p = getByteBufferAfterCursor(time);
 				} catch (Exception ioe) {
 					// cannot get another byte buffer -- stop reading.
 					break;
 				}
 				bb = p.getFirst();
+				bufferTime = p.getSecond();
+				bufferStart = bb.position();
 				dat = getNextDatagram(bb);
 				if (dat == null) { // no, indeed we cannot read any more
 					break; // abort, we could not read all
@@ -705,6 +809,7 @@ public class TimelineReader {
 				haveReadAll = true;
 			}
 		}
+		advanceCursor(bufferTime, time, bb.position() - bufferStart);
 		return (Datagram[]) datagrams.toArray(new Datagram[0]);
 	}
 
@@ -1163,6 +1268,14 @@ public class TimelineReader {
 		}
 	}
 
+	/**
+	 * A position reached in the datagrams: the datagram at byte position bytePos starts at the given time.
+	 */
+	private static final class Cursor {
+		long time = -1;
+		long bytePos;
+	}
+
 	/**
 	 * Simple helper class to read the index fields in a timeline.
 	 * 
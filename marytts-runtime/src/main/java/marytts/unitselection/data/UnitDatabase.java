@@ -20,20 +20,24 @@
 package marytts.unitselection.data;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import marytts.cart.CART;
+import marytts.unitselection.select.JoinCostCache;
 import marytts.unitselection.select.JoinCostFunction;
 import marytts.unitselection.select.StatisticalCostFunction;
 import marytts.unitselection.select.Target;
 import marytts.unitselection.select.TargetCostFunction;
 import marytts.unitselection.select.viterbi.ViterbiCandidate;
+import marytts.unitselection.select.viterbi.ViterbiLattice;
 import marytts.util.MaryUtils;
 import marytts.util.data.Datagram;
-import marytts.util.dom.DomUtils;
 
 import org.apache.logging.log4j.Logger;
-import org.w3c.dom.Element;
 
 /**
  * The unit database of a voice
@@ -52,6 +56,12 @@ public class UnitDatabase {
 	protected TimelineReader basenameTimeline;
 	protected int backtrace;
 	protected Logger logger = MaryUtils.getLogger("UnitDatabase");
+	// lattices of finished Viterbi searches, reused by the following ones:
+	private final ConcurrentLinkedQueue<ViterbiLattice> viterbiLattices = new ConcurrentLinkedQueue<ViterbiLattice>();
+	// the basename of each unit, read when the first blacklist is used:
+	private volatile Basenames basenames;
+	// the basenames excluded by the most recently used blacklist:
+	private volatile Blacklist lastBlacklist;
 
 	public UnitDatabase() {
 	}
@@ -90,6 +100,35 @@ public class UnitDatabase {
 		return joinCostFunction;
 	}
 
+	/**
+	 * Cache the join costs of this database in a {@link JoinCostCache} of the given size, if the join cost function allows
+	 * it; a size of 0 removes the cache.
+	 * 
+	 * @param size
+	 *            the number of cached join costs, or 0
+	 */
+	public void setJoinCostCacheSize(int size) {
+		if (joinCostFunction instanceof JoinCostCache) {
+			joinCostFunction = ((JoinCostCache) joinCostFunction).getJoinCostFunction();
+		}
+		if (size <= 0) {
+			return;
+		}
+		if (!joinCostFunction.dependsOnUnitsOnly()) {
+			logger.info("Not caching join costs: " + joinCostFunction.getClass().getName() + " depends on the targets");
+			return;
+		}
+		joinCostFunction = new JoinCostCache(joinCostFunction, size);
+		logger.debug("Caching join costs in " + ((JoinCostCache) joinCostFunction).getSize() + " entries");
+	}
+
+	/**
+	 * @return the join cost cache of this database, or null if join costs are not cached
+	 */
+	public JoinCostCache getJoinCostCache() {
+		return (joinCostFunction instanceof JoinCostCache) ? (JoinCostCache) joinCostFunction : null;
+	}
+
 	public UnitFileReader getUnitFileReader() {
 		return unitReader;
 	}
@@ -102,6 +141,24 @@ public class UnitDatabase {
 		return sCostFunction;
 	}
 
+	/**
+	 * Get an empty lattice for a Viterbi search in this database. It is not used by any other thread until it is given back
+	 * with {@link #releaseViterbiLattice(ViterbiLattice)}.
+	 * 
+	 * @return a lattice, possibly one that was used for an earlier utterance
+	 */
+	public ViterbiLattice acquireViterbiLattice() {
+		ViterbiLattice lattice = viterbiLattices.poll();
+		if (lattice == null) {
+			lattice = new ViterbiLattice();
+		}
+		return lattice;
+	}
+
+	public void releaseViterbiLattice(ViterbiLattice lattice) {
+		viterbiLattices.offer(lattice);
+	}
+
 	/**
 	 * Preselect a set of candidates that could be used to realise the given target.
 	 * 
@@ -111,15 +168,67 @@ public class UnitDatabase {
 	 *         (different) Unit object
 	 */
 	public List<ViterbiCandidate> getCandidates(Target target) {
-		// BEGIN blacklisting
-		// The point of this is to get the value of the "blacklist" attribute in the first child element of the MaryXML
-		// and store it in the blacklist String variable.
-		// This code seems rather inelegant; perhaps there is a better way to access the MaryXML from this method?
-		String blacklist = "";
-		String unitBasename = "This must never be null or the empty string!"; // otherwise candidate selection fails!
-		Element targetElement = target.getMaryxmlElement();
-		blacklist = DomUtils.getAttributeFromClosestAncestorOfAnyKind(targetElement, "blacklist");
-		// END blacklisting
+		List<Unit> units = getCandidateUnits(target);
+		List<ViterbiCandidate> candidates = new ArrayList<ViterbiCandidate>(units.size());
+		for (Unit unit : units) {
+			// The target is the same for all these candidates in the queue
+			candidates.add(new ViterbiCandidate(target, unit, targetCostFunction));
+		}
+		return candidates;
+	}
+
+	/**
+	 * Preselect the candidates for the given target and keep only the ones with the lowest target costs. The target costs are
+	 * computed for all preselected units in one call of
+	 * {@link TargetCostFunction#cost(Target, Unit[], int[], int, double[])}, and Unit objects are only created for the
+	 * candidates that are kept.
+	 * 
+	 * @param target
+	 *            a Target object representing an optimal unit
+	 * @param maxCandidates
+	 *            the number of candidates to keep, or -1 to keep all
+	 * @param candidates
+	 *            receives the candidates, in the same order as {@link #getCandidateUnits(Target)} minus the discarded ones
+	 */
+	public void getCandidates(Target target, int maxCandidates, ScoredCandidates candidates) {
+		candidates.clear();
+		preselectCandidates(target, candidates);
+		targetCostFunction.cost(target, getUnits(), candidates.unitIndices, candidates.size, candidates.costs);
+		candidates.keepBest(maxCandidates);
+		for (int i = 0; i < candidates.size; i++) {
+			candidates.units[i] = createCandidateUnit(target, candidates.unitIndices[i]);
+		}
+	}
+
+	/**
+	 * Preselect the units that could be used to realise the given target, in the same order as {@link #getCandidates(Target)}
+	 * , but without computing their target costs.
+	 * 
+	 * @param target
+	 *            a Target object representing an optimal unit
+	 * @return an <span style="color:red;">unsorted</span> list of units
+	 */
+	public List<Unit> getCandidateUnits(Target target) {
+		ScoredCandidates candidates = new ScoredCandidates();
+		preselectCandidates(target, candidates);
+		List<Unit> units = new ArrayList<Unit>(candidates.size);
+		for (int i = 0; i < candidates.size; i++) {
+			units.add(createCandidateUnit(target, candidates.unitIndices[i]));
+		}
+		return units;
+	}
+
+	/**
+	 * Add the indices of the units that could be used to realise the given target to the candidates.
+	 * 
+	 * @param target
+	 *            a Target object representing an optimal unit
+	 * @param candidates
+	 *            receives the unit indices
+	 */
+	protected void preselectCandidates(Target target, ScoredCandidates candidates) {
+		// the blacklist was looked up in the MaryXML when the targets were created, see UnitSelector.getTargets()
+		BitSet blacklistedBasenames = getBlacklistedBasenames(target.getBlacklist());
 
 		// logger.debug("Looking for candidates in cart "+target.getName());
 		// get the cart tree and extract the candidates
@@ -127,26 +236,158 @@ public class UnitDatabase {
 		logger.debug("For target " + target + ", selected " + clist.length + " units");
 
 		// Now, clist is an array of unit indexes.
-		List<ViterbiCandidate> candidates = new ArrayList<ViterbiCandidate>();
 		for (int i = 0; i < clist.length; i++) {
-			// The target is the same for all these candidates in the queue
-			// remember the actual unit:
-			Unit unit = unitReader.getUnit(clist[i]);
-			candidates.add(new ViterbiCandidate(target, unit, targetCostFunction));
+			// Blacklisting without crazy performance drop:
+			// just skip units whose basenames are blacklisted
+			if (!isBlacklisted(clist[i], blacklistedBasenames)) {
+				candidates.add(clist[i]);
+			}
 		}
+	}
 
-		// Blacklisting without crazy performance drop:
-		// just remove candidates again if their basenames are blacklisted
-		java.util.Iterator<ViterbiCandidate> candIt = candidates.iterator();
-		while (candIt.hasNext()) {
-			ViterbiCandidate candidate = candIt.next();
-			unitBasename = getFilename(candidate.getUnit());
-			if (blacklist.contains(unitBasename)) {
-				candIt.remove();
+	/**
+	 * Find the basenames excluded by a blacklist, i.e. those which are a substring of it. The result for the last blacklist
+	 * is remembered, since all targets of a request usually have the same one.
+	 * 
+	 * @param blacklist
+	 *            the value of a "blacklist" attribute in the MaryXML, or the empty string
+	 * @return the ids of the excluded basenames, or null if no unit is excluded
+	 * @see #isBlacklisted(int, BitSet)
+	 */
+	protected BitSet getBlacklistedBasenames(String blacklist) {
+		if (blacklist.equals("")) { // no blacklist
+			return null;
+		}
+		Blacklist last = lastBlacklist;
+		if (last != null && last.blacklist.equals(blacklist)) {
+			return last.basenameIds;
+		}
+		String[] names = getBasenames().names;
+		BitSet basenameIds = new BitSet(names.length);
+		for (int id = 0; id < names.length; id++) {
+			if (blacklist.contains(names[id])) {
+				basenameIds.set(id);
 			}
 		}
+		if (basenameIds.isEmpty()) {
+			basenameIds = null;
+		}
+		lastBlacklist = new Blacklist(blacklist, basenameIds);
+		return basenameIds;
+	}
 
-		return candidates;
+	/**
+	 * Whether the given unit comes from a blacklisted file.
+	 * 
+	 * @param unitIndex
+	 *            the index of the unit
+	 * @param blacklistedBasenames
+	 *            the result of {@link #getBlacklistedBasenames(String)}
+	 * @return true if the unit must not be used
+	 */
+	protected boolean isBlacklisted(int unitIndex, BitSet blacklistedBasenames) {
+		return blacklistedBasenames != null && blacklistedBasenames.get(getBasenames().unitIds[unitIndex]);
+	}
+
+	private Basenames getBasenames() {
+		Basenames b = basenames;
+		if (b == null) {
+			synchronized (this) {
+				b = basenames;
+				if (b == null) {
+					b = readBasenames();
+					basenames = b;
+				}
+			}
+		}
+		return b;
+	}
+
+	/**
+	 * Look up the basename of every unit, as {@link #getFilename(Unit)} does. Consecutive units from the same file are
+	 * resolved with a single lookup.
+	 */
+	private Basenames readBasenames() {
+		int n = unitReader.getNumberOfUnits();
+		int[] unitIds = new int[n];
+		List<String> names = new ArrayList<String>();
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		if (basenameTimeline == null) {
+			logger.warn("No basename timeline: blacklists refer to all units as 'unknown origin'");
+			names.add("unknown origin");
+			return new Basenames(unitIds, names.toArray(new String[1]));
+		}
+		long[] offset = new long[1];
+		long fileStart = 0;
+		long fileEnd = 0;
+		int id = -1;
+		for (int i = 0; i < n; i++) {
+			Unit unit = unitReader.units[i];
+			if (id < 0 || unit.startTime < fileStart || unit.startTime >= fileEnd) {
+				String filename;
+				try {
+					Datagram filenameData = basenameTimeline.getDatagrams(unit.startTime, 1, basenameTimeline.getSampleRate(),
+							offset)[0];
+					filename = new String(filenameData.getData(), "UTF-8");
+					fileStart = unit.startTime - offset[0];
+					fileEnd = fileStart + filenameData.getDuration();
+				} catch (Exception e) {
+					logger.warn("Problem getting filename for unit " + unit.index, e);
+					filename = "unknown origin";
+					fileEnd = fileStart; // look up the next unit again
+				}
+				Integer known = ids.get(filename);
+				if (known == null) {
+					known = names.size();
+					ids.put(filename, known);
+					names.add(filename);
+				}
+				id = known;
+			}
+			unitIds[i] = id;
+		}
+		logger.debug("Units come from " + names.size() + " files");
+		return new Basenames(unitIds, names.toArray(new String[names.size()]));
+	}
+
+	private static final class Basenames {
+		final int[] unitIds;
+		final String[] names;
+
+		Basenames(int[] unitIds, String[] names) {
+			this.unitIds = unitIds;
+			this.names = names;
+		}
+	}
+
+	private static final class Blacklist {
+		final String blacklist;
+		final BitSet basenameIds;
+
+		Blacklist(String blacklist, BitSet basenameIds) {
+			this.blacklist = blacklist;
+			this.basenameIds = basenameIds;
+		}
+	}
+
+	/**
+	 * The unit for a preselected candidate.
+	 * 
+	 * @param target
+	 *            the target the candidate was preselected for
+	 * @param unitIndex
+	 *            the unit index added by {@link #preselectCandidates(Target, ScoredCandidates)}
+	 * @return the unit
+	 */
+	protected Unit createCandidateUnit(Target target, int unitIndex) {
+		return unitReader.getUnit(unitIndex);
+	}
+
+	/**
+	 * @return all units of the database, by unit index
+	 */
+	protected Unit[] getUnits() {
+		return unitReader.units;
 	}
 
 	/**
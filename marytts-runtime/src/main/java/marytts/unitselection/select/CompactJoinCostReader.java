@@ -0,0 +1,370 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.select;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import marytts.exceptions.MaryConfigurationException;
+import marytts.server.MaryProperties;
+import marytts.unitselection.data.Unit;
+import marytts.util.data.MaryHeader;
+
+/**
+ * Provides access to precompiled join costs stored as a sparse matrix in compressed row format, memory-mapped from disk. The
+ * costs are looked up without creating any objects, and the heap only holds the mapped buffers, however large the voice is.
+ * <p>
+ * File format, all big-endian:
+ * <ul>
+ * <li>a MaryHeader of type {@link MaryHeader#PRECOMPUTED_JOINCOSTS_CSR};</li>
+ * <li>int numberOfRows: one more than the highest left unit index;</li>
+ * <li>int numberOfCosts;</li>
+ * <li>int[numberOfRows + 1] row offsets: the costs for left unit <code>i</code> are entries <code>offsets[i]</code> to
+ * <code>offsets[i + 1] - 1</code>;</li>
+ * <li>int[numberOfCosts] right unit indices, in increasing order within each row;</li>
+ * <li>float[numberOfCosts] join costs.</li>
+ * </ul>
+ * A file in the format of {@link PrecompiledJoinCostReader} can be converted with {@link #convert(String, String)}.
+ */
+public class CompactJoinCostReader implements JoinCostFunction {
+
+	private MaryHeader hdr = null;
+
+	private IntBuffer offsets;
+	private IntBuffer rightUnits;
+	private FloatBuffer costs;
+	private int numberOfRows;
+
+	/**
+	 * Empty constructor; need to call load() separately.
+	 *
+	 * @see #load(String)
+	 */
+	public CompactJoinCostReader() {
+	}
+
+	/**
+	 * Create a compact join cost reader for the given file
+	 *
+	 * @param fileName
+	 *            the file to read
+	 * @throws IOException
+	 *             if a problem occurs while reading
+	 * @throws MaryConfigurationException
+	 *             if the file is not a compact join cost file
+	 */
+	public CompactJoinCostReader(String fileName) throws IOException, MaryConfigurationException {
+		load(fileName);
+	}
+
+	/**
+	 * Initialise this join cost function by reading the appropriate settings from the MaryProperties using the given
+	 * configPrefix.
+	 *
+	 * @param configPrefix
+	 *            the prefix for the (voice-specific) config entries to use when looking up files to load.
+	 * @throws MaryConfigurationException
+	 *             MaryConfigurationException
+	 */
+	public void init(String configPrefix) throws MaryConfigurationException {
+		String precomputedJoinCostFileName = MaryProperties.getFilename(configPrefix + ".precomputedJoinCostFile");
+		try {
+			load(precomputedJoinCostFileName);
+		} catch (IOException ioe) {
+			throw new MaryConfigurationException("Problem loading join file " + precomputedJoinCostFileName, ioe);
+		}
+	}
+
+	/**
+	 * Map the given compact join cost file into memory.
+	 *
+	 * @param fileName
+	 *            the file to read
+	 * @throws IOException
+	 *             if a problem occurs while reading
+	 * @throws MaryConfigurationException
+	 *             if the file is not a compact join cost file
+	 */
+	public void load(String fileName) throws IOException, MaryConfigurationException {
+		FileInputStream fis = new FileInputStream(fileName);
+		ByteBuffer bb;
+		try {
+			FileChannel fc = fis.getChannel();
+			bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+		} finally {
+			fis.close();
+		}
+		hdr = new MaryHeader(bb);
+		if (hdr.getType() != MaryHeader.PRECOMPUTED_JOINCOSTS_CSR) {
+			throw new MaryConfigurationException("File [" + fileName + "] is not a valid Mary compact join costs file.");
+		}
+		int rows = bb.getInt();
+		int numberOfCosts = bb.getInt();
+		if (rows < 0 || numberOfCosts < 0 || bb.remaining() != 4L * (rows + 1) + 8L * numberOfCosts) {
+			throw new MaryConfigurationException("File [" + fileName + "] has an inconsistent size. Aborting.");
+		}
+		offsets = slice(bb, rows + 1).asIntBuffer();
+		rightUnits = slice(bb, numberOfCosts).asIntBuffer();
+		costs = slice(bb, numberOfCosts).asFloatBuffer();
+		numberOfRows = rows;
+	}
+
+	/**
+	 * The next n ints or floats of the buffer, as a buffer of its own.
+	 */
+	private static ByteBuffer slice(ByteBuffer bb, int n) {
+		ByteBuffer slice = bb.slice();
+		slice.limit(4 * n);
+		bb.position(bb.position() + 4 * n);
+		return slice;
+	}
+
+	/**
+	 * Return the (precomputed) cost of joining the two given units; if there is no precomputed cost, return
+	 * Double.POSITIVE_INFINITY.
+	 *
+	 * @param t1
+	 *            t1
+	 * @param uleft
+	 *            uleft
+	 * @param t2
+	 *            t2
+	 * @param uright
+	 *            uright
+	 */
+	public double cost(Target t1, Unit uleft, Target t2, Unit uright) {
+		return cost(uleft.index, uright.index);
+	}
+
+	@Override
+	public boolean dependsOnUnitsOnly() {
+		return true;
+	}
+
+	/**
+	 * Return the precomputed cost of joining the two units with the given indices, or Double.POSITIVE_INFINITY if there is
+	 * none.
+	 *
+	 * @param leftIndex
+	 *            index of the left unit
+	 * @param rightIndex
+	 *            index of the right unit
+	 * @return the join cost
+	 */
+	public double cost(int leftIndex, int rightIndex) {
+		if (leftIndex < 0 || leftIndex >= numberOfRows)
+			return Double.POSITIVE_INFINITY;
+		// binary search in the right unit indices of the row:
+		int lo = offsets.get(leftIndex);
+		int hi = offsets.get(leftIndex + 1) - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int right = rightUnits.get(mid);
+			if (right < rightIndex) {
+				lo = mid + 1;
+			} else if (right > rightIndex) {
+				hi = mid - 1;
+			} else {
+				return costs.get(mid);
+			}
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Convert a precompiled join cost file as read by {@link PrecompiledJoinCostReader} into the compact format. Where the
+	 * old file lists a left unit or a pair of units more than once, the last entry wins, as when it is loaded by
+	 * PrecompiledJoinCostReader.
+	 *
+	 * @param precompiledFileName
+	 *            the file to convert
+	 * @param compactFileName
+	 *            the file to write
+	 * @throws IOException
+	 *             if a problem occurs while reading or writing
+	 * @throws MaryConfigurationException
+	 *             if the input file is not a precompiled join cost file
+	 */
+	public static void convert(String precompiledFileName, String compactFileName) throws IOException,
+			MaryConfigurationException {
+		int numberOfEntries = 0;
+		int[] leftIndices = new int[1024];
+		int[] rightIndices = new int[1024];
+		float[] entryCosts = new float[1024];
+		int[] blocks = new int[1024];
+		int[] lastBlock = new int[0];
+		int numberOfRows = 0;
+
+		DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(precompiledFileName)));
+		try {
+			MaryHeader header = new MaryHeader(dis);
+			if (header.getType() != MaryHeader.PRECOMPUTED_JOINCOSTS) {
+				throw new MaryConfigurationException("File [" + precompiledFileName
+						+ "] is not a valid Mary precompiled join costs file.");
+			}
+			int numberOfLeftUnits = dis.readInt();
+			if (numberOfLeftUnits < 0) {
+				throw new MaryConfigurationException("File [" + precompiledFileName
+						+ "] has a negative number of units. Aborting.");
+			}
+			for (int i = 0; i < numberOfLeftUnits; i++) {
+				int leftIndex = dis.readInt();
+				int numberOfRightUnits = dis.readInt();
+				if (leftIndex < 0) {
+					throw new MaryConfigurationException("File [" + precompiledFileName + "] has a negative unit index. Aborting.");
+				}
+				if (leftIndex >= numberOfRows) {
+					numberOfRows = leftIndex + 1;
+					if (numberOfRows > lastBlock.length) {
+						lastBlock = Arrays.copyOf(lastBlock, Math.max(numberOfRows, 2 * lastBlock.length));
+					}
+				}
+				// a later block for the same left unit replaces the earlier ones
+				lastBlock[leftIndex] = i;
+				for (int j = 0; j < numberOfRightUnits; j++) {
+					if (numberOfEntries == leftIndices.length) {
+						int size = 2 * numberOfEntries;
+						leftIndices = Arrays.copyOf(leftIndices, size);
+						rightIndices = Arrays.copyOf(rightIndices, size);
+						entryCosts = Arrays.copyOf(entryCosts, size);
+						blocks = Arrays.copyOf(blocks, size);
+					}
+					leftIndices[numberOfEntries] = leftIndex;
+					rightIndices[numberOfEntries] = dis.readInt();
+					entryCosts[numberOfEntries] = dis.readFloat();
+					blocks[numberOfEntries] = i;
+					numberOfEntries++;
+				}
+			}
+		} finally {
+			dis.close();
+		}
+
+		// group the entries of the last block of each left unit by row, in file order:
+		int[] offsets = new int[numberOfRows + 1];
+		for (int e = 0; e < numberOfEntries; e++) {
+			if (blocks[e] == lastBlock[leftIndices[e]]) {
+				offsets[leftIndices[e] + 1]++;
+			}
+		}
+		for (int r = 0; r < numberOfRows; r++) {
+			offsets[r + 1] += offsets[r];
+		}
+		int[] order = new int[offsets[numberOfRows]];
+		int[] next = Arrays.copyOf(offsets, numberOfRows);
+		for (int e = 0; e < numberOfEntries; e++) {
+			if (blocks[e] == lastBlock[leftIndices[e]]) {
+				order[next[leftIndices[e]]++] = e;
+			}
+		}
+
+		// sort each row by right unit index, keeping only the last cost for the same pair:
+		int[] rowOffsets = new int[numberOfRows + 1];
+		int[] rights = new int[order.length];
+		float[] rowCosts = new float[order.length];
+		int[] scratch = new int[order.length];
+		int numberOfCosts = 0;
+		for (int r = 0; r < numberOfRows; r++) {
+			rowOffsets[r] = numberOfCosts;
+			sortByRightIndex(order, scratch, offsets[r], offsets[r + 1], rightIndices);
+			for (int k = offsets[r]; k < offsets[r + 1]; k++) {
+				int e = order[k];
+				if (k + 1 < offsets[r + 1] && rightIndices[order[k + 1]] == rightIndices[e]) {
+					continue; // a later entry for the same pair follows
+				}
+				rights[numberOfCosts] = rightIndices[e];
+				rowCosts[numberOfCosts] = entryCosts[e];
+				numberOfCosts++;
+			}
+		}
+		rowOffsets[numberOfRows] = numberOfCosts;
+
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compactFileName)));
+		try {
+			new MaryHeader(MaryHeader.PRECOMPUTED_JOINCOSTS_CSR).writeTo(dos);
+			dos.writeInt(numberOfRows);
+			dos.writeInt(numberOfCosts);
+			for (int r = 0; r <= numberOfRows; r++) {
+				dos.writeInt(rowOffsets[r]);
+			}
+			for (int k = 0; k < numberOfCosts; k++) {
+				dos.writeInt(rights[k]);
+			}
+			for (int k = 0; k < numberOfCosts; k++) {
+				dos.writeFloat(rowCosts[k]);
+			}
+		} finally {
+			dos.close();
+		}
+	}
+
+	/**
+	 * Stable merge sort of the entries order[from] to order[to - 1] by their right unit index.
+	 */
+	private static void sortByRightIndex(int[] order, int[] scratch, int from, int to, int[] rightIndices) {
+		if (to - from < 2) {
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		sortByRightIndex(order, scratch, from, mid, rightIndices);
+		sortByRightIndex(order, scratch, mid, to, rightIndices);
+		if (rightIndices[order[mid - 1]] <= rightIndices[order[mid]]) {
+			return; // already in order
+		}
+		System.arraycopy(order, from, scratch, from, to - from);
+		int i = from, j = mid, k = from;
+		while (i < mid && j < to) {
+			order[k++] = (rightIndices[scratch[j]] < rightIndices[scratch[i]]) ? scratch[j++] : scratch[i++];
+		}
+		while (i < mid) {
+			order[k++] = scratch[i++];
+		}
+		while (j < to) {
+			order[k++] = scratch[j++];
+		}
+	}
+
+	/**
+	 * Convert a precompiled join cost file into the compact format.
+	 *
+	 * @param args
+	 *            the file to convert and the file to write
+	 * @throws Exception
+	 *             Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("Usage: java " + CompactJoinCostReader.class.getName()
+					+ " precompiledJoinCosts.mry compactJoinCosts.mry");
+			System.exit(1);
+		}
+		convert(args[0], args[1]);
+	}
+}
@@ -93,7 +93,7 @@ public class DiphoneFFRTargetCostFunction implements TargetCostFunction {
 	}
 
 	public FeatureVector getFeatureVector(Unit unit) {
-		return tcfForHalfphones.featureVectors[unit.index];
+		return tcfForHalfphones.getFeatureVector(unit);
 	}
 
 	/**
@@ -117,6 +117,31 @@ public class DiphoneFFRTargetCostFunction implements TargetCostFunction {
 		return tcfForHalfphones.cost(dt.left, du.left) + tcfForHalfphones.cost(dt.right, du.right);
 	}
 
+	/**
+	 * Compute the goodness-of-fit of several diphones, given by the indices of their left halves, for a diphone target; or
+	 * of several half-phones for a half-phone target.
+	 */
+	@Override
+	public void cost(Target target, Unit[] units, int[] unitIndices, int numUnits, double[] costs) {
+		if (target instanceof HalfPhoneTarget) {
+			tcfForHalfphones.cost(target, units, unitIndices, numUnits, costs);
+			return;
+		}
+		if (!(target instanceof DiphoneTarget))
+			throw new IllegalArgumentException("This target cost function can only be called for diphone and half-phone targets!");
+		DiphoneTarget dt = (DiphoneTarget) target;
+		tcfForHalfphones.cost(dt.left, units, unitIndices, numUnits, costs);
+		int[] rightIndices = new int[numUnits];
+		for (int i = 0; i < numUnits; i++) {
+			rightIndices[i] = unitIndices[i] + 1;
+		}
+		double[] rightCosts = new double[numUnits];
+		tcfForHalfphones.cost(dt.right, units, rightIndices, numUnits, rightCosts);
+		for (int i = 0; i < numUnits; i++) {
+			costs[i] += rightCosts[i];
+		}
+	}
+
 	/**
 	 * Compute the features for a given target, and store them in the target.
 	 * 
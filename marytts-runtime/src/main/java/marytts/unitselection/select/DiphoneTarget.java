@@ -64,6 +64,18 @@ public class DiphoneTarget extends Target {
 		throw new IllegalStateException("This method should not be called for DiphoneTargets.");
 	}
 
+	/**
+	 * Get the blacklist of the phone of the left half, or of the right half if the left half has no MaryXML element.
+	 * 
+	 * @return the blacklist, or the empty string if there is none
+	 */
+	public String getBlacklist() {
+		if (left.getMaryxmlElement() != null) {
+			return left.getBlacklist();
+		}
+		return right.getBlacklist();
+	}
+
 	public Allophone getAllophone() {
 		throw new IllegalStateException("This method should not be called for DiphoneTargets.");
 	}
@@ -23,13 +23,22 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import marytts.exceptions.MaryConfigurationException;
 import marytts.features.FeatureDefinition;
 import marytts.features.FeatureProcessorManager;
 import marytts.features.FeatureVector;
 import marytts.features.TargetFeatureComputer;
+import marytts.server.MaryProperties;
+import marytts.server.ServerExecutor;
 import marytts.unitselection.data.FeatureFileReader;
+import marytts.unitselection.data.MappedFeatureStore;
 import marytts.unitselection.data.Unit;
 import marytts.unitselection.weightingfunctions.WeightFunc;
 import marytts.unitselection.weightingfunctions.WeightFunctionManager;
@@ -39,6 +48,8 @@ public class FFRTargetCostFunction implements TargetCostFunction {
 	protected WeightFunc[] weightFunction;
 	protected TargetFeatureComputer targetFeatureComputer;
 	protected FeatureVector[] featureVectors;
+	// set instead of featureVectors if the feature file is mapped:
+	protected MappedFeatureStore mappedFeatures;
 	protected FeatureDefinition featureDefinition;
 	protected boolean[] weightsNonZero;
 
@@ -46,6 +57,9 @@ public class FFRTargetCostFunction implements TargetCostFunction {
 	protected double[] cumulWeightedCosts = null;
 	protected int nCostComputations = 0;
 
+	// score candidate lists of at least this many units on several threads (0 = never):
+	protected int parallelThreshold = MaryProperties.getInteger("unitselection.targetcost.parallel", 0);
+
 	public FFRTargetCostFunction() {
 	}
 
@@ -66,13 +80,15 @@ public class FFRTargetCostFunction implements TargetCostFunction {
 		nCostComputations++; // for debug
 		FeatureVector targetFeatures = target.getFeatureVector();
 		assert targetFeatures != null : "Target " + target + " does not have pre-computed feature vector";
-		FeatureVector unitFeatures = featureVectors[unit.index];
+		int unitIndex = unit.index;
+		// null if the features are mapped, which are then read without creating a feature vector:
+		FeatureVector unitFeatures = featureVectors != null ? featureVectors[unitIndex] : null;
 		int nBytes = targetFeatures.byteValuedDiscreteFeatures.length;
 		int nShorts = targetFeatures.shortValuedDiscreteFeatures.length;
 		int nFloats = targetFeatures.continuousFeatures.length;
-		assert nBytes == unitFeatures.byteValuedDiscreteFeatures.length;
-		assert nShorts == unitFeatures.shortValuedDiscreteFeatures.length;
-		assert nFloats == unitFeatures.continuousFeatures.length;
+		assert unitFeatures == null || nBytes == unitFeatures.byteValuedDiscreteFeatures.length;
+		assert unitFeatures == null || nShorts == unitFeatures.shortValuedDiscreteFeatures.length;
+		assert unitFeatures == null || nFloats == unitFeatures.continuousFeatures.length;
 
 		float[] weightVector = weights.getFeatureWeights();
 		// Now the actual computation
@@ -84,12 +100,12 @@ public class FFRTargetCostFunction implements TargetCostFunction {
 					float weight = weightVector[i];
 					if (featureDefinition.hasSimilarityMatrix(i)) {
 						byte targetFeatValueIndex = targetFeatures.byteValuedDiscreteFeatures[i];
-						byte unitFeatValueIndex = unitFeatures.byteValuedDiscreteFeatures[i];
+						byte unitFeatValueIndex = unitByte(unitFeatures, unitIndex, i);
 						float similarity = featureDefinition.getSimilarity(i, unitFeatValueIndex, targetFeatValueIndex);
 						cost += similarity * weight;
 						if (debugShowCostGraph)
 							cumulWeightedCosts[i] += similarity * weight;
-					} else if (targetFeatures.byteValuedDiscreteFeatures[i] != unitFeatures.byteValuedDiscreteFeatures[i]) {
+					} else if (targetFeatures.byteValuedDiscreteFeatures[i] != unitByte(unitFeatures, unitIndex, i)) {
 						cost += weight;
 						if (debugShowCostGraph)
 							cumulWeightedCosts[i] += weight;
@@ -103,8 +119,7 @@ public class FFRTargetCostFunction implements TargetCostFunction {
 				if (weightsNonZero[i]) {
 					float weight = weightVector[i];
 					// if (targetFeatures.getShortFeature(i) != unitFeatures.getShortFeature(i)) {
-					if (targetFeatures.shortValuedDiscreteFeatures[i - nBytes] != unitFeatures.shortValuedDiscreteFeatures[i
-							- nBytes]) {
+					if (targetFeatures.shortValuedDiscreteFeatures[i - nBytes] != unitShort(unitFeatures, unitIndex, i - nBytes)) {
 						cost += weight;
 						if (debugShowCostGraph)
 							cumulWeightedCosts[i] += weight;
@@ -121,7 +136,7 @@ public class FFRTargetCostFunction implements TargetCostFunction {
 					// float a = targetFeatures.getContinuousFeature(i);
 					float a = targetFeatures.continuousFeatures[i - nDiscrete];
 					// float b = unitFeatures.getContinuousFeature(i);
-					float b = unitFeatures.continuousFeatures[i - nDiscrete];
+					float b = unitFloat(unitFeatures, unitIndex, i - nDiscrete);
 					// if (!Float.isNaN(a) && !Float.isNaN(b)) {
 					// Implementation of isNaN() is: (v != v).
 					if (!(a != a) && !(b != b)) {
@@ -137,6 +152,267 @@ public class FFRTargetCostFunction implements TargetCostFunction {
 		return cost;
 	}
 
+	/**
+	 * A byte-valued feature of a unit, from its feature vector or, if that is null, from the mapped feature file.
+	 */
+	private byte unitByte(FeatureVector unitFeatures, int unitIndex, int i) {
+		return unitFeatures != null ? unitFeatures.byteValuedDiscreteFeatures[i] : mappedFeatures.getByteFeature(unitIndex, i);
+	}
+
+	/**
+	 * A short-valued feature of a unit by its position among the short-valued features, see {@link #unitByte}.
+	 */
+	private short unitShort(FeatureVector unitFeatures, int unitIndex, int shortIndex) {
+		return unitFeatures != null ? unitFeatures.shortValuedDiscreteFeatures[shortIndex] : mappedFeatures.getShort(unitIndex,
+				shortIndex);
+	}
+
+	/**
+	 * A continuous feature of a unit by its position among the continuous features, see {@link #unitByte}.
+	 */
+	private float unitFloat(FeatureVector unitFeatures, int unitIndex, int floatIndex) {
+		return unitFeatures != null ? unitFeatures.continuousFeatures[floatIndex] : mappedFeatures.getFloat(unitIndex, floatIndex);
+	}
+
+	/**
+	 * Compute the goodness-of-fit of several units for the same target, with the same result as
+	 * {@link #cost(Target, Unit)} for each of them. The features with non-zero weights are looked up once for the target, and
+	 * the units are then scored in a tight loop over their feature arrays; lists of at least
+	 * <code>unitselection.targetcost.parallel</code> units are split across several threads.
+	 */
+	@Override
+	public void cost(Target target, Unit[] units, int[] unitIndices, int numUnits, double[] costs) {
+		cost(target, units, unitIndices, numUnits, costs, featureDefinition, weightFunction);
+	}
+
+	protected void cost(Target target, Unit[] units, int[] unitIndices, int numUnits, double[] costs,
+			FeatureDefinition weights, WeightFunc[] weightFunctions) {
+		if (debugShowCostGraph) {
+			// the per-feature statistics are collected unit by unit
+			for (int u = 0; u < numUnits; u++) {
+				costs[u] = cost(target, units[unitIndices[u]], weights, weightFunctions);
+			}
+			return;
+		}
+		nCostComputations += numUnits; // for debug
+		final FeatureVector targetFeatures = target.getFeatureVector();
+		assert targetFeatures != null : "Target " + target + " does not have pre-computed feature vector";
+		final ActiveFeatures active = new ActiveFeatures(targetFeatures, weights, weightFunctions);
+		if (parallelThreshold <= 0 || numUnits < parallelThreshold) {
+			cost(targetFeatures, active, unitIndices, 0, numUnits, costs);
+			return;
+		}
+
+		ExecutorService executor = ServerExecutor.getComputePool();
+		int minChunkSize = Math.max(1, parallelThreshold / 2);
+		int numChunks = Math.min(ServerExecutor.getComputeThreads(), (numUnits + minChunkSize - 1) / minChunkSize);
+		final int chunkSize = (numUnits + numChunks - 1) / numChunks;
+		List<Future<Void>> results = new ArrayList<Future<Void>>(numChunks);
+		try {
+			for (int from = chunkSize; from < numUnits; from += chunkSize) {
+				final int start = from;
+				final int end = Math.min(from + chunkSize, numUnits);
+				final int[] indices = unitIndices;
+				final double[] out = costs;
+				results.add(executor.submit(new Callable<Void>() {
+					public Void call() {
+						cost(targetFeatures, active, indices, start, end, out);
+						return null;
+					}
+				}));
+			}
+			cost(targetFeatures, active, unitIndices, 0, Math.min(chunkSize, numUnits), costs);
+			for (Future<Void> result : results) {
+				result.get();
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException("Cannot compute target costs", cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while computing target costs", e);
+		} finally {
+			for (Future<Void> result : results) {
+				result.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Score the units <code>unitIndices[from]</code> to <code>unitIndices[to - 1]</code>. The features are added up in the same
+	 * order as in {@link #cost(Target, Unit, FeatureDefinition, WeightFunc[])}, so that the costs are exactly the same.
+	 */
+	private void cost(FeatureVector targetFeatures, ActiveFeatures active, int[] unitIndices, int from, int to, double[] costs) {
+		if (featureVectors == null) {
+			costMapped(targetFeatures, active, unitIndices, from, to, costs);
+			return;
+		}
+		byte[] targetBytes = targetFeatures.byteValuedDiscreteFeatures;
+		short[] targetShorts = targetFeatures.shortValuedDiscreteFeatures;
+		float[] targetFloats = targetFeatures.continuousFeatures;
+		int[] byteFeatures = active.byteFeatures;
+		float[] byteWeights = active.byteWeights;
+		boolean[] bytesSimilarity = active.byteSimilarity;
+		int[] shortFeatures = active.shortFeatures;
+		float[] shortWeights = active.shortWeights;
+		int[] floatFeatures = active.floatFeatures;
+		float[] floatWeights = active.floatWeights;
+		WeightFunc[] floatFunctions = active.floatFunctions;
+		for (int u = from; u < to; u++) {
+			FeatureVector unitFeatures = featureVectors[unitIndices[u]];
+			byte[] unitBytes = unitFeatures.byteValuedDiscreteFeatures;
+			double cost = 0;
+			for (int k = 0; k < byteFeatures.length; k++) {
+				int i = byteFeatures[k];
+				if (bytesSimilarity[k]) {
+					cost += featureDefinition.getSimilarity(i, unitBytes[i], targetBytes[i]) * byteWeights[k];
+				} else if (targetBytes[i] != unitBytes[i]) {
+					cost += byteWeights[k];
+				}
+			}
+			short[] unitShorts = unitFeatures.shortValuedDiscreteFeatures;
+			for (int k = 0; k < shortFeatures.length; k++) {
+				int i = shortFeatures[k];
+				if (targetShorts[i] != unitShorts[i]) {
+					cost += shortWeights[k];
+				}
+			}
+			float[] unitFloats = unitFeatures.continuousFeatures;
+			for (int k = 0; k < floatFeatures.length; k++) {
+				int i = floatFeatures[k];
+				float a = targetFloats[i];
+				float b = unitFloats[i];
+				if (!(a != a) && !(b != b)) {
+					cost += floatWeights[k] * floatFunctions[k].cost(a, b);
+				} // and if it is NaN, simply compute no cost
+			}
+			costs[u] = cost;
+		}
+	}
+
+	/**
+	 * Same as {@link #cost(FeatureVector, ActiveFeatures, int[], int, int, double[])}, but reading the unit features from the
+	 * mapped feature file, without creating feature vectors.
+	 */
+	private void costMapped(FeatureVector targetFeatures, ActiveFeatures active, int[] unitIndices, int from, int to,
+			double[] costs) {
+		MappedFeatureStore store = mappedFeatures;
+		byte[] targetBytes = targetFeatures.byteValuedDiscreteFeatures;
+		short[] targetShorts = targetFeatures.shortValuedDiscreteFeatures;
+		float[] targetFloats = targetFeatures.continuousFeatures;
+		int[] byteFeatures = active.byteFeatures;
+		float[] byteWeights = active.byteWeights;
+		boolean[] bytesSimilarity = active.byteSimilarity;
+		int[] shortFeatures = active.shortFeatures;
+		float[] shortWeights = active.shortWeights;
+		int[] floatFeatures = active.floatFeatures;
+		float[] floatWeights = active.floatWeights;
+		WeightFunc[] floatFunctions = active.floatFunctions;
+		for (int u = from; u < to; u++) {
+			int unitIndex = unitIndices[u];
+			double cost = 0;
+			for (int k = 0; k < byteFeatures.length; k++) {
+				int i = byteFeatures[k];
+				byte unitByte = store.getByteFeature(unitIndex, i);
+				if (bytesSimilarity[k]) {
+					cost += featureDefinition.getSimilarity(i, unitByte, targetBytes[i]) * byteWeights[k];
+				} else if (targetBytes[i] != unitByte) {
+					cost += byteWeights[k];
+				}
+			}
+			for (int k = 0; k < shortFeatures.length; k++) {
+				int i = shortFeatures[k];
+				if (targetShorts[i] != store.getShort(unitIndex, i)) {
+					cost += shortWeights[k];
+				}
+			}
+			for (int k = 0; k < floatFeatures.length; k++) {
+				int i = floatFeatures[k];
+				float a = targetFloats[i];
+				float b = store.getFloat(unitIndex, i);
+				if (!(a != a) && !(b != b)) {
+					cost += floatWeights[k] * floatFunctions[k].cost(a, b);
+				} // and if it is NaN, simply compute no cost
+			}
+			costs[u] = cost;
+		}
+	}
+
+	/**
+	 * The features with non-zero weights, with their weights, as local indices into the byte, short and float arrays of a
+	 * feature vector.
+	 */
+	private class ActiveFeatures {
+		final int[] byteFeatures;
+		final float[] byteWeights;
+		final boolean[] byteSimilarity;
+		final int[] shortFeatures;
+		final float[] shortWeights;
+		final int[] floatFeatures;
+		final float[] floatWeights;
+		final WeightFunc[] floatFunctions;
+
+		ActiveFeatures(FeatureVector targetFeatures, FeatureDefinition weights, WeightFunc[] weightFunctions) {
+			int nBytes = targetFeatures.byteValuedDiscreteFeatures.length;
+			int nShorts = targetFeatures.shortValuedDiscreteFeatures.length;
+			int nFloats = targetFeatures.continuousFeatures.length;
+			float[] weightVector = weights.getFeatureWeights();
+			int n = 0;
+			for (int i = 0; i < nBytes; i++) {
+				if (weightsNonZero[i])
+					n++;
+			}
+			byteFeatures = new int[n];
+			byteWeights = new float[n];
+			byteSimilarity = new boolean[n];
+			n = 0;
+			for (int i = 0; i < nBytes; i++) {
+				if (weightsNonZero[i]) {
+					byteFeatures[n] = i;
+					byteWeights[n] = weightVector[i];
+					byteSimilarity[n] = featureDefinition.hasSimilarityMatrix(i);
+					n++;
+				}
+			}
+			n = 0;
+			for (int i = nBytes; i < nBytes + nShorts; i++) {
+				if (weightsNonZero[i])
+					n++;
+			}
+			shortFeatures = new int[n];
+			shortWeights = new float[n];
+			n = 0;
+			for (int i = nBytes; i < nBytes + nShorts; i++) {
+				if (weightsNonZero[i]) {
+					shortFeatures[n] = i - nBytes;
+					shortWeights[n] = weightVector[i];
+					n++;
+				}
+			}
+			int nDiscrete = nBytes + nShorts;
+			n = 0;
+			for (int i = nDiscrete; i < nDiscrete + nFloats; i++) {
+				if (weightsNonZero[i])
+					n++;
+			}
+			floatFeatures = new int[n];
+			floatWeights = new float[n];
+			floatFunctions = new WeightFunc[n];
+			n = 0;
+			for (int i = nDiscrete; i < nDiscrete + nFloats; i++) {
+				if (weightsNonZero[i]) {
+					floatFeatures[n] = i - nDiscrete;
+					floatWeights[n] = weightVector[i];
+					floatFunctions[n] = weightFunctions[i - nDiscrete];
+					n++;
+				}
+			}
+		}
+	}
+
 	/**
 	 * Compute the goodness-of-fit between given unit and given target for a given feature
 	 *
@@ -162,13 +438,15 @@ public class FFRTargetCostFunction implements TargetCostFunction {
 
 		FeatureVector targetFeatures = target.getFeatureVector();
 		assert targetFeatures != null : "Target " + target + " does not have pre-computed feature vector";
-		FeatureVector unitFeatures = featureVectors[unit.index];
+		int unitIndex = unit.index;
+		// null if the features are mapped, which are then read without creating a feature vector:
+		FeatureVector unitFeatures = featureVectors != null ? featureVectors[unitIndex] : null;
 		int nBytes = targetFeatures.byteValuedDiscreteFeatures.length;
 		int nShorts = targetFeatures.shortValuedDiscreteFeatures.length;
 		int nFloats = targetFeatures.continuousFeatures.length;
-		assert nBytes == unitFeatures.byteValuedDiscreteFeatures.length;
-		assert nShorts == unitFeatures.shortValuedDiscreteFeatures.length;
-		assert nFloats == unitFeatures.continuousFeatures.length;
+		assert unitFeatures == null || nBytes == unitFeatures.byteValuedDiscreteFeatures.length;
+		assert unitFeatures == null || nShorts == unitFeatures.shortValuedDiscreteFeatures.length;
+		assert unitFeatures == null || nFloats == unitFeatures.continuousFeatures.length;
 
 		int featureIndex = this.featureDefinition.getFeatureIndex(featureName);
 		float[] weightVector = weights.getFeatureWeights();
@@ -179,12 +457,12 @@ public class FFRTargetCostFunction implements TargetCostFunction {
 				float weight = weightVector[featureIndex];
 				if (featureDefinition.hasSimilarityMatrix(featureIndex)) {
 					byte targetFeatValueIndex = targetFeatures.byteValuedDiscreteFeatures[featureIndex];
-					byte unitFeatValueIndex = unitFeatures.byteValuedDiscreteFeatures[featureIndex];
+					byte unitFeatValueIndex = unitByte(unitFeatures, unitIndex, featureIndex);
 					float similarity = featureDefinition.getSimilarity(featureIndex, unitFeatValueIndex, targetFeatValueIndex);
 					cost = similarity * weight;
 					if (debugShowCostGraph)
 						cumulWeightedCosts[featureIndex] += similarity * weight;
-				} else if (targetFeatures.byteValuedDiscreteFeatures[featureIndex] != unitFeatures.byteValuedDiscreteFeatures[featureIndex]) {
+				} else if (targetFeatures.byteValuedDiscreteFeatures[featureIndex] != unitByte(unitFeatures, unitIndex, featureIndex)) {
 					cost = weight;
 					if (debugShowCostGraph)
 						cumulWeightedCosts[featureIndex] += weight;
@@ -194,8 +472,8 @@ public class FFRTargetCostFunction implements TargetCostFunction {
 			if (weightsNonZero[featureIndex]) {
 				float weight = weightVector[featureIndex];
 				// if (targetFeatures.getShortFeature(i) != unitFeatures.getShortFeature(i)) {
-				if (targetFeatures.shortValuedDiscreteFeatures[featureIndex - nBytes] != unitFeatures.shortValuedDiscreteFeatures[featureIndex
-						- nBytes]) {
+				if (targetFeatures.shortValuedDiscreteFeatures[featureIndex - nBytes] != unitShort(unitFeatures, unitIndex,
+						featureIndex - nBytes)) {
 					cost = weight;
 					if (debugShowCostGraph)
 						cumulWeightedCosts[featureIndex] += weight;
@@ -208,7 +486,7 @@ public class FFRTargetCostFunction implements TargetCostFunction {
 				// float a = targetFeatures.getContinuousFeature(i);
 				float a = targetFeatures.continuousFeatures[featureIndex - nDiscrete];
 				// float b = unitFeatures.getContinuousFeature(i);
-				float b = unitFeatures.continuousFeatures[featureIndex - nDiscrete];
+				float b = unitFloat(unitFeatures, unitIndex, featureIndex - nDiscrete);
 				// if (!Float.isNaN(a) && !Float.isNaN(b)) {
 				// Implementation of isNaN() is: (v != v).
 				if (!(a != a) && !(b != b)) {
@@ -249,7 +527,8 @@ public class FFRTargetCostFunction implements TargetCostFunction {
 	@Override
 	public void load(FeatureFileReader ffr, InputStream weightsStream, FeatureProcessorManager featProc) throws IOException {
 		this.featureDefinition = ffr.getFeatureDefinition();
-		this.featureVectors = ffr.getFeatureVectors();
+		this.mappedFeatures = ffr.getMappedFeatures();
+		this.featureVectors = mappedFeatures == null ? ffr.getFeatureVectors() : null;
 		if (weightsStream != null) {
 			MaryUtils.getLogger("TargetCostFeatures").debug("Overwriting target cost weights from file");
 			// overwrite weights from file
@@ -302,9 +581,12 @@ public class FFRTargetCostFunction implements TargetCostFunction {
 	 *
 	 * @param unit
 	 *            a unit in the database
-	 * @return the FeatureVector for target cost computation associated to this unit
+	 * @return the FeatureVector for target cost computation associated to this unit; a new copy if the features are mapped
 	 */
 	public FeatureVector getFeatureVector(Unit unit) {
+		if (featureVectors == null) {
+			return mappedFeatures.getFeatureVector(unit.index);
+		}
 		return featureVectors[unit.index];
 	}
 
@@ -321,14 +603,34 @@ public class FFRTargetCostFunction implements TargetCostFunction {
 	 */
 	public String getFeature(Unit unit, String featureName) {
 		int featureIndex = featureDefinition.getFeatureIndex(featureName);
+		if (featureVectors == null) {
+			return getMappedFeature(unit.index, featureIndex);
+		}
+		FeatureVector unitFeatures = getFeatureVector(unit);
+		if (featureDefinition.isByteFeature(featureIndex)) {
+			byte value = unitFeatures.getByteFeature(featureIndex);
+			return featureDefinition.getFeatureValueAsString(featureIndex, value);
+		} else if (featureDefinition.isShortFeature(featureIndex)) {
+			short value = unitFeatures.getShortFeature(featureIndex);
+			return featureDefinition.getFeatureValueAsString(featureIndex, value);
+		} else { // continuous -- return float as string
+			float value = unitFeatures.getContinuousFeature(featureIndex);
+			return String.valueOf(value);
+		}
+	}
+
+	/**
+	 * Same as {@link #getFeature(Unit, String)}, but reading the feature value from the mapped feature file.
+	 */
+	protected String getMappedFeature(int unitIndex, int featureIndex) {
 		if (featureDefinition.isByteFeature(featureIndex)) {
-			byte value = featureVectors[unit.index].getByteFeature(featureIndex);
+			byte value = mappedFeatures.getByteFeature(unitIndex, featureIndex);
 			return featureDefinition.getFeatureValueAsString(featureIndex, value);
 		} else if (featureDefinition.isShortFeature(featureIndex)) {
-			short value = featureVectors[unit.index].getShortFeature(featureIndex);
+			short value = mappedFeatures.getShortFeature(unitIndex, featureIndex);
 			return featureDefinition.getFeatureValueAsString(featureIndex, value);
 		} else { // continuous -- return float as string
-			float value = featureVectors[unit.index].getContinuousFeature(featureIndex);
+			float value = mappedFeatures.getContinuousFeature(unitIndex, featureIndex);
 			return String.valueOf(value);
 		}
 	}
@@ -337,8 +639,23 @@ public class FFRTargetCostFunction implements TargetCostFunction {
 		return featureDefinition;
 	}
 
+	/**
+	 * Get all unit feature vectors.
+	 * 
+	 * @return the feature vectors, or null if the features are mapped.
+	 * @see #getMappedFeatures()
+	 */
 	public FeatureVector[] getFeatureVectors() {
 		return featureVectors;
 	}
 
+	/**
+	 * Give access to the feature values in the mapped feature file.
+	 * 
+	 * @return the mapped features, or null if the feature vectors were loaded into memory.
+	 */
+	public MappedFeatureStore getMappedFeatures() {
+		return mappedFeatures;
+	}
+
 }
@@ -66,6 +66,16 @@ public class HalfPhoneFFRTargetCostFunction extends FFRTargetCostFunction {
 		return cost(target, unit, weights, weightFunctions);
 	}
 
+	@Override
+	public void cost(Target target, Unit[] units, int[] unitIndices, int numUnits, double[] costs) {
+		if (!(target instanceof HalfPhoneTarget))
+			throw new IllegalArgumentException("This target cost function can only be called for half-phone targets!");
+		boolean isLeftHalf = ((HalfPhoneTarget) target).isLeftHalf();
+		FeatureDefinition weights = isLeftHalf ? leftWeights : rightWeights;
+		WeightFunc[] weightFunctions = isLeftHalf ? leftWeightFunction : rightWeightFunction;
+		cost(target, units, unitIndices, numUnits, costs, weights, weightFunctions);
+	}
+
 	/**
 	 * Initialise the data needed to do a target cost computation.
 	 *
@@ -97,7 +107,8 @@ public class HalfPhoneFFRTargetCostFunction extends FFRTargetCostFunction {
 		this.leftWeights = ffr.getLeftWeights();
 		this.featureDefinition = this.leftWeights;
 		this.rightWeights = ffr.getRightWeights();
-		this.featureVectors = ffr.getFeatureVectors();
+		this.mappedFeatures = ffr.getMappedFeatures();
+		this.featureVectors = mappedFeatures == null ? ffr.getFeatureVectors() : null;
 
 		if (weightsFile != null) {
 			MaryUtils.getLogger("TargetCostFeatures").debug("Overwriting target cost weights from file " + weightsFile);
@@ -173,7 +184,7 @@ public class HalfPhoneFFRTargetCostFunction extends FFRTargetCostFunction {
 	 * @return the FeatureVector for target cost computation associated to this unit
 	 */
 	public FeatureVector getUnitFeatures(Unit unit) {
-		return featureVectors[unit.index];
+		return getFeatureVector(unit);
 	}
 
 	/**
@@ -189,14 +200,18 @@ public class HalfPhoneFFRTargetCostFunction extends FFRTargetCostFunction {
 	 */
 	public String getFeature(Unit unit, String featureName) {
 		int featureIndex = featureDefinition.getFeatureIndex(featureName);
+		if (featureVectors == null) {
+			return getMappedFeature(unit.index, featureIndex);
+		}
+		FeatureVector unitFeatures = getFeatureVector(unit);
 		if (featureDefinition.isByteFeature(featureIndex)) {
-			byte value = featureVectors[unit.index].getByteFeature(featureIndex);
+			byte value = unitFeatures.getByteFeature(featureIndex);
 			return featureDefinition.getFeatureValueAsString(featureIndex, value);
 		} else if (featureDefinition.isShortFeature(featureIndex)) {
-			short value = featureVectors[unit.index].getShortFeature(featureIndex);
+			short value = unitFeatures.getShortFeature(featureIndex);
 			return featureDefinition.getFeatureValueAsString(featureIndex, value);
 		} else { // continuous -- return float as string
-			float value = featureVectors[unit.index].getContinuousFeature(featureIndex);
+			float value = unitFeatures.getContinuousFeature(featureIndex);
 			return String.valueOf(value);
 		}
 	}
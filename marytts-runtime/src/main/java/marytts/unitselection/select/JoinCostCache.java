@@ -0,0 +1,106 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.select;
+
+import marytts.exceptions.MaryConfigurationException;
+import marytts.unitselection.data.DiphoneUnit;
+import marytts.unitselection.data.Unit;
+import marytts.util.cache.DirectMappedCache;
+
+/**
+ * A bounded cache of join costs, keyed on the pair of units, in front of a join cost function whose costs do not depend on
+ * the targets. It is shared by all Viterbi searches in a unit database, so that unit pairs which recur across sentences and
+ * requests are costed only once. A pair of units makes a 64 bit key, which is kept in the entry next to the cost.
+ * <p>
+ * Enabled for a voice with <code>voice.&lt;name&gt;.joinCostCache.size</code>, the number of entries.
+ *
+ * @see marytts.unitselection.data.UnitDatabase#setJoinCostCacheSize(int)
+ */
+public class JoinCostCache extends DirectMappedCache<JoinCostCache.Entry> implements JoinCostFunction {
+	private final JoinCostFunction joinCostFunction;
+
+	/**
+	 * @param joinCostFunction
+	 *            the join cost function to cache; its costs must depend on the units only
+	 * @param size
+	 *            the number of entries, rounded up to a power of two
+	 * @throws IllegalArgumentException
+	 *             if the join cost function depends on the targets, or size is not positive
+	 */
+	public JoinCostCache(JoinCostFunction joinCostFunction, int size) {
+		super(size, "join cost cache");
+		if (!joinCostFunction.dependsOnUnitsOnly()) {
+			throw new IllegalArgumentException("Cannot cache join costs of " + joinCostFunction.getClass().getName()
+					+ ", which depend on the targets");
+		}
+		this.joinCostFunction = joinCostFunction;
+	}
+
+	public double cost(Target t1, Unit u1, Target t2, Unit u2) {
+		long key = (key(u1) << 32) | key(u2);
+		int slot = slot(hash(key));
+		Entry entry = getEntry(slot);
+		if (entry != null && entry.key == key) {
+			recordHit();
+			return entry.cost;
+		}
+		recordMiss();
+		double cost = joinCostFunction.cost(t1, u1, t2, u2);
+		setEntry(slot, new Entry(key, cost));
+		return cost;
+	}
+
+	public boolean dependsOnUnitsOnly() {
+		return true;
+	}
+
+	public void init(String configPrefix) throws MaryConfigurationException {
+		joinCostFunction.init(configPrefix);
+	}
+
+	/**
+	 * A diphone unit is identified by the index of its left half, so that the key also needs to say whether it is one.
+	 */
+	private static long key(Unit unit) {
+		return ((long) unit.index << 1) | (unit instanceof DiphoneUnit ? 1 : 0);
+	}
+
+	private static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+
+	/**
+	 * @return the join cost function whose costs are cached
+	 */
+	public JoinCostFunction getJoinCostFunction() {
+		return joinCostFunction;
+	}
+
+	static final class Entry {
+		final long key;
+		final double cost;
+
+		Entry(long key, double cost) {
+			this.key = key;
+			this.cost = cost;
+		}
+	}
+}
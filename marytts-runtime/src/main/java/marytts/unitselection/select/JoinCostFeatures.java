@@ -58,8 +58,10 @@ public class JoinCostFeatures implements JoinCostFunction {
 	protected double[] cumulWeightedSignalCosts = null;
 	protected int nCostComputations = 0;
 
-	protected PrecompiledJoinCostReader precompiledCosts;
+	protected JoinCostFunction precompiledCosts;
 
+	// read the join cost features from the mapped file on demand instead of copying them to the heap:
+	protected boolean mapFeatures = MaryProperties.getBoolean("unitselection.joincostfeatures.mapped", false);
 
 	/****************/
 	/* DATA FIELDS */
@@ -73,6 +75,10 @@ public class JoinCostFeatures implements JoinCostFunction {
 	private float[][] leftJCF = null;
 	private float[][] rightJCF = null;
 
+	// if mapFeatures: the left and then the right join cost features of each unit, in the mapped file
+	private FloatBuffer mappedJCF = null;
+	private int numberOfUnits;
+
 	/****************/
 	/* CONSTRUCTORS */
 	/****************/
@@ -112,6 +118,7 @@ public class JoinCostFeatures implements JoinCostFunction {
 		String joinFileName = MaryProperties.needFilename(configPrefix + ".joinCostFile");
 		String precomputedJoinCostFileName = MaryProperties.getFilename(configPrefix + ".precomputedJoinCostFile");
 		float wSignal = Float.parseFloat(MaryProperties.getProperty(configPrefix + ".joincostfunction.wSignal", "1.0"));
+		mapFeatures = MaryProperties.getBoolean(configPrefix + ".joinCostFeatures.mapped", mapFeatures);
 		try {
 			InputStream joinWeightStream = MaryProperties.getStream(configPrefix + ".joinCostWeights");
 			load(joinFileName, joinWeightStream, precomputedJoinCostFileName, wSignal);
@@ -141,6 +148,25 @@ public class JoinCostFeatures implements JoinCostFunction {
 		loadFromByteBuffer(joinFileName, weightStream, precompiledCostFileName, wSignal);
 	}
 
+	/**
+	 * Load a precompiled join cost file, in the compact format if it is one.
+	 * 
+	 * @param precompiledCostFileName
+	 *            a file containing precompiled join costs
+	 * @return a join cost function for the units that have precompiled costs
+	 * @throws IOException
+	 *             IOException
+	 * @throws MaryConfigurationException
+	 *             MaryConfigurationException
+	 */
+	private static JoinCostFunction loadPrecompiledCosts(String precompiledCostFileName) throws IOException,
+			MaryConfigurationException {
+		if (MaryHeader.peekFileType(precompiledCostFileName) == MaryHeader.PRECOMPUTED_JOINCOSTS_CSR) {
+			return new CompactJoinCostReader(precompiledCostFileName);
+		}
+		return new PrecompiledJoinCostReader(precompiledCostFileName);
+	}
+
 	/**
 	 * Load weights and values from the given file
 	 *
@@ -160,7 +186,7 @@ public class JoinCostFeatures implements JoinCostFunction {
 	private void loadFromByteBuffer(String joinFileName, InputStream weightStream, String precompiledCostFileName, float wSignal)
 			throws IOException, MaryConfigurationException {
 		if (precompiledCostFileName != null) {
-			precompiledCosts = new PrecompiledJoinCostReader(precompiledCostFileName);
+			precompiledCosts = loadPrecompiledCosts(precompiledCostFileName);
 		}
 		this.wSignal = wSignal;
 		wPhonetic = 1 - wSignal;
@@ -207,8 +233,19 @@ public class JoinCostFeatures implements JoinCostFunction {
 			}
 
 			/* Read the left and right Join Cost Features */
-			int numberOfUnits = bb.getInt();
+			numberOfUnits = bb.getInt();
 			FloatBuffer fb = bb.asFloatBuffer();
+			if (mapFeatures) {
+				if (fb.remaining() < 2L * numberOfUnits * numberOfFeatures) {
+					throw new EOFException();
+				}
+				fb.limit(2 * numberOfUnits * numberOfFeatures);
+				mappedJCF = fb;
+				leftJCF = null;
+				rightJCF = null;
+				return;
+			}
+			mappedJCF = null;
 			leftJCF = new float[numberOfUnits][];
 			rightJCF = new float[numberOfUnits][];
 			for (int i = 0; i < numberOfUnits; i++) {
@@ -245,7 +282,7 @@ public class JoinCostFeatures implements JoinCostFunction {
 	private void loadFromStream(String joinFileName, InputStream weightStream, String precompiledCostFileName, float wSignal)
 			throws IOException, MaryConfigurationException {
 		if (precompiledCostFileName != null) {
-			precompiledCosts = new PrecompiledJoinCostReader(precompiledCostFileName);
+			precompiledCosts = loadPrecompiledCosts(precompiledCostFileName);
 		}
 		this.wSignal = wSignal;
 		wPhonetic = 1 - wSignal;
@@ -291,7 +328,8 @@ public class JoinCostFeatures implements JoinCostFunction {
 			}
 
 			/* Read the left and right Join Cost Features */
-			int numberOfUnits = raf.readInt();
+			numberOfUnits = raf.readInt();
+			mappedJCF = null;
 			leftJCF = new float[numberOfUnits][];
 			rightJCF = new float[numberOfUnits][];
 			for (int i = 0; i < numberOfUnits; i++) {
@@ -395,10 +433,10 @@ public class JoinCostFeatures implements JoinCostFunction {
 	/**
 	 * Get the number of units.
 	 *
-	 * @return (leftJCF.length)
+	 * @return the number of units
 	 */
 	public int getNumberOfUnits() {
-		return (leftJCF.length);
+		return numberOfUnits;
 	}
 
 	/**
@@ -407,7 +445,7 @@ public class JoinCostFeatures implements JoinCostFunction {
 	 * @param u
 	 *            The index of the considered unit.
 	 *
-	 * @return The array of left join cost features for the given unit.
+	 * @return The array of left join cost features for the given unit; a copy if the features are mapped from the file.
 	 */
 	public float[] getLeftJCF(int u) {
 		if (u < 0) {
@@ -417,6 +455,14 @@ public class JoinCostFeatures implements JoinCostFunction {
 			throw new RuntimeException("The unit index [" + u + "] is out of range: this file contains [" + getNumberOfUnits()
 					+ "] units.");
 		}
+		if (mappedJCF != null) {
+			int numberOfFeatures = featureWeight.length;
+			float[] features = new float[numberOfFeatures];
+			for (int i = 0; i < numberOfFeatures; i++) {
+				features[i] = mappedJCF.get(2 * u * numberOfFeatures + 0 + i);
+			}
+			return features;
+		}
 		return (leftJCF[u]);
 	}
 
@@ -426,7 +472,7 @@ public class JoinCostFeatures implements JoinCostFunction {
 	 * @param u
 	 *            The index of the considered unit.
 	 *
-	 * @return The array of right join cost features for the given unit.
+	 * @return The array of right join cost features for the given unit; a copy if the features are mapped from the file.
 	 */
 	public float[] getRightJCF(int u) {
 		if (u < 0) {
@@ -436,6 +482,14 @@ public class JoinCostFeatures implements JoinCostFunction {
 			throw new RuntimeException("The unit index [" + u + "] is out of range: this file contains [" + getNumberOfUnits()
 					+ "] units.");
 		}
+		if (mappedJCF != null) {
+			int numberOfFeatures = featureWeight.length;
+			float[] features = new float[numberOfFeatures];
+			for (int i = 0; i < numberOfFeatures; i++) {
+				features[i] = mappedJCF.get(2 * u * numberOfFeatures + numberOfFeatures + i);
+			}
+			return features;
+		}
 		return (rightJCF[u]);
 	}
 
@@ -459,19 +513,20 @@ public class JoinCostFeatures implements JoinCostFunction {
 		if (u1 < 0) {
 			throw new RuntimeException("The left unit index [" + u1 + "] is out of range: a unit index can't be negative.");
 		}
-		// if ( u1 > getNumberOfUnits() ) {
-		if (u1 > leftJCF.length) {
+		if (u1 > numberOfUnits) {
 			throw new RuntimeException("The left unit index [" + u1 + "] is out of range: this file contains ["
 					+ getNumberOfUnits() + "] units.");
 		}
 		if (u2 < 0) {
 			throw new RuntimeException("The right unit index [" + u2 + "] is out of range: a unit index can't be negative.");
 		}
-		// if ( u2 > getNumberOfUnits() ) {
-		if (u2 > leftJCF.length) {
+		if (u2 > numberOfUnits) {
 			throw new RuntimeException("The right unit index [" + u2 + "] is out of range: this file contains ["
 					+ getNumberOfUnits() + "] units.");
 		}
+		if (mappedJCF != null) {
+			return mappedCost(u1, u2);
+		}
 		/* Cumulate the join costs for each feature */
 		double res = 0.0;
 		float[] v1 = rightJCF[u1];
@@ -496,6 +551,33 @@ public class JoinCostFeatures implements JoinCostFunction {
 		return (res);
 	}
 
+	/**
+	 * The same as {@link #cost(int, int)}, reading the join cost features from the mapped file.
+	 */
+	private double mappedCost(int u1, int u2) {
+		int numberOfFeatures = featureWeight.length;
+		int right1 = (2 * u1 + 1) * numberOfFeatures;
+		int left2 = 2 * u2 * numberOfFeatures;
+		double res = 0.0;
+		for (int i = 0; i < numberOfFeatures; i++) {
+			float a = mappedJCF.get(right1 + i);
+			float b = mappedJCF.get(left2 + i);
+			if (!(a != a) && !(b != b)) {
+				double c;
+				if (isLinear[i]) {
+					c = featureWeight[i] * (a > b ? (a - b) : (b - a));
+				} else {
+					c = featureWeight[i] * weightFunction[i].cost(a, b);
+				}
+				res += c;
+				if (debugShowCostGraph) {
+					cumulWeightedSignalCosts[i] += wSignal * c;
+				}
+			} // if anything is NaN, count the cost as 0.
+		}
+		return (res);
+	}
+
 	/**
 	 * A combined cost computation, as a weighted sum of the signal-based cost (computed from the units) and the phonetics-based
 	 * cost (computed from the targets).
@@ -540,6 +622,11 @@ public class JoinCostFeatures implements JoinCostFunction {
 		return cost;
 	}
 
+	@Override
+	public boolean dependsOnUnitsOnly() {
+		return true;
+	}
+
 	/**
 	 * A phonetic join cost, computed solely from the target.
 	 *
@@ -47,6 +47,16 @@ public interface JoinCostFunction {
 	 */
 	public double cost(Target t1, Unit u1, Target t2, Unit u2);
 
+	/**
+	 * Whether the join cost depends only on the two units, and not on the targets, so that it can be cached by unit pair.
+	 *
+	 * @return false unless the implementation guarantees that cost(t1, u1, t2, u2) is the same for all targets
+	 * @see JoinCostCache
+	 */
+	public default boolean dependsOnUnitsOnly() {
+		return false;
+	}
+
 	/**
 	 * Initialise this join cost function by reading the appropriate settings from the MaryProperties using the given
 	 * configPrefix.
@@ -120,6 +120,10 @@ public class JoinModelCost implements JoinCostFunction {
 		try {
 			// joinTree.loadTreeSetGeneral(joinTreeFileName, 0, featureDef);
 			joinTree = htsReader.load(numStates, joinTreeStream, joinPdfStream, PdfFileFormat.join, featureDef, phTranslator);
+			// the trees are walked for every join, see cost()
+			for (CART tree : joinTree) {
+				tree.compile();
+			}
 
 		} catch (Exception e) {
 			IOException ioe = new IOException("Cannot load join model trees");
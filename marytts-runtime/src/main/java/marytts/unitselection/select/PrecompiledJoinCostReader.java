@@ -169,4 +169,9 @@ public class PrecompiledJoinCostReader implements JoinCostFunction {
 		return cost.doubleValue();
 	}
 
+	@Override
+	public boolean dependsOnUnitsOnly() {
+		return true;
+	}
+
 }
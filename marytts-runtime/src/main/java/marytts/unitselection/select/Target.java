@@ -26,6 +26,7 @@ import marytts.modules.phonemiser.Allophone;
 import marytts.modules.phonemiser.AllophoneSet;
 import marytts.modules.synthesis.Voice;
 import marytts.util.MaryRuntimeUtils;
+import marytts.util.dom.DomUtils;
 import marytts.util.dom.MaryDomUtils;
 
 import org.w3c.dom.Element;
@@ -47,6 +48,7 @@ public class Target {
 	protected float duration = -1;
 	protected float f0 = -1;
 	protected int isSilence = -1;
+	protected String blacklist = null;
 
 	/**
 	 * Create a target associated to the given element in the MaryXML tree.
@@ -122,6 +124,19 @@ public class Target {
 		}
 	}
 
+	/**
+	 * Get the blacklist for this target, i.e. the value of the "blacklist" attribute of the closest ancestor of the MaryXML
+	 * element that has one. The value is looked up in the document only the first time.
+	 * 
+	 * @return the blacklist, or the empty string if there is none
+	 */
+	public String getBlacklist() {
+		if (blacklist == null) {
+			blacklist = DomUtils.getAttributeFromClosestAncestorOfAnyKind(maryxmlElement, "blacklist");
+		}
+		return blacklist;
+	}
+
 	public boolean hasFeatureVector() {
 		return featureVector != null;
 	}
@@ -83,6 +83,28 @@ public interface TargetCostFunction {
 	 */
 	public double cost(Target target, Unit unit);
 
+	/**
+	 * Compute the goodness-of-fit of several units for the same target. The result is the same as calling
+	 * {@link #cost(Target, Unit)} for each unit, which is what this default implementation does; implementations that can score
+	 * many units at once more efficiently override it.
+	 * 
+	 * @param target
+	 *            target
+	 * @param units
+	 *            all units of the database, by unit index
+	 * @param unitIndices
+	 *            the indices of the units to score; for a diphone target, the indices of the left halves of the diphones
+	 * @param numUnits
+	 *            the number of units to score, from the start of unitIndices
+	 * @param costs
+	 *            receives the cost of unit <code>unitIndices[i]</code> in <code>costs[i]</code>
+	 */
+	public default void cost(Target target, Unit[] units, int[] unitIndices, int numUnits, double[] costs) {
+		for (int i = 0; i < numUnits; i++) {
+			costs[i] = cost(target, units[unitIndices[i]]);
+		}
+	}
+
 	/**
 	 * Compute the features for a given target, and store them in the target.
 	 * 
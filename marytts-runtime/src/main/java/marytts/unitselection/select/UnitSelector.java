@@ -24,7 +24,10 @@ import java.util.List;
 
 import marytts.datatypes.MaryXML;
 import marytts.exceptions.SynthesisException;
+import marytts.server.MaryProperties;
 import marytts.unitselection.data.UnitDatabase;
+import marytts.unitselection.select.viterbi.ArrayViterbi;
+import marytts.unitselection.select.viterbi.DecisionListener;
 import marytts.unitselection.select.viterbi.Viterbi;
 import marytts.util.MaryUtils;
 
@@ -44,6 +47,10 @@ public class UnitSelector {
 	protected float targetCostWeight;
 	protected float sCostWeight = -1;
 	protected int beamSize;
+	// search on primitive arrays (ArrayViterbi) rather than on candidate and path objects:
+	protected boolean arrayViterbi;
+	// with a decision listener, the number of points by which decisions may lag behind the search (0: no limit)
+	protected int maxDecisionLag;
 
 	/**
 	 * Initialise the unit selector. Need to call load() separately.
@@ -54,6 +61,8 @@ public class UnitSelector {
 	 */
 	public UnitSelector() throws Exception {
 		logger = MaryUtils.getLogger(this.getClass());
+		arrayViterbi = MaryProperties.getBoolean("unitselection.viterbi.arrays", false);
+		maxDecisionLag = MaryProperties.getInteger("unitselection.streaming.maxlag", 0);
 	}
 
 	public void load(UnitDatabase unitDatabase, float targetCostWeight, int beamSize) {
@@ -83,7 +92,23 @@ public class UnitSelector {
 	public List<SelectedUnit> selectUnits(List<Element> tokensAndBoundaries, marytts.modules.synthesis.Voice voice)
 			throws SynthesisException {
 		long time = System.currentTimeMillis();
+		List<Target> targets = getTargets(tokensAndBoundaries);
+		List<SelectedUnit> selectedUnits = selectUnits(targets, null);
+		long newtime = System.currentTimeMillis() - time;
+		logger.debug("Selection took " + newtime + " milliseconds");
+		return selectedUnits;
+	}
 
+	/**
+	 * Create the targets for the given tokens and boundaries, compute their target features and look up their blacklists. This
+	 * is the part of unit selection that reads the MaryXML document; {@link #selectUnits(List, DecisionListener)} only uses
+	 * the values stored in the targets, so that it can run in another thread while the document is being processed further.
+	 * 
+	 * @param tokensAndBoundaries
+	 *            the token and boundary MaryXML elements representing an utterance.
+	 * @return the list of targets, with their target features
+	 */
+	public List<Target> getTargets(List<Element> tokensAndBoundaries) {
 		List<Element> segmentsAndBoundaries = new ArrayList<Element>();
 		for (Element tOrB : tokensAndBoundaries) {
 			if (tOrB.getTagName().equals(MaryXML.BOUNDARY)) {
@@ -102,15 +127,41 @@ public class UnitSelector {
 		TargetCostFunction tcf = database.getTargetCostFunction();
 		for (Target target : targets) {
 			tcf.computeTargetFeatures(target);
+			target.getBlacklist();
 		}
+		return targets;
+	}
 
+	/**
+	 * Select the units for the given targets. If a decision listener is given, the units of the best path are handed to it
+	 * while the search is going on, as soon as they are certain; see
+	 * {@link Viterbi#setDecisionListener(DecisionListener, int)}.
+	 * 
+	 * @param targets
+	 *            the targets, as returned by {@link #getTargets(List)}
+	 * @param listener
+	 *            the decision listener, or null
+	 * @return a list of SelectedUnit objects
+	 * @throws SynthesisException
+	 *             if no path for generating the target utterance could be found
+	 */
+	public List<SelectedUnit> selectUnits(List<Target> targets, DecisionListener listener) throws SynthesisException {
 		Viterbi viterbi;
 		// Select the best candidates using Viterbi and the join cost function.
-		if (sCostWeight < 0) {
+		if (arrayViterbi) {
+			if (sCostWeight < 0) {
+				viterbi = new ArrayViterbi(targets, database, targetCostWeight, beamSize);
+			} else {
+				viterbi = new ArrayViterbi(targets, database, targetCostWeight, sCostWeight, beamSize);
+			}
+		} else if (sCostWeight < 0) {
 			viterbi = new Viterbi(targets, database, targetCostWeight, beamSize);
 		} else {
 			viterbi = new Viterbi(targets, database, targetCostWeight, sCostWeight, beamSize);
 		}
+		if (listener != null) {
+			viterbi.setDecisionListener(listener, maxDecisionLag);
+		}
 
 		viterbi.apply();
 		List<SelectedUnit> selectedUnits = viterbi.getSelectedUnits();
@@ -119,8 +170,6 @@ public class UnitSelector {
 		if (selectedUnits == null) {
 			throw new IllegalStateException("Viterbi: can't find path");
 		}
-		long newtime = System.currentTimeMillis() - time;
-		logger.debug("Selection took " + newtime + " milliseconds");
 		return selectedUnits;
 	}
 
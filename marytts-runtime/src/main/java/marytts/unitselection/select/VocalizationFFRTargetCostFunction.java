@@ -70,6 +70,17 @@ public class VocalizationFFRTargetCostFunction extends FFRTargetCostFunction {
 		rememberWhichWeightsAreNonZero();
 	}
 
+	/**
+	 * The vocalization costs do not follow the feature tables of the superclass, so the units are scored one by one.
+	 */
+	@Override
+	protected void cost(Target target, Unit[] units, int[] unitIndices, int numUnits, double[] costs,
+			FeatureDefinition weights, WeightFunc[] weightFunctions) {
+		for (int i = 0; i < numUnits; i++) {
+			costs[i] = cost(target, units[unitIndices[i]], weights, weightFunctions);
+		}
+	}
+
 	/**
 	 * Compute the goodness-of-fit of a given unit for a given target
 	 * 
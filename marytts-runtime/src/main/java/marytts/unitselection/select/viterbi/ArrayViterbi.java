@@ -0,0 +1,313 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.select.viterbi;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import marytts.exceptions.SynthesisException;
+import marytts.unitselection.data.DiphoneUnit;
+import marytts.unitselection.data.ScoredCandidates;
+import marytts.unitselection.data.Unit;
+import marytts.unitselection.data.UnitDatabase;
+import marytts.unitselection.select.DiphoneTarget;
+import marytts.unitselection.select.SelectedUnit;
+import marytts.unitselection.select.Target;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * The same Viterbi search as {@link Viterbi}, with the same beam and the same result, but keeping candidates and paths in
+ * the primitive arrays of a {@link ViterbiLattice} instead of creating a ViterbiCandidate for every preselected unit and a
+ * ViterbiPath for every path considered. The lattice is borrowed from the unit database for the duration of
+ * {@link #apply()}, so that its arrays are reused from one utterance to the next.
+ * <p>
+ * The target costs of all preselected units of a target are computed in one batch, and since only the best
+ * <code>beamSize</code> candidates of a point can ever be extended, only those are kept in the lattice.
+ * <p>
+ * With a {@link DecisionListener}, the paths that will be extended further are followed back after each point. Where they all
+ * go through the same candidate, that candidate and the ones before it are on the best path whatever comes next, and they are
+ * handed to the listener right away.
+ */
+public class ArrayViterbi extends Viterbi {
+	// the best path, filled in by apply()
+	private Unit[] bestUnits;
+	private Target[] bestTargets;
+	private double bestScore;
+
+	public ArrayViterbi(List<Target> targets, UnitDatabase database, float wTargetCosts, int beamSize) {
+		super(targets, database, wTargetCosts, beamSize);
+	}
+
+	public ArrayViterbi(List<Target> targets, UnitDatabase database, float wTargetCosts, float wSCosts, int beamSize) {
+		super(targets, database, wTargetCosts, wSCosts, beamSize);
+	}
+
+	/**
+	 * Carry out the Viterbi search, as {@link Viterbi#apply()} does.
+	 * 
+	 * @throws SynthesisException
+	 *             if for any part of the target chain, no candidates can be found
+	 */
+	@Override
+	public void apply() throws SynthesisException {
+		logger.debug("Viterbi running with beam size " + beamSize);
+		ViterbiLattice lattice = database.acquireViterbiLattice();
+		try {
+			int previous = -1;
+			// the last point whose unit has been handed to the decision listener
+			int decided = -1;
+			// go through all but the last point
+			// (since last point has no item)
+			for (ViterbiPoint point = firstPoint; point.next != null; point = point.next) {
+				Target target = point.target;
+				// only the first beamSize candidates by target cost are ever extended, so the others are not kept
+				int maxCandidates = (beamSize > 0) ? beamSize : -1;
+				ScoredCandidates candidates = lattice.candidates;
+				database.getCandidates(target, maxCandidates, candidates);
+				if (candidates.size() == 0) {
+					if (target instanceof DiphoneTarget) {
+						logger.debug("No diphone '" + target.getName() + "' -- will build from halfphones");
+						DiphoneTarget dt = (DiphoneTarget) target;
+						// replace diphone viterbi point with two half-phone viterbi points
+						Target left = dt.left;
+						Target right = dt.right;
+						point.setTarget(left);
+						ViterbiPoint newP = new ViterbiPoint(right);
+						newP.next = point.next;
+						point.next = newP;
+						target = left;
+						database.getCandidates(left, maxCandidates, candidates);
+						if (candidates.size() == 0)
+							throw new SynthesisException("Cannot even find any halfphone unit for target " + left);
+					} else {
+						throw new SynthesisException("Cannot find any units for target " + target);
+					}
+				}
+				int p = lattice.addPoint(target, candidates);
+
+				if (previous < 0) {
+					// the dummy start path
+					extend(lattice, p, ViterbiLattice.START, 0);
+				} else {
+					int nPaths = lattice.numPaths[previous];
+					if (beamSize != -1 && beamSize < nPaths) {
+						// beam search, look only at the first n paths:
+						nPaths = beamSize;
+					}
+					int c = lattice.firstPath[previous];
+					for (int i = 0; i < nPaths; i++) {
+						extend(lattice, p, c, lattice.scores[c]);
+						c = lattice.nextPath[c];
+					}
+				}
+				previous = p;
+				// at the last point, all paths count, not just those in the beam; the rest is handed over below
+				if (decisionListener != null && point.next.next != null) {
+					decided = decide(lattice, p, decided);
+				}
+			}
+			keepBestPath(lattice, previous);
+			if (decisionListener != null && bestUnits != null) {
+				decisionListener.unitsDecided(getSelectedUnits(bestUnits, bestTargets, decided + 1, bestUnits.length));
+			}
+		} finally {
+			lattice.reset();
+			database.releaseViterbiLattice(lattice);
+		}
+	}
+
+	/**
+	 * Tentatively extend the given path to the candidates of point p, as Viterbi.getPath() and Viterbi.addPath() do.
+	 * 
+	 * @param lattice
+	 *            the lattice
+	 * @param p
+	 *            the point whose candidates are considered
+	 * @param previous
+	 *            the candidate of the previous point at the end of the path, or {@link ViterbiLattice#START}
+	 * @param previousScore
+	 *            the score of the path
+	 */
+	private void extend(ViterbiLattice lattice, int p, int previous, double previousScore) {
+		Target target = lattice.targets[p];
+		Target previousTarget = (previous >= 0) ? lattice.targets[p - 1] : null;
+		Unit previousUnit = (previous >= 0) ? lattice.units[previous] : null;
+		int start = lattice.pointStart[p];
+		int end = lattice.pointStart[p + 1];
+		// Go through the candidates in order of increasing target cost
+		if (beamSize != -1 && end - start > beamSize) {
+			end = start + beamSize;
+		}
+		for (int c = start; c < end; c++) {
+			Unit unit = lattice.units[c];
+			double joinCost;
+			double sCost = 0;
+			double targetCost = lattice.targetCosts[c];
+			if (previous < 0) {
+				joinCost = 0;
+			} else {
+				joinCost = joinCostFunction.cost(previousTarget, previousUnit, target, unit);
+				if (sCostFunction != null)
+					sCost = sCostFunction.cost(previousUnit, unit);
+			}
+			targetCost *= wTargetCosts;
+			joinCost *= wJoinCosts;
+			sCost *= wSCosts;
+			double cost = joinCost + targetCost + sCost;
+			if (joinCost < Float.POSITIVE_INFINITY)
+				cumulJoinCosts += joinCost;
+			nJoinCosts++;
+			cumulTargetCosts += targetCost;
+			nTargetCosts++;
+
+			cost += previousScore;
+			lattice.addPath(p, c, previous, cost);
+		}
+	}
+
+	/**
+	 * Hand the units to the decision listener that all paths to be extended from point p go through, and that have not been
+	 * handed over yet. If there are none and decisions lag behind by more than <code>maxDecisionLag</code> points, take the
+	 * unit on the best of these paths and drop the paths that don't go through it.
+	 * 
+	 * @param lattice
+	 *            the lattice
+	 * @param p
+	 *            the point whose paths have just been completed
+	 * @param decided
+	 *            the last point whose unit has already been handed over, or -1
+	 * @return the last point whose unit has now been handed over
+	 * @throws SynthesisException
+	 *             if the decision listener throws it
+	 */
+	private int decide(ViterbiLattice lattice, int p, int decided) throws SynthesisException {
+		int nPaths = lattice.numPaths[p];
+		if (beamSize != -1 && beamSize < nPaths) {
+			// only these paths are extended to the next point
+			nPaths = beamSize;
+		}
+		if (nPaths == 0) {
+			return decided;
+		}
+		int q = lattice.findMeetingPoint(p, nPaths, decided);
+		int through;
+		if (q > decided) {
+			through = lattice.getAncestor(lattice.firstPath[p], p, q);
+		} else if (maxDecisionLag > 0 && p - decided > maxDecisionLag) {
+			int best = lattice.firstPath[p];
+			int c = best;
+			for (int i = 1; i < nPaths; i++) {
+				c = lattice.nextPath[c];
+				if (Double.compare(lattice.scores[c], lattice.scores[best]) < 0) {
+					best = c;
+				}
+			}
+			q = p - maxDecisionLag;
+			through = lattice.getAncestor(best, p, q);
+			lattice.keepPathsThrough(p, q, through);
+		} else {
+			return decided;
+		}
+		int length = q - decided;
+		Unit[] units = new Unit[length];
+		Target[] targets = new Target[length];
+		int c = through;
+		for (int i = length - 1; i >= 0; i--) {
+			units[i] = lattice.units[c];
+			targets[i] = lattice.targets[decided + 1 + i];
+			c = lattice.backPointers[c];
+		}
+		decisionListener.unitsDecided(getSelectedUnits(units, targets, 0, length));
+		return q;
+	}
+
+	/**
+	 * Copy the best of the paths leading to the candidates of the last point out of the lattice. Of several paths with the
+	 * same score, the first one in the list is taken, as sorting the paths in Viterbi.findBestPath() would do.
+	 */
+	private void keepBestPath(ViterbiLattice lattice, int last) {
+		bestUnits = null;
+		bestTargets = null;
+		if (last < 0 || lattice.numPaths[last] == 0) {
+			return;
+		}
+		int best = lattice.firstPath[last];
+		for (int c = lattice.nextPath[best]; c >= 0; c = lattice.nextPath[c]) {
+			if (Double.compare(lattice.scores[c], lattice.scores[best]) < 0) {
+				best = c;
+			}
+		}
+		bestScore = lattice.scores[best];
+		int length = last + 1; // one candidate per point
+		bestUnits = new Unit[length];
+		bestTargets = new Target[length];
+		int c = best;
+		for (int p = last; p >= 0; p--) {
+			bestUnits[p] = lattice.units[c];
+			bestTargets[p] = lattice.targets[p];
+			c = lattice.backPointers[c];
+		}
+		assert c == ViterbiLattice.START;
+	}
+
+	/**
+	 * Return the best path found by {@link #apply()}, as a List of SelectedUnit objects.
+	 * 
+	 * @return the list of selected units, or null if no path could be found.
+	 */
+	@Override
+	public List<SelectedUnit> getSelectedUnits() {
+		LinkedList<SelectedUnit> selectedUnits = new LinkedList<SelectedUnit>();
+		if (firstPoint == null || firstPoint.getNext() == null) {
+			return selectedUnits; // null case
+		}
+		if (bestUnits == null) {
+			return null;
+		}
+		selectedUnits = getSelectedUnits(bestUnits, bestTargets, 0, bestUnits.length);
+		if (logger.getLevel().equals(Level.DEBUG)) {
+			logSelectedUnits(selectedUnits, bestScore);
+		}
+		return selectedUnits;
+	}
+
+	/**
+	 * Make SelectedUnit objects for the units from and including <code>from</code> up to but excluding <code>to</code>,
+	 * splitting diphones into their halves.
+	 */
+	private static LinkedList<SelectedUnit> getSelectedUnits(Unit[] units, Target[] targets, int from, int to) {
+		LinkedList<SelectedUnit> selectedUnits = new LinkedList<SelectedUnit>();
+		for (int i = from; i < to; i++) {
+			Unit u = units[i];
+			Target t = targets[i];
+			if (u instanceof DiphoneUnit) {
+				assert t instanceof DiphoneTarget;
+				DiphoneUnit du = (DiphoneUnit) u;
+				DiphoneTarget dt = (DiphoneTarget) t;
+				selectedUnits.addLast(new SelectedUnit(du.left, dt.left));
+				selectedUnits.addLast(new SelectedUnit(du.right, dt.right));
+			} else {
+				selectedUnits.addLast(new SelectedUnit(u, t));
+			}
+		}
+		return selectedUnits;
+	}
+}
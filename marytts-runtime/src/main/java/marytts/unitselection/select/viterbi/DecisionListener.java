@@ -0,0 +1,44 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.select.viterbi;
+
+import java.util.List;
+
+import marytts.exceptions.SynthesisException;
+import marytts.unitselection.select.SelectedUnit;
+
+/**
+ * Receives the units of the best path from a {@link Viterbi} search while the search is still going on, as soon as the rest of
+ * the search can no longer change them.
+ *
+ * @see Viterbi#setDecisionListener(DecisionListener, int)
+ */
+public interface DecisionListener {
+	/**
+	 * Called with the next units of the best path, in order. Taken together, the units of all calls are the units of the best
+	 * path.
+	 * 
+	 * @param units
+	 *            the units that have just been decided
+	 * @throws SynthesisException
+	 *             if the units cannot be used; this ends the search
+	 */
+	public void unitsDecided(List<SelectedUnit> units) throws SynthesisException;
+}
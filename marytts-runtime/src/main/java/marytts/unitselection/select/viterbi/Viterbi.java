@@ -86,7 +86,7 @@ public class Viterbi {
 
 	protected ViterbiPoint firstPoint = null;
 	protected ViterbiPoint lastPoint = null;
-	private UnitDatabase database;
+	protected UnitDatabase database;
 	protected TargetCostFunction targetCostFunction;
 	protected JoinCostFunction joinCostFunction;
 	protected StatisticalCostFunction sCostFunction;
@@ -96,6 +96,9 @@ public class Viterbi {
 	protected int nJoinCosts;
 	protected double cumulTargetCosts;
 	protected int nTargetCosts;
+	// receives the units of the best path as they are decided, if not null:
+	protected DecisionListener decisionListener;
+	protected int maxDecisionLag;
 
 	// Keep track of average costs for each voice: map UnitDatabase->DebugStats
 	private static Map<UnitDatabase, DebugStats> debugStats = new HashMap<UnitDatabase, DebugStats>();
@@ -200,6 +203,24 @@ public class Viterbi {
 		}
 	}
 
+	/**
+	 * Hand the units of the best path to the given listener during {@link #apply()}. This class does so when the search is
+	 * complete; {@link ArrayViterbi} hands over each unit as soon as all paths that are still being extended go through it, so
+	 * that they can be used while the rest of the utterance is being searched.
+	 * 
+	 * @param listener
+	 *            the listener, or null to only collect the best path with {@link #getSelectedUnits()}
+	 * @param maxLag
+	 *            if positive, the number of points by which decisions may lag behind the search: if the paths have not met
+	 *            by then, the unit on the currently best path is taken and the paths not going through it are dropped. This
+	 *            bounds the delay, but may select a path that the complete search would not have selected. If 0, units are
+	 *            only decided when the paths meet, and the result is that of the complete search.
+	 */
+	public void setDecisionListener(DecisionListener listener, int maxLag) {
+		this.decisionListener = listener;
+		this.maxDecisionLag = maxLag;
+	}
+
 	/**
 	 * Carry out a Viterbi search in for a prepared queue of ViterbiPoints. In a nutshell, each Point represents a target item (a
 	 * target segment); for each target Point, a number of Candidate units in the voice database are determined; a Path structure
@@ -287,6 +308,12 @@ public class Viterbi {
 					break;
 			}
 		}
+		if (decisionListener != null) {
+			List<SelectedUnit> selectedUnits = getSelectedUnits();
+			if (selectedUnits != null) {
+				decisionListener.unitsDecided(selectedUnits);
+			}
+		}
 	}
 
 	/**
@@ -350,102 +377,114 @@ public class Viterbi {
 			}
 		}
 		if (logger.getLevel().equals(Level.DEBUG)) {
-			StringWriter sw = new StringWriter();
-			PrintWriter pw = new PrintWriter(sw);
-			int prevIndex = -1; // index number of the previous unit
-			int[] lengthHistogram = new int[10];
-			int length = 0;
-			int numUnits = selectedUnits.size();
-			StringBuilder line = new StringBuilder();
-			for (int i = 0; i < numUnits; i++) {
-				SelectedUnit u = (SelectedUnit) selectedUnits.get(i);
-				int index = u.getUnit().index;
-				if (prevIndex + 1 == index) { // adjacent units
-					length++;
-				} else {
-					if (lengthHistogram.length <= length) {
-						int[] dummy = new int[length + 1];
-						System.arraycopy(lengthHistogram, 0, dummy, 0, lengthHistogram.length);
-						lengthHistogram = dummy;
-					}
-					lengthHistogram[length]++;
-					pw.print(line);
-					// Find filename from which the stretch that just finished
-					// stems:
-					if (i > 0) {
-						assert i >= length;
-						Unit firstUnitInStretch = ((SelectedUnit) selectedUnits.get(i - length)).getUnit();
-						String origin = database.getFilenameAndTime(firstUnitInStretch);
-						// Print origin from column 80:
-						for (int col = line.length(); col < 80; col++)
-							pw.print(" ");
-						pw.print(origin);
-					}
-					pw.println();
-					length = 1;
-					line.setLength(0);
-				}
-				line.append(database.getTargetCostFunction().getFeature(u.getUnit(), "phone") + "(" + u.getUnit().index + ")");
-				prevIndex = index;
-			}
-			if (lengthHistogram.length <= length) {
-				int[] dummy = new int[length + 1];
-				System.arraycopy(lengthHistogram, 0, dummy, 0, lengthHistogram.length);
-				lengthHistogram = dummy;
-			}
-			lengthHistogram[length]++;
-			pw.print(line);
-			// Find filename from which the stretch that just finished
-			// stems:
-			Unit firstUnitInStretch = ((SelectedUnit) selectedUnits.get(numUnits - length)).getUnit();
-			String origin = database.getFilenameAndTime(firstUnitInStretch);
-			// Print origin from column 80:
-			for (int col = line.length(); col < 80; col++)
-				pw.print(" ");
-			pw.print(origin);
-			pw.println();
-			logger.debug("Selected units:\n" + sw.toString());
-			// Compute average length of stretches:
-			int total = 0;
-			int nStretches = 0;
-			for (int l = 1; l < lengthHistogram.length; l++) {
-				// lengthHistogram[0] will be 0 anyway
-				total += lengthHistogram[l] * l;
-				nStretches += lengthHistogram[l];
-			}
-			float avgLength = total / (float) nStretches;
-			DecimalFormat df = new DecimalFormat("0.000");
-			logger.debug("Avg. consecutive length: " + df.format(avgLength) + " units");
-			// Cost of best path
-			double totalCost = best.score;
-			int elements = selectedUnits.size();
-			double avgCostBestPath = totalCost / (elements - 1);
-			double avgTargetCost = cumulTargetCosts / nTargetCosts;
-			double avgJoinCost = cumulJoinCosts / nJoinCosts;
-			logger.debug("Avg. cost: best path " + df.format(avgCostBestPath) + ", avg. target " + df.format(avgTargetCost)
-					+ ", join " + df.format(avgJoinCost) + " (n=" + nTargetCosts + ")");
-			DebugStats stats = debugStats.get(database);
-			if (stats == null) {
-				stats = new DebugStats();
-				debugStats.put(database, stats);
-			}
-			stats.n++;
-			// iterative computation of mean:
-			// m(n) = m(n-1) + (x(n) - m(n-1)) / n
-			stats.avgLength += (avgLength - stats.avgLength) / stats.n;
-			stats.avgCostBestPath += (avgCostBestPath - stats.avgCostBestPath) / stats.n;
-			stats.avgTargetCost += (avgTargetCost - stats.avgTargetCost) / stats.n;
-			stats.avgJoinCost += (avgJoinCost - stats.avgJoinCost) / stats.n;
-			logger.debug("Total average of " + stats.n + " utterances for this voice:");
-			logger.debug("Avg. length: " + df.format(stats.avgLength) + ", avg. cost best path: "
-					+ df.format(stats.avgCostBestPath) + ", avg. target cost: " + df.format(stats.avgTargetCost)
-					+ ", avg. join cost: " + df.format(stats.avgJoinCost));
-
+			logSelectedUnits(selectedUnits, best.score);
 		}
 
 		return selectedUnits;
 	}
 
+	/**
+	 * Log the stretches of consecutive units in the selected path and the average costs, for this utterance and for all
+	 * utterances of this voice so far.
+	 * 
+	 * @param selectedUnits
+	 *            the units of the best path
+	 * @param bestPathScore
+	 *            the score of the best path
+	 */
+	protected void logSelectedUnits(List<SelectedUnit> selectedUnits, double bestPathScore) {
+		StringWriter sw = new StringWriter();
+		PrintWriter pw = new PrintWriter(sw);
+		int prevIndex = -1; // index number of the previous unit
+		int[] lengthHistogram = new int[10];
+		int length = 0;
+		int numUnits = selectedUnits.size();
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < numUnits; i++) {
+			SelectedUnit u = (SelectedUnit) selectedUnits.get(i);
+			int index = u.getUnit().index;
+			if (prevIndex + 1 == index) { // adjacent units
+				length++;
+			} else {
+				if (lengthHistogram.length <= length) {
+					int[] dummy = new int[length + 1];
+					System.arraycopy(lengthHistogram, 0, dummy, 0, lengthHistogram.length);
+					lengthHistogram = dummy;
+				}
+				lengthHistogram[length]++;
+				pw.print(line);
+				// Find filename from which the stretch that just finished
+				// stems:
+				if (i > 0) {
+					assert i >= length;
+					Unit firstUnitInStretch = ((SelectedUnit) selectedUnits.get(i - length)).getUnit();
+					String origin = database.getFilenameAndTime(firstUnitInStretch);
+					// Print origin from column 80:
+					for (int col = line.length(); col < 80; col++)
+						pw.print(" ");
+					pw.print(origin);
+				}
+				pw.println();
+				length = 1;
+				line.setLength(0);
+			}
+			line.append(database.getTargetCostFunction().getFeature(u.getUnit(), "phone") + "(" + u.getUnit().index + ")");
+			prevIndex = index;
+		}
+		if (lengthHistogram.length <= length) {
+			int[] dummy = new int[length + 1];
+			System.arraycopy(lengthHistogram, 0, dummy, 0, lengthHistogram.length);
+			lengthHistogram = dummy;
+		}
+		lengthHistogram[length]++;
+		pw.print(line);
+		// Find filename from which the stretch that just finished
+		// stems:
+		Unit firstUnitInStretch = ((SelectedUnit) selectedUnits.get(numUnits - length)).getUnit();
+		String origin = database.getFilenameAndTime(firstUnitInStretch);
+		// Print origin from column 80:
+		for (int col = line.length(); col < 80; col++)
+			pw.print(" ");
+		pw.print(origin);
+		pw.println();
+		logger.debug("Selected units:\n" + sw.toString());
+		// Compute average length of stretches:
+		int total = 0;
+		int nStretches = 0;
+		for (int l = 1; l < lengthHistogram.length; l++) {
+			// lengthHistogram[0] will be 0 anyway
+			total += lengthHistogram[l] * l;
+			nStretches += lengthHistogram[l];
+		}
+		float avgLength = total / (float) nStretches;
+		DecimalFormat df = new DecimalFormat("0.000");
+		logger.debug("Avg. consecutive length: " + df.format(avgLength) + " units");
+		// Cost of best path
+		double totalCost = bestPathScore;
+		int elements = selectedUnits.size();
+		double avgCostBestPath = totalCost / (elements - 1);
+		double avgTargetCost = cumulTargetCosts / nTargetCosts;
+		double avgJoinCost = cumulJoinCosts / nJoinCosts;
+		logger.debug("Avg. cost: best path " + df.format(avgCostBestPath) + ", avg. target " + df.format(avgTargetCost)
+				+ ", join " + df.format(avgJoinCost) + " (n=" + nTargetCosts + ")");
+		DebugStats stats = debugStats.get(database);
+		if (stats == null) {
+			stats = new DebugStats();
+			debugStats.put(database, stats);
+		}
+		stats.n++;
+		// iterative computation of mean:
+		// m(n) = m(n-1) + (x(n) - m(n-1)) / n
+		stats.avgLength += (avgLength - stats.avgLength) / stats.n;
+		stats.avgCostBestPath += (avgCostBestPath - stats.avgCostBestPath) / stats.n;
+		stats.avgTargetCost += (avgTargetCost - stats.avgTargetCost) / stats.n;
+		stats.avgJoinCost += (avgJoinCost - stats.avgJoinCost) / stats.n;
+		logger.debug("Total average of " + stats.n + " utterances for this voice:");
+		logger.debug("Avg. length: " + df.format(stats.avgLength) + ", avg. cost best path: "
+				+ df.format(stats.avgCostBestPath) + ", avg. target cost: " + df.format(stats.avgTargetCost)
+				+ ", avg. join cost: " + df.format(stats.avgJoinCost));
+	}
+
 	/**
 	 * Construct a new path element linking a previous path to the given candidate. The (penalty) score associated with the new
 	 * path is calculated as the sum of the score of the old path plus the score of the candidate itself plus the join cost of
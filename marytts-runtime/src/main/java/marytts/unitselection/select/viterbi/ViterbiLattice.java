@@ -0,0 +1,322 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.select.viterbi;
+
+import java.util.Arrays;
+import marytts.unitselection.data.ScoredCandidates;
+import marytts.unitselection.data.Unit;
+import marytts.unitselection.select.Target;
+
+/**
+ * The candidates and best paths of a Viterbi search, stored in primitive arrays rather than in one {@link ViterbiCandidate}
+ * and one {@link ViterbiPath} object per candidate and path. The candidates of all points of an utterance are numbered
+ * consecutively; candidate <code>c</code> has a unit, a target cost, the score of the best path leading to it, and a
+ * back-pointer to the candidate of the previous point on that path.
+ * <p>
+ * The paths leading to the candidates of a point are kept in a doubly linked list, in the order in which the equivalent
+ * <code>List&lt;ViterbiPath&gt;</code> of {@link ViterbiPoint} would hold them, so that a beam search looks at the same paths.
+ * <p>
+ * A lattice grows as needed and is reused for the following utterances; it must only be used by one thread at a time.
+ *
+ * @see ArrayViterbi
+ * @see marytts.unitselection.data.UnitDatabase#acquireViterbiLattice()
+ */
+public class ViterbiLattice {
+	/** back-pointer of a candidate on a path starting at the first point */
+	static final int START = -1;
+	/** back-pointer of a candidate without a path */
+	static final int NO_PATH = -2;
+
+	/* per candidate */
+	Unit[] units;
+	double[] targetCosts;
+	double[] scores;
+	int[] backPointers;
+	int[] previousPath;
+	int[] nextPath;
+	int numCandidates;
+
+	/* per point: candidates are pointStart[p] to pointStart[p + 1] - 1 */
+	Target[] targets;
+	int[] pointStart;
+	int[] firstPath;
+	int[] lastPath;
+	int[] numPaths;
+	int numPoints;
+
+	/* the candidates of the point being added */
+	final ScoredCandidates candidates = new ScoredCandidates();
+
+	/* scratch for sorting the candidates of one point */
+	private int[] order;
+	private int[] mergeBuffer;
+	private double[] costBuffer;
+
+	/* scratch for following several paths back at once */
+	private int[] frontier;
+
+	public ViterbiLattice() {
+		int candidates = 1024;
+		int points = 64;
+		units = new Unit[candidates];
+		targetCosts = new double[candidates];
+		scores = new double[candidates];
+		backPointers = new int[candidates];
+		previousPath = new int[candidates];
+		nextPath = new int[candidates];
+		targets = new Target[points];
+		pointStart = new int[points + 1];
+		firstPath = new int[points];
+		lastPath = new int[points];
+		numPaths = new int[points];
+		order = new int[0];
+		mergeBuffer = new int[0];
+		costBuffer = new double[0];
+		frontier = new int[0];
+	}
+
+	/**
+	 * Forget the previous utterance.
+	 */
+	void reset() {
+		Arrays.fill(units, 0, numCandidates, null);
+		Arrays.fill(targets, 0, numPoints, null);
+		numCandidates = 0;
+		numPoints = 0;
+	}
+
+	/**
+	 * Add a point with the given candidates, sorted by increasing target cost; candidates with equal target costs keep their
+	 * order, as with Collections.sort(List&lt;ViterbiCandidate&gt;). None of the candidates has a path yet.
+	 *
+	 * @param target
+	 *            the target of the point
+	 * @param candidates
+	 *            the candidate units with their target costs
+	 * @return the index of the new point
+	 */
+	int addPoint(Target target, ScoredCandidates candidates) {
+		int n = candidates.size();
+		ensurePoints(numPoints + 1);
+		ensureCandidates(numCandidates + n);
+		int p = numPoints++;
+		int start = numCandidates;
+		targets[p] = target;
+		pointStart[p] = start;
+		pointStart[p + 1] = start + n;
+		firstPath[p] = -1;
+		lastPath[p] = -1;
+		numPaths[p] = 0;
+
+		double[] costs = costBuffer(n);
+		for (int i = 0; i < n; i++) {
+			costs[i] = candidates.getCost(i);
+		}
+		int[] sorted = sortByCost(costs, n);
+		for (int i = 0; i < n; i++) {
+			int c = start + i;
+			units[c] = candidates.getUnit(sorted[i]);
+			targetCosts[c] = costs[sorted[i]];
+			backPointers[c] = NO_PATH;
+		}
+		numCandidates += n;
+		return p;
+	}
+
+	/**
+	 * Use the path ending in <code>previous</code> with the given score as the best path leading to candidate <code>c</code>
+	 * of point <code>p</code> if it is better than the best path so far, as Viterbi.addPath() does.
+	 */
+	void addPath(int p, int c, int previous, double score) {
+		if (backPointers[c] == NO_PATH) {
+			// we don't have a path for the candidate yet, so this is best
+			append(p, c);
+		} else if (score < scores[c]) {
+			// a better path for the candidate: it moves to the end of the list
+			unlink(p, c);
+			append(p, c);
+		} else {
+			return;
+		}
+		backPointers[c] = previous;
+		scores[c] = score;
+	}
+
+	/**
+	 * Find the last point at which the first <code>n</code> paths leading to the candidates of point <code>p</code> all go
+	 * through the same candidate. Only points after <code>stop</code> are looked at.
+	 *
+	 * @param p
+	 *            the point at which the paths end
+	 * @param n
+	 *            the number of paths, from the start of the list of paths of point p
+	 * @param stop
+	 *            the point before the first point to look at, or -1
+	 * @return the point at which the paths meet, or stop if they don't meet after it
+	 */
+	int findMeetingPoint(int p, int n, int stop) {
+		if (frontier.length < n) {
+			frontier = new int[n + n / 2];
+		}
+		int size = 0;
+		for (int c = firstPath[p]; c >= 0 && size < n; c = nextPath[c]) {
+			frontier[size++] = c;
+		}
+		for (int q = p; q > stop; q--) {
+			// the distinct candidates at point q on the paths
+			Arrays.sort(frontier, 0, size);
+			int distinct = 0;
+			for (int i = 0; i < size; i++) {
+				if (i == 0 || frontier[i] != frontier[i - 1]) {
+					frontier[distinct++] = frontier[i];
+				}
+			}
+			size = distinct;
+			if (size <= 1) {
+				return q;
+			}
+			for (int i = 0; i < size; i++) {
+				frontier[i] = backPointers[frontier[i]];
+			}
+		}
+		return stop;
+	}
+
+	/**
+	 * Get the candidate at point <code>q</code> on the path leading to candidate <code>c</code> of point <code>p</code>.
+	 */
+	int getAncestor(int c, int p, int q) {
+		assert q <= p;
+		for (; p > q; p--) {
+			c = backPointers[c];
+		}
+		return c;
+	}
+
+	/**
+	 * Drop the paths leading to candidates of point <code>p</code> that do not go through candidate <code>through</code> of
+	 * point <code>q</code>.
+	 */
+	void keepPathsThrough(int p, int q, int through) {
+		int c = firstPath[p];
+		while (c >= 0) {
+			int next = nextPath[c];
+			if (getAncestor(c, p, q) != through) {
+				unlink(p, c);
+				backPointers[c] = NO_PATH;
+			}
+			c = next;
+		}
+	}
+
+	private void append(int p, int c) {
+		previousPath[c] = lastPath[p];
+		nextPath[c] = -1;
+		if (lastPath[p] >= 0) {
+			nextPath[lastPath[p]] = c;
+		} else {
+			firstPath[p] = c;
+		}
+		lastPath[p] = c;
+		numPaths[p]++;
+	}
+
+	private void unlink(int p, int c) {
+		if (previousPath[c] >= 0) {
+			nextPath[previousPath[c]] = nextPath[c];
+		} else {
+			firstPath[p] = nextPath[c];
+		}
+		if (nextPath[c] >= 0) {
+			previousPath[nextPath[c]] = previousPath[c];
+		} else {
+			lastPath[p] = previousPath[c];
+		}
+		numPaths[p]--;
+	}
+
+	/**
+	 * Stable merge sort of the indices 0 to n-1 by increasing cost.
+	 */
+	private int[] sortByCost(double[] costs, int n) {
+		if (order.length < n) {
+			order = new int[n + n / 2];
+			mergeBuffer = new int[order.length];
+		}
+		int[] a = order;
+		int[] b = mergeBuffer;
+		for (int i = 0; i < n; i++) {
+			a[i] = i;
+		}
+		for (int width = 1; width < n; width *= 2) {
+			for (int lo = 0; lo < n; lo += 2 * width) {
+				int mid = Math.min(lo + width, n);
+				int hi = Math.min(lo + 2 * width, n);
+				int i = lo, j = mid, k = lo;
+				while (i < mid && j < hi) {
+					// take from the right run only if strictly smaller, to keep equal costs in order
+					b[k++] = (costs[a[j]] < costs[a[i]]) ? a[j++] : a[i++];
+				}
+				while (i < mid) {
+					b[k++] = a[i++];
+				}
+				while (j < hi) {
+					b[k++] = a[j++];
+				}
+			}
+			int[] swap = a;
+			a = b;
+			b = swap;
+		}
+		return a;
+	}
+
+	private double[] costBuffer(int n) {
+		if (costBuffer.length < n) {
+			costBuffer = new double[n + n / 2];
+		}
+		return costBuffer;
+	}
+
+	private void ensureCandidates(int n) {
+		if (units.length >= n) {
+			return;
+		}
+		int size = Math.max(n, 2 * units.length);
+		units = Arrays.copyOf(units, size);
+		targetCosts = Arrays.copyOf(targetCosts, size);
+		scores = Arrays.copyOf(scores, size);
+		backPointers = Arrays.copyOf(backPointers, size);
+		previousPath = Arrays.copyOf(previousPath, size);
+		nextPath = Arrays.copyOf(nextPath, size);
+	}
+
+	private void ensurePoints(int n) {
+		if (targets.length >= n) {
+			return;
+		}
+		int size = Math.max(n, 2 * targets.length);
+		targets = Arrays.copyOf(targets, size);
+		pointStart = Arrays.copyOf(pointStart, size + 1);
+		firstPath = Arrays.copyOf(firstPath, size);
+		lastPath = Arrays.copyOf(lastPath, size);
+		numPaths = Arrays.copyOf(numPaths, size);
+	}
+}
@@ -21,22 +21,42 @@
 package marytts.util;
 
 import java.io.File;
-import java.net.MalformedURLException;
-import java.sql.Connection;
-import java.sql.DatabaseMetaData;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import marytts.server.MaryProperties;
+import marytts.server.ServerExecutor;
+import marytts.util.cache.CacheKey;
+import marytts.util.cache.CacheStats;
+import marytts.util.cache.SegmentStore;
+import marytts.util.cache.StripedLruCache;
+
+import org.apache.logging.log4j.Logger;
 
 /**
+ * A cache for the results of MARY requests. Entries are identified by a {@link CacheKey} computed from the request's input type,
+ * output type, locale, voice, output parameters, style, effects and the key of the input data. Input given as a string is keyed
+ * as plain text with {@link CacheKey#ofText(String)}; callers holding a {@link marytts.datatypes.MaryData} should rather use
+ * {@link CacheKey#ofData(marytts.datatypes.MaryData)}, which digests XML documents without serializing them.
+ * <p>
+ * The cache has two tiers. Recently used entries are kept in memory, in a lock-striped LRU map with a limited number of bytes
+ * (property <code>cache.memory.megabytes</code>). All entries are also written to append-only, memory-mapped segment files next
+ * to <code>cache.file</code>, which persist across restarts. When the segment files exceed <code>cache.disk.megabytes</code>,
+ * the oldest segment is compacted in a background thread.
+ *
  * @author marc
- * 
+ *
  */
 public class MaryCache {
+	private static final int DEFAULT_MEMORY_MEGABYTES = 64;
+	private static final int DEFAULT_DISK_MEGABYTES = 1024;
+	private static final int DEFAULT_SEGMENT_MEGABYTES = 64;
+	private static final int NUM_STRIPES = 16;
+	private static final String AUDIO = "AUDIO";
+
 	private static MaryCache maryCache;
 
 	/**
@@ -49,15 +69,19 @@ public class MaryCache {
 	 *      and any exception will be logged.
 	 * @return the MaryCache singleton object, or null if none could be created.
 	 */
-	public static MaryCache getCache() {
+	public static synchronized MaryCache getCache() {
 		if (maryCache == null) {
 			try {
 				File targetFile = new File(MaryProperties.getFilename("cache.file", "maryCache"));
-				File directory = targetFile.getParentFile();
+				File directory = targetFile.getAbsoluteFile().getParentFile();
 				if (!directory.isDirectory()) {
 					directory.mkdirs();
 				}
-				maryCache = new MaryCache(targetFile, MaryProperties.getBoolean("cache.clearOnStart", false));
+				long mb = 1024 * 1024;
+				maryCache = new MaryCache(targetFile, MaryProperties.getBoolean("cache.clearOnStart", false),
+						MaryProperties.getInteger("cache.memory.megabytes", DEFAULT_MEMORY_MEGABYTES) * mb,
+						MaryProperties.getInteger("cache.disk.megabytes", DEFAULT_DISK_MEGABYTES) * mb,
+						(int) (MaryProperties.getInteger("cache.disk.segment.megabytes", DEFAULT_SEGMENT_MEGABYTES) * mb));
 			} catch (Exception e) {
 				MaryUtils.getLogger(MaryCache.class).warn("Cannot set up cache", e);
 			}
@@ -76,66 +100,53 @@ public class MaryCache {
 
 	// //////////////////////////// non-static code /////////////////////////////
 
-	private Connection connection;
+	private final Logger logger = MaryUtils.getLogger(MaryCache.class);
+	private final StripedLruCache memory;
+	private final SegmentStore disk;
+	private final CacheStats stats = new CacheStats();
+	private final ExecutorService compactor;
+	private final AtomicBoolean compactionScheduled = new AtomicBoolean(false);
 
 	/**
-	 * Create a MaryCache with the given file prefix. This constructor is public only for tests; it should not normally be called.
-	 * User code should call {@link #getCache()} instead. TODO: Find a more elegant way to create a custom MaryCache from test
-	 * code.
+	 * Create a MaryCache with the given file prefix and default sizes. This constructor is public only for tests; it should not
+	 * normally be called. User code should call {@link #getCache()} instead. TODO: Find a more elegant way to create a custom
+	 * MaryCache from test code.
 	 * 
 	 * @param cacheFile
-	 *            the file name prefix with which to create the cache database.
+	 *            the file name prefix with which to create the cache segment files.
 	 * @param clearCache
 	 *            if true, clear the cache; if false, keep it.
-	 * @throws ClassNotFoundException
-	 *             if the HSQL JDBC driver is not in the classpath.
-	 * @throws SQLException
-	 *             if the database connection cannot be set up
+	 * @throws IOException
+	 *             if the cache segment files cannot be set up
 	 */
-	public MaryCache(File cacheFile, boolean clearCache) throws ClassNotFoundException, SQLException {
-		// Load the HSQL Database Engine JDBC driver
-		Class.forName("org.hsqldb.jdbcDriver");
-		connection = DriverManager.getConnection("jdbc:hsqldb:" + cacheFile.toURI().toString(), "sa", "");
-		boolean mustCreateTable = false;
-		if (clearCache) {
-			Statement st = connection.createStatement();
-			st.executeUpdate("DROP TABLE MARYCACHE IF EXISTS");
-			st.close();
-			mustCreateTable = true;
-		} else { // don't clear -- check if table exists
-			DatabaseMetaData dbInfo = connection.getMetaData();
-			ResultSet rs = dbInfo.getTables(null, null, "MARYCACHE", new String[] { "TABLE" });
-			if (rs.next()) {
-				// table exists
-			} else {
-				mustCreateTable = true;
-			}
-		}
-		if (mustCreateTable) {
-			String query = "CREATE CACHED TABLE MARYCACHE (id INTEGER IDENTITY, " + "inputtype VARCHAR(50), "
-					+ "outputtype VARCHAR(50), " + "locale VARCHAR(10), " + "voice VARCHAR(100), "
-					+ "outputparams VARCHAR(1000), " + "style VARCHAR(50), " + "effects VARCHAR(1000), "
-					+ "inputtext LONGVARCHAR, " + "outputtext LONGVARCHAR, " + "outputaudio LONGVARBINARY, "
-					+ "UNIQUE(inputtype, outputtype, locale, voice, outputparams, style, effects, inputtext)" + ")";
-			update(query);
-		}
+	public MaryCache(File cacheFile, boolean clearCache) throws IOException {
+		this(cacheFile, clearCache, DEFAULT_MEMORY_MEGABYTES * 1024L * 1024L, DEFAULT_DISK_MEGABYTES * 1024L * 1024L,
+				DEFAULT_SEGMENT_MEGABYTES * 1024 * 1024);
 	}
 
 	/**
-	 * Carry out an UPDATE SQL command on the database.
+	 * Create a MaryCache with the given file prefix and sizes. This constructor is public only for tests; it should not normally
+	 * be called. User code should call {@link #getCache()} instead.
 	 * 
-	 * @param query
-	 *            the UPDATE SQL command to carry out
-	 * @throws SQLException
-	 *             if there is a problem executing the update.
+	 * @param cacheFile
+	 *            the file name prefix with which to create the cache segment files.
+	 * @param clearCache
+	 *            if true, clear the cache; if false, keep it.
+	 * @param memoryBytes
+	 *            the maximum number of bytes to keep in the in-memory tier.
+	 * @param diskBytes
+	 *            the size of the segment files above which old segments are compacted.
+	 * @param segmentBytes
+	 *            the size of one segment file; larger entries are kept in memory only.
+	 * @throws IOException
+	 *             if the cache segment files cannot be set up
 	 */
-	private synchronized void update(String query) throws SQLException {
-		Statement st = connection.createStatement();
-		int ok = st.executeUpdate(query);
-		if (ok == -1) {
-			throw new SQLException("DB problem with query: " + query);
-		}
-		st.close();
+	public MaryCache(File cacheFile, boolean clearCache, long memoryBytes, long diskBytes, int segmentBytes)
+			throws IOException {
+		memory = new StripedLruCache(memoryBytes, NUM_STRIPES);
+		disk = new SegmentStore(cacheFile, clearCache, diskBytes, segmentBytes);
+		compactor = Executors.newSingleThreadExecutor(ServerExecutor.namedThreads("cache-compactor", true));
+		logger.debug("Opened cache with " + disk.size() + " entries in " + disk.getNumSegments() + " segments");
 	}
 
 	/**
@@ -156,11 +167,11 @@ public class MaryCache {
 	 *            the request's output text. Must not be null.
 	 * @throws NullPointerException
 	 *             if one of the fields is null which must be non-null.
-	 * @throws SQLException
+	 * @throws IOException
 	 *             if the record could not be entered into the cache.
 	 */
 	public void insertText(String inputtype, String outputtype, String locale, String voice, String inputtext, String outputtext)
-			throws SQLException {
+			throws IOException {
 		insertText(inputtype, outputtype, locale, voice, null, null, null, inputtext, outputtext);
 	}
 
@@ -188,41 +199,51 @@ public class MaryCache {
 	 *            the request's output text. Must not be null.
 	 * @throws NullPointerException
 	 *             if one of the fields is null which must be non-null.
-	 * @throws SQLException
+	 * @throws IOException
 	 *             if the record could not be entered into the cache.
 	 */
-	public synchronized void insertText(String inputtype, String outputtype, String locale, String voice, String outputparams,
-			String style, String effects, String inputtext, String outputtext) throws SQLException {
-		if (inputtype == null || outputtype == null || locale == null || voice == null || inputtext == null || outputtext == null) {
+	public void insertText(String inputtype, String outputtype, String locale, String voice, String outputparams, String style,
+			String effects, String inputtext, String outputtext) throws IOException {
+		if (inputtext == null) {
 			throw new NullPointerException("Null argument");
 		}
-		// Need to verify, here in the synchronized code, once again that really we don't have this entry already.
-		// If we do, we ignore this call.
-		if (lookupText(inputtype, outputtype, locale, voice, outputparams, style, effects, inputtext) != null) {
-			return;
-		}
+		insertText(inputtype, outputtype, locale, voice, outputparams, style, effects, CacheKey.ofText(inputtext), outputtext);
+	}
 
-		String query = "INSERT INTO MARYCACHE (inputtype, outputtype, locale, voice, outputparams, style, effects, inputtext, outputtext) VALUES ('"
-				+ inputtype
-				+ "','"
-				+ outputtype
-				+ "','"
-				+ locale
-				+ "','"
-				+ voice
-				+ "','"
-				+ outputparams
-				+ "','"
-				+ style
-				+ "','"
-				+ effects + "',?,?)";
-
-		PreparedStatement st = connection.prepareStatement(query);
-		// We set the input and output text separately because they could contain single quote characters
-		st.setString(1, inputtext);
-		st.setString(2, outputtext);
-		st.executeUpdate();
-		st.close();
+	/**
+	 * Insert a record of a MARY request producing data of type text into the cache, identifying the input data by its key. If a
+	 * record with the same lookup keys exists already, this call does nothing.
+	 * 
+	 * @param inputtype
+	 *            the request's input type. Must not be null.
+	 * @param outputtype
+	 *            the request's output type, which must be a text type. Must not be null.
+	 * @param locale
+	 *            the locale of the request. Must not be null.
+	 * @param voice
+	 *            the voice of the request. Can be null.
+	 * @param outputparams
+	 *            optionally, any output parameters. Can be null.
+	 * @param style
+	 *            optionally, any style. Can be null.
+	 * @param effects
+	 *            optionally, any effects. Can be null.
+	 * @param input
+	 *            the key of the request's input data, see {@link CacheKey#ofData(marytts.datatypes.MaryData)}. Must not be null.
+	 * @param outputtext
+	 *            the request's output text. Must not be null.
+	 * @throws NullPointerException
+	 *             if one of the fields is null which must be non-null.
+	 * @throws IOException
+	 *             if the record could not be entered into the cache.
+	 */
+	public void insertText(String inputtype, String outputtype, String locale, String voice, String outputparams, String style,
+			String effects, CacheKey input, String outputtext) throws IOException {
+		if (inputtype == null || outputtype == null || locale == null || voice == null || input == null || outputtext == null) {
+			throw new NullPointerException("Null argument");
+		}
+		insert(requestKey(inputtype, outputtype, locale, voice, outputparams, style, effects, input),
+				outputtext.getBytes(StandardCharsets.UTF_8));
 	}
 
 	/**
@@ -241,10 +262,10 @@ public class MaryCache {
 	 *            the request's output data. Must not be null.
 	 * @throws NullPointerException
 	 *             if one of the fields is null which must be non-null.
-	 * @throws SQLException
+	 * @throws IOException
 	 *             if the record could not be entered into the cache.
 	 */
-	public void insertAudio(String inputtype, String locale, String voice, String inputtext, byte[] audio) throws SQLException {
+	public void insertAudio(String inputtype, String locale, String voice, String inputtext, byte[] audio) throws IOException {
 		insertAudio(inputtype, locale, voice, null, null, null, inputtext, audio);
 	}
 
@@ -267,42 +288,51 @@ public class MaryCache {
 	 * @param inputtext
 	 *            the request's input text. Must not be null.
 	 * @param audio
-	 *            the request's output data. Must not be null.
+	 *            the request's output data. Must not be null. The array must not be modified afterwards.
 	 * @throws NullPointerException
 	 *             if one of the fields is null which must be non-null.
-	 * @throws SQLException
+	 * @throws IOException
 	 *             if the record could not be entered into the cache.
 	 */
-	public synchronized void insertAudio(String inputtype, String locale, String voice, String outputparams, String style,
-			String effects, String inputtext, byte[] audio) throws SQLException {
-		if (inputtype == null || locale == null || voice == null || inputtext == null) {
+	public void insertAudio(String inputtype, String locale, String voice, String outputparams, String style, String effects,
+			String inputtext, byte[] audio) throws IOException {
+		if (inputtext == null) {
 			throw new NullPointerException("Null argument");
 		}
-		// Need to verify, here in the synchronized code, once again that really we don't have this entry already.
-		// If we do, we ignore this call.
-		if (lookupAudio(inputtype, locale, voice, outputparams, style, effects, inputtext) != null) {
-			return;
-		}
+		insertAudio(inputtype, locale, voice, outputparams, style, effects, CacheKey.ofText(inputtext), audio);
+	}
 
-		String query = "INSERT INTO MARYCACHE (inputtype, outputtype, locale, voice, outputparams, style, effects, inputtext, outputaudio) VALUES('"
-				+ inputtype
-				+ "','AUDIO','"
-				+ locale
-				+ "','"
-				+ voice
-				+ "','"
-				+ outputparams
-				+ "','"
-				+ style
-				+ "','"
-				+ effects
-				+ "',?,?)";
-
-		PreparedStatement st = connection.prepareStatement(query);
-		st.setString(1, inputtext);
-		st.setBytes(2, audio);
-		st.executeUpdate();
-		st.close();
+	/**
+	 * Insert a record of a MARY request producing data of output type AUDIO into the cache, identifying the input data by its
+	 * key. If a record with the same lookup keys exists already, this call does nothing.
+	 * 
+	 * @param inputtype
+	 *            the request's input type. Must not be null.
+	 * @param locale
+	 *            the locale of the request. Must not be null.
+	 * @param voice
+	 *            the voice of the request. Can be null.
+	 * @param outputparams
+	 *            optionally, any output parameters. Can be null.
+	 * @param style
+	 *            optionally, any style. Can be null.
+	 * @param effects
+	 *            optionally, any effects. Can be null.
+	 * @param input
+	 *            the key of the request's input data, see {@link CacheKey#ofData(marytts.datatypes.MaryData)}. Must not be null.
+	 * @param audio
+	 *            the request's output data. Must not be null. The array must not be modified afterwards.
+	 * @throws NullPointerException
+	 *             if one of the fields is null which must be non-null.
+	 * @throws IOException
+	 *             if the record could not be entered into the cache.
+	 */
+	public void insertAudio(String inputtype, String locale, String voice, String outputparams, String style, String effects,
+			CacheKey input, byte[] audio) throws IOException {
+		if (inputtype == null || locale == null || voice == null || input == null || audio == null) {
+			throw new NullPointerException("Null argument");
+		}
+		insert(requestKey(inputtype, AUDIO, locale, voice, outputparams, style, effects, input), audio);
 	}
 
 	/**
@@ -322,11 +352,8 @@ public class MaryCache {
 	 *         these keys.
 	 * @throws NullPointerException
 	 *             if one of the fields is null which must be non-null.
-	 * @throws SQLException
-	 *             if there is a problem querying the cache.
 	 */
-	public String lookupText(String inputtype, String outputtype, String locale, String voice, String inputtext)
-			throws SQLException {
+	public String lookupText(String inputtype, String outputtype, String locale, String voice, String inputtext) {
 		return lookupText(inputtype, outputtype, locale, voice, null, null, null, inputtext);
 	}
 
@@ -353,27 +380,46 @@ public class MaryCache {
 	 *         these keys.
 	 * @throws NullPointerException
 	 *             if one of the fields is null which must be non-null.
-	 * @throws SQLException
-	 *             if there is a problem querying the cache.
 	 */
-	public synchronized String lookupText(String inputtype, String outputtype, String locale, String voice, String outputparams,
-			String style, String effects, String inputtext) throws SQLException {
-		if (inputtype == null || outputtype == null || locale == null || voice == null || inputtext == null) {
+	public String lookupText(String inputtype, String outputtype, String locale, String voice, String outputparams,
+			String style, String effects, String inputtext) {
+		if (inputtext == null) {
 			throw new NullPointerException("Null argument");
 		}
-		String outputtext = null;
-		String query = "SELECT outputtext FROM marycache WHERE inputtype = '" + inputtype + "' AND outputtype = '" + outputtype
-				+ "' AND locale = '" + locale + "' AND voice = '" + voice + "' AND outputparams = '" + outputparams
-				+ "' AND style = '" + style + "' AND effects = '" + effects + "' AND inputtext = ?";
-
-		PreparedStatement st = connection.prepareStatement(query);
-		st.setString(1, inputtext);
-		ResultSet results = st.executeQuery();
-		if (results.next()) { // we expect only a single result, if any, so no while loop
-			outputtext = results.getString(1);
+		return lookupText(inputtype, outputtype, locale, voice, outputparams, style, effects, CacheKey.ofText(inputtext));
+	}
+
+	/**
+	 * Carry out a lookup in the cache with the given parameters, identifying the input data by its key.
+	 * 
+	 * @param inputtype
+	 *            the request's input type. Must not be null.
+	 * @param outputtype
+	 *            the request's output type, which must be a text type. Must not be null.
+	 * @param locale
+	 *            the locale of the request. Must not be null.
+	 * @param voice
+	 *            the voice of the request. Can be null.
+	 * @param outputparams
+	 *            optionally, any output parameters. Can be null.
+	 * @param style
+	 *            optionally, any style. Can be null.
+	 * @param effects
+	 *            optionally, any effects. Can be null.
+	 * @param input
+	 *            the key of the request's input data, see {@link CacheKey#ofData(marytts.datatypes.MaryData)}. Must not be null.
+	 * @return the output text associated with the with the given record, or null if the cache does not contain a record with
+	 *         these keys.
+	 * @throws NullPointerException
+	 *             if one of the fields is null which must be non-null.
+	 */
+	public String lookupText(String inputtype, String outputtype, String locale, String voice, String outputparams,
+			String style, String effects, CacheKey input) {
+		if (inputtype == null || outputtype == null || locale == null || voice == null || input == null) {
+			throw new NullPointerException("Null argument");
 		}
-		st.close();
-		return outputtext;
+		byte[] outputtext = lookup(requestKey(inputtype, outputtype, locale, voice, outputparams, style, effects, input));
+		return outputtext != null ? new String(outputtext, StandardCharsets.UTF_8) : null;
 	}
 
 	/**
@@ -391,10 +437,8 @@ public class MaryCache {
 	 *         these keys.
 	 * @throws NullPointerException
 	 *             if one of the fields is null which must be non-null.
-	 * @throws SQLException
-	 *             if there is a problem querying the cache.
 	 */
-	public byte[] lookupAudio(String inputtype, String locale, String voice, String inputtext) throws SQLException {
+	public byte[] lookupAudio(String inputtype, String locale, String voice, String inputtext) {
 		return lookupAudio(inputtype, locale, voice, null, null, null, inputtext);
 	}
 
@@ -415,55 +459,121 @@ public class MaryCache {
 	 *            optionally, any effects. Can be null.
 	 * @param inputtext
 	 *            the request's input text. Must not be null.
-	 * @return the output text associated with the with the given record, or null if the cache does not contain a record with
-	 *         these keys.
+	 * @return the audio data associated with the with the given record, or null if the cache does not contain a record with these
+	 *         keys. The array is shared with the cache and must not be modified.
+	 * @throws NullPointerException
+	 *             if one of the fields is null which must be non-null.
+	 */
+	public byte[] lookupAudio(String inputtype, String locale, String voice, String outputparams, String style, String effects,
+			String inputtext) {
+		if (inputtext == null) {
+			throw new NullPointerException("Null argument");
+		}
+		return lookupAudio(inputtype, locale, voice, outputparams, style, effects, CacheKey.ofText(inputtext));
+	}
+
+	/**
+	 * Carry out a lookup in the cache with the given parameters, for a request with output type AUDIO, identifying the input data
+	 * by its key.
+	 * 
+	 * @param inputtype
+	 *            the request's input type. Must not be null.
+	 * @param locale
+	 *            the locale of the request. Must not be null.
+	 * @param voice
+	 *            the voice of the request. Can be null.
+	 * @param outputparams
+	 *            optionally, any output parameters. Can be null.
+	 * @param style
+	 *            optionally, any style. Can be null.
+	 * @param effects
+	 *            optionally, any effects. Can be null.
+	 * @param input
+	 *            the key of the request's input data, see {@link CacheKey#ofData(marytts.datatypes.MaryData)}. Must not be null.
+	 * @return the audio data associated with the with the given record, or null if the cache does not contain a record with these
+	 *         keys. The array is shared with the cache and must not be modified.
 	 * @throws NullPointerException
 	 *             if one of the fields is null which must be non-null.
-	 * @throws SQLException
-	 *             if there is a problem querying the cache.
 	 */
-	public synchronized byte[] lookupAudio(String inputtype, String locale, String voice, String outputparams, String style,
-			String effects, String inputtext) throws SQLException {
-		if (inputtype == null || locale == null || voice == null || inputtext == null) {
+	public byte[] lookupAudio(String inputtype, String locale, String voice, String outputparams, String style, String effects,
+			CacheKey input) {
+		if (inputtype == null || locale == null || voice == null || input == null) {
 			throw new NullPointerException("Null argument");
 		}
-		byte[] audio = null;
-		String query = "Select outputaudio FROM marycache WHERE inputtype = '" + inputtype
-				+ "' AND outputtype = 'AUDIO' AND locale = '" + locale + "' AND voice = '" + voice + "' AND outputparams = '"
-				+ outputparams + "' AND style = '" + style + "' AND effects = '" + effects + "' AND inputtext = ?";
-		PreparedStatement st = connection.prepareStatement(query);
-		st.setString(1, inputtext);
-		ResultSet results = st.executeQuery();
-		if (results.next()) {
-			audio = results.getBytes(1);
+		return lookup(requestKey(inputtype, AUDIO, locale, voice, outputparams, style, effects, input));
+	}
+
+	private static CacheKey requestKey(String inputtype, String outputtype, String locale, String voice, String outputparams,
+			String style, String effects, CacheKey input) {
+		return new CacheKey.Builder().add(inputtype).add(outputtype).add(locale).add(voice).add(outputparams).add(style)
+				.add(effects).add(input).build();
+	}
+
+	private byte[] lookup(CacheKey key) {
+		long startTime = System.nanoTime();
+		byte[] value = memory.get(key);
+		boolean inMemory = value != null;
+		if (inMemory) {
+			disk.touch(key);
+		} else {
+			value = disk.get(key);
+			if (value != null) {
+				memory.put(key, value);
+			}
+		}
+		stats.recordLookup(inMemory, value != null, System.nanoTime() - startTime);
+		return value;
+	}
+
+	private void insert(CacheKey key, byte[] value) throws IOException {
+		if (disk.contains(key)) {
+			return;
+		}
+		memory.put(key, value);
+		if (!disk.put(key, value)) {
+			logger.debug("Entry of " + value.length + " bytes is too large for a cache segment -- keeping it in memory only");
+		}
+		stats.recordInsert();
+		if (disk.needsCompaction() && compactionScheduled.compareAndSet(false, true)) {
+			compactor.execute(new Runnable() {
+				public void run() {
+					compactionScheduled.set(false);
+					try {
+						disk.compact();
+					} catch (Exception e) {
+						logger.warn("Problem compacting cache", e);
+					}
+				}
+			});
 		}
-		return audio;
 	}
 
 	/**
-	 * Shut down the cache. After this has been called, any further calls to the object will throw exceptions.
+	 * Hit rate and latency statistics for this cache.
 	 * 
-	 * @throws SQLException
-	 *             if there is a problem executing the database SHUTDOWN command.
+	 * @return the statistics, which are updated live.
 	 */
-	public void shutdown() throws SQLException {
+	public CacheStats getStats() {
+		return stats;
+	}
 
-		Statement st = connection.createStatement();
-		st.execute("SHUTDOWN");
-		connection.close(); // if there are no other open connection
+	/**
+	 * Shut down the cache. After this has been called, any further inserts will throw exceptions.
+	 */
+	public void shutdown() {
+		compactor.shutdownNow();
+		disk.close();
+		memory.clear();
+		logger.info("Cache statistics: " + stats);
 	}
 
 	/**
 	 * @param args
 	 *            args
-	 * @throws SQLException
-	 *             SQLException
-	 * @throws MalformedURLException
-	 *             MalformedURLException
-	 * @throws ClassNotFoundException
-	 *             ClassNotFoundException
+	 * @throws IOException
+	 *             IOException
 	 */
-	public static void main(String[] args) throws SQLException, MalformedURLException, ClassNotFoundException {
+	public static void main(String[] args) throws IOException {
 		MaryCache c = new MaryCache(new File("/Users/marc/Desktop/testdb/testDB"), false);
 		// c.insertText("TEXT", "RAWMARYXML", "de", "de1", "Welcome to the world of speech synthesis", "<rawmaryxml/>");
 
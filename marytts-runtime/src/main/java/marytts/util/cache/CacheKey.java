@@ -0,0 +1,319 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.cache;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import marytts.datatypes.MaryData;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.CharacterData;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * A fixed-size, 128 bit key identifying one cache entry. Instead of comparing the full request parameters and input text, cache
+ * entries are identified by an MD5 digest over all the fields that make up the lookup key. The input data is digested
+ * incrementally, directly from its DOM or text (see {@link #ofData(MaryData)}).
+ */
+public final class CacheKey {
+	/**
+	 * Number of bytes needed to store a key.
+	 */
+	public static final int BYTES = 16;
+
+	private final long hi;
+	private final long lo;
+
+	public CacheKey(long hi, long lo) {
+		this.hi = hi;
+		this.lo = lo;
+	}
+
+	/**
+	 * Compute the key for the given fields. The fields are length-prefixed before hashing, so that different splits of the same
+	 * characters, as well as null and empty fields, result in different keys.
+	 *
+	 * @param fields
+	 *            the fields making up the key, in a fixed order. Any field can be null.
+	 * @return the key
+	 */
+	public static CacheKey of(String... fields) {
+		Builder builder = new Builder();
+		for (String field : fields) {
+			builder.add(field);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Compute the key for a piece of text, as if it was the plain text of a text-type {@link MaryData}.
+	 *
+	 * @param text
+	 *            text
+	 * @return the key
+	 */
+	public static CacheKey ofText(String text) {
+		return new Builder().add(text).build();
+	}
+
+	/**
+	 * Compute a canonical key for the content of the given data, without serializing it. For XML types, this is a digest over
+	 * the document's elements, attributes and text; for other text types, over the plain text.
+	 *
+	 * @param data
+	 *            data of an XML or text type.
+	 * @return the key
+	 * @throws IllegalArgumentException
+	 *             if the data is neither of an XML nor of a text type.
+	 */
+	public static CacheKey ofData(MaryData data) {
+		Builder builder = new Builder();
+		if (data.getType().isXMLType()) {
+			builder.add(data.getDocument());
+		} else if (data.getType().isTextType()) {
+			builder.add(data.getPlainText());
+		} else {
+			throw new IllegalArgumentException("Cannot compute cache key for data of type " + data.getType());
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Read a key that was written with {@link #writeTo(ByteBuffer)}.
+	 *
+	 * @param buffer
+	 *            the buffer to read the key from, at its current position.
+	 * @return the key
+	 */
+	public static CacheKey readFrom(ByteBuffer buffer) {
+		long hi = buffer.getLong();
+		long lo = buffer.getLong();
+		return new CacheKey(hi, lo);
+	}
+
+	/**
+	 * Write this key as {@link #BYTES} bytes to the buffer, at its current position.
+	 *
+	 * @param buffer
+	 *            buffer
+	 */
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putLong(hi);
+		buffer.putLong(lo);
+	}
+
+	public long getHigh() {
+		return hi;
+	}
+
+	public long getLow() {
+		return lo;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (lo ^ (lo >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof CacheKey)) {
+			return false;
+		}
+		CacheKey other = (CacheKey) obj;
+		return hi == other.hi && lo == other.lo;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%016x%016x", hi, lo);
+	}
+
+	/**
+	 * Incrementally computes a {@link CacheKey} from a sequence of fields. Strings and DOM content are fed into the digest
+	 * character by character, without building any intermediate strings or byte arrays. A builder can be used only once.
+	 */
+	public static class Builder {
+		// markers separating the different kinds of content:
+		private static final byte NULL = 0;
+		private static final byte STRING = 1;
+		private static final byte START_ELEMENT = 2;
+		private static final byte END_ELEMENT = 3;
+		private static final byte ATTRIBUTE = 4;
+		private static final byte TEXT = 5;
+		private static final byte KEY = 6;
+
+		private final MessageDigest digest;
+		private final byte[] buffer = new byte[256];
+		private int pos = 0;
+
+		public Builder() {
+			try {
+				digest = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new AssertionError("MD5 is always a supported digest algorithm.");
+			}
+		}
+
+		/**
+		 * Add the next field to the key.
+		 *
+		 * @param field
+		 *            the field, or null.
+		 * @return this builder
+		 */
+		public Builder add(String field) {
+			if (field == null) {
+				addByte(NULL);
+			} else {
+				addByte(STRING);
+				addChars(field);
+			}
+			return this;
+		}
+
+		/**
+		 * Add another key, e.g. one computed with {@link CacheKey#ofData(MaryData)}, as the next field.
+		 *
+		 * @param key
+		 *            key
+		 * @return this builder
+		 */
+		public Builder add(CacheKey key) {
+			addByte(KEY);
+			addLong(key.hi);
+			addLong(key.lo);
+			return this;
+		}
+
+		/**
+		 * Add the content of a DOM document as the next field. Element and attribute names, attribute values and text are
+		 * included; comments and processing instructions are not. Attributes are taken in the order of the DOM's attribute map,
+		 * which is sorted by name in the Xerces implementation.
+		 *
+		 * @param document
+		 *            document
+		 * @return this builder
+		 */
+		public Builder add(Document document) {
+			Node root = document.getDocumentElement();
+			if (root == null) {
+				addByte(NULL);
+				return this;
+			}
+			// Walk the tree without recursion:
+			Node node = root;
+			while (true) {
+				short type = node.getNodeType();
+				if (type == Node.ELEMENT_NODE) {
+					addByte(START_ELEMENT);
+					addChars(node.getNodeName());
+					NamedNodeMap attributes = node.getAttributes();
+					for (int i = 0, n = attributes.getLength(); i < n; i++) {
+						Attr attribute = (Attr) attributes.item(i);
+						addByte(ATTRIBUTE);
+						addChars(attribute.getName());
+						addChars(attribute.getValue());
+					}
+					Node child = node.getFirstChild();
+					if (child != null) {
+						node = child;
+						continue;
+					}
+				} else if (type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE) {
+					addByte(TEXT);
+					addChars(((CharacterData) node).getData());
+				}
+				// no children: close elements and move on to the next sibling, climbing up as needed
+				while (true) {
+					if (node.getNodeType() == Node.ELEMENT_NODE) {
+						addByte(END_ELEMENT);
+					}
+					if (node == root) {
+						return this;
+					}
+					Node next = node.getNextSibling();
+					if (next != null) {
+						node = next;
+						break;
+					}
+					node = node.getParentNode();
+				}
+			}
+		}
+
+		/**
+		 * Finish the computation.
+		 *
+		 * @return the key for all fields added so far.
+		 */
+		public CacheKey build() {
+			flush();
+			return readFrom(ByteBuffer.wrap(digest.digest()));
+		}
+
+		private void addChars(String chars) {
+			int length = chars.length();
+			addInt(length);
+			for (int i = 0; i < length; i++) {
+				char c = chars.charAt(i);
+				if (pos + 2 > buffer.length) {
+					flush();
+				}
+				buffer[pos++] = (byte) (c >>> 8);
+				buffer[pos++] = (byte) c;
+			}
+		}
+
+		private void addByte(byte b) {
+			if (pos == buffer.length) {
+				flush();
+			}
+			buffer[pos++] = b;
+		}
+
+		private void addInt(int i) {
+			if (pos + 4 > buffer.length) {
+				flush();
+			}
+			buffer[pos++] = (byte) (i >>> 24);
+			buffer[pos++] = (byte) (i >>> 16);
+			buffer[pos++] = (byte) (i >>> 8);
+			buffer[pos++] = (byte) i;
+		}
+
+		private void addLong(long l) {
+			addInt((int) (l >>> 32));
+			addInt((int) l);
+		}
+
+		private void flush() {
+			digest.update(buffer, 0, pos);
+			pos = 0;
+		}
+	}
+}
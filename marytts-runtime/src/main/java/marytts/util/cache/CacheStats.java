@@ -0,0 +1,111 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hit, miss and latency counters for the {@link marytts.util.MaryCache}. All counters can be updated concurrently.
+ */
+public class CacheStats {
+	private final LongAdder memoryHits = new LongAdder();
+	private final LongAdder diskHits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder inserts = new LongAdder();
+	private final LongAdder lookupNanos = new LongAdder();
+
+	/**
+	 * Record the outcome of one lookup.
+	 *
+	 * @param inMemory
+	 *            whether the value was found in the in-memory tier
+	 * @param onDisk
+	 *            whether the value was found in the segment files
+	 * @param nanos
+	 *            the time the lookup took, in nanoseconds
+	 */
+	public void recordLookup(boolean inMemory, boolean onDisk, long nanos) {
+		if (inMemory) {
+			memoryHits.increment();
+		} else if (onDisk) {
+			diskHits.increment();
+		} else {
+			misses.increment();
+		}
+		lookupNanos.add(nanos);
+	}
+
+	public void recordInsert() {
+		inserts.increment();
+	}
+
+	public long getMemoryHits() {
+		return memoryHits.sum();
+	}
+
+	public long getDiskHits() {
+		return diskHits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getInserts() {
+		return inserts.sum();
+	}
+
+	public long getLookups() {
+		return getMemoryHits() + getDiskHits() + getMisses();
+	}
+
+	/**
+	 * The proportion of lookups that found a value in either tier.
+	 *
+	 * @return a value between 0 and 1, or 0 if there were no lookups yet.
+	 */
+	public double getHitRate() {
+		long lookups = getLookups();
+		if (lookups == 0) {
+			return 0;
+		}
+		return (getMemoryHits() + getDiskHits()) / (double) lookups;
+	}
+
+	/**
+	 * The average time a lookup took, including the key comparison and the copying of values from disk.
+	 *
+	 * @return the average lookup time in microseconds, or 0 if there were no lookups yet.
+	 */
+	public double getAverageLookupMicros() {
+		long lookups = getLookups();
+		if (lookups == 0) {
+			return 0;
+		}
+		return lookupNanos.sum() / 1000. / lookups;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d lookups (%d memory hits, %d disk hits, %d misses; hit rate %.1f%%), "
+				+ "average lookup time %.1f us, %d inserts", getLookups(), getMemoryHits(), getDiskHits(), getMisses(),
+				100 * getHitRate(), getAverageLookupMicros(), getInserts());
+	}
+}
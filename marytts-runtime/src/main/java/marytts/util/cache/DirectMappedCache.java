@@ -0,0 +1,135 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The table and hit counters of a direct-mapped cache, for caches in front of computations whose results never change, such as
+ * the join costs or tree leaves of a voice. Each key goes into the one slot given by its hash, and a new entry simply replaces
+ * whatever was in its slot, so that there is no eviction policy to maintain.
+ * <p>
+ * Lookups and updates take no locks. Entries must be immutable, with final fields only, so that a thread reading a slot sees
+ * either a complete entry or none; an entry must hold its full key, as different keys may go into the same slot. Concurrent
+ * updates of the same slot may then lose an entry, but lookups never return the result for a different key.
+ *
+ * @param <E>
+ *            the type of the entries
+ */
+public abstract class DirectMappedCache<E> {
+	private final Object[] entries;
+	private final int mask;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param size
+	 *            the number of entries, rounded up to a power of two
+	 * @param name
+	 *            the name of the cache for the error message
+	 * @throws IllegalArgumentException
+	 *             if size is not positive or larger than 2^30
+	 */
+	protected DirectMappedCache(int size, String name) {
+		if (size <= 0 || size > 1 << 30) {
+			throw new IllegalArgumentException("Invalid " + name + " size " + size);
+		}
+		int capacity = Integer.highestOneBit(size);
+		if (capacity < size) {
+			capacity <<= 1;
+		}
+		this.entries = new Object[capacity];
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * @param hash
+	 *            a well-mixed hash of the key, whose low bits choose the slot
+	 * @return the slot for the hash
+	 */
+	protected final int slot(int hash) {
+		return hash & mask;
+	}
+
+	/**
+	 * @param slot
+	 *            the slot
+	 * @return the entry in the slot, or null
+	 */
+	@SuppressWarnings("unchecked")
+	protected final E getEntry(int slot) {
+		return (E) entries[slot];
+	}
+
+	/**
+	 * Put an entry into its slot, replacing the entry that was there.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param entry
+	 *            the entry
+	 */
+	protected final void setEntry(int slot, E entry) {
+		entries[slot] = entry;
+	}
+
+	protected final void recordHit() {
+		hits.increment();
+	}
+
+	protected final void recordMiss() {
+		misses.increment();
+	}
+
+	/**
+	 * @return the number of entries
+	 */
+	public int getSize() {
+		return entries.length;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * The proportion of lookups that were answered from the cache.
+	 *
+	 * @return a value between 0 and 1, or 0 if there were no lookups yet.
+	 */
+	public double getHitRate() {
+		long hits = getHits();
+		long lookups = hits + getMisses();
+		if (lookups == 0) {
+			return 0;
+		}
+		return hits / (double) lookups;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d entries, %d hits, %d misses (hit rate %.1f%%)", getSize(), getHits(), getMisses(),
+				100 * getHitRate());
+	}
+}
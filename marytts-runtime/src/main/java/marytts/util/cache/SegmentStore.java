@@ -0,0 +1,416 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.cache;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import marytts.util.MaryUtils;
+
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A persistent store from {@link CacheKey}s to byte arrays, kept in a sequence of append-only, memory-mapped segment files. An
+ * in-memory index maps each key to the location of its record, so that lookups only read the mapped memory and never take a
+ * lock.
+ * <p>
+ * The segment files are named <code>&lt;cachefile&gt;.NNNNNN.seg</code>. Each consists of an eight-byte header followed by
+ * records of the form (record length, CRC32 of the value, key, value). When the store is opened, the index is rebuilt by
+ * scanning all segments in order; scanning a segment stops at the first incomplete or corrupt record.
+ * <p>
+ * When the segments together exceed the configured size, {@link #compact()} discards the oldest segment. Entries in it which
+ * have been looked up since they were written are first copied to the current segment; all others are dropped from the store.
+ */
+public class SegmentStore {
+	private static final int MAGIC = 0x4d415259; // "MARY"
+	private static final int VERSION = 1;
+	private static final int SEGMENT_HEADER = 8;
+	// record length, CRC32, key:
+	private static final int RECORD_HEADER = 4 + 4 + CacheKey.BYTES;
+	private static final String SUFFIX = ".seg";
+
+	private final Logger logger = MaryUtils.getLogger("cache");
+	private final File directory;
+	private final String prefix;
+	private final long maxBytes;
+	private final int segmentBytes;
+	private final ConcurrentHashMap<CacheKey, Location> index = new ConcurrentHashMap<CacheKey, Location>();
+	// the following are guarded by this:
+	private final List<Segment> segments = new ArrayList<Segment>(); // oldest first
+	private Segment active;
+	private int nextSequence = 1;
+	private boolean closed = false;
+
+	/**
+	 * Open the store, creating it if necessary.
+	 *
+	 * @param cacheFile
+	 *            the file name prefix for the segment files.
+	 * @param clear
+	 *            if true, remove any existing segments; if false, load them.
+	 * @param maxBytes
+	 *            the total size of the segment files above which {@link #compact()} will discard old segments.
+	 * @param segmentBytes
+	 *            the size of each segment file. Values larger than this cannot be stored.
+	 * @throws IOException
+	 *             if the segment files cannot be created or mapped.
+	 */
+	public SegmentStore(File cacheFile, boolean clear, long maxBytes, int segmentBytes) throws IOException {
+		if (segmentBytes <= SEGMENT_HEADER + RECORD_HEADER) {
+			throw new IllegalArgumentException("Segment size too small: " + segmentBytes);
+		}
+		this.directory = cacheFile.getAbsoluteFile().getParentFile();
+		this.prefix = cacheFile.getName() + ".";
+		this.maxBytes = maxBytes;
+		this.segmentBytes = segmentBytes;
+		File[] existing = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return sequenceOf(name) > 0;
+			}
+		});
+		if (existing == null) {
+			throw new IOException("Cannot list cache directory " + directory);
+		}
+		Arrays.sort(existing, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Integer.compare(sequenceOf(a.getName()), sequenceOf(b.getName()));
+			}
+		});
+		for (File f : existing) {
+			if (clear) {
+				delete(f);
+			} else {
+				load(f);
+			}
+		}
+		if (active == null) {
+			roll();
+		}
+	}
+
+	private int sequenceOf(String fileName) {
+		if (!fileName.startsWith(prefix) || !fileName.endsWith(SUFFIX)) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(fileName.substring(prefix.length(), fileName.length() - SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private void load(File f) throws IOException {
+		int sequence = sequenceOf(f.getName());
+		Segment segment = new Segment(f, (int) Math.min(f.length(), Integer.MAX_VALUE));
+		if (segment.capacity < SEGMENT_HEADER || segment.buffer.getInt(0) != MAGIC || segment.buffer.getInt(4) != VERSION) {
+			logger.warn("Ignoring cache segment with unknown format: " + f);
+			delete(f);
+			return;
+		}
+		int pos = SEGMENT_HEADER;
+		int numRecords = 0;
+		while (pos + RECORD_HEADER <= segment.capacity) {
+			int length = segment.buffer.getInt(pos);
+			if (length < RECORD_HEADER || length > segment.capacity - pos) {
+				break;
+			}
+			Location location = new Location(segment, pos, length - RECORD_HEADER);
+			byte[] value = location.read();
+			CRC32 crc = new CRC32();
+			crc.update(value);
+			if ((int) crc.getValue() != segment.buffer.getInt(pos + 4)) {
+				logger.debug("Corrupt record at position " + pos + " in " + f + " -- ignoring rest of segment");
+				break;
+			}
+			index.put(location.readKey(), location);
+			numRecords++;
+			pos += length;
+		}
+		segment.writePosition = pos;
+		segments.add(segment);
+		active = segment;
+		nextSequence = Math.max(nextSequence, sequence + 1);
+		logger.debug("Loaded " + numRecords + " records from " + f);
+	}
+
+	private void roll() throws IOException {
+		File f = new File(directory, prefix + String.format("%06d", nextSequence++) + SUFFIX);
+		Segment segment = new Segment(f, segmentBytes);
+		segment.buffer.putInt(0, MAGIC);
+		segment.buffer.putInt(4, VERSION);
+		segment.writePosition = SEGMENT_HEADER;
+		segments.add(segment);
+		active = segment;
+	}
+
+	private void delete(File f) {
+		if (!f.delete()) {
+			logger.warn("Cannot delete cache segment " + f);
+		}
+	}
+
+	/**
+	 * Look up the value for the given key.
+	 *
+	 * @param key
+	 *            key
+	 * @return a copy of the stored value, or null if the key is not in the store.
+	 */
+	public byte[] get(CacheKey key) {
+		Location location = index.get(key);
+		if (location == null) {
+			return null;
+		}
+		location.referenced = true;
+		return location.read();
+	}
+
+	/**
+	 * Whether the store contains the given key.
+	 *
+	 * @param key
+	 *            key
+	 * @return true if a value is stored for the key.
+	 */
+	public boolean contains(CacheKey key) {
+		return index.containsKey(key);
+	}
+
+	/**
+	 * Mark the given key as recently used, so that it survives the next compaction, without reading its value.
+	 *
+	 * @param key
+	 *            key
+	 */
+	public void touch(CacheKey key) {
+		Location location = index.get(key);
+		if (location != null) {
+			location.referenced = true;
+		}
+	}
+
+	/**
+	 * Append a value to the store. Any previous value for the same key is superseded.
+	 *
+	 * @param key
+	 *            key
+	 * @param value
+	 *            value
+	 * @return true if the value was stored, false if it is too large for a segment.
+	 * @throws IOException
+	 *             if a new segment file is needed and cannot be created.
+	 * @throws IllegalStateException
+	 *             if the store has been closed.
+	 */
+	public synchronized boolean put(CacheKey key, byte[] value) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("Store is closed");
+		}
+		if (RECORD_HEADER + value.length > segmentBytes - SEGMENT_HEADER) {
+			return false;
+		}
+		index.put(key, append(key, value));
+		return true;
+	}
+
+	// must be called with the lock held
+	private Location append(CacheKey key, byte[] value) throws IOException {
+		int length = RECORD_HEADER + value.length;
+		if (active.writePosition + length > active.capacity) {
+			roll();
+		}
+		Segment segment = active;
+		int pos = segment.writePosition;
+		CRC32 crc = new CRC32();
+		crc.update(value);
+		ByteBuffer out = segment.buffer.duplicate();
+		out.position(pos + 4);
+		out.putInt((int) crc.getValue());
+		key.writeTo(out);
+		out.put(value);
+		// the length is written last, so that a partially written record is never taken to be complete:
+		segment.buffer.putInt(pos, length);
+		segment.writePosition = pos + length;
+		return new Location(segment, pos, value.length);
+	}
+
+	/**
+	 * Whether the segments together are larger than the configured maximum size.
+	 *
+	 * @return true if a call to {@link #compact()} would discard segments.
+	 */
+	public synchronized boolean needsCompaction() {
+		return !closed && segments.size() > 1 && getSizeInBytes() > maxBytes;
+	}
+
+	/**
+	 * Discard the oldest segments until the store is within its maximum size again. Records that were looked up since they were
+	 * written are moved to the current segment first. Lookups can proceed concurrently.
+	 *
+	 * @throws IOException
+	 *             if records cannot be moved to a new segment.
+	 */
+	public void compact() throws IOException {
+		while (true) {
+			Segment oldest;
+			synchronized (this) {
+				if (!needsCompaction()) {
+					return;
+				}
+				oldest = segments.get(0);
+			}
+			int moved = 0;
+			int dropped = 0;
+			int pos = SEGMENT_HEADER;
+			while (pos < oldest.writePosition) {
+				int length = oldest.buffer.getInt(pos);
+				Location location = new Location(oldest, pos, length - RECORD_HEADER);
+				CacheKey key = location.readKey();
+				Location current = index.get(key);
+				if (current != null && current.segment == oldest && current.offset == pos) {
+					if (current.referenced) {
+						byte[] value = current.read();
+						synchronized (this) {
+							if (closed) {
+								return;
+							}
+							if (index.get(key) == current) {
+								index.put(key, append(key, value));
+								moved++;
+							}
+						}
+					} else if (index.remove(key, current)) {
+						dropped++;
+					}
+				}
+				pos += length;
+			}
+			synchronized (this) {
+				segments.remove(oldest);
+			}
+			// Any concurrent readers still holding a location in this segment can finish reading from the mapped buffer:
+			delete(oldest.file);
+			logger.debug("Compacted cache segment " + oldest.file.getName() + ": kept " + moved + " and dropped " + dropped
+					+ " entries");
+		}
+	}
+
+	/**
+	 * Flush all segments to disk and close the store.
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		for (Segment s : segments) {
+			s.buffer.force();
+		}
+	}
+
+	/**
+	 * The size of the segment files.
+	 *
+	 * @return the sum of the sizes of all segment files.
+	 */
+	public synchronized long getSizeInBytes() {
+		long total = 0;
+		for (Segment s : segments) {
+			total += s.capacity;
+		}
+		return total;
+	}
+
+	/**
+	 * The number of entries in the store.
+	 *
+	 * @return the number of keys for which a value is stored.
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * The number of segment files.
+	 *
+	 * @return the current number of segments.
+	 */
+	public synchronized int getNumSegments() {
+		return segments.size();
+	}
+
+	private static class Segment {
+		final File file;
+		final int capacity;
+		final MappedByteBuffer buffer;
+		// only written with the store's lock held:
+		volatile int writePosition;
+
+		Segment(File file, int capacity) throws IOException {
+			this.file = file;
+			this.capacity = capacity;
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				// the mapping remains valid after the channel is closed
+				buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			} finally {
+				raf.close();
+			}
+		}
+	}
+
+	private static class Location {
+		final Segment segment;
+		final int offset;
+		final int length;
+		volatile boolean referenced = false;
+
+		Location(Segment segment, int offset, int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		CacheKey readKey() {
+			ByteBuffer in = segment.buffer.duplicate();
+			in.position(offset + 8);
+			return CacheKey.readFrom(in);
+		}
+
+		byte[] read() {
+			ByteBuffer in = segment.buffer.duplicate();
+			in.position(offset + RECORD_HEADER);
+			byte[] value = new byte[length];
+			in.get(value);
+			return value;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in-memory least-recently-used cache from {@link CacheKey}s to byte arrays, limited by the total number of bytes stored. The
+ * cache is split into a number of independently locked stripes, so that concurrent lookups of different keys rarely contend for
+ * the same lock.
+ */
+public class StripedLruCache {
+	/**
+	 * Rough estimate of the per-entry overhead in bytes (key, map entry and array header).
+	 */
+	private static final int ENTRY_OVERHEAD = 96;
+
+	private final Stripe[] stripes;
+	private final int stripeMask;
+
+	/**
+	 * Create a cache.
+	 *
+	 * @param maxBytes
+	 *            the maximum number of bytes to keep in memory, across all stripes.
+	 * @param numStripes
+	 *            the number of stripes; will be rounded up to the next power of two.
+	 */
+	public StripedLruCache(long maxBytes, int numStripes) {
+		int n = 1;
+		while (n < numStripes) {
+			n <<= 1;
+		}
+		stripes = new Stripe[n];
+		for (int i = 0; i < n; i++) {
+			stripes[i] = new Stripe(maxBytes / n);
+		}
+		stripeMask = n - 1;
+	}
+
+	private Stripe stripeFor(CacheKey key) {
+		// use bits independent of the ones used by the hash maps inside the stripes:
+		return stripes[(int) (key.getHigh() >>> 32) & stripeMask];
+	}
+
+	/**
+	 * Look up the value for the given key, marking it as most recently used.
+	 *
+	 * @param key
+	 *            key
+	 * @return the value, or null if the key is not in the cache.
+	 */
+	public byte[] get(CacheKey key) {
+		return stripeFor(key).get(key);
+	}
+
+	/**
+	 * Put a value into the cache, evicting least recently used entries of the same stripe as needed. Values larger than the
+	 * budget of a stripe are not stored.
+	 *
+	 * @param key
+	 *            key
+	 * @param value
+	 *            the value; must not be modified after it was put into the cache.
+	 */
+	public void put(CacheKey key, byte[] value) {
+		stripeFor(key).put(key, value);
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public void clear() {
+		for (Stripe s : stripes) {
+			s.clear();
+		}
+	}
+
+	/**
+	 * The estimated number of bytes currently used.
+	 *
+	 * @return the sum of the sizes of all stripes
+	 */
+	public long getSizeInBytes() {
+		long total = 0;
+		for (Stripe s : stripes) {
+			total += s.getSizeInBytes();
+		}
+		return total;
+	}
+
+	/**
+	 * The number of entries currently in the cache.
+	 *
+	 * @return the number of entries across all stripes
+	 */
+	public int size() {
+		int total = 0;
+		for (Stripe s : stripes) {
+			total += s.size();
+		}
+		return total;
+	}
+
+	private static class Stripe {
+		private final long maxBytes;
+		private final LinkedHashMap<CacheKey, byte[]> map = new LinkedHashMap<CacheKey, byte[]>(16, 0.75f, true);
+		private long bytes = 0;
+
+		Stripe(long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		synchronized byte[] get(CacheKey key) {
+			return map.get(key);
+		}
+
+		synchronized void put(CacheKey key, byte[] value) {
+			long cost = cost(value);
+			if (cost > maxBytes) {
+				return;
+			}
+			byte[] previous = map.put(key, value);
+			bytes += cost;
+			if (previous != null) {
+				bytes -= cost(previous);
+			}
+			Iterator<Map.Entry<CacheKey, byte[]>> it = map.entrySet().iterator();
+			while (bytes > maxBytes && it.hasNext()) {
+				Map.Entry<CacheKey, byte[]> eldest = it.next();
+				bytes -= cost(eldest.getValue());
+				it.remove();
+			}
+		}
+
+		synchronized void clear() {
+			map.clear();
+			bytes = 0;
+		}
+
+		synchronized long getSizeInBytes() {
+			return bytes;
+		}
+
+		synchronized int size() {
+			return map.size();
+		}
+
+		private static long cost(byte[] value) {
+			return value.length + ENTRY_OVERHEAD;
+		}
+	}
+}
@@ -0,0 +1,5 @@
+/**
+ * The storage engine behind {@link marytts.util.MaryCache}: an in-memory LRU tier in front of memory-mapped segment files. Also
+ * the {@link marytts.util.cache.DirectMappedCache} base of the small per-voice caches of synthesis results.
+ */
+package marytts.util.cache;
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.cart;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Random;
+
+import marytts.cart.DecisionNode.BinaryByteDecisionNode;
+import marytts.cart.DecisionNode.BinaryFloatDecisionNode;
+import marytts.cart.DecisionNode.BinaryShortDecisionNode;
+import marytts.cart.DecisionNode.ByteDecisionNode;
+import marytts.cart.DecisionNode.ShortDecisionNode;
+import marytts.cart.LeafNode.FloatLeafNode;
+import marytts.cart.LeafNode.IntArrayLeafNode;
+import marytts.features.FeatureDefinition;
+import marytts.features.FeatureVector;
+import marytts.unitselection.select.Target;
+import marytts.util.FeatureUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompiledCARTTest {
+
+	static final String FEATURES = "ByteValuedFeatureProcessors\n" + "b0 0 a b c\n" + "b1 0 a b c\n" + "b2 0 a b c\n"
+			+ "ShortValuedFeatureProcessors\n" + "s0 0 x y\n" + "ContinuousFeatureProcessors\n" + "c0\n" + "c1\n" + "\n";
+
+	private FeatureDefinition featureDefinition;
+
+	@Before
+	public void setUp() throws IOException {
+		featureDefinition = FeatureUtils.readFeatureDefinition(FEATURES);
+	}
+
+	/**
+	 * Build a random tree using all decision node types, with some empty daughters.
+	 */
+	static Node randomTree(FeatureDefinition featureDefinition, Random random, int depth, boolean intLeaves) {
+		if (depth == 0 || random.nextInt(8) == 0) {
+			if (random.nextInt(12) == 0) {
+				return null;
+			}
+			if (!intLeaves) {
+				return new FloatLeafNode(new float[] { random.nextFloat(), random.nextFloat() });
+			}
+			int[] data = new int[random.nextInt(6)];
+			for (int i = 0; i < data.length; i++) {
+				data[i] = random.nextInt(10000);
+			}
+			return new IntArrayLeafNode(data);
+		}
+		int numByte = featureDefinition.getNumberOfByteFeatures();
+		int numShort = featureDefinition.getNumberOfShortFeatures();
+		int numContinuous = featureDefinition.getNumberOfContinuousFeatures();
+		DecisionNode node;
+		switch (random.nextInt(6)) {
+		case 0:
+			node = new BinaryByteDecisionNode(random.nextInt(numByte), (byte) random.nextInt(4), featureDefinition);
+			break;
+		case 1:
+			node = new BinaryShortDecisionNode(numByte + random.nextInt(numShort), (short) random.nextInt(3),
+					featureDefinition);
+			break;
+		case 2:
+			node = new BinaryFloatDecisionNode(numByte + numShort + random.nextInt(numContinuous), random.nextFloat(),
+					featureDefinition);
+			break;
+		case 3:
+			node = new BinaryFloatDecisionNode(random.nextInt(numByte), 0.5f + random.nextInt(3), featureDefinition);
+			break;
+		case 4:
+			node = new ByteDecisionNode(random.nextInt(numByte), 4, featureDefinition);
+			break;
+		default:
+			node = new ShortDecisionNode(numByte + random.nextInt(numShort), 3, featureDefinition);
+			break;
+		}
+		for (int i = 0; i < node.getNumberOfDaugthers(); i++) {
+			node.addDaughter(randomTree(featureDefinition, random, depth - 1, intLeaves));
+		}
+		return node;
+	}
+
+	static CART randomCART(FeatureDefinition featureDefinition, Random random, int depth, boolean intLeaves) {
+		Node root;
+		do {
+			root = randomTree(featureDefinition, random, depth, intLeaves);
+		} while (!(root instanceof DecisionNode));
+		((DecisionNode) root).countData();
+		return new CART(root, featureDefinition);
+	}
+
+	static FeatureVector randomFeatureVector(FeatureDefinition featureDefinition, Random random) {
+		byte[] bytes = new byte[featureDefinition.getNumberOfByteFeatures()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) random.nextInt(4);
+		}
+		short[] shorts = new short[featureDefinition.getNumberOfShortFeatures()];
+		for (int i = 0; i < shorts.length; i++) {
+			shorts[i] = (short) random.nextInt(3);
+		}
+		float[] floats = new float[featureDefinition.getNumberOfContinuousFeatures()];
+		for (int i = 0; i < floats.length; i++) {
+			floats[i] = random.nextFloat();
+		}
+		return featureDefinition.toFeatureVector(0, bytes, shorts, floats);
+	}
+
+	@Test
+	public void compiledMatchesInterpreted() {
+		Random random = new Random(42);
+		for (int t = 0; t < 20; t++) {
+			CART cart = randomCART(featureDefinition, random, 8, true);
+			CART compiled = new CART(cart.getRootNode(), featureDefinition);
+			assertTrue(compiled.compile());
+			for (int i = 0; i < 500; i++) {
+				FeatureVector fv = randomFeatureVector(featureDefinition, random);
+				Target target = new Target("t", null);
+				target.setFeatureVector(fv);
+				for (int min : new int[] { 0, 1, 3, 10 }) {
+					assertSame(cart.interpretToNode(fv, min), compiled.interpretToNode(fv, min));
+					assertArrayEquals((int[]) cart.interpret(target, min), (int[]) compiled.interpret(target, min));
+				}
+				assertArrayEquals((int[]) cart.interpret(fv), (int[]) compiled.interpret(fv));
+			}
+		}
+	}
+
+	@Test
+	public void compiledMatchesInterpretedWithOtherLeaves() {
+		Random random = new Random(7);
+		CART cart = randomCART(featureDefinition, random, 8, false);
+		CART compiled = new CART(cart.getRootNode(), featureDefinition);
+		assertTrue(compiled.compile());
+		for (int i = 0; i < 500; i++) {
+			FeatureVector fv = randomFeatureVector(featureDefinition, random);
+			assertSame(cart.interpretToNode(fv, 0), compiled.interpretToNode(fv, 0));
+			assertSame(cart.interpret(fv), compiled.interpret(fv));
+		}
+	}
+
+	@Test
+	public void setRootNodeDiscardsCompiledForm() {
+		Random random = new Random(1);
+		CART cart = randomCART(featureDefinition, random, 6, true);
+		assertTrue(cart.compile());
+		IntArrayLeafNode leaf = new IntArrayLeafNode(new int[] { 1, 2, 3 });
+		cart.setRootNode(leaf);
+		assertSame(leaf, cart.interpretToNode(randomFeatureVector(featureDefinition, random), 0));
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.htsengine;
+
+import static marytts.htsengine.SyntheticHMMVoice.MGC_SIZE;
+import static marytts.htsengine.SyntheticHMMVoice.NUM_STATES;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.List;
+
+import marytts.features.FeatureVector;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HTSModelCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SyntheticHMMVoice voice;
+
+	@Before
+	public void setUp() throws IOException {
+		voice = new SyntheticHMMVoice(folder.getRoot());
+		voice.writeVoice();
+		voice.writeConfig("plain.config", null);
+		voice.writeConfig("cached.config", "voice.test.modelCache.size = 1000\n");
+	}
+
+	@Test
+	public void sameModelsAsUncached() throws Exception {
+		HMMData plain = voice.load("plain.config");
+		HMMData cached = voice.load("cached.config");
+		assertNull(plain.getCartTreeSet().getModelCache());
+		HTSModelCache cache = cached.getCartTreeSet().getModelCache();
+		assertEquals(1024, cache.getSize());
+		assertEquals(3, cache.getKeyLength());
+
+		List<FeatureVector> vectors = SyntheticHMMVoice.allFeatureVectors();
+		for (int pass = 0; pass < 2; pass++) {
+			double diffdur = 0;
+			double cachedDiffdur = 0;
+			for (FeatureVector fv : vectors) {
+				HTSModel e = plain.getCartTreeSet().generateHTSModel(plain, plain.getFeatureDefinition(), fv, diffdur);
+				HTSModel a = cached.getCartTreeSet().generateHTSModel(cached, cached.getFeatureDefinition(), fv, cachedDiffdur);
+				diffdur = e.getDurError();
+				cachedDiffdur = a.getDurError();
+				assertEquals(diffdur, cachedDiffdur, 0);
+				for (int s = 0; s < NUM_STATES; s++) {
+					assertEquals(e.getDur(s), a.getDur(s));
+					assertEquals(e.getVoiced(s), a.getVoiced(s));
+					assertEquals(e.getLf0Mean(s, 0), a.getLf0Mean(s, 0), 0);
+					assertEquals(e.getLf0Variance(s, 0), a.getLf0Variance(s, 0), 0);
+					for (int k = 0; k < MGC_SIZE; k++) {
+						assertEquals(e.getMcepMean(s, k), a.getMcepMean(s, k), 0);
+						assertEquals(e.getMcepVariance(s, k), a.getMcepVariance(s, k), 0);
+					}
+				}
+			}
+		}
+		assertEquals(2 * vectors.size(), cache.getHits() + cache.getMisses());
+		assertEquals(vectors.size(), cache.getMisses());
+		assertEquals(0.5, cache.getHitRate(), 0);
+	}
+
+	@Test
+	public void leavesAreShared() throws Exception {
+		CartTreeSet cart = voice.load("cached.config").getCartTreeSet();
+		FeatureVector fv = SyntheticHMMVoice.allFeatureVectors().get(5);
+		int[] leaves = cart.findLeaves(fv);
+		assertSame(leaves, cart.findLeaves(fv));
+		assertArrayEquals(cart.computeLeaves(fv), leaves);
+		assertEquals(1 + 4 * NUM_STATES, leaves.length);
+		// no str and mag trees
+		assertEquals(-1, leaves[leaves.length - 1]);
+	}
+
+	@Test
+	public void disabledByZeroSize() throws Exception {
+		CartTreeSet cart = voice.load("cached.config").getCartTreeSet();
+		cart.setModelCacheSize(0);
+		assertNull(cart.getModelCache());
+		FeatureVector fv = SyntheticHMMVoice.allFeatureVectors().get(5);
+		assertNotSame(cart.findLeaves(fv), cart.findLeaves(fv));
+	}
+}
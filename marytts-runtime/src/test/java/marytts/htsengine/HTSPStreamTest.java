@@ -0,0 +1,161 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.htsengine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class HTSPStreamTest {
+	private static final int ORDER = 4;
+	private static final int FRAMES = 300;
+
+	private HTSPStream randomStream() throws Exception {
+		return randomStream(false);
+	}
+
+	private HTSPStream randomStream(boolean singlePrecision) throws Exception {
+		return randomStream(singlePrecision, 0, 42);
+	}
+
+	/**
+	 * A random stream; with maxIterationsGV &gt; 0, it also has random global variance pdfs.
+	 */
+	private HTSPStream randomStream(boolean singlePrecision, int maxIterationsGV, long seed) throws Exception {
+		HTSPStream pst = new HTSPStream(HTSPStream.NUM * ORDER, FRAMES, HMMData.FeatureType.MGC, maxIterationsGV,
+				singlePrecision);
+		Random random = new Random(seed);
+		for (int t = 0; t < FRAMES; t++) {
+			for (int j = 0; j < HTSPStream.NUM * ORDER; j++) {
+				pst.setMseq(t, j, random.nextGaussian());
+				pst.setIvseq(t, j, 0.5 + random.nextDouble());
+			}
+		}
+		pst.fixDynFeatOnBoundaries();
+		if (maxIterationsGV > 0) {
+			double[] mean = new double[ORDER];
+			double[] ivar = new double[ORDER];
+			for (int m = 0; m < ORDER; m++) {
+				mean[m] = 0.5 + random.nextDouble();
+				ivar[m] = 1 + random.nextDouble();
+			}
+			pst.setGvMeanVar(mean, ivar);
+		}
+		return pst;
+	}
+
+	private static double maxDifference(HTSPStream a, HTSPStream b) {
+		double max = 0;
+		for (int t = 0; t < FRAMES; t++) {
+			for (int m = 0; m < ORDER; m++) {
+				max = Math.max(max, Math.abs(a.getPar(t, m) - b.getPar(t, m)));
+			}
+		}
+		return max;
+	}
+
+	@Test
+	public void windowedWithFullLookaheadIsExact() throws Exception {
+		HTSPStream full = randomStream();
+		full.mlpg(new HMMData(), false);
+		HTSPStream windowed = randomStream();
+		windowed.startWindowedMlpg(7, FRAMES);
+		assertEquals(FRAMES, windowed.generateUpTo(FRAMES));
+		assertEquals(0, maxDifference(full, windowed), 1e-12);
+	}
+
+	@Test
+	public void windowedApproximatesFullSolution() throws Exception {
+		HTSPStream full = randomStream();
+		full.mlpg(new HMMData(), false);
+		HTSPStream windowed = randomStream();
+		windowed.startWindowedMlpg(20, 40);
+		int available = 0;
+		for (int t = 0; t < FRAMES; t++) {
+			if (t >= available) {
+				available = windowed.generateUpTo(t + 1);
+				assertEquals(Math.min(FRAMES, t + 20), available);
+			}
+		}
+		assertEquals(0, maxDifference(full, windowed), 1e-6);
+	}
+
+	@Test
+	public void singlePrecisionApproximatesDoublePrecision() throws Exception {
+		HTSPStream full = randomStream();
+		full.mlpg(new HMMData(), false);
+		HTSPStream single = randomStream(true);
+		assertTrue(single.isSinglePrecision());
+		single.mlpg(new HMMData(), false);
+		assertEquals(0, maxDifference(full, single), 1e-5);
+	}
+
+	@Test
+	public void reusedWorkspaceGivesSameResult() throws Exception {
+		for (boolean useGV : new boolean[] { false, true }) {
+			int maxIterationsGV = useGV ? 20 : 0;
+			HTSPStream fresh = randomStream(false, maxIterationsGV, 42);
+			fresh.mlpg(new HMMData(), useGV, new MlpgWorkspace());
+			// a larger workspace, still holding the matrices of another stream
+			MlpgWorkspace workspace = new MlpgWorkspace(2 * FRAMES);
+			randomStream(false, maxIterationsGV, 7).mlpg(new HMMData(), useGV, workspace);
+			HTSPStream reused = randomStream(false, maxIterationsGV, 42);
+			reused.mlpg(new HMMData(), useGV, workspace);
+			assertEquals(2 * FRAMES, workspace.getCapacity());
+			assertEquals("GV " + useGV, 0, maxDifference(fresh, reused), 0);
+		}
+	}
+
+	@Test
+	public void concurrentMlpgGivesSameResult() throws Exception {
+		final HMMData htsData = new HMMData();
+		final boolean useGV = true;
+		final HTSPStream expected = randomStream(false, 20, 42);
+		expected.mlpg(htsData, useGV);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<HTSPStream>> results = new ArrayList<Future<HTSPStream>>();
+			for (int i = 0; i < 16; i++) {
+				results.add(executor.submit(new Callable<HTSPStream>() {
+					public HTSPStream call() throws Exception {
+						HTSPStream pst = randomStream(false, 20, 42);
+						// through the workspace pool of the shared HMMData
+						pst.mlpg(htsData, useGV);
+						return pst;
+					}
+				}));
+			}
+			for (Future<HTSPStream> result : results) {
+				assertEquals(0, maxDifference(expected, result.get()), 0);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
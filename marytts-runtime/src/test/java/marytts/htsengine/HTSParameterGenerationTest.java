@@ -0,0 +1,194 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.htsengine;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import marytts.features.FeatureDefinition;
+import marytts.features.FeatureVector;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HTSParameterGenerationTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private HMMData htsData;
+
+	@Before
+	public void setUp() throws Exception {
+		SyntheticHMMVoice voice = new SyntheticHMMVoice(folder.getRoot());
+		voice.writeVoice();
+		voice.writeConfig("test.config", null);
+		htsData = voice.load("test.config");
+	}
+
+	@Test
+	public void batchGivesSameParametersAsSequential() throws Exception {
+		Random random = new Random(1234);
+		List<HTSUttModel> ums = new ArrayList<HTSUttModel>();
+		for (int i = 0; i < 16; i++) {
+			ums.add(randomUtterance(htsData, random, 20));
+		}
+		List<HTSParameterGeneration> sequential = new ArrayList<HTSParameterGeneration>();
+		for (HTSUttModel um : ums) {
+			HTSParameterGeneration pdf2par = new HTSParameterGeneration();
+			pdf2par.htsMaximumLikelihoodParameterGeneration(um, htsData);
+			sequential.add(pdf2par);
+		}
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			List<HTSParameterGeneration> batch = HTSParameterGeneration.htsMaximumLikelihoodParameterGeneration(ums, htsData,
+					false, pool);
+			assertEquals(ums.size(), batch.size());
+			for (int i = 0; i < ums.size(); i++) {
+				assertSameParameters(sequential.get(i).getMcepPst(), batch.get(i).getMcepPst());
+				assertSameParameters(sequential.get(i).getlf0Pst(), batch.get(i).getlf0Pst());
+				assertSameParameters(sequential.get(i).getStrPst(), batch.get(i).getStrPst());
+				assertSameParameters(sequential.get(i).getMagPst(), batch.get(i).getMagPst());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * A smoke test of single precision synthesis on the small synthetic voice; for the difference on real voices, see
+	 * HTSSinglePrecisionComparison in the benchmarks.
+	 */
+	@Test
+	public void singlePrecisionIsCloseToDoublePrecision() throws Exception {
+		Random random = new Random(1234);
+		double mcdSum = 0;
+		long numFrames = 0;
+		double[] vocoderEnergies = new double[2]; /* signal and noise energy */
+		double[] totalEnergies = new double[2];
+		for (int i = 0; i < 4; i++) {
+			HTSUttModel um = randomUtterance(htsData, random, 20);
+			HTSParameterGeneration reference = generate(um, false);
+			HTSParameterGeneration single = generate(um, true);
+			double[] referenceAudio = vocode(reference, false);
+
+			HTSPStream mcep = reference.getMcepPst();
+			for (int t = 0; t < mcep.getT(); t++) {
+				mcdSum += melCepstralDistortion(mcep, single.getMcepPst(), t);
+			}
+			numFrames += mcep.getT();
+			addEnergies(referenceAudio, vocode(reference, true), vocoderEnergies);
+			addEnergies(referenceAudio, vocode(single, true), totalEnergies);
+		}
+		assertTrue(numFrames > 0);
+		assertTrue(vocoderEnergies[0] > 0);
+		assertEquals(0, mcdSum / numFrames, 0.01);
+		assertTrue(10 * Math.log10(vocoderEnergies[0] / vocoderEnergies[1]) >= 40);
+		assertTrue(10 * Math.log10(totalEnergies[0] / totalEnergies[1]) >= 40);
+	}
+
+	private HTSParameterGeneration generate(HTSUttModel um, boolean singlePrecision) throws Exception {
+		HTSParameterGeneration pdf2par = new HTSParameterGeneration();
+		pdf2par.setSinglePrecision(singlePrecision);
+		pdf2par.htsMaximumLikelihoodParameterGeneration(um, htsData);
+		return pdf2par;
+	}
+
+	private double[] vocode(HTSParameterGeneration pdf2par, boolean singlePrecision) throws Exception {
+		HTSVocoder vocoder = new HTSVocoder();
+		vocoder.setSinglePrecision(singlePrecision);
+		return vocoder.htsMLSAVocoder(pdf2par.getlf0Pst(), pdf2par.getMcepPst(), pdf2par.getStrPst(), pdf2par.getMagPst(),
+				pdf2par.getVoicedArray(), htsData, null);
+	}
+
+	/**
+	 * Mel-cepstral distortion of frame t in dB, over all coefficients but the energy.
+	 */
+	private static double melCepstralDistortion(HTSPStream reference, HTSPStream other, int t) {
+		double sum = 0;
+		for (int k = 1; k < reference.getOrder(); k++) {
+			double d = reference.getPar(t, k) - other.getPar(t, k);
+			sum += d * d;
+		}
+		return 10 / Math.log(10) * Math.sqrt(2 * sum);
+	}
+
+	private static void addEnergies(double[] reference, double[] other, double[] energies) {
+		assertEquals(reference.length, other.length);
+		for (int s = 0; s < reference.length; s++) {
+			double d = reference[s] - other[s];
+			energies[0] += reference[s] * reference[s];
+			energies[1] += d * d;
+		}
+	}
+
+	private static void assertSameParameters(HTSPStream expected, HTSPStream actual) {
+		if (expected == null) {
+			assertNull(actual);
+			return;
+		}
+		assertEquals(expected.getT(), actual.getT());
+		for (int t = 0; t < expected.getT(); t++) {
+			for (int k = 0; k < expected.getOrder(); k++) {
+				assertEquals(expected.getPar(t, k), actual.getPar(t, k), 0);
+			}
+		}
+	}
+
+	/**
+	 * An utterance of phones with random features, modelled as in {@link HTSEngine}.
+	 */
+	static HTSUttModel randomUtterance(HMMData htsData, Random random, int numPhones) throws Exception {
+		FeatureDefinition featureDefinition = htsData.getFeatureDefinition();
+		CartTreeSet cart = htsData.getCartTreeSet();
+		HTSUttModel um = new HTSUttModel();
+		double diffdur = 0;
+		for (int p = 0; p < numPhones; p++) {
+			byte[] bytes = new byte[featureDefinition.getNumberOfByteFeatures()];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = (byte) random.nextInt(featureDefinition.getNumberOfValues(i));
+			}
+			short[] shorts = new short[featureDefinition.getNumberOfShortFeatures()];
+			for (int i = 0; i < shorts.length; i++) {
+				shorts[i] = (short) random.nextInt(featureDefinition.getNumberOfValues(bytes.length + i));
+			}
+			float[] floats = new float[featureDefinition.getNumberOfContinuousFeatures()];
+			FeatureVector fv = featureDefinition.toFeatureVector(0, bytes, shorts, floats);
+			HTSModel m = cart.generateHTSModel(htsData, featureDefinition, fv, diffdur);
+			diffdur = m.getDurError();
+			um.addUttModel(m);
+			um.setTotalFrame(um.getTotalFrame() + m.getTotalDur());
+			um.setNumModel(um.getNumModel() + 1);
+			um.setNumState(um.getNumState() + cart.getNumStates());
+			for (int s = 0; s < cart.getNumStates(); s++) {
+				if (m.getVoiced(s)) {
+					um.setLf0Frame(um.getLf0Frame() + m.getDur(s));
+				}
+			}
+		}
+		return um;
+	}
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.htsengine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+import org.junit.Test;
+
+public class HTSVocoderTest {
+	private static final int ORDER = 25;
+	private static final int FRAMES = 2000;
+	private static final int SEGMENT = 300;
+	private static final int NUM_FILTERS = 5;
+	private static final int FILTER_ORDER = 48;
+	private static final int NUM_HARMONICS = 10;
+
+	private final boolean[] voiced = new boolean[FRAMES];
+	private HTSPStream lf0Pst;
+	private HTSPStream mcepPst;
+	private HTSPStream strPst;
+	private HTSPStream magPst;
+
+	private HMMData createStreams() throws Exception {
+		return createStreams(false, false);
+	}
+
+	/**
+	 * @param mixedExcitation
+	 *            also create strengths and band-pass filters for mixed excitation
+	 * @param fourierMagnitudes
+	 *            also create Fourier magnitudes for the pulses
+	 */
+	private HMMData createStreams(boolean mixedExcitation, boolean fourierMagnitudes) throws Exception {
+		mcepPst = new HTSPStream(HTSPStream.NUM * ORDER, FRAMES, HMMData.FeatureType.MGC, 0);
+		int numVoiced = 0;
+		for (int t = 0; t < FRAMES; t++) {
+			voiced[t] = (t / 90) % 3 != 0;
+			if (voiced[t])
+				numVoiced++;
+			mcepPst.setPar(t, 0, -2.0 + 0.5 * Math.sin(t * 0.05));
+			for (int i = 1; i < ORDER; i++)
+				mcepPst.setPar(t, i, 0.3 * Math.cos(t * 0.01 * i) / i);
+		}
+		lf0Pst = new HTSPStream(HTSPStream.NUM, numVoiced, HMMData.FeatureType.LF0, 0);
+		for (int t = 0; t < numVoiced; t++)
+			lf0Pst.setPar(t, 0, Math.log(120.0 + 20.0 * Math.sin(t * 0.02)));
+
+		HMMData htsData = new HMMData();
+		htsData.setUseMixExc(mixedExcitation);
+		htsData.setUseFourierMag(fourierMagnitudes);
+		htsData.setBeta(0.4);
+		strPst = null;
+		magPst = null;
+		if (mixedExcitation) {
+			strPst = new HTSPStream(HTSPStream.NUM * NUM_FILTERS, FRAMES, HMMData.FeatureType.STR, 0);
+			for (int t = 0; t < FRAMES; t++)
+				for (int i = 0; i < NUM_FILTERS; i++)
+					strPst.setPar(t, i, voiced[t] ? 0.9 - 0.15 * i : 0.1);
+			/* a windowed sinc band-pass for each band, only the taps count here */
+			StringBuilder taps = new StringBuilder("# mixed excitation filters\n");
+			for (int i = 0; i < NUM_FILTERS; i++) {
+				for (int j = 0; j < FILTER_ORDER; j++) {
+					double n = j - (FILTER_ORDER - 1) / 2.0;
+					double window = 0.54 - 0.46 * Math.cos(2 * Math.PI * j / (FILTER_ORDER - 1));
+					taps.append(window * Math.cos(Math.PI * (i + 0.5) * n / NUM_FILTERS) / NUM_FILTERS).append('\n');
+				}
+			}
+			htsData.setNumFilters(NUM_FILTERS);
+			htsData.readMixedExcitationFilters(new ByteArrayInputStream(taps.toString().getBytes("UTF-8")));
+			/* the vocoder only uses the filters when the voice has a strengths model */
+			htsData.setPdfStrStream(new ByteArrayInputStream(new byte[0]));
+		}
+		if (fourierMagnitudes) {
+			magPst = new HTSPStream(HTSPStream.NUM * NUM_HARMONICS, FRAMES, HMMData.FeatureType.MAG, 0);
+			for (int t = 0; t < FRAMES; t++)
+				for (int i = 0; i < NUM_HARMONICS; i++)
+					magPst.setPar(t, i, 1.0 + 0.3 * Math.sin(t * 0.03 + i));
+			htsData.setPdfMagStream(new ByteArrayInputStream(new byte[0]));
+		}
+		return htsData;
+	}
+
+	private static double frameEnergy(double[] audio, int frame, int fperiod) {
+		double energy = 0;
+		for (int s = frame * fperiod; s < (frame + 1) * fperiod; s++)
+			energy += audio[s] * audio[s];
+		return energy;
+	}
+
+	@Test
+	public void segmentsStartAtUnvoicedFrames() throws Exception {
+		createStreams();
+		List<int[]> segments = HTSVocoder.findSegments(voiced, FRAMES, SEGMENT);
+		assertTrue(segments.size() > 2);
+		int expectedStart = 0;
+		for (int[] segment : segments) {
+			assertEquals(expectedStart, segment[0]);
+			if (segment[0] > 0)
+				assertFalse(voiced[segment[0]]);
+			assertTrue(segment[1] - segment[0] >= SEGMENT / 2);
+			expectedStart = segment[1];
+		}
+		assertEquals(FRAMES, expectedStart);
+	}
+
+	@Test
+	public void noSegmentsWhenDisabled() {
+		assertEquals(1, HTSVocoder.findSegments(new boolean[100], 100, 0).size());
+	}
+
+	@Test
+	public void parallelMatchesSequential() throws Exception {
+		HMMData htsData = createStreams();
+		int fperiod = htsData.getFperiod();
+		double[] sequential = new HTSVocoder().htsMLSAVocoder(lf0Pst, mcepPst, null, null, voiced, htsData, null);
+		HTSVocoder vocoder = new HTSVocoder();
+		vocoder.setParallelVocoding(SEGMENT, 40);
+		double[] parallel = vocoder.htsMLSAVocoder(lf0Pst, mcepPst, null, null, voiced, htsData, null);
+		assertEquals(sequential.length, parallel.length);
+
+		/* noise differs between the two, but voiced frames well after any noise must be the same */
+		int lastUnvoiced = -FRAMES;
+		for (int t = 0; t < FRAMES; t++) {
+			if (!voiced[t]) {
+				lastUnvoiced = t;
+			} else if (t - lastUnvoiced >= 10) {
+				for (int s = t * fperiod; s < (t + 1) * fperiod; s++)
+					assertEquals(sequential[s], parallel[s], 1e-9 * (1 + Math.abs(sequential[s])));
+			}
+		}
+		/* thanks to the warm-up, segments start at the right level */
+		for (int[] segment : HTSVocoder.findSegments(voiced, FRAMES, SEGMENT)) {
+			double ratio = frameEnergy(parallel, segment[0], fperiod) / frameEnergy(sequential, segment[0], fperiod);
+			assertEquals(0.0, 10 * Math.log10(ratio), 1.5);
+		}
+	}
+
+	@Test
+	public void singlePrecisionApproximatesDoublePrecision() throws Exception {
+		HMMData htsData = createStreams();
+		double[] reference = new HTSVocoder().htsMLSAVocoder(lf0Pst, mcepPst, null, null, voiced, htsData, null);
+		HTSVocoder vocoder = new HTSVocoder();
+		vocoder.setSinglePrecision(true);
+		double[] single = vocoder.htsMLSAVocoder(lf0Pst, mcepPst, null, null, voiced, htsData, null);
+		assertEquals(reference.length, single.length);
+		double signal = 0;
+		double noise = 0;
+		for (int s = 0; s < reference.length; s++) {
+			signal += reference[s] * reference[s];
+			noise += (reference[s] - single[s]) * (reference[s] - single[s]);
+		}
+		assertTrue(noise > 0);
+		assertTrue("SNR " + 10 * Math.log10(signal / noise), 10 * Math.log10(signal / noise) > 80);
+	}
+
+	@Test
+	public void pulseFromWorkspaceMatchesAllocatedPulse() throws Exception {
+		HMMData htsData = createStreams(false, true);
+		VocoderWorkspace workspace = new VocoderWorkspace(ORDER, ORDER + 1, htsData.getFperiod(), 0);
+		for (double f0 : new double[] { 100.0, 180.5, 600.0 }) {
+			int length = HTSVocoder.genPulseFromFourierMag(magPst, 17, f0, workspace);
+			double[] pulse = HTSVocoder.genPulseFromFourierMag(magPst, 17, f0);
+			assertEquals(pulse.length, length);
+			for (int i = 0; i < length; i++)
+				assertEquals(pulse[i], workspace.magPulse[i], 0.0);
+		}
+	}
+
+	/**
+	 * Apart from the returned audio, the vocoder takes everything it needs (scratch buffers, excitation, hand-over to the reading
+	 * thread) from the voice's {@link VocoderWorkspace}, so once it is warmed up it allocates almost nothing per frame.
+	 */
+	@Test
+	public void allocatesAtMostFourBytesPerFrame() throws Exception {
+		assertAllocatesAtMostFourBytesPerFrame(false, false);
+	}
+
+	@Test
+	public void allocatesAtMostFourBytesPerFrameWithMixedExcitation() throws Exception {
+		assertAllocatesAtMostFourBytesPerFrame(true, false);
+	}
+
+	@Test
+	public void allocatesAtMostFourBytesPerFrameWithFourierMagnitudes() throws Exception {
+		assertAllocatesAtMostFourBytesPerFrame(true, true);
+	}
+
+	private void assertAllocatesAtMostFourBytesPerFrame(boolean mixedExcitation, boolean fourierMagnitudes) throws Exception {
+		ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
+		assumeTrue(mxBean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) mxBean;
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		long threadId = Thread.currentThread().getId();
+
+		HMMData htsData = createStreams(mixedExcitation, fourierMagnitudes);
+		HTSVocoder vocoder = new HTSVocoder();
+		/* warm up the JIT and the workspace pool */
+		for (int i = 0; i < 10; i++) {
+			vocoder.htsMLSAVocoder(lf0Pst, mcepPst, strPst, magPst, voiced, htsData, null);
+		}
+		int utterances = 20;
+		long outputBytes = 16 + 8L * FRAMES * htsData.getFperiod(); /* the returned audio array */
+		long allocated = 0;
+		for (int i = 0; i < utterances; i++) {
+			long before = threads.getThreadAllocatedBytes(threadId);
+			vocoder.htsMLSAVocoder(lf0Pst, mcepPst, strPst, magPst, voiced, htsData, null);
+			allocated += threads.getThreadAllocatedBytes(threadId) - before - outputBytes;
+		}
+		double bytesPerFrame = (double) allocated / (utterances * FRAMES);
+		assertTrue(bytesPerFrame + " bytes per frame", bytesPerFrame <= 4);
+	}
+}
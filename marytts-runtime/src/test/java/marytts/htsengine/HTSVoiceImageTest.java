@@ -0,0 +1,162 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.htsengine;
+
+import static marytts.htsengine.SyntheticHMMVoice.MGC_SIZE;
+import static marytts.htsengine.SyntheticHMMVoice.NUM_STATES;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import marytts.exceptions.MaryConfigurationException;
+import marytts.features.FeatureDefinition;
+import marytts.features.FeatureVector;
+import marytts.htsengine.HMMData.FeatureType;
+import marytts.util.FeatureUtils;
+import marytts.util.data.MaryHeader;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HTSVoiceImageTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SyntheticHMMVoice voice;
+	private String marybase;
+
+	@Before
+	public void setUp() throws IOException {
+		voice = new SyntheticHMMVoice(folder.getRoot());
+		marybase = voice.getMarybase();
+	}
+
+	private void writeConfig(String configFile, String voiceImage) throws IOException {
+		voice.writeConfig(configFile, (voiceImage != null) ? "voice.test.voiceImage = " + voiceImage + "\n" : null);
+	}
+
+	private static void assertSameModels(HMMData expected, HMMData actual) {
+		FeatureDefinition featureDefinition = expected.getFeatureDefinition();
+		CartTreeSet expectedTrees = expected.getCartTreeSet();
+		CartTreeSet actualTrees = actual.getCartTreeSet();
+		assertEquals(expectedTrees.getNumStates(), actualTrees.getNumStates());
+		assertEquals(expectedTrees.getLf0Stream(), actualTrees.getLf0Stream());
+		assertEquals(expectedTrees.getMcepVsize(), actualTrees.getMcepVsize());
+		for (FeatureVector fv : SyntheticHMMVoice.allFeatureVectors()) {
+			HTSModel e = expectedTrees.generateHTSModel(expected, featureDefinition, fv, 0);
+			HTSModel a = actualTrees.generateHTSModel(actual, actual.getFeatureDefinition(), fv, 0);
+			for (int s = 0; s < NUM_STATES; s++) {
+				assertEquals(e.getDur(s), a.getDur(s));
+				assertEquals(e.getVoiced(s), a.getVoiced(s));
+				assertEquals(e.getLf0Mean(s, 0), a.getLf0Mean(s, 0), 0);
+				assertEquals(e.getLf0Variance(s, 0), a.getLf0Variance(s, 0), 0);
+				for (int k = 0; k < MGC_SIZE; k++) {
+					assertEquals(e.getMcepMean(s, k), a.getMcepMean(s, k), 0);
+					assertEquals(e.getMcepVariance(s, k), a.getMcepVariance(s, k), 0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void sharedPdfsAreStoredOnce() throws Exception {
+		voice.writeVoice();
+		writeConfig("text.config", null);
+		HMMData text = voice.load("text.config");
+		PdfTreeSet mgc = text.getCartTreeSet().getTreeSet(FeatureType.MGC);
+		assertEquals(NUM_STATES, mgc.getNumStates());
+		assertEquals(MGC_SIZE, mgc.getVectorSize());
+		assertEquals(3 * NUM_STATES, mgc.getNumLeaves());
+		assertNull(text.getCartTreeSet().getTreeSet(FeatureType.STR));
+	}
+
+	@Test
+	public void modelsReferToThePdfPool() throws Exception {
+		voice.writeVoice();
+		writeConfig("text.config", null);
+		HMMData text = voice.load("text.config");
+		CartTreeSet cart = text.getCartTreeSet();
+		PdfTreeSet mgc = cart.getTreeSet(FeatureType.MGC);
+		PdfTreeSet lf0 = cart.getTreeSet(FeatureType.LF0);
+		assertEquals(MGC_SIZE, mgc.getDimension());
+		for (FeatureVector fv : SyntheticHMMVoice.allFeatureVectors()) {
+			HTSModel m = cart.generateHTSModel(text, text.getFeatureDefinition(), fv, 0);
+			assertSame(mgc, m.getPdfs(FeatureType.MGC));
+			for (int s = 0; s < NUM_STATES; s++) {
+				int leaf = m.getLeaf(FeatureType.MGC, s);
+				assertEquals(mgc.getMean(leaf, 1), m.getMcepMean(s, 1), 0);
+				assertEquals(HTSParameterGeneration.finv(m.getLf0Variance(s, 0)), m.getLf0InverseVariance(s, 0), 0);
+				assertEquals(lf0.getInverseVariance(m.getLeaf(FeatureType.LF0, s), 0), m.getLf0InverseVariance(s, 0), 0);
+			}
+		}
+	}
+
+	@Test
+	public void imageLoadsSameModelsAsTreeFiles() throws Exception {
+		voice.writeVoice();
+		writeConfig("text.config", null);
+		HMMData text = voice.load("text.config");
+		HTSVoiceImage.main(new String[] { "test", marybase, "text.config", marybase + "voice.mry" });
+		assertEquals(MaryHeader.HMM_VOICE_IMAGE, MaryHeader.peekFileType(marybase + "voice.mry"));
+
+		writeConfig("image.config", "jar:voice.mry");
+		// the tree files are not parsed when the image is used
+		voice.writeFile("tree-mgc.inf", "");
+		HMMData image = voice.load("image.config");
+		assertSameModels(text, image);
+	}
+
+	@Test
+	public void fallsBackToTreeFilesWithoutUsableImage() throws Exception {
+		voice.writeVoice();
+		writeConfig("text.config", null);
+		HMMData text = voice.load("text.config");
+
+		writeConfig("missing.config", "jar:missing.mry");
+		assertSameModels(text, voice.load("missing.config"));
+
+		FeatureDefinition other = FeatureUtils.readFeatureDefinition(SyntheticHMMVoice.FEATURES.replace("stressed 0 1",
+				"stressed 0 1 2"));
+		HTSVoiceImage.write(text.getCartTreeSet(), other, marybase + "other.mry");
+		writeConfig("other.config", "jar:other.mry");
+		assertSameModels(text, voice.load("other.config"));
+	}
+
+	@Test(expected = MaryConfigurationException.class)
+	public void refusesOtherVersions() throws Exception {
+		voice.writeVoice();
+		writeConfig("text.config", null);
+		HMMData text = voice.load("text.config");
+		String fileName = marybase + "voice.mry";
+		HTSVoiceImage.write(text.getCartTreeSet(), text.getFeatureDefinition(), fileName);
+		RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+		try {
+			file.seek(12); // after the MaryHeader
+			file.writeInt(HTSVoiceImage.VERSION + 1);
+		} finally {
+			file.close();
+		}
+		HTSVoiceImage.load(fileName, text.getFeatureDefinition());
+	}
+}
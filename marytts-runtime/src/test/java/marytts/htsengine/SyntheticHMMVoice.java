@@ -0,0 +1,186 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.htsengine;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import marytts.features.FeatureVector;
+
+/**
+ * A small HMM voice with dur, lf0 and mgc trees over three byte features, written to a directory for the tests.
+ */
+class SyntheticHMMVoice {
+	static final String FEATURES = "ByteValuedFeatureProcessors\n" + "phone 0 a b c\n" + "next_phone 0 a b c\n"
+			+ "stressed 0 1\n" + "ShortValuedFeatureProcessors\n" + "ContinuousFeatureProcessors\n" + "\n";
+
+	static final int NUM_STATES = 3;
+	static final int MGC_SIZE = 12;
+
+	private final File dir;
+	private final String marybase;
+	private final Random random = new Random(7);
+
+	SyntheticHMMVoice(File dir) {
+		this.dir = dir;
+		this.marybase = dir.getPath() + File.separator;
+	}
+
+	String getMarybase() {
+		return marybase;
+	}
+
+	/**
+	 * The tree for one state: three questions and four leaves, two of them sharing pdf 1.
+	 */
+	private static String stateTree(String stream, int state) {
+		String leaf = "\"" + stream + "_s" + state + "_";
+		return "{*}[" + state + "]\n" + "{\n" + " 0 phone=a -1 -2\n" + "-1 next_phone=b " + leaf + "1\" " + leaf + "2\"\n"
+				+ "-2 stressed=1 " + leaf + "3\" " + leaf + "1\"\n" + "}\n";
+	}
+
+	private void writeTrees(String fileName, String stream, int numTrees) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(new File(dir, fileName)), "UTF-8");
+		try {
+			writer.write("QS \"C-a\" {*-a+*}\n\n");
+			for (int s = 2; s < numTrees + 2; s++) {
+				writer.write(stateTree(stream, s));
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private void writePdfs() throws IOException {
+		DataOutputStream dur = new DataOutputStream(new FileOutputStream(new File(dir, "dur.pdf")));
+		try {
+			dur.writeInt(0);
+			dur.writeInt(NUM_STATES);
+			dur.writeInt(NUM_STATES);
+			dur.writeInt(3);
+			for (int i = 0; i < 3 * NUM_STATES; i++) {
+				dur.writeFloat(1 + 10 * random.nextFloat());
+				dur.writeFloat(random.nextFloat());
+			}
+		} finally {
+			dur.close();
+		}
+		DataOutputStream lf0 = new DataOutputStream(new FileOutputStream(new File(dir, "lf0.pdf")));
+		try {
+			lf0.writeInt(1);
+			lf0.writeInt(1);
+			lf0.writeInt(1);
+			for (int s = 0; s < NUM_STATES; s++) {
+				lf0.writeInt(3);
+			}
+			for (int i = 0; i < 3 * NUM_STATES; i++) {
+				float voiced = random.nextFloat();
+				lf0.writeFloat(5 * random.nextFloat());
+				lf0.writeFloat(random.nextFloat());
+				lf0.writeFloat(voiced);
+				lf0.writeFloat(1 - voiced);
+			}
+		} finally {
+			lf0.close();
+		}
+		DataOutputStream mgc = new DataOutputStream(new FileOutputStream(new File(dir, "mgc.pdf")));
+		try {
+			mgc.writeInt(0);
+			mgc.writeInt(1);
+			mgc.writeInt(MGC_SIZE);
+			for (int s = 0; s < NUM_STATES; s++) {
+				mgc.writeInt(3);
+			}
+			/* small means and positive variances, so that the generated parameters can be vocoded */
+			for (int i = 0; i < 3 * NUM_STATES * MGC_SIZE; i++) {
+				mgc.writeFloat(0.2f * (random.nextFloat() - 0.5f));
+				mgc.writeFloat(0.1f + random.nextFloat());
+			}
+		} finally {
+			mgc.close();
+		}
+	}
+
+	void writeFile(String fileName, String content) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(new File(dir, fileName)), "UTF-8");
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Write the trees, pdfs and feature definition of the voice.
+	 */
+	void writeVoice() throws IOException {
+		writeTrees("tree-dur.inf", "dur", 1);
+		writeTrees("tree-lf0.inf", "lf0", NUM_STATES);
+		writeTrees("tree-mgc.inf", "mgc", NUM_STATES);
+		writePdfs();
+		writeFile("features.txt", FEATURES);
+	}
+
+	/**
+	 * Write a config file for the voice "test".
+	 *
+	 * @param configFile
+	 *            the config file name
+	 * @param extraConfig
+	 *            further properties, one per line, or null
+	 */
+	void writeConfig(String configFile, String extraConfig) throws IOException {
+		String config = "voice.test.Ftd = jar:tree-dur.inf\n" + "voice.test.Ftf = jar:tree-lf0.inf\n"
+				+ "voice.test.Ftm = jar:tree-mgc.inf\n" + "voice.test.Fmd = jar:dur.pdf\n" + "voice.test.Fmf = jar:lf0.pdf\n"
+				+ "voice.test.Fmm = jar:mgc.pdf\n" + "voice.test.FeaFile = jar:features.txt\n" + "voice.test.useGV = false\n";
+		if (extraConfig != null) {
+			config += extraConfig;
+		}
+		writeFile(configFile, config);
+	}
+
+	HMMData load(String configFile) throws Exception {
+		HMMData htsData = new HMMData();
+		htsData.initHMMData("test", marybase, configFile);
+		return htsData;
+	}
+
+	/**
+	 * All feature vectors of the voice's feature definition.
+	 */
+	static List<FeatureVector> allFeatureVectors() {
+		List<FeatureVector> vectors = new ArrayList<FeatureVector>();
+		for (byte phone = 0; phone < 4; phone++) {
+			for (byte next = 0; next < 4; next++) {
+				for (byte stressed = 0; stressed < 2; stressed++) {
+					vectors.add(new FeatureVector(new byte[] { phone, next, stressed }, new short[0], new float[0], 0));
+				}
+			}
+		}
+		return vectors;
+	}
+}
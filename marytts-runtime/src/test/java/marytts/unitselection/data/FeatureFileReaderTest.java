@@ -0,0 +1,121 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.data;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import marytts.features.FeatureDefinition;
+import marytts.features.FeatureVector;
+import marytts.util.data.MaryHeader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FeatureFileReaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final String FEATURES = "ByteValuedFeatureProcessors\n" + "b0 0 a b c\n" + "b1 0 a b c\n"
+			+ "ShortValuedFeatureProcessors\n" + "s0 0 x y z\n" + "ContinuousFeatureProcessors\n" + "c0\n" + "c1\n" + "\n";
+	private static final int NUM_UNITS = 50;
+
+	private File writeFeatureFile() throws Exception {
+		FeatureDefinition featureDefinition = new FeatureDefinition(new BufferedReader(new StringReader(FEATURES)), false);
+		Random random = new Random(3);
+		File file = folder.newFile("features.mry");
+		DataOutputStream dos = new DataOutputStream(new FileOutputStream(file));
+		try {
+			new MaryHeader(MaryHeader.UNITFEATS).writeTo(dos);
+			featureDefinition.writeBinaryTo(dos);
+			dos.writeInt(NUM_UNITS);
+			for (int u = 0; u < NUM_UNITS; u++) {
+				byte[] bytes = { (byte) random.nextInt(3), (byte) random.nextInt(3) };
+				short[] shorts = { (short) random.nextInt(3) };
+				float[] floats = { random.nextFloat(), random.nextInt(5) == 0 ? Float.NaN : 100 * random.nextFloat() };
+				featureDefinition.toFeatureVector(u, bytes, shorts, floats).writeTo(dos);
+			}
+		} finally {
+			dos.close();
+		}
+		return file;
+	}
+
+	private static FeatureFileReader load(File file, boolean mapped) throws Exception {
+		FeatureFileReader ffr = new FeatureFileReader();
+		ffr.mapFeatures = mapped;
+		ffr.load(file.getPath());
+		return ffr;
+	}
+
+	@Test
+	public void mappedFeaturesEqualLoadedFeatures() throws Exception {
+		File file = writeFeatureFile();
+		FeatureFileReader onHeap = load(file, false);
+		FeatureFileReader mapped = load(file, true);
+		assertNull(onHeap.getMappedFeatures());
+		try {
+			mapped.getFeatureVectors();
+			fail("Expected an IllegalStateException");
+		} catch (IllegalStateException e) {
+			// there is no array to return
+		}
+		assertEquals(NUM_UNITS, mapped.getNumberOfUnits());
+		MappedFeatureStore store = mapped.getMappedFeatures();
+		for (int u = 0; u < NUM_UNITS; u++) {
+			FeatureVector expected = onHeap.getFeatureVector(u);
+			FeatureVector actual = mapped.getFeatureVector(u);
+			assertEquals(u, actual.getUnitIndex());
+			assertArrayEquals(expected.getByteValuedDiscreteFeatures(), actual.getByteValuedDiscreteFeatures());
+			assertEquals(expected.getShortFeature(2), actual.getShortFeature(2));
+			assertArrayEquals(expected.getContinuousFeatures(), actual.getContinuousFeatures(), 0);
+			for (int i = 0; i < expected.getLength(); i++) {
+				assertEquals(expected.getFeatureAsInt(i), store.getFeatureAsInt(u, i));
+			}
+			assertEquals(expected.getByteFeature(1), store.getByteFeature(u, 1));
+			assertEquals(expected.getShortFeature(2), store.getShortFeature(u, 2));
+			assertEquals(expected.getShortFeature(2), store.getShort(u, 0));
+			assertEquals(expected.getContinuousFeature(4), store.getContinuousFeature(u, 4), 0);
+			assertEquals(expected.getContinuousFeature(4), store.getFloat(u, 1), 0);
+		}
+		assertEquals(NUM_UNITS, mapped.getCopyOfFeatureVectors().length);
+	}
+
+	@Test
+	public void recordsOverTwoGigabytesAreRejected() throws Exception {
+		FeatureDefinition featureDefinition = new FeatureDefinition(new BufferedReader(new StringReader(FEATURES)), false);
+		// 12 bytes per record, so the records take up more than Integer.MAX_VALUE bytes
+		try {
+			new MappedFeatureStore(featureDefinition, Integer.MAX_VALUE / 10, ByteBuffer.allocate(1000));
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("without mapping"));
+		}
+	}
+}
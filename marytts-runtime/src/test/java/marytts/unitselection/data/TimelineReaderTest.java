@@ -0,0 +1,206 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.data;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicReference;
+
+import marytts.unitselection.data.TimelineReader.IdxField;
+import marytts.util.data.Datagram;
+import marytts.util.data.MaryHeader;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TimelineReaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final int SAMPLE_RATE = 16000;
+	private static final int INDEX_INTERVAL = 1600;
+
+	private File file;
+	private TimelineReader mapped;
+	private TimelineReader piecewise;
+	private long totalDuration;
+
+	@Before
+	public void setUp() throws Exception {
+		file = writeTimeline(new Random(11));
+		mapped = new TimelineReader(file.getPath(), true);
+		piecewise = new TimelineReader(file.getPath(), false);
+	}
+
+	/**
+	 * Write a timeline with datagrams of various sizes, some of them larger than a page of the page cache.
+	 */
+	private File writeTimeline(Random random) throws Exception {
+		List<Datagram> datagrams = new ArrayList<Datagram>();
+		for (int i = 0; i < 3000; i++) {
+			int length = (i % 500 == 7) ? 3 * TimelinePageCache.PAGE_SIZE / 2 : random.nextInt(300);
+			byte[] data = new byte[length];
+			random.nextBytes(data);
+			datagrams.add(new Datagram(random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(200), data));
+		}
+		File file = folder.newFile("timeline.mry");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			new MaryHeader(MaryHeader.TIMELINE).writeTo(raf);
+			new TimelineReader.ProcHeader("test").dump(raf);
+			raf.writeInt(SAMPLE_RATE);
+			raf.writeLong(datagrams.size());
+			long positionsPos = raf.getFilePointer();
+			raf.writeLong(0);
+			raf.writeLong(0);
+			long datagramsPos = raf.getFilePointer();
+			Vector<IdxField> indexFields = new Vector<IdxField>();
+			long time = 0;
+			for (Datagram d : datagrams) {
+				while (indexFields.size() * (long) INDEX_INTERVAL < time + d.getDuration()) {
+					indexFields.add(new IdxField(raf.getFilePointer(), time));
+				}
+				d.write(raf);
+				time += d.getDuration();
+			}
+			totalDuration = time;
+			long indexPos = raf.getFilePointer();
+			new TimelineReader.Index(INDEX_INTERVAL, indexFields).dump(raf);
+			raf.seek(positionsPos);
+			raf.writeLong(datagramsPos);
+			raf.writeLong(indexPos);
+		} finally {
+			raf.close();
+		}
+		return file;
+	}
+
+	private static void assertSameDatagrams(Datagram[] expected, Datagram[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i].getDuration(), actual[i].getDuration());
+			assertArrayEquals(expected[i].getData(), actual[i].getData());
+		}
+	}
+
+	private void assertSameDatagrams(long time, long span) throws Exception {
+		long[] expectedOffset = new long[1];
+		long[] actualOffset = new long[1];
+		Datagram[] expected = mapped.getDatagrams(time, span, SAMPLE_RATE, expectedOffset);
+		Datagram[] actual = piecewise.getDatagrams(time, span, SAMPLE_RATE, actualOffset);
+		assertSameDatagrams(expected, actual);
+		assertEquals(expectedOffset[0], actualOffset[0]);
+	}
+
+	@Test
+	public void piecewiseReadingGivesSameDatagrams() throws Exception {
+		Random random = new Random(3);
+		for (int i = 0; i < 500; i++) {
+			assertSameDatagrams(random.nextInt((int) totalDuration), 1 + random.nextInt(3000));
+		}
+		for (int i = 0; i < 100; i++) {
+			long time = random.nextInt((int) totalDuration);
+			int number = 1 + random.nextInt(5);
+			assertSameDatagrams(mapped.getDatagrams(time, number, SAMPLE_RATE, null),
+					piecewise.getDatagrams(time, number, SAMPLE_RATE, null));
+		}
+	}
+
+	@Test
+	public void consecutiveUnitsGiveSameDatagrams() throws Exception {
+		Random random = new Random(5);
+		// consecutive units, read forwards from the cursor, and backwards from the index:
+		for (long time = 0; time < totalDuration; time += 200) {
+			assertSameDatagrams(time, 200);
+		}
+		for (long time = totalDuration - 200; time >= 0; time -= 1000 + random.nextInt(1000)) {
+			assertSameDatagrams(time, 200);
+		}
+		// at the end of the timeline:
+		assertSameDatagrams(totalDuration - 1, 5000);
+	}
+
+	@Test
+	public void concurrentReadsGiveSameDatagrams() throws Exception {
+		final long[] times = new long[400];
+		final Datagram[][] expected = new Datagram[times.length][];
+		Random random = new Random(7);
+		for (int i = 0; i < times.length; i++) {
+			times[i] = random.nextInt((int) totalDuration);
+			expected[i] = mapped.getDatagrams(times[i], 800, SAMPLE_RATE);
+		}
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int offset = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int n = 0; n < 3 * times.length; n++) {
+							int i = (n * 7 + offset * 101) % times.length;
+							assertSameDatagrams(expected[i], piecewise.getDatagrams(times[i], 800, SAMPLE_RATE));
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+	}
+
+	@Test
+	public void pageCacheStaysWithinBudget() throws Exception {
+		TimelinePageCache cache = new TimelinePageCache(4 * TimelinePageCache.PAGE_SIZE);
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			int fileId = TimelinePageCache.newFileId();
+			long fileSize = raf.length();
+			for (int round = 0; round < 2; round++) {
+				for (long start = 0; start < fileSize; start += TimelinePageCache.PAGE_SIZE) {
+					int length = (int) Math.min(TimelinePageCache.PAGE_SIZE, fileSize - start);
+					assertEquals(length, cache.getPage(fileId, raf.getChannel(), start, length).remaining());
+					assertTrue(cache.getSize() <= cache.getBudget());
+				}
+			}
+			cache.getPage(fileId, raf.getChannel(), 0, TimelinePageCache.PAGE_SIZE);
+			cache.getPage(fileId, raf.getChannel(), 0, TimelinePageCache.PAGE_SIZE);
+			assertTrue(cache.getHits() > 0);
+		} finally {
+			raf.close();
+		}
+	}
+}
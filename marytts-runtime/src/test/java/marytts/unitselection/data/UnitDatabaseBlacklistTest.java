@@ -0,0 +1,138 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.data;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Random;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import marytts.unitselection.select.DiphoneTarget;
+import marytts.unitselection.select.HalfPhoneTarget;
+import marytts.unitselection.select.Target;
+import marytts.util.data.Datagram;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class UnitDatabaseBlacklistTest {
+
+	/**
+	 * A basename timeline of consecutive files, without a file behind it.
+	 */
+	private static class BasenameTimeline extends TimelineReader {
+		private final long[] fileStarts;
+
+		BasenameTimeline(long[] fileStarts) {
+			this.fileStarts = fileStarts;
+			this.sampleRate = 16000;
+		}
+
+		private int fileAt(long time) throws IOException {
+			for (int f = 0; f < fileStarts.length - 1; f++) {
+				if (time >= fileStarts[f] && time < fileStarts[f + 1]) {
+					return f;
+				}
+			}
+			throw new IOException("No file at time " + time);
+		}
+
+		private Datagram datagram(int f) throws IOException {
+			return new Datagram(fileStarts[f + 1] - fileStarts[f], ("file" + f).getBytes("UTF-8"));
+		}
+
+		@Override
+		public Datagram getDatagram(long targetTimeInSamples) throws IOException {
+			return datagram(fileAt(targetTimeInSamples));
+		}
+
+		@Override
+		public Datagram[] getDatagrams(long targetTimeInSamples, int number, int reqSampleRate, long[] returnOffset)
+				throws IOException {
+			int f = fileAt(targetTimeInSamples);
+			returnOffset[0] = targetTimeInSamples - fileStarts[f];
+			return new Datagram[] { datagram(f) };
+		}
+	}
+
+	private static class Units extends UnitFileReader {
+		Units(Unit[] units) {
+			this.units = units;
+		}
+
+		@Override
+		public int getNumberOfUnits() {
+			return units.length;
+		}
+	}
+
+	@Test
+	public void sameUnitsAsFilenameMatching() throws Exception {
+		Random random = new Random(17);
+		long[] fileStarts = new long[25];
+		for (int f = 1; f < fileStarts.length; f++) {
+			fileStarts[f] = fileStarts[f - 1] + 1000 + random.nextInt(5000);
+		}
+		// units in time order, with a few at the end that are not in any file
+		Unit[] units = new Unit[1000];
+		long time = 0;
+		for (int i = 0; i < units.length; i++) {
+			int duration = random.nextInt(200);
+			units[i] = new Unit(time, duration, i);
+			time += duration;
+		}
+		assertTrue(time > fileStarts[fileStarts.length - 1]);
+
+		UnitDatabase database = new UnitDatabase();
+		database.load(null, null, new Units(units), null, null, new BasenameTimeline(fileStarts), 0);
+		for (String blacklist : new String[] { "", "file3", "file1 file20", "file1", "unknown origin", "none" }) {
+			BitSet blacklistedBasenames = database.getBlacklistedBasenames(blacklist);
+			for (Unit unit : units) {
+				assertEquals(blacklist + ", unit " + unit.index, blacklist.contains(database.getFilename(unit)),
+						database.isBlacklisted(unit.index, blacklistedBasenames));
+			}
+		}
+	}
+
+	@Test
+	public void targetsKeepTheirBlacklist() throws Exception {
+		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+		Element p = doc.createElement("prosody");
+		doc.appendChild(p);
+		p.setAttribute("blacklist", "file1 file20");
+		Element ph = doc.createElement("ph");
+		p.appendChild(ph);
+		Target target = new Target("a", ph);
+		HalfPhoneTarget left = new HalfPhoneTarget("_R", null, false);
+		HalfPhoneTarget right = new HalfPhoneTarget("a_L", ph, true);
+		DiphoneTarget diphone = new DiphoneTarget(left, right);
+		assertEquals("file1 file20", target.getBlacklist());
+		assertEquals("file1 file20", diphone.getBlacklist());
+		// once looked up, the blacklist no longer depends on the document
+		p.removeAttribute("blacklist");
+		assertEquals("file1 file20", target.getBlacklist());
+		assertEquals("file1 file20", diphone.getBlacklist());
+		assertEquals("", new Target("_", null).getBlacklist());
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.select;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import marytts.unitselection.data.Unit;
+import marytts.util.data.MaryHeader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompactJoinCostReaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final int NUM_UNITS = 60;
+
+	/**
+	 * Write a file in the format of PrecompiledJoinCostReader, with left units in random order, some of them twice, and some
+	 * repeated pairs.
+	 */
+	private File writePrecompiledFile(Random random) throws Exception {
+		File file = folder.newFile("precompiled.mry");
+		DataOutputStream dos = new DataOutputStream(new FileOutputStream(file));
+		try {
+			new MaryHeader(MaryHeader.PRECOMPUTED_JOINCOSTS).writeTo(dos);
+			int numberOfLeftUnits = 50;
+			dos.writeInt(numberOfLeftUnits);
+			for (int i = 0; i < numberOfLeftUnits; i++) {
+				dos.writeInt(random.nextInt(NUM_UNITS - 5));
+				int numberOfRightUnits = random.nextInt(12);
+				dos.writeInt(numberOfRightUnits);
+				for (int j = 0; j < numberOfRightUnits; j++) {
+					dos.writeInt(random.nextInt(NUM_UNITS));
+					dos.writeFloat(random.nextFloat() * 10);
+				}
+			}
+		} finally {
+			dos.close();
+		}
+		return file;
+	}
+
+	@Test
+	public void sameCostsAsPrecompiledJoinCostReader() throws Exception {
+		Random random = new Random(3);
+		File precompiled = writePrecompiledFile(random);
+		File compact = new File(folder.getRoot(), "compact.mry");
+		CompactJoinCostReader.convert(precompiled.getPath(), compact.getPath());
+		assertEquals(MaryHeader.PRECOMPUTED_JOINCOSTS_CSR, MaryHeader.peekFileType(compact.getPath()));
+
+		PrecompiledJoinCostReader expected = new PrecompiledJoinCostReader(precompiled.getPath());
+		CompactJoinCostReader actual = new CompactJoinCostReader(compact.getPath());
+		Unit[] units = new Unit[NUM_UNITS];
+		for (int i = 0; i < NUM_UNITS; i++) {
+			units[i] = new Unit(i * 100L, 100, i);
+		}
+		int found = 0;
+		for (Unit left : units) {
+			for (Unit right : units) {
+				double cost = expected.cost(null, left, null, right);
+				assertEquals(cost, actual.cost(null, left, null, right), 0);
+				if (cost != Double.POSITIVE_INFINITY) {
+					found++;
+				}
+			}
+		}
+		assertTrue(found > 100);
+		assertEquals(Double.POSITIVE_INFINITY, actual.cost(-1, 0), 0);
+		assertEquals(Double.POSITIVE_INFINITY, actual.cost(NUM_UNITS + 10, 0), 0);
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.select;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import marytts.features.FeatureDefinition;
+import marytts.features.FeatureVector;
+import marytts.unitselection.data.MappedFeatureStore;
+import marytts.unitselection.data.Unit;
+import marytts.unitselection.weightingfunctions.WeightFunc;
+import marytts.unitselection.weightingfunctions.WeightFunctionManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FFRTargetCostFunctionTest {
+
+	private static final String WEIGHTED_FEATURES = "ByteValuedFeatureProcessors\n" + "1 | b0 0 a b c\n" + "0 | b1 0 a b c\n"
+			+ "3 | b2 0 a b c\n" + "ShortValuedFeatureProcessors\n" + "0.5 | s0 0 x y\n" + "2 | s1 0 x y\n"
+			+ "ContinuousFeatureProcessors\n" + "1 linear | c0\n" + "0 linear | c1\n" + "0.7 linear | c2\n" + "\n";
+
+	private FFRTargetCostFunction tcf;
+	private Unit[] units;
+	private Random random;
+
+	@Before
+	public void setUp() throws IOException {
+		random = new Random(7);
+		FeatureDefinition featureDefinition = new FeatureDefinition(new BufferedReader(new StringReader(WEIGHTED_FEATURES)),
+				true);
+		tcf = new FFRTargetCostFunction();
+		tcf.featureDefinition = featureDefinition;
+		tcf.featureVectors = new FeatureVector[5000];
+		units = new Unit[tcf.featureVectors.length];
+		for (int i = 0; i < units.length; i++) {
+			tcf.featureVectors[i] = randomFeatureVector(featureDefinition, i);
+			units[i] = new Unit(i * 100L, 100, i);
+		}
+		WeightFunc linear = new WeightFunctionManager().getWeightFunction("linear");
+		tcf.weightFunction = new WeightFunc[] { linear, linear, linear };
+		tcf.rememberWhichWeightsAreNonZero();
+	}
+
+	private FeatureVector randomFeatureVector(FeatureDefinition featureDefinition, int index) {
+		byte[] bytes = new byte[featureDefinition.getNumberOfByteFeatures()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) random.nextInt(3);
+		}
+		short[] shorts = new short[featureDefinition.getNumberOfShortFeatures()];
+		for (int i = 0; i < shorts.length; i++) {
+			shorts[i] = (short) random.nextInt(2);
+		}
+		float[] floats = new float[featureDefinition.getNumberOfContinuousFeatures()];
+		for (int i = 0; i < floats.length; i++) {
+			floats[i] = (random.nextInt(10) == 0) ? Float.NaN : random.nextFloat();
+		}
+		return featureDefinition.toFeatureVector(index, bytes, shorts, floats);
+	}
+
+	private void assertSameAsSingleCosts(int numUnits) {
+		Target target = new Target("t", null);
+		target.setFeatureVector(randomFeatureVector(tcf.featureDefinition, 0));
+		int[] unitIndices = new int[numUnits + 3];
+		for (int i = 0; i < unitIndices.length; i++) {
+			unitIndices[i] = random.nextInt(units.length);
+		}
+		double[] costs = new double[unitIndices.length];
+		tcf.cost(target, units, unitIndices, numUnits, costs);
+		for (int i = 0; i < numUnits; i++) {
+			assertEquals(tcf.cost(target, units[unitIndices[i]]), costs[i], 0);
+		}
+		for (int i = numUnits; i < costs.length; i++) {
+			assertEquals(0, costs[i], 0);
+		}
+	}
+
+	@Test
+	public void batchCostsEqualSingleCosts() {
+		for (int n : new int[] { 0, 1, 17, 2000 }) {
+			assertSameAsSingleCosts(n);
+		}
+	}
+
+	@Test
+	public void mappedCostsEqualLoadedCosts() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bytes);
+		for (FeatureVector fv : tcf.featureVectors) {
+			fv.writeTo(dos);
+		}
+		dos.close();
+		FFRTargetCostFunction mapped = new FFRTargetCostFunction();
+		mapped.featureDefinition = tcf.featureDefinition;
+		mapped.mappedFeatures = new MappedFeatureStore(tcf.featureDefinition, units.length, ByteBuffer.wrap(bytes.toByteArray()));
+		mapped.weightFunction = tcf.weightFunction;
+		mapped.rememberWhichWeightsAreNonZero();
+
+		Target target = new Target("t", null);
+		target.setFeatureVector(randomFeatureVector(tcf.featureDefinition, 0));
+		int[] unitIndices = new int[1000];
+		for (int i = 0; i < unitIndices.length; i++) {
+			unitIndices[i] = random.nextInt(units.length);
+		}
+		double[] expected = new double[unitIndices.length];
+		double[] actual = new double[unitIndices.length];
+		tcf.cost(target, units, unitIndices, unitIndices.length, expected);
+		mapped.cost(target, units, unitIndices, unitIndices.length, actual);
+		assertArrayEquals(expected, actual, 0);
+		for (int i = 0; i < 100; i++) {
+			Unit unit = units[unitIndices[i]];
+			assertEquals(tcf.cost(target, unit), mapped.cost(target, unit), 0);
+			for (String feature : new String[] { "b2", "s1", "c2" }) {
+				assertEquals(tcf.featureCost(target, unit, feature), mapped.featureCost(target, unit, feature), 0);
+				assertEquals(tcf.getFeature(unit, feature), mapped.getFeature(unit, feature));
+			}
+		}
+	}
+
+	@Test
+	public void parallelCostsEqualSingleCosts() {
+		tcf.parallelThreshold = 64;
+		for (int n : new int[] { 63, 64, 65, 1000, 4999 }) {
+			assertSameAsSingleCosts(n);
+		}
+	}
+
+	@Test
+	public void parallelCostsWithThresholdOfOne() {
+		tcf.parallelThreshold = 1;
+		for (int n : new int[] { 1, 2, 3, 1000 }) {
+			assertSameAsSingleCosts(n);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.select;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import marytts.unitselection.data.DiphoneUnit;
+import marytts.unitselection.data.Unit;
+
+import org.junit.Test;
+
+public class JoinCostCacheTest {
+
+	/**
+	 * A join cost depending on the units only, counting how often it is computed.
+	 */
+	private static class CountingJoinCost implements JoinCostFunction {
+		int computed;
+
+		public double cost(Target t1, Unit u1, Target t2, Unit u2) {
+			computed++;
+			if (u1 instanceof DiphoneUnit) {
+				u1 = ((DiphoneUnit) u1).right;
+			}
+			if (u2 instanceof DiphoneUnit) {
+				u2 = ((DiphoneUnit) u2).left;
+			}
+			return Math.sin(u1.index * 31 + u2.index) + 1;
+		}
+
+		public boolean dependsOnUnitsOnly() {
+			return true;
+		}
+
+		public void init(String configPrefix) {
+		}
+	}
+
+	@Test
+	public void sameCostsAsUncached() {
+		Unit[] units = new Unit[200];
+		for (int i = 0; i < units.length; i++) {
+			units[i] = new Unit(i * 100L, 100, i);
+		}
+		CountingJoinCost joinCost = new CountingJoinCost();
+		JoinCostCache cache = new JoinCostCache(joinCost, 1000);
+		assertEquals(1024, cache.getSize());
+		Random random = new Random(11);
+		for (int n = 0; n < 20000; n++) {
+			int i1 = random.nextInt(12);
+			int i2 = random.nextInt(12);
+			Unit u1 = random.nextBoolean() ? units[i1] : new DiphoneUnit(units[i1], units[i1 + 1]);
+			Unit u2 = random.nextBoolean() ? units[i2] : new DiphoneUnit(units[i2], units[i2 + 1]);
+			assertEquals(new CountingJoinCost().cost(null, u1, null, u2), cache.cost(null, u1, null, u2), 0);
+		}
+		assertEquals(20000, cache.getHits() + cache.getMisses());
+		assertEquals(cache.getMisses(), joinCost.computed);
+		assertTrue(cache.getHitRate() > 0.5);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void refusesTargetDependentCosts() {
+		new JoinCostCache(new JoinCostFunction() {
+			public double cost(Target t1, Unit u1, Target t2, Unit u2) {
+				return t1.getName().equals(t2.getName()) ? 0 : 1;
+			}
+
+			public void init(String configPrefix) {
+			}
+		}, 100);
+	}
+}
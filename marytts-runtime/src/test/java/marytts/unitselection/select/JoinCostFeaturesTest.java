@@ -0,0 +1,95 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.select;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import marytts.unitselection.data.Unit;
+import marytts.util.data.MaryHeader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JoinCostFeaturesTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final float[] WEIGHTS = { 0.3f, 0.5f, 0.2f };
+	private static final String[] WEIGHT_FUNCTIONS = { "linear", "", "step 20%" };
+	private static final int NUM_UNITS = 40;
+
+	private File writeJoinCostFile() throws Exception {
+		Random random = new Random(5);
+		File file = folder.newFile("joinCostFeatures.mry");
+		DataOutputStream dos = new DataOutputStream(new FileOutputStream(file));
+		try {
+			new MaryHeader(MaryHeader.JOINFEATS).writeTo(dos);
+			dos.writeInt(WEIGHTS.length);
+			for (int i = 0; i < WEIGHTS.length; i++) {
+				dos.writeFloat(WEIGHTS[i]);
+				dos.writeUTF(WEIGHT_FUNCTIONS[i]);
+			}
+			dos.writeInt(NUM_UNITS);
+			for (int u = 0; u < NUM_UNITS; u++) {
+				for (int i = 0; i < 2 * WEIGHTS.length; i++) {
+					dos.writeFloat(random.nextInt(15) == 0 ? Float.NaN : 1 + random.nextFloat());
+				}
+			}
+		} finally {
+			dos.close();
+		}
+		return file;
+	}
+
+	private static JoinCostFeatures load(File file, boolean mapped) throws Exception {
+		JoinCostFeatures jcf = new JoinCostFeatures();
+		jcf.mapFeatures = mapped;
+		jcf.load(file.getPath(), null, null, 0.5f);
+		return jcf;
+	}
+
+	@Test
+	public void mappedFeaturesGiveSameCosts() throws Exception {
+		File file = writeJoinCostFile();
+		JoinCostFeatures onHeap = load(file, false);
+		JoinCostFeatures mapped = load(file, true);
+		assertEquals(NUM_UNITS, mapped.getNumberOfUnits());
+		assertEquals(onHeap.getNumberOfUnits(), mapped.getNumberOfUnits());
+		Unit[] units = new Unit[NUM_UNITS];
+		for (int u = 0; u < NUM_UNITS; u++) {
+			units[u] = new Unit(u * 100L, 100, u);
+			assertArrayEquals(onHeap.getLeftJCF(u), mapped.getLeftJCF(u), 0);
+			assertArrayEquals(onHeap.getRightJCF(u), mapped.getRightJCF(u), 0);
+		}
+		for (int u1 = 0; u1 < NUM_UNITS; u1++) {
+			for (int u2 = 0; u2 < NUM_UNITS; u2++) {
+				assertEquals(onHeap.cost(u1, u2), mapped.cost(u1, u2), 0);
+				assertEquals(onHeap.cost(null, units[u1], null, units[u2]), mapped.cost(null, units[u1], null, units[u2]), 0);
+			}
+		}
+	}
+}
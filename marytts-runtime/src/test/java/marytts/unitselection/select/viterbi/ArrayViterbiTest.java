@@ -0,0 +1,199 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.select.viterbi;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import marytts.unitselection.select.SelectedUnit;
+import marytts.unitselection.select.Target;
+
+import org.junit.Test;
+
+public class ArrayViterbiTest {
+
+	private static void assertSameSelection(SyntheticUnitDatabase database, int numTargets, int beamSize) throws Exception {
+		List<Target> targets = database.createTargets(numTargets);
+		Viterbi objects = new Viterbi(targets, database, 0.33f, beamSize);
+		objects.apply();
+		List<SelectedUnit> expected = objects.getSelectedUnits();
+
+		// twice, so that the second search reuses the lattice of the first
+		for (int i = 0; i < 2; i++) {
+			ArrayViterbi arrays = new ArrayViterbi(targets, database, 0.33f, beamSize);
+			arrays.apply();
+			List<SelectedUnit> actual = arrays.getSelectedUnits();
+			assertEquals(expected.size(), actual.size());
+			for (int k = 0; k < expected.size(); k++) {
+				assertSame(expected.get(k).getUnit(), actual.get(k).getUnit());
+				assertSame(expected.get(k).getTarget(), actual.get(k).getTarget());
+			}
+			assertEquals(objects.nJoinCosts, arrays.nJoinCosts);
+			assertEquals(objects.cumulJoinCosts, arrays.cumulJoinCosts, 0);
+			assertEquals(objects.cumulTargetCosts, arrays.cumulTargetCosts, 0);
+		}
+	}
+
+	@Test
+	public void sameUnitsWithBeam() throws Exception {
+		assertSameSelection(new SyntheticUnitDatabase(5000, 200), 40, 20);
+	}
+
+	@Test
+	public void sameUnitsWithNarrowBeam() throws Exception {
+		assertSameSelection(new SyntheticUnitDatabase(300, 50), 30, 3);
+	}
+
+	@Test
+	public void sameUnitsWithoutBeam() throws Exception {
+		assertSameSelection(new SyntheticUnitDatabase(2000, 60), 25, -1);
+	}
+
+	@Test
+	public void singleTarget() throws Exception {
+		assertSameSelection(new SyntheticUnitDatabase(100, 10), 1, 5);
+	}
+
+	/**
+	 * Collects the units handed over by a Viterbi search, and the number of units in each call.
+	 */
+	private static class DecisionCollector implements DecisionListener {
+		final List<SelectedUnit> units = new ArrayList<SelectedUnit>();
+		final List<Integer> sizes = new ArrayList<Integer>();
+
+		public void unitsDecided(List<SelectedUnit> decided) {
+			units.addAll(decided);
+			sizes.add(decided.size());
+		}
+	}
+
+	private static void assertSameUnits(List<SelectedUnit> expected, List<SelectedUnit> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int k = 0; k < expected.size(); k++) {
+			assertSame(expected.get(k).getUnit(), actual.get(k).getUnit());
+			assertSame(expected.get(k).getTarget(), actual.get(k).getTarget());
+		}
+	}
+
+	private static void assertSameDecisions(SyntheticUnitDatabase database, int numTargets, int beamSize) throws Exception {
+		List<Target> targets = database.createTargets(numTargets);
+		ArrayViterbi complete = new ArrayViterbi(targets, database, 0.33f, beamSize);
+		complete.apply();
+
+		ArrayViterbi incremental = new ArrayViterbi(targets, database, 0.33f, beamSize);
+		DecisionCollector collector = new DecisionCollector();
+		incremental.setDecisionListener(collector, 0);
+		incremental.apply();
+		assertSameUnits(complete.getSelectedUnits(), collector.units);
+		assertSameUnits(complete.getSelectedUnits(), incremental.getSelectedUnits());
+		if (numTargets > 1) {
+			assertTrue("units should be decided before the search ends", collector.sizes.size() > 1);
+		}
+	}
+
+	@Test
+	public void decisionsWithBeam() throws Exception {
+		assertSameDecisions(new SyntheticUnitDatabase(5000, 200), 40, 20);
+	}
+
+	@Test
+	public void decisionsWithNarrowBeam() throws Exception {
+		assertSameDecisions(new SyntheticUnitDatabase(300, 50), 30, 3);
+	}
+
+	@Test
+	public void decisionsWithoutBeam() throws Exception {
+		assertSameDecisions(new SyntheticUnitDatabase(2000, 60), 25, -1);
+	}
+
+	@Test
+	public void decisionsForSingleTarget() throws Exception {
+		assertSameDecisions(new SyntheticUnitDatabase(100, 10), 1, 5);
+	}
+
+	@Test
+	public void objectViterbiDecidesAtTheEnd() throws Exception {
+		SyntheticUnitDatabase database = new SyntheticUnitDatabase(300, 50);
+		List<Target> targets = database.createTargets(30);
+		Viterbi objects = new Viterbi(targets, database, 0.33f, 3);
+		DecisionCollector collector = new DecisionCollector();
+		objects.setDecisionListener(collector, 0);
+		objects.apply();
+		assertEquals(1, collector.sizes.size());
+		assertSameUnits(objects.getSelectedUnits(), collector.units);
+	}
+
+	@Test
+	public void maxLagBoundsDecisionDelay() throws Exception {
+		SyntheticUnitDatabase database = new SyntheticUnitDatabase(5000, 200);
+		List<Target> targets = database.createTargets(60);
+		int maxLag = 2;
+		ArrayViterbi viterbi = new ArrayViterbi(targets, database, 0.33f, 50);
+		DecisionCollector collector = new DecisionCollector();
+		viterbi.setDecisionListener(collector, maxLag);
+		viterbi.apply();
+		// the decided units are a path, and the best path from the last point follows them
+		assertSameUnits(viterbi.getSelectedUnits(), collector.units);
+		// after the last point but one, at most maxLag + 1 units are left
+		int last = collector.sizes.get(collector.sizes.size() - 1);
+		assertTrue(last <= maxLag + 1);
+	}
+
+	private static long allocatedPerSearch(com.sun.management.ThreadMXBean threads, SyntheticUnitDatabase database,
+			List<Target> targets, boolean arrays) throws Exception {
+		long threadId = Thread.currentThread().getId();
+		long allocated = 0;
+		for (int i = 0; i < 20; i++) {
+			long before = threads.getThreadAllocatedBytes(threadId);
+			Viterbi viterbi = arrays ? new ArrayViterbi(targets, database, 0.33f, 20) : new Viterbi(targets, database, 0.33f, 20);
+			viterbi.apply();
+			assertNotNull(viterbi.getSelectedUnits());
+			allocated += threads.getThreadAllocatedBytes(threadId) - before;
+		}
+		return allocated / 20;
+	}
+
+	/**
+	 * The array search reuses its lattice from one sentence to the next, so apart from preselection, which is the same for both
+	 * searches, it allocates next to nothing.
+	 */
+	@Test
+	public void arraySearchAllocatesMuchLess() throws Exception {
+		ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
+		assumeTrue(mxBean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) mxBean;
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		SyntheticUnitDatabase database = new SyntheticUnitDatabase(5000, 200);
+		List<Target> targets = database.createTargets(40);
+		// the first round warms up both searches
+		allocatedPerSearch(threads, database, targets, false);
+		allocatedPerSearch(threads, database, targets, true);
+		long objects = allocatedPerSearch(threads, database, targets, false);
+		long arrays = allocatedPerSearch(threads, database, targets, true);
+		assertTrue(arrays + " bytes per search with arrays, " + objects + " with objects", 10 * arrays < objects);
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.select.viterbi;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import marytts.features.FeatureDefinition;
+import marytts.features.FeatureProcessorManager;
+import marytts.features.FeatureVector;
+import marytts.unitselection.data.FeatureFileReader;
+import marytts.unitselection.data.ScoredCandidates;
+import marytts.unitselection.data.Unit;
+import marytts.unitselection.data.UnitDatabase;
+import marytts.unitselection.select.JoinCostFunction;
+import marytts.unitselection.select.Target;
+import marytts.unitselection.select.TargetCostFunction;
+
+/**
+ * A unit database with made-up candidates and costs, so that Viterbi searches can be run without a voice. Costs are
+ * deterministic functions of the target and unit, coarsely quantised so that there are ties; units that are adjacent in the
+ * database join at no cost.
+ */
+class SyntheticUnitDatabase extends UnitDatabase {
+	private final Unit[] units;
+	private final int candidatesPerTarget;
+
+	SyntheticUnitDatabase(int numUnits, int candidatesPerTarget) {
+		this.units = new Unit[numUnits];
+		for (int i = 0; i < numUnits; i++) {
+			units[i] = new Unit(i * 1000L, 1000, i);
+		}
+		this.candidatesPerTarget = candidatesPerTarget;
+		this.numUnits = numUnits;
+		this.targetCostFunction = new SyntheticTargetCostFunction();
+		this.joinCostFunction = new SyntheticJoinCostFunction();
+	}
+
+	List<Target> createTargets(int numTargets) {
+		List<Target> targets = new ArrayList<Target>(numTargets);
+		for (int i = 0; i < numTargets; i++) {
+			targets.add(new Target(String.valueOf(i), null));
+		}
+		return targets;
+	}
+
+	@Override
+	protected void preselectCandidates(Target target, ScoredCandidates candidates) {
+		// the same candidates for the same target, with runs of consecutive units
+		int seed = Integer.parseInt(target.getName());
+		Random random = new Random(seed);
+		for (int i = 0; i < candidatesPerTarget; i++) {
+			int index = (i % 4 == 0) ? random.nextInt(units.length) : (seed * 7 + i) % units.length;
+			candidates.add(index);
+		}
+	}
+
+	@Override
+	protected Unit createCandidateUnit(Target target, int unitIndex) {
+		return units[unitIndex];
+	}
+
+	@Override
+	protected Unit[] getUnits() {
+		return units;
+	}
+
+	private static int mix(int a, int b) {
+		int h = a * 0x9E3779B1 + b * 0x85EBCA77;
+		h ^= h >>> 15;
+		h *= 0x2C1B3C6D;
+		return h ^ (h >>> 13);
+	}
+
+	private static class SyntheticTargetCostFunction implements TargetCostFunction {
+		public double cost(Target target, Unit unit) {
+			return (mix(target.getName().hashCode(), unit.index) & 0xff) / 32.0;
+		}
+
+		public void load(String featureFileName, InputStream weightsStream, FeatureProcessorManager featProc) {
+		}
+
+		public void load(FeatureFileReader featureFileReader, InputStream weightsStream, FeatureProcessorManager featProc) {
+		}
+
+		public void computeTargetFeatures(Target target) {
+		}
+
+		public FeatureDefinition getFeatureDefinition() {
+			return null;
+		}
+
+		public String getFeature(Unit unit, String featureName) {
+			return null;
+		}
+
+		public FeatureVector getFeatureVector(Unit unit) {
+			return null;
+		}
+
+		public FeatureVector[] getFeatureVectors() {
+			return null;
+		}
+	}
+
+	private static class SyntheticJoinCostFunction implements JoinCostFunction {
+		public double cost(Target t1, Unit u1, Target t2, Unit u2) {
+			if (u1.index + 1 == u2.index) {
+				return 0;
+			}
+			return (mix(u1.index, u2.index) & 0x3ff) / 64.0;
+		}
+
+		public void init(String configPrefix) {
+		}
+	}
+}
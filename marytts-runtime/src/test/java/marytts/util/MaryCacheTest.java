@@ -26,7 +26,9 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
 import java.io.File;
-import java.sql.SQLException;
+import java.io.IOException;
+
+import marytts.util.cache.CacheStats;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -101,17 +103,28 @@ public class MaryCacheTest {
 		int numExceptions = 0;
 		try {
 			c.insertText(inputtype, outputtype, locale, voice, inputtext, targetValue);
-		} catch (SQLException e) {
+		} catch (IOException e) {
 			numExceptions++;
 		}
 		try {
 			c.insertAudio(inputtype, locale, voice, inputtext, targetAudio);
-		} catch (SQLException e) {
+		} catch (IOException e) {
 			numExceptions++;
 		}
 		assertEquals(0, numExceptions);
 	}
 
+	@Test
+	public void countsHitsAndMisses() throws Exception {
+		CacheStats stats = c.getStats();
+		long hits = stats.getMemoryHits() + stats.getDiskHits();
+		long misses = stats.getMisses();
+		c.lookupText(inputtype, outputtype, locale, voice, inputtext);
+		c.lookupText(inputtype, outputtype, locale, voice, "not in the cache");
+		assertEquals(hits + 1, stats.getMemoryHits() + stats.getDiskHits());
+		assertEquals(misses + 1, stats.getMisses());
+	}
+
 	@Test
 	public void isPersistent() throws Exception {
 		c.shutdown();
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+public class CacheKeyTest {
+
+	private static Document parse(String xml) throws Exception {
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+	}
+
+	private static CacheKey keyOf(String xml) throws Exception {
+		return new CacheKey.Builder().add(parse(xml)).build();
+	}
+
+	@Test
+	public void keysDependOnFieldBoundaries() {
+		assertEquals(CacheKey.of("a", "b"), CacheKey.of("a", "b"));
+		assertFalse(CacheKey.of("a", "b").equals(CacheKey.of("ab", "")));
+		assertFalse(CacheKey.of("ab", "").equals(CacheKey.of("ab", null)));
+	}
+
+	@Test
+	public void textKeyIsSingleField() {
+		assertEquals(CacheKey.of("some text"), CacheKey.ofText("some text"));
+	}
+
+	@Test
+	public void documentKeyIgnoresSerialization() throws Exception {
+		assertEquals(keyOf("<maryxml xml:lang=\"en\"><p>Hello <b/>world</p></maryxml>"),
+				keyOf("<?xml version=\"1.0\"?>\n<maryxml xml:lang='en'><p>Hello <b></b>world</p><!-- comment --></maryxml>"));
+	}
+
+	@Test
+	public void documentKeyDependsOnContent() throws Exception {
+		CacheKey key = keyOf("<maryxml xml:lang=\"en\"><p>Hello world</p></maryxml>");
+		assertFalse(key.equals(keyOf("<maryxml xml:lang=\"de\"><p>Hello world</p></maryxml>")));
+		assertFalse(key.equals(keyOf("<maryxml xml:lang=\"en\"><p>Hello world!</p></maryxml>")));
+		assertFalse(key.equals(keyOf("<maryxml xml:lang=\"en\"><p>Hello</p><p>world</p></maryxml>")));
+		assertFalse(key.equals(keyOf("<maryxml xml:lang=\"en\"><p><s>Hello world</s></p></maryxml>")));
+	}
+}
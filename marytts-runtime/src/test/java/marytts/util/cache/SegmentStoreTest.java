@@ -0,0 +1,81 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SegmentStoreTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private static final int SEGMENT_BYTES = 1024;
+	private static final long MAX_BYTES = 2500;
+
+	private SegmentStore fill(File file) throws Exception {
+		SegmentStore store = new SegmentStore(file, true, MAX_BYTES, SEGMENT_BYTES);
+		for (int i = 0; i < 100; i++) {
+			store.put(CacheKey.of("key" + i), ("value" + i).getBytes("UTF-8"));
+		}
+		return store;
+	}
+
+	@Test
+	public void rollsOverIntoNewSegments() throws Exception {
+		SegmentStore store = fill(tmp.newFile());
+		assertTrue(store.getNumSegments() > 2);
+		assertEquals(100, store.size());
+		assertArrayEquals("value42".getBytes("UTF-8"), store.get(CacheKey.of("key42")));
+		store.close();
+	}
+
+	@Test
+	public void compactionKeepsReferencedEntries() throws Exception {
+		SegmentStore store = fill(tmp.newFile());
+		assertNotNull(store.get(CacheKey.of("key0")));
+		assertTrue(store.needsCompaction());
+		store.compact();
+		assertTrue(store.getSizeInBytes() <= MAX_BYTES);
+		assertArrayEquals("value0".getBytes("UTF-8"), store.get(CacheKey.of("key0")));
+		assertNull(store.get(CacheKey.of("key1")));
+		assertArrayEquals("value99".getBytes("UTF-8"), store.get(CacheKey.of("key99")));
+		store.close();
+	}
+
+	@Test
+	public void isPersistent() throws Exception {
+		File file = tmp.newFile();
+		SegmentStore store = fill(file);
+		store.close();
+		store = new SegmentStore(file, false, MAX_BYTES, SEGMENT_BYTES);
+		assertEquals(100, store.size());
+		assertArrayEquals("value7".getBytes("UTF-8"), store.get(CacheKey.of("key7")));
+		store.close();
+	}
+}
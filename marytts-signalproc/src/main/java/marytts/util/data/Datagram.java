@@ -239,6 +239,26 @@ public class Datagram {
 		return data;
 	}
 
+	/**
+	 * Decode the data of this datagram as 16 bit big-endian audio samples, normalised to the range [-1, 1].
+	 * 
+	 * @param target
+	 *            the array to write the samples to
+	 * @param pos
+	 *            the position in target of the first sample
+	 * @return the number of samples written, i.e. half the length of the data
+	 */
+	public int getAudioSamples(double[] target, int pos) {
+		byte[] frameAudio = getData();
+		int numSamples = frameAudio.length / 2;
+		for (int i = 0; i < numSamples; i++) {
+			// big endian:
+			int sample = frameAudio[2 * i] << 8 | frameAudio[2 * i + 1] & 0xFF;
+			target[pos + i] = sample / 32768.0; // normalise to range [-1, 1];
+		}
+		return numSamples;
+	}
+
 	/****************/
 	/* MISC METHODS */
 	/****************/
@@ -254,10 +274,12 @@ public class Datagram {
 		Datagram other = (Datagram) obj;
 		if (this.duration != other.duration)
 			return (false);
-		if (this.data.length != other.data.length)
+		byte[] thisData = this.getData();
+		byte[] otherData = other.getData();
+		if (thisData.length != otherData.length)
 			return (false);
-		for (int i = 0; i < this.data.length; i++) {
-			if (this.data[i] != other.data[i])
+		for (int i = 0; i < thisData.length; i++) {
+			if (thisData[i] != otherData[i])
 				return (false);
 		}
 		return (true);
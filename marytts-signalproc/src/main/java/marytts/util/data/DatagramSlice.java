@@ -0,0 +1,129 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.data;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A datagram whose data stay in the byte buffer it was read from, typically a memory-mapped timeline, instead of being copied
+ * into an array of its own. Audio samples are decoded straight from the buffer by {@link #getAudioSamples(double[], int)};
+ * {@link #getData()} still works, but copies the data on first use.
+ * <p>
+ * The buffer must not be modified, and its limit must not be reduced, as long as the datagram is in use. Its position does not
+ * matter.
+ */
+public class DatagramSlice extends Datagram {
+	private final ByteBuffer buffer;
+	private final int offset;
+	private final int length;
+
+	/**
+	 * Create a datagram for the given part of a byte buffer.
+	 * 
+	 * @param duration
+	 *            the datagram duration, in samples. Must be non-negative.
+	 * @param buffer
+	 *            the buffer holding the data
+	 * @param offset
+	 *            the index of the first byte of the data in the buffer
+	 * @param length
+	 *            the number of bytes of data
+	 * @throws IllegalArgumentException
+	 *             if duration is negative, or the data are not within the limit of the buffer
+	 */
+	public DatagramSlice(long duration, ByteBuffer buffer, int offset, int length) {
+		super(duration);
+		if (offset < 0 || length < 0 || offset + length > buffer.limit()) {
+			throw new IllegalArgumentException("Data from " + offset + " to " + (offset + length) + " are not in the buffer");
+		}
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * Read a datagram from the current position of a byte buffer, leaving its data in the buffer.
+	 * 
+	 * @param bb
+	 *            the byte buffer to read the datagram from; its position is moved past the datagram.
+	 * @throws IOException
+	 *             if the datagram has wrong format or if the datagram cannot be fully read
+	 */
+	public DatagramSlice(ByteBuffer bb) throws IOException {
+		super(0);
+		duration = bb.getLong();
+		if (duration < 0) {
+			throw new IOException("Can't create a datagram with a negative duration [" + duration + "].");
+		}
+		length = bb.getInt();
+		if (length < 0) {
+			throw new IOException("Can't create a datagram with a negative data size [" + length + "].");
+		}
+		if (bb.limit() - bb.position() < length) {
+			throw new IOException("Not enough data in byte buffer to read the full datagram: datagram length is " + length
+					+ ", but can read only " + (bb.limit() - bb.position()));
+		}
+		buffer = bb;
+		offset = bb.position();
+		bb.position(offset + length);
+	}
+
+	@Override
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Get a copy of the datagram's data. The copy is made the first time this is called.
+	 * 
+	 * @return the data in this Datagram
+	 */
+	@Override
+	public byte[] getData() {
+		byte[] copy = data;
+		if (copy == null) {
+			copy = new byte[length];
+			for (int i = 0; i < length; i++) {
+				copy[i] = buffer.get(offset + i);
+			}
+			data = copy;
+		}
+		return copy;
+	}
+
+	@Override
+	public void write(DataOutput raf) throws IOException {
+		getData();
+		super.write(raf);
+	}
+
+	@Override
+	public int getAudioSamples(double[] target, int pos) {
+		int numSamples = length / 2;
+		for (int i = 0, byteIndex = offset; i < numSamples; i++, byteIndex += 2) {
+			// big endian, like the buffer:
+			int sample = buffer.get(byteIndex) << 8 | buffer.get(byteIndex + 1) & 0xFF;
+			target[pos + i] = sample / 32768.0; // normalise to range [-1, 1];
+		}
+		return numSamples;
+	}
+}
@@ -20,7 +20,8 @@
 
 package marytts.util.data;
 
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
 
 import marytts.signalproc.process.InlineDataProcessor;
 
@@ -29,10 +30,21 @@ import marytts.signalproc.process.InlineDataProcessor;
  *
  */
 public abstract class ProducingDoubleDataSource extends BufferedDoubleDataSource implements Runnable {
-	private static final Double END_OF_STREAM = Double.NEGATIVE_INFINITY;
+	private static final double END_OF_STREAM = Double.NEGATIVE_INFINITY;
+	private static final int QUEUE_SIZE = 1024;
 
-	protected ArrayBlockingQueue<Double> queue = new ArrayBlockingQueue<Double>(1024);
-	private Thread dataProducingThread = null;
+	/*
+	 * Bounded ring buffer between the producing and the reading thread. It holds primitive doubles so that handing over a
+	 * sample does not allocate; access is guarded by the monitor of the array itself.
+	 */
+	private final double[] queue = new double[QUEUE_SIZE];
+	private int queueStart = 0;
+	private int queueCount = 0;
+	private boolean started = false;
+	// set when nobody will read the data any more; guarded by the monitor of queue
+	private boolean cancelled = false;
+	// why the producer gave up, if it did; guarded by the monitor of queue
+	private Throwable failure = null;
 	private boolean hasSentEndOfStream = false;
 	private boolean hasReceivedEndOfStream = false;
 
@@ -54,11 +66,46 @@ public abstract class ProducingDoubleDataSource extends BufferedDoubleDataSource
 	}
 
 	public void start() {
-		dataProducingThread = new Thread(this);
+		started = true;
+		Thread dataProducingThread = new Thread(this);
 		dataProducingThread.setDaemon(true);
 		dataProducingThread.start();
 	}
 
+	/**
+	 * Produce the data in a thread of the given executor rather than in a new thread.
+	 * 
+	 * @param executor
+	 *            the executor which runs this producer
+	 */
+	public void start(Executor executor) {
+		started = true;
+		executor.execute(this);
+	}
+
+	/**
+	 * Inform this data source that its data will not be read any more. A producer waiting for space in the queue is woken up,
+	 * and this and any later attempt to put data throws a {@link CancellationException}, so that the producer stops; reading
+	 * returns whatever was produced so far.
+	 */
+	public void cancel() {
+		synchronized (queue) {
+			cancelled = true;
+			queue.notifyAll();
+		}
+	}
+
+	/**
+	 * Whether {@link #cancel()} has been called. Producers can check this to stop early.
+	 * 
+	 * @return true if the data will not be read any more
+	 */
+	public boolean isCancelled() {
+		synchronized (queue) {
+			return cancelled;
+		}
+	}
+
 	/**
 	 * Subclasses must implement this method such that it produces data and sends it through {@link #putOneDataPoint(double)}.
 	 * When all data is sent, the subclass must call {@link #putEndOfStream()} exactly once.
@@ -72,17 +119,89 @@ public abstract class ProducingDoubleDataSource extends BufferedDoubleDataSource
 	 *            value
 	 * @throws RuntimeException
 	 *             runtime exception
+	 * @throws CancellationException
+	 *             if the data source has been cancelled
 	 */
 	public void putOneDataPoint(double value) {
+		synchronized (queue) {
+			waitForSpace();
+			queue[(queueStart + queueCount) % QUEUE_SIZE] = value;
+			queueCount++;
+			queue.notifyAll();
+		}
+	}
+
+	/**
+	 * The producing thread puts a block of data into the queue, waiting for the reading thread whenever the queue is full.
+	 * Equivalent to calling {@link #putOneDataPoint(double)} for each value, but wakes up the reader once per block.
+	 *
+	 * @param data
+	 *            data
+	 * @param off
+	 *            offset of the first value in data
+	 * @param len
+	 *            number of values to put
+	 * @throws RuntimeException
+	 *             runtime exception
+	 * @throws CancellationException
+	 *             if the data source has been cancelled
+	 */
+	public void putData(double[] data, int off, int len) {
+		while (len > 0) {
+			synchronized (queue) {
+				waitForSpace();
+				int n = Math.min(len, QUEUE_SIZE - queueCount);
+				for (int i = 0; i < n; i++) {
+					queue[(queueStart + queueCount + i) % QUEUE_SIZE] = data[off + i];
+				}
+				queueCount += n;
+				queue.notifyAll();
+				off += n;
+				len -= n;
+			}
+		}
+	}
+
+	private void waitForSpace() {
 		try {
-			queue.put(value);
+			while (queueCount == QUEUE_SIZE && !cancelled) {
+				queue.wait();
+			}
 		} catch (InterruptedException e) {
 			throw new RuntimeException("Unexpected interruption", e);
 		}
+		if (cancelled) {
+			throw new CancellationException("The data will not be read any more");
+		}
+	}
+
+	/**
+	 * End the stream because the data could not be produced. The reader gets the data produced so far, and then a
+	 * {@link ProductionException} with the given cause instead of the end of the stream.
+	 * 
+	 * @param cause
+	 *            why the data could not be produced
+	 */
+	protected void putEndOfStream(Throwable cause) {
+		synchronized (queue) {
+			failure = cause;
+		}
+		putEndOfStream();
 	}
 
 	protected void putEndOfStream() {
-		putOneDataPoint(END_OF_STREAM);
+		synchronized (queue) {
+			if (cancelled) {
+				// nobody is waiting for the end of the stream
+				return;
+			}
+		}
+		try {
+			putOneDataPoint(END_OF_STREAM);
+		} catch (CancellationException e) {
+			// cancelled in the meantime
+			return;
+		}
 		hasSentEndOfStream = true;
 	}
 
@@ -102,7 +221,10 @@ public abstract class ProducingDoubleDataSource extends BufferedDoubleDataSource
 		if (isAllProductionDataRead()) {
 			return 0;
 		}
-		int inQueue = queue.size();
+		int inQueue;
+		synchronized (queue) {
+			inQueue = queueCount;
+		}
 		if (hasSentEndOfStream && !hasReceivedEndOfStream) {
 			inQueue -= 1;
 		}
@@ -128,6 +250,13 @@ public abstract class ProducingDoubleDataSource extends BufferedDoubleDataSource
 			double data = getOneDataPoint();
 			if (data == END_OF_STREAM) {
 				hasReceivedEndOfStream = true;
+				Throwable cause;
+				synchronized (queue) {
+					cause = failure;
+				}
+				if (cause != null) {
+					throw new ProductionException(cause);
+				}
 				break;
 			}
 			buf[writePos] = data;
@@ -143,13 +272,25 @@ public abstract class ProducingDoubleDataSource extends BufferedDoubleDataSource
 	/**
 	 * The reading thread tries to get one data item from the queue.
 	 * 
-	 * @return queue.take
+	 * @return the next value from the queue
 	 */
 	private double getOneDataPoint() {
-		try {
-			return queue.take();
-		} catch (InterruptedException e) {
-			throw new RuntimeException("Unexpected interruption", e);
+		synchronized (queue) {
+			try {
+				while (queueCount == 0 && !cancelled) {
+					queue.wait();
+				}
+			} catch (InterruptedException e) {
+				throw new RuntimeException("Unexpected interruption", e);
+			}
+			if (queueCount == 0) {
+				return END_OF_STREAM;
+			}
+			double value = queue[queueStart];
+			queueStart = (queueStart + 1) % QUEUE_SIZE;
+			queueCount--;
+			queue.notifyAll();
+			return value;
 		}
 	}
 
@@ -163,10 +304,19 @@ public abstract class ProducingDoubleDataSource extends BufferedDoubleDataSource
 	}
 
 	private boolean isStarted() {
-		return dataProducingThread != null;
+		return started;
 	}
 
 	private boolean isAllProductionDataRead() {
 		return hasReceivedEndOfStream;
 	}
+
+	/**
+	 * Thrown to the reader when the producer has ended the stream with {@link ProducingDoubleDataSource#putEndOfStream(Throwable)}.
+	 */
+	public static class ProductionException extends RuntimeException {
+		public ProductionException(Throwable cause) {
+			super("The data could not be produced", cause);
+		}
+	}
 }
@@ -18,6 +18,7 @@ import javax.sound.sampled.AudioSystem;
  */
 public class AppendableSequenceAudioInputStream extends SequenceAudioInputStream {
 	protected boolean doneAppending = false;
+	protected boolean closed = false;
 
 	/**
 	 * Create a sequence audio input stream to which more AudioInputStreams can be appended after creation. When the currently
@@ -34,7 +35,8 @@ public class AppendableSequenceAudioInputStream extends SequenceAudioInputStream
 	}
 
 	/**
-	 * Append the new audio input stream to the end of the list of audio input streams.
+	 * Append the new audio input stream to the end of the list of audio input streams. If this stream has been closed, the new
+	 * stream is closed right away instead, since nobody will read it.
 	 * 
 	 * @param ais
 	 *            ais
@@ -46,6 +48,14 @@ public class AppendableSequenceAudioInputStream extends SequenceAudioInputStream
 			throw new IllegalArgumentException("Cannot append me to myself");
 		if (doneAppending)
 			throw new IllegalArgumentException("Cannot append after doneAppending() was called!");
+		if (closed) {
+			try {
+				ais.close();
+			} catch (IOException ioe) {
+				// nothing to be done
+			}
+			return;
+		}
 		m_audioInputStreamList.add(ais);
 		// System.err.println("Appending audio");
 		notifyAll();
@@ -61,6 +71,15 @@ public class AppendableSequenceAudioInputStream extends SequenceAudioInputStream
 		notifyAll();
 	}
 
+	/**
+	 * Close all audio input streams appended so far, and any that are appended later.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		closed = true;
+		super.close();
+	}
+
 	public synchronized int read() throws IOException {
 		while (m_audioInputStreamList.size() == 0) {
 			if (doneAppending) // never had any data, no more to come
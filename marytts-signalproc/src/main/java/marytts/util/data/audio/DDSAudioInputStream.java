@@ -27,6 +27,7 @@ import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 
 import marytts.util.data.DoubleDataSource;
+import marytts.util.data.ProducingDoubleDataSource;
 
 /**
  * @author Marc Schr&ouml;der An audio input stream that draws its audio data from a DoubleDataSource.
@@ -95,7 +96,12 @@ public class DDSAudioInputStream extends AudioInputStream {
 			int toRead = nSamples - totalRead;
 			if (toRead > sampleBuf.length)
 				toRead = sampleBuf.length;
-			int nRead = source.getData(sampleBuf, 0, toRead);
+			int nRead;
+			try {
+				nRead = source.getData(sampleBuf, 0, toRead);
+			} catch (ProducingDoubleDataSource.ProductionException e) {
+				throw new IOException("Cannot produce audio", e.getCause());
+			}
 			// System.err.println("DDSAudioInputStream: read " + nRead + " samples from source");
 			if (frameSize == 1) { // bytes per sample
 				for (int i = 0; i < nRead; i++, currentPos++) {
@@ -183,12 +189,16 @@ public class DDSAudioInputStream extends AudioInputStream {
 	}
 
 	/**
-	 * Closes this audio input stream and releases any system resources associated with the stream.
+	 * Closes this audio input stream and releases any system resources associated with the stream. If the data comes from a
+	 * {@link ProducingDoubleDataSource}, its producer is stopped.
 	 * 
 	 * @throws IOException
 	 *             if an input or output error occurs
 	 */
 	public void close() throws IOException {
+		if (source instanceof ProducingDoubleDataSource) {
+			((ProducingDoubleDataSource) source).cancel();
+		}
 	}
 
 	/**
@@ -143,7 +143,9 @@ public class SequenceAudioInputStream extends AudioInputStream {
 	}
 
 	public void close() throws IOException {
-		// TODO: should we close all streams in the list?
+		for (AudioInputStream stream : m_audioInputStreamList) {
+			stream.close();
+		}
 	}
 
 	public void mark(int nReadLimit) {
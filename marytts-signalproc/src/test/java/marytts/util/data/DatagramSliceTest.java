@@ -0,0 +1,97 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.data;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DatagramSliceTest {
+
+	private static Datagram[] randomDatagrams(Random random) {
+		Datagram[] datagrams = new Datagram[20];
+		for (int i = 0; i < datagrams.length; i++) {
+			byte[] data = new byte[2 * random.nextInt(100)];
+			random.nextBytes(data);
+			datagrams[i] = new Datagram(data.length / 2, data);
+		}
+		return datagrams;
+	}
+
+	private static ByteBuffer write(Datagram[] datagrams) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (Datagram d : datagrams) {
+			d.write(out);
+		}
+		out.close();
+		return ByteBuffer.wrap(bytes.toByteArray()).asReadOnlyBuffer();
+	}
+
+	@Test
+	public void slicesHaveSameDataAndSamples() throws Exception {
+		Datagram[] datagrams = randomDatagrams(new Random(1));
+		ByteBuffer bb = write(datagrams);
+		for (Datagram expected : datagrams) {
+			DatagramSlice slice = new DatagramSlice(bb);
+			assertEquals(expected.getDuration(), slice.getDuration());
+			assertEquals(expected.getLength(), slice.getLength());
+			double[] expectedSamples = new double[expected.getLength() / 2 + 1];
+			double[] samples = new double[expectedSamples.length];
+			assertEquals(expected.getAudioSamples(expectedSamples, 1), slice.getAudioSamples(samples, 1));
+			assertArrayEquals(expectedSamples, samples, 0);
+			assertArrayEquals(expected.getData(), slice.getData());
+			assertEquals(expected, slice);
+			assertEquals(slice, expected);
+		}
+		assertFalse(bb.hasRemaining());
+	}
+
+	@Test
+	public void slicesGiveSameAudio() throws Exception {
+		Datagram[] datagrams = randomDatagrams(new Random(2));
+		ByteBuffer bb = write(datagrams);
+		LinkedList<Datagram> slices = new LinkedList<Datagram>();
+		for (int i = 0; i < datagrams.length; i++) {
+			slices.add(new DatagramSlice(bb));
+		}
+		double[] expected = new DatagramDoubleDataSource(datagrams).getAllData();
+		double[] actual = new DatagramDoubleDataSource(slices).getAllData();
+		assertArrayEquals(expected, actual, 0);
+	}
+
+	@Test
+	public void slicesCanBeWritten() throws Exception {
+		Datagram[] datagrams = randomDatagrams(new Random(3));
+		ByteBuffer bb = write(datagrams);
+		Datagram[] slices = new Datagram[datagrams.length];
+		for (int i = 0; i < slices.length; i++) {
+			slices[i] = new DatagramSlice(bb);
+		}
+		bb.rewind();
+		assertEquals(bb, write(slices));
+	}
+}
@@ -1,8 +1,15 @@
 package marytts.util.data;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
@@ -103,6 +110,49 @@ public class ProducingDoubleDataSourceTest {
 		}
 	}
 
+	@Test
+	public void closingTheStreamStopsTheProducer() throws Exception {
+		// many more doubles than fit into the queue
+		TestProducer producer = new TestProducer(100000);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			producer.start(executor);
+			AudioInputStream ais = new DDSAudioInputStream(producer, getTestAudioFormat());
+			byte[] buf = new byte[2000];
+			assertTrue(ais.read(buf) > 0);
+			ais.close();
+			assertTrue(producer.isCancelled());
+			// the producer no longer waits for the queue to be read, and leaves the thread
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+			// what was produced before can still be read, followed by the end of the stream
+			while (ais.read(buf) != -1) {
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void readingFailsWhenTheProducerFails() throws Exception {
+		final Exception failure = new Exception("test failure");
+		ProducingDoubleDataSource producer = new ProducingDoubleDataSource() {
+			public void run() {
+				putData(new double[10], 0, 10);
+				putEndOfStream(failure);
+			}
+		};
+		producer.start();
+		AudioInputStream ais = new DDSAudioInputStream(producer, getTestAudioFormat());
+		try {
+			while (ais.read(new byte[16000]) != -1) {
+			}
+			fail("the failure of the producer should reach the reader");
+		} catch (IOException e) {
+			assertSame(failure, e.getCause());
+		}
+	}
+
 	private static class TestProducer extends ProducingDoubleDataSource {
 		double DUMMY = 0.23;
 
@@ -116,9 +166,13 @@ public class ProducingDoubleDataSourceTest {
 
 		public void run() {
 			long numToSend = getDataLength();
-			while (numToSend > 0) {
-				putOneDataPoint(DUMMY);
-				numToSend--;
+			try {
+				while (numToSend > 0) {
+					putOneDataPoint(DUMMY);
+					numToSend--;
+				}
+			} catch (CancellationException e) {
+				// nobody reads the data any more
 			}
 			putEndOfStream();
 		}